@@ -93,6 +93,7 @@ dependencies {
     schemaAnnotationProcessor(libs.micronaut.inject.java)
     implementation(libs.bouncycastle)
     implementation(libs.jackson.databind)
+    implementation(libs.jackson.dataformat.cbor)
     implementation(libs.argparse4j)
     implementation(libs.dbusjava)
     implementation(libs.slf4j.api)
@@ -0,0 +1,20 @@
+package org.asamk.signal.manager;
+
+/**
+ * Limits for loading the local accounts in multi-account mode.
+ *
+ * @param parallelism   the number of accounts whose manager is created and checked at the same time, the account
+ *                      checks mostly wait for the network
+ * @param ioParallelism the number of accounts whose files and database are opened at the same time
+ */
+public record AccountLoadSettings(int parallelism, int ioParallelism) {
+
+    public static final AccountLoadSettings DEFAULT = new AccountLoadSettings(Math.max(4,
+            Runtime.getRuntime().availableProcessors()), 4);
+
+    public AccountLoadSettings {
+        if (parallelism < 1 || ioParallelism < 1) {
+            throw new IllegalArgumentException("Account load parallelism must be greater than 0");
+        }
+    }
+}
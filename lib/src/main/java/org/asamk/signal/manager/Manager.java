@@ -2,6 +2,7 @@ package org.asamk.signal.manager;
 
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
 
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
 import org.asamk.signal.manager.api.CallInfo;
@@ -21,6 +22,7 @@ import org.asamk.signal.manager.api.Identity;
 import org.asamk.signal.manager.api.IdentityVerificationCode;
 import org.asamk.signal.manager.api.InactiveGroupLinkException;
 import org.asamk.signal.manager.api.IncorrectPinException;
+import org.asamk.signal.manager.api.InvalidCursorException;
 import org.asamk.signal.manager.api.InvalidDeviceLinkException;
 import org.asamk.signal.manager.api.InvalidStickerException;
 import org.asamk.signal.manager.api.InvalidUsernameException;
@@ -30,6 +32,7 @@ import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.NonNormalizedPhoneNumberException;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
+import org.asamk.signal.manager.api.Page;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PendingAdminApprovalException;
 import org.asamk.signal.manager.api.PinLockMissingException;
@@ -41,6 +44,7 @@ import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResult;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.StartupReport;
 import org.asamk.signal.manager.api.StickerPack;
 import org.asamk.signal.manager.api.StickerPackId;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
@@ -68,6 +72,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface Manager extends Closeable {
 
@@ -177,6 +182,16 @@ public interface Manager extends Closeable {
 
     List<Group> getGroups(Collection<GroupId> groupIds);
 
+    /**
+     * Get a page of the groups.
+     *
+     * @param cursor the next cursor of the previous page or null for the first page
+     * @param limit  the maximum number of groups in the page
+     */
+    default Page<Group> getGroups(String cursor, int limit) throws InvalidCursorException {
+        return Page.fromList(getGroups(), cursor, limit);
+    }
+
     SendGroupMessageResults quitGroup(
             GroupId groupId,
             Set<RecipientIdentifier.Single> groupAdmins
@@ -214,12 +229,64 @@ public interface Manager extends Closeable {
             boolean notifySelf
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException;
 
+    /**
+     * Send a message like {@link #sendMessage(Message, Set, boolean)}, but pass the result for each recipient to the
+     * resultListener as soon as it is available, before the remaining recipients have been processed.
+     */
+    default SendMessageResults sendMessage(
+            Message message,
+            Set<RecipientIdentifier> recipients,
+            boolean notifySelf,
+            SendMessageResultListener resultListener
+    ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
+        final var results = sendMessage(message, recipients, notifySelf);
+        results.results()
+                .forEach((recipient, recipientResults) -> recipientResults.forEach(result -> resultListener.handleSendMessageResult(
+                        recipient,
+                        result)));
+        return results;
+    }
+
+    /**
+     * Schedule a message to a single recipient or group with the send scheduler of this account.
+     * Messages to the same recipient are sent in the order they were scheduled, messages to different recipients are
+     * sent in parallel. If the account is rate limited, sending is paused for all recipients until the rate limit has
+     * expired.
+     *
+     * @return a future that completes with the results, or exceptionally if the message couldn't be sent
+     */
+    default CompletableFuture<SendMessageResults> scheduleMessage(Message message, RecipientIdentifier recipient) {
+        try {
+            return CompletableFuture.completedFuture(sendMessage(message, Set.of(recipient), false));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     SendMessageResults sendEditMessage(
             Message message,
             Set<RecipientIdentifier> recipients,
             long editTargetTimestamp
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException;
 
+    /**
+     * Send an edit message like {@link #sendEditMessage(Message, Set, long)}, but pass the result for each recipient
+     * to the resultListener as soon as it is available.
+     */
+    default SendMessageResults sendEditMessage(
+            Message message,
+            Set<RecipientIdentifier> recipients,
+            long editTargetTimestamp,
+            SendMessageResultListener resultListener
+    ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
+        final var results = sendEditMessage(message, recipients, editTargetTimestamp);
+        results.results()
+                .forEach((recipient, recipientResults) -> recipientResults.forEach(result -> resultListener.handleSendMessageResult(
+                        recipient,
+                        result)));
+        return results;
+    }
+
     /**
      * Post a file attachment story to "My Story" or to a group.
      *
@@ -398,12 +465,39 @@ public interface Manager extends Closeable {
             Optional<String> name
     );
 
+    /**
+     * Get a page of the recipients, like {@link #getRecipients(boolean, Optional, Collection, Optional)} without
+     * explicitly given recipients.
+     *
+     * @param cursor the next cursor of the previous page or null for the first page
+     * @param limit  the maximum number of recipients in the page
+     */
+    default Page<Recipient> getRecipients(
+            boolean onlyContacts,
+            Optional<Boolean> blocked,
+            Optional<String> name,
+            String cursor,
+            int limit
+    ) throws InvalidCursorException {
+        return Page.fromList(getRecipients(onlyContacts, blocked, List.of(), name), cursor, limit);
+    }
+
     String getContactOrProfileName(RecipientIdentifier.Single recipient);
 
     Group getGroup(GroupId groupId);
 
     List<Identity> getIdentities();
 
+    /**
+     * Get a page of the identities.
+     *
+     * @param cursor the next cursor of the previous page or null for the first page
+     * @param limit  the maximum number of identities in the page
+     */
+    default Page<Identity> getIdentities(String cursor, int limit) throws InvalidCursorException {
+        return Page.fromList(getIdentities(), cursor, limit);
+    }
+
     List<Identity> getIdentities(RecipientIdentifier.Single recipient);
 
     /**
@@ -476,6 +570,28 @@ public interface Manager extends Closeable {
 
     List<TurnServer> getTurnServerInfo() throws IOException;
 
+    /**
+     * Starts the network checks that have been deferred on startup in the background, see
+     * {@link Settings#deferAccountChecks()}.
+     */
+    void startDeferredAccountChecks();
+
+    /**
+     * @return how long the phases of loading this account took
+     */
+    StartupReport getStartupReport();
+
+    /**
+     * @return the in-memory caches, the database size, the disk usage and the background jobs of this account
+     */
+    AccountStats getAccountStats() throws IOException;
+
+    /**
+     * Drops the least recently used entries of the in-memory caches, until they hold at most the given number of
+     * entries together. The caches fill up again when they are used, so this is only a soft limit.
+     */
+    void trimCaches(int maxEntries);
+
     @Override
     void close();
 
@@ -495,4 +611,12 @@ public interface Manager extends Closeable {
 
         void handleCallEvent(CallInfo callInfo, String reason);
     }
+
+    interface SendMessageResultListener {
+
+        /**
+         * May be called concurrently from multiple threads.
+         */
+        void handleSendMessageResult(RecipientIdentifier recipient, SendMessageResult result);
+    }
 }
@@ -16,6 +16,10 @@ public interface MultiAccountManager extends AutoCloseable {
 
     void addOnManagerRemovedHandler(Consumer<Manager> handler);
 
+    void removeOnManagerAddedHandler(Consumer<Manager> handler);
+
+    void removeOnManagerRemovedHandler(Consumer<Manager> handler);
+
     Manager getManager(String phoneNumber);
 
     URI getNewProvisioningDeviceLinkUri() throws TimeoutException, IOException;
@@ -24,6 +28,35 @@ public interface MultiAccountManager extends AutoCloseable {
 
     RegistrationManager getNewRegistrationManager(String account) throws IOException;
 
+    /**
+     * Keeps the manager loaded until it's released again, e.g. while a request is handled or a client is subscribed
+     * to it. Only accounts that are closed when idle need this.
+     */
+    default void retain(Manager m) {
+    }
+
+    /**
+     * Releases a manager retained with {@link #retain(Manager)}.
+     */
+    default void release(Manager m) {
+    }
+
+    /**
+     * Runs the listener once the multi-account manager has been closed.
+     */
+    default void addClosedListener(Runnable listener) {
+    }
+
+    default void removeClosedListener(Runnable listener) {
+    }
+
+    /**
+     * Starts the network checks of the accounts that have been deferred on startup.
+     */
+    default void startDeferredAccountChecks() {
+        getManagers().forEach(Manager::startDeferredAccountChecks);
+    }
+
     @Override
     void close();
 }
@@ -27,4 +27,9 @@ public interface RegistrationManager extends Closeable {
     void deleteLocalAccountData() throws IOException;
 
     boolean isRegistered();
+
+    /**
+     * @return the ACI of the account once it has been registered, otherwise null
+     */
+    String getSelfACI();
 }
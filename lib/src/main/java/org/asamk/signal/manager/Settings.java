@@ -2,7 +2,11 @@ package org.asamk.signal.manager;
 
 import org.asamk.signal.manager.api.TrustNewIdentity;
 
-public record Settings(TrustNewIdentity trustNewIdentity, boolean disableMessageSendLog) {
+/**
+ * @param deferAccountChecks if true, the network checks of an account on startup are only run after
+ *                           {@link Manager#startDeferredAccountChecks()} has been called
+ */
+public record Settings(TrustNewIdentity trustNewIdentity, boolean disableMessageSendLog, boolean deferAccountChecks) {
 
-    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE, false);
+    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE, false, false);
 }
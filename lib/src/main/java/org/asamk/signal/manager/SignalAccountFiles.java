@@ -1,8 +1,8 @@
 package org.asamk.signal.manager;
 
 import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.AccountShard;
 import org.asamk.signal.manager.api.NotRegisteredException;
-import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
@@ -13,6 +13,7 @@ import org.asamk.signal.manager.internal.PathConfig;
 import org.asamk.signal.manager.internal.ProvisioningManagerImpl;
 import org.asamk.signal.manager.internal.RegistrationManagerImpl;
 import org.asamk.signal.manager.storage.SignalAccount;
+import org.asamk.signal.manager.storage.accounts.AccountsStorage;
 import org.asamk.signal.manager.storage.accounts.AccountsStore;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.signal.core.models.ServiceId.ACI;
@@ -22,9 +23,23 @@ import org.whispersystems.signalservice.api.push.exceptions.DeprecatedVersionExc
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class SignalAccountFiles {
 
@@ -36,12 +51,31 @@ public class SignalAccountFiles {
     private final String userAgent;
     private final Settings settings;
     private final AccountsStore accountsStore;
+    /**
+     * Paths of the accounts of this instance's shard, or null if all local accounts are used.
+     */
+    private final Set<String> shardAccountPaths;
 
     public SignalAccountFiles(
             final File settingsPath,
             final ServiceEnvironment serviceEnvironment,
             final String userAgent,
             final Settings settings
+    ) throws IOException {
+        this(settingsPath, serviceEnvironment, userAgent, settings, null);
+    }
+
+    /**
+     * @param accountShard if not null, only the accounts of the given shard are loaded, see
+     *                     {@link #getAccountShards(int)}. Accounts that are registered or linked with this instance
+     *                     are added to its shard as well.
+     */
+    public SignalAccountFiles(
+            final File settingsPath,
+            final ServiceEnvironment serviceEnvironment,
+            final String userAgent,
+            final Settings settings,
+            final AccountShard accountShard
     ) throws IOException {
         this.pathConfig = PathConfig.createDefault(settingsPath);
         this.serviceEnvironment = serviceEnvironment;
@@ -59,63 +93,180 @@ public class SignalAccountFiles {
                 return null;
             }
         });
+        if (accountShard == null) {
+            this.shardAccountPaths = null;
+        } else {
+            // The shard is determined once, accounts added later by other instances don't move into it
+            this.shardAccountPaths = ConcurrentHashMap.newKeySet();
+            final var accounts = getSortedAccounts();
+            for (var i = accountShard.index(); i < accounts.size(); i += accountShard.count()) {
+                shardAccountPaths.add(accounts.get(i).path());
+            }
+            logger.debug("Using {} of {} local accounts for shard {}",
+                    shardAccountPaths.size(),
+                    accounts.size(),
+                    accountShard);
+        }
     }
 
     public Set<String> getAllLocalAccountNumbers() throws IOException {
+        if (shardAccountPaths != null) {
+            return accountsStore.getAllAccounts()
+                    .stream()
+                    .filter(a -> isInShard(a.path()))
+                    .map(AccountsStorage.Account::number)
+                    .collect(Collectors.toSet());
+        }
         return accountsStore.getAllNumbers();
     }
 
+    /**
+     * Distributes the local accounts evenly to the given number of shards, in the order of their account paths.
+     * An instance created with the {@link AccountShard} of an index loads the accounts assigned to that index.
+     *
+     * @return the shard index of each local account, by number and by ACI
+     */
+    public Map<String, Integer> getAccountShards(final int shardCount) throws IOException {
+        final var accounts = getSortedAccounts();
+        final var shards = new HashMap<String, Integer>();
+        for (var i = 0; i < accounts.size(); i++) {
+            final var account = accounts.get(i);
+            shards.put(account.number(), i % shardCount);
+            if (account.uuid() != null) {
+                shards.put(account.uuid(), i % shardCount);
+            }
+        }
+        return shards;
+    }
+
+    private List<AccountsStorage.Account> getSortedAccounts() throws IOException {
+        return accountsStore.getAllAccounts()
+                .stream()
+                .sorted(Comparator.comparing(AccountsStorage.Account::path))
+                .toList();
+    }
+
+    private boolean isInShard(final String accountPath) {
+        return shardAccountPaths == null || (accountPath != null && shardAccountPaths.contains(accountPath));
+    }
+
+    private void addToShard(final String accountPath) {
+        if (shardAccountPaths != null && accountPath != null) {
+            shardAccountPaths.add(accountPath);
+        }
+    }
+
     public MultiAccountManager initMultiAccountManager() throws IOException {
-        final var managerPairs = accountsStore.getAllAccounts().parallelStream().map(a -> {
+        return initMultiAccountManager(AccountLoadSettings.DEFAULT, true);
+    }
+
+    /**
+     * Loads the local accounts concurrently within the limits of the load settings, each account is added to the
+     * returned manager as soon as it has been loaded.
+     *
+     * @param waitForAccounts if true, returns after all accounts have been loaded and fails if an account couldn't be
+     *                        read. Otherwise returns immediately, requests for an account that is still being loaded
+     *                        wait for it and accounts that fail to load are skipped.
+     */
+    public MultiAccountManager initMultiAccountManager(
+            final AccountLoadSettings loadSettings,
+            final boolean waitForAccounts
+    ) throws IOException {
+        final var accounts = accountsStore.getAllAccounts().stream().filter(a -> isInShard(a.path())).toList();
+        final var multiAccountManager = new MultiAccountManagerImpl(List.of(), this);
+        final var loader = new AccountLoader(loadSettings, accounts.size());
+        final var loadFailure = new AtomicReference<IOException>();
+        final var executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("account-load-", 0).factory());
+        final var loads = new ArrayList<CompletableFuture<Manager>>();
+        for (final var a : accounts) {
+            final var load = CompletableFuture.supplyAsync(() -> loadAccountManager(a, loader, loadFailure), executor);
+            final var identifiers = a.uuid() == null ? List.of(a.number()) : List.of(a.number(), a.uuid());
+            loads.add(multiAccountManager.addLoadingManager(identifiers, load));
+        }
+        executor.shutdown();
+
+        if (waitForAccounts) {
             try {
-                return new Pair<Manager, Throwable>(initManagerByNumber(a.number(), a.path()), null);
-            } catch (NotRegisteredException e) {
-                logger.warn("Ignoring {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
-                return null;
-            } catch (AccountCheckException | IOException e) {
-                logger.error("Failed to load {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
-                return new Pair<Manager, Throwable>(null, e);
+                CompletableFuture.allOf(loads.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                multiAccountManager.close();
+                throw e;
             }
-        }).filter(Objects::nonNull).toList();
+            final var failure = loadFailure.get();
+            if (failure != null) {
+                multiAccountManager.close();
+                throw failure;
+            }
+        }
+        return multiAccountManager;
+    }
 
-        for (final var pair : managerPairs) {
-            if (pair.second() instanceof IOException e) {
-                throw e;
+    private Manager loadAccountManager(
+            final AccountsStorage.Account a,
+            final AccountLoader loader,
+            final AtomicReference<IOException> loadFailure
+    ) {
+        Manager manager = null;
+        try {
+            manager = initManagerByNumber(a.number(), a.path(), loader);
+        } catch (NotRegisteredException e) {
+            logger.warn("Ignoring {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
+        } catch (AccountCheckException | IOException e) {
+            logger.error("Failed to load {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
+            if (e instanceof IOException ioException) {
+                loadFailure.compareAndSet(null, ioException);
             }
+        } finally {
+            loader.finished(manager != null);
         }
+        return manager;
+    }
 
-        final var managers = managerPairs.stream()
-                .filter(p -> p != null && p.first() != null)
-                .map(Pair::first)
-                .toList();
-        return new MultiAccountManagerImpl(managers, this);
+    /**
+     * Creates a multi-account manager that loads the accounts on first use and closes them again after they have been
+     * idle for the given time.
+     *
+     * @param pollInterval interval to activate the inactive accounts to receive their pending messages, or null
+     */
+    public MultiAccountManager initLazyMultiAccountManager(final Duration idleTimeout, final Duration pollInterval) {
+        return new MultiAccountManagerImpl(this, idleTimeout, pollInterval);
     }
 
     public Manager initManagerByNumber(String number) throws IOException, NotRegisteredException, AccountCheckException {
         final var accountPath = accountsStore.getPathByNumber(number);
-        return this.initManagerByNumber(number, accountPath);
+        if (!isInShard(accountPath)) {
+            throw new NotRegisteredException();
+        }
+        return this.initManagerByNumber(number, accountPath, AccountLoader.UNLIMITED);
     }
 
     public Manager initManagerByAci(String aciStr) throws IOException, NotRegisteredException, AccountCheckException {
         final var aci = ACI.parseOrThrow(aciStr);
         final var accountPath = accountsStore.getPathByAci(aci);
-        return this.initManagerByAci(aci, accountPath);
+        if (!isInShard(accountPath)) {
+            throw new NotRegisteredException();
+        }
+        return this.initManagerByAci(aci, accountPath, AccountLoader.UNLIMITED);
     }
 
     private Manager initManagerByNumber(
             String number,
-            String accountPath
+            String accountPath,
+            AccountLoader loader
     ) throws IOException, NotRegisteredException, AccountCheckException {
-        final var account = loadAccount(accountPath);
+        final var account = loadAccount(accountPath, loader);
         if (!number.equals(account.getNumber())) {
             account.close();
             throw new IOException("Number in account file doesn't match expected number: " + account.getNumber());
         }
 
-        return initManagerFromAccount(number, accountPath, account);
+        return initManagerFromAccount(number, accountPath, account, loader);
     }
 
-    private SignalAccount loadAccount(final String accountPath) throws NotRegisteredException, IOException {
+    private SignalAccount loadAccount(
+            final String accountPath,
+            final AccountLoader loader
+    ) throws NotRegisteredException, IOException {
         if (accountPath == null) {
             throw new NotRegisteredException();
         }
@@ -123,26 +274,33 @@ public class SignalAccountFiles {
             throw new NotRegisteredException();
         }
 
-        return SignalAccount.load(pathConfig.dataPath(), accountPath, true, settings);
+        loader.acquireIo();
+        try {
+            return SignalAccount.load(pathConfig.dataPath(), accountPath, true, settings);
+        } finally {
+            loader.releaseIo();
+        }
     }
 
     private Manager initManagerByAci(
             ACI aci,
-            String accountPath
+            String accountPath,
+            AccountLoader loader
     ) throws IOException, NotRegisteredException, AccountCheckException {
-        final var account = loadAccount(accountPath);
+        final var account = loadAccount(accountPath, loader);
         if (!aci.equals(account.getAci())) {
             account.close();
             throw new IOException("ACI in account file doesn't match expected ACI: " + account.getAci());
         }
 
-        return initManagerFromAccount(aci.toString(), accountPath, account);
+        return initManagerFromAccount(aci.toString(), accountPath, account, loader);
     }
 
     private ManagerImpl initManagerFromAccount(
             final String identifier,
             final String accountPath,
-            final SignalAccount account
+            final SignalAccount account,
+            final AccountLoader loader
     ) throws NotRegisteredException, IOException, AccountCheckException {
         if (!account.isRegistered()) {
             account.close();
@@ -153,16 +311,42 @@ public class SignalAccountFiles {
             throw new IOException("Account is registered in another environment: " + account.getServiceEnvironment());
         }
 
-        account.initDatabase();
+        loader.acquireIo();
+        try {
+            account.initDatabase();
+        } finally {
+            loader.releaseIo();
+        }
+
+        loader.acquire();
+        try {
+            return createManager(identifier, accountPath, account);
+        } finally {
+            loader.release();
+        }
+    }
 
+    private ManagerImpl createManager(
+            final String identifier,
+            final String accountPath,
+            final SignalAccount account
+    ) throws IOException, AccountCheckException {
+        final var startupTimeline = account.getStartupTimeline();
+        var begin = startupTimeline.begin();
         final var manager = new ManagerImpl(account,
                 pathConfig,
                 new AccountFileUpdaterImpl(accountsStore, accountPath),
                 serviceEnvironmentConfig,
                 userAgent);
+        startupTimeline.end("manager-creation", begin);
 
+        begin = startupTimeline.begin();
         try {
-            manager.checkAccountState();
+            if (settings.deferAccountChecks()) {
+                manager.checkLocalAccountState();
+            } else {
+                manager.checkAccountState();
+            }
         } catch (DeprecatedVersionException e) {
             manager.close();
             throw new IOException("signal-cli version is too old for the Signal-Server, please update.");
@@ -170,6 +354,7 @@ public class SignalAccountFiles {
             manager.close();
             throw new AccountCheckException("Error while checking account " + identifier + ": " + e.getMessage(), e);
         }
+        startupTimeline.end("account-check", begin);
 
         if (account.getServiceEnvironment() == null) {
             account.setServiceEnvironment(serviceEnvironment);
@@ -184,10 +369,20 @@ public class SignalAccountFiles {
     }
 
     public ProvisioningManager initProvisioningManager(Consumer<Manager> newManagerListener) {
+        final Consumer<Manager> listener = shardAccountPaths == null || newManagerListener == null
+                ? newManagerListener
+                : m -> {
+                    try {
+                        addToShard(accountsStore.getPathByNumber(m.getSelfNumber()));
+                    } catch (IOException e) {
+                        logger.warn("Failed to add linked account to shard: {}", e.getMessage());
+                    }
+                    newManagerListener.accept(m);
+                };
         return new ProvisioningManagerImpl(pathConfig,
                 serviceEnvironmentConfig,
                 userAgent,
-                newManagerListener,
+                listener,
                 accountsStore);
     }
 
@@ -202,6 +397,7 @@ public class SignalAccountFiles {
         final var accountPath = accountsStore.getPathByNumber(number);
         if (accountPath == null || !SignalAccount.accountFileExists(pathConfig.dataPath(), accountPath)) {
             final var newAccountPath = accountPath == null ? accountsStore.addAccount(number, null) : accountPath;
+            addToShard(newAccountPath);
             var aciIdentityKey = KeyUtils.generateIdentityKeyPair();
             var pniIdentityKey = KeyUtils.generateIdentityKeyPair();
 
@@ -224,6 +420,7 @@ public class SignalAccountFiles {
                     new AccountFileUpdaterImpl(accountsStore, newAccountPath));
         }
 
+        addToShard(accountPath);
         var account = SignalAccount.load(pathConfig.dataPath(), accountPath, true, settings);
         if (!number.equals(account.getNumber())) {
             account.close();
@@ -238,4 +435,71 @@ public class SignalAccountFiles {
                 newManagerListener,
                 new AccountFileUpdaterImpl(accountsStore, accountPath));
     }
+
+    /**
+     * Limits how many accounts are in each loading phase at the same time and logs the progress of the loading.
+     */
+    private static final class AccountLoader {
+
+        static final AccountLoader UNLIMITED = new AccountLoader(new AccountLoadSettings(Integer.MAX_VALUE,
+                Integer.MAX_VALUE), 0);
+
+        private static final long PROGRESS_INTERVAL = Duration.ofSeconds(5).toNanos();
+
+        private final Semaphore permits;
+        private final Semaphore ioPermits;
+        private final int total;
+        private final long start = System.nanoTime();
+        private final AtomicLong lastProgress = new AtomicLong(start);
+        private final AtomicInteger finished = new AtomicInteger();
+        private final AtomicInteger loaded = new AtomicInteger();
+
+        AccountLoader(final AccountLoadSettings loadSettings, final int total) {
+            this.permits = new Semaphore(loadSettings.parallelism());
+            this.ioPermits = new Semaphore(loadSettings.ioParallelism());
+            this.total = total;
+        }
+
+        void acquire() throws IOException {
+            acquire(permits);
+        }
+
+        void release() {
+            permits.release();
+        }
+
+        void acquireIo() throws IOException {
+            acquire(ioPermits);
+        }
+
+        void releaseIo() {
+            ioPermits.release();
+        }
+
+        private static void acquire(final Semaphore semaphore) throws IOException {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading account", e);
+            }
+        }
+
+        void finished(final boolean success) {
+            final var loadedCount = success ? loaded.incrementAndGet() : loaded.get();
+            final var finishedCount = finished.incrementAndGet();
+            final var now = System.nanoTime();
+            if (finishedCount == total) {
+                logger.info("Loaded {} of {} accounts in {}ms",
+                        loadedCount,
+                        total,
+                        Duration.ofNanos(now - start).toMillis());
+                return;
+            }
+            final var last = lastProgress.get();
+            if (now - last >= PROGRESS_INTERVAL && lastProgress.compareAndSet(last, now)) {
+                logger.info("Loading accounts: {} of {} done, {} loaded", finishedCount, total, loadedCount);
+            }
+        }
+    }
 }
@@ -0,0 +1,37 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * One of several disjoint parts of the local accounts, each part is loaded by a separate process.
+ *
+ * @param index the index of the part, from 0 to count - 1
+ * @param count the number of parts
+ */
+public record AccountShard(int index, int count) {
+
+    public AccountShard {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid account shard " + index + "/" + count);
+        }
+    }
+
+    /**
+     * @param value the shard in the form INDEX/COUNT
+     */
+    public static AccountShard parse(final String value) {
+        final var separator = value.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid account shard, expected INDEX/COUNT: " + value);
+        }
+        try {
+            return new AccountShard(Integer.parseInt(value.substring(0, separator)),
+                    Integer.parseInt(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid account shard, expected INDEX/COUNT: " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
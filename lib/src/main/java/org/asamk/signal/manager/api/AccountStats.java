@@ -0,0 +1,65 @@
+package org.asamk.signal.manager.api;
+
+import java.util.List;
+
+/**
+ * The resources used by an account.
+ *
+ * @param messageCache    the received messages that are waiting to be decrypted again
+ * @param attachments     the attachments directory, it's shared by all accounts of the same config directory
+ * @param avatars         the avatars directory, it's shared by all accounts of the same config directory
+ * @param stickers        the sticker packs directory, it's shared by all accounts of the same config directory
+ * @param receiveHandlers the number of registered receive handlers
+ */
+public record AccountStats(
+        List<Cache> caches,
+        Database database,
+        DiskUsage messageCache,
+        DiskUsage attachments,
+        DiskUsage avatars,
+        DiskUsage stickers,
+        Jobs jobs,
+        int receiveHandlers
+) {
+
+    public int cachedEntries() {
+        return caches.stream().mapToInt(Cache::size).sum();
+    }
+
+    /**
+     * @param hits   lookups that were answered from the cache since the account was loaded
+     * @param misses lookups that had to load the value
+     */
+    public record Cache(String name, int size, int maxSize, long hits, long misses) {
+
+        /**
+         * @return the fraction of lookups that were answered from the cache, or 0 if there were none
+         */
+        public double hitRate() {
+            final var lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    /**
+     * @param walBytes the size of the write-ahead log, it's merged into the database file on checkpoints
+     */
+    public record Database(long pageSize, long pageCount, long freelistCount, long walBytes) {
+
+        public long bytes() {
+            return pageSize * pageCount;
+        }
+
+        public long freeBytes() {
+            return pageSize * freelistCount;
+        }
+    }
+
+    public record DiskUsage(int files, long bytes) {}
+
+    /**
+     * @param queued  jobs waiting to run, without delayed jobs and retries
+     * @param running jobs that are currently running
+     */
+    public record Jobs(int queued, int running) {}
+}
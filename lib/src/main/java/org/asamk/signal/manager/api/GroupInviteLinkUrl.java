@@ -112,6 +112,21 @@ public final class GroupInviteLinkUrl {
         return password;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final var that = (GroupInviteLinkUrl) o;
+
+        return url.equals(that.url);
+    }
+
+    @Override
+    public int hashCode() {
+        return url.hashCode();
+    }
+
     public static final class InvalidGroupLinkException extends Exception {
 
         public InvalidGroupLinkException(String message) {
@@ -0,0 +1,8 @@
+package org.asamk.signal.manager.api;
+
+public class InvalidCursorException extends Exception {
+
+    public InvalidCursorException(String cursor) {
+        super("Invalid cursor: " + cursor);
+    }
+}
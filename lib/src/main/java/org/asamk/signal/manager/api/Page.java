@@ -0,0 +1,52 @@
+package org.asamk.signal.manager.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A page of a list, requested with a cursor and a limit.
+ *
+ * @param nextCursor opaque cursor to request the next page, or null if this is the last page
+ */
+public record Page<T>(List<T> items, String nextCursor) {
+
+    /**
+     * Returns a page of a complete list, for implementations that can't query a single page.
+     */
+    public static <T> Page<T> fromList(List<T> list, String cursor, int limit) throws InvalidCursorException {
+        final int offset;
+        try {
+            offset = cursor == null ? 0 : Integer.parseInt(decodeCursor("offset", cursor));
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        final var start = Math.min(Math.max(offset, 0), list.size());
+        final var end = Math.min(list.size(), start + limit);
+        return new Page<>(list.subList(start, end),
+                end < list.size() ? encodeCursor("offset", String.valueOf(end)) : null);
+    }
+
+    /**
+     * @param type  identifies the kind of list, so a cursor can't be used for another list
+     * @param value the key of the last item of the current page
+     */
+    public static String encodeCursor(String type, String value) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString((type + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decodeCursor(String type, String cursor) throws InvalidCursorException {
+        final String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        if (!decoded.startsWith(type + ":")) {
+            throw new InvalidCursorException(cursor);
+        }
+        return decoded.substring(type.length() + 1);
+    }
+}
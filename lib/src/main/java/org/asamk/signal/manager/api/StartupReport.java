@@ -0,0 +1,17 @@
+package org.asamk.signal.manager.api;
+
+import java.util.List;
+
+/**
+ * The phases of loading an account, in the order they were started.
+ *
+ * @param startedTimestamp the time the account was opened
+ */
+public record StartupReport(long startedTimestamp, List<Phase> phases) {
+
+    /**
+     * @param offset   milliseconds since the account was opened until the phase was started
+     * @param duration milliseconds the phase took, zero for events like the first websocket connection
+     */
+    public record Phase(String name, long offset, long duration) {}
+}
@@ -9,6 +9,7 @@ import org.asamk.signal.manager.api.PinLockedException;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.VerificationMethodNotAvailableException;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.jobs.RefreshRecipientsJob;
 import org.asamk.signal.manager.jobs.SyncStorageJob;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.util.KeyUtils;
@@ -69,6 +70,7 @@ public class AccountHelper {
     private final SignalDependencies dependencies;
 
     private Callable unregisteredListener;
+    private Callable accountCheckFailedListener;
 
     public AccountHelper(final Context context) {
         this.account = context.getAccount();
@@ -80,11 +82,21 @@ public class AccountHelper {
         this.unregisteredListener = unregisteredListener;
     }
 
-    public void checkAccountState() throws IOException {
-        if (account.getAci() == null) {
-            account.setRegistered(false);
-            throw new IOException("Account without ACI");
+    public void setAccountCheckFailedListener(final Callable accountCheckFailedListener) {
+        this.accountCheckFailedListener = accountCheckFailedListener;
+    }
+
+    /**
+     * Called when the deferred account checks have failed, the account is closed like after a failed check on startup.
+     */
+    public void handleAccountCheckFailed() {
+        if (accountCheckFailedListener != null) {
+            accountCheckFailedListener.call();
         }
+    }
+
+    public void checkAccountState() throws IOException {
+        checkLocalAccountState();
         try {
             updateAccountAttributes();
             if (account.getPreviousStorageVersion() < 9) {
@@ -117,6 +129,16 @@ public class AccountHelper {
             account.setRegistered(false);
             throw e;
         }
+    }
+
+    /**
+     * Only runs the checks that don't need the network.
+     */
+    public void checkLocalAccountState() throws IOException {
+        if (account.getAci() == null) {
+            account.setRegistered(false);
+            throw new IOException("Account without ACI");
+        }
         if (account.getLastReceiveTimestamp() == 0) {
             logger.info("The Signal protocol expects that incoming messages are regularly received.");
         } else {
@@ -130,6 +152,15 @@ public class AccountHelper {
         }
     }
 
+    public void refreshRecipientsIfNecessary() throws IOException {
+        final var lastRecipientsRefresh = account.getLastRecipientsRefresh();
+        if (lastRecipientsRefresh == null
+                || lastRecipientsRefresh < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) {
+            context.getJobExecutor().enqueueJob(new RefreshRecipientsJob());
+            checkWhoAmiI();
+        }
+    }
+
     public void checkWhoAmiI() throws IOException {
         final var whoAmI = dependencies.getAccountManager().getWhoAmI();
         final var number = whoAmI.getNumber();
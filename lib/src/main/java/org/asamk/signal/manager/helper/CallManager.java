@@ -10,6 +10,7 @@ import org.asamk.signal.manager.api.TurnServer;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
 import org.asamk.signal.manager.util.Utils;
 import org.signal.libsignal.protocol.IdentityKey;
 import org.slf4j.Logger;
@@ -33,15 +34,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.asamk.signal.manager.util.Utils.callIdUnsigned;
@@ -54,7 +53,7 @@ import static org.asamk.signal.manager.util.Utils.handleResponseException;
 public class CallManager implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(CallManager.class);
-    private static final long RING_TIMEOUT_MS = 60_000;
+    private static final Duration RING_TIMEOUT = Duration.ofMinutes(1);
     private static final ObjectMapper mapper = new ObjectMapper();
 
     private final Context context;
@@ -62,16 +61,13 @@ public class CallManager implements AutoCloseable {
     private final SignalDependencies dependencies;
     private final Map<Long, CallState> activeCalls = new ConcurrentHashMap<>();
     private final List<Manager.CallEventListener> callEventListeners = new CopyOnWriteArrayList<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-        var t = new Thread(r, "call-timeout-scheduler");
-        t.setDaemon(true);
-        return t;
-    });
+    private final MaintenanceScheduler.Lane maintenanceLane;
 
     public CallManager(final Context context) {
         this.context = context;
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
+        this.maintenanceLane = account.getMaintenanceLane();
     }
 
     public void addCallEventListener(Manager.CallEventListener listener) {
@@ -124,7 +120,7 @@ public class CallManager implements AutoCloseable {
         sendProceed(state, callId, turnServers);
 
         // Schedule ring timeout
-        scheduler.schedule(() -> handleRingTimeout(callId), RING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        maintenanceLane.schedule(() -> handleRingTimeout(callId), RING_TIMEOUT);
 
         logger.debug("Started outgoing call {} to {}", callIdUnsigned(callId), recipientAddress);
         return state.toCallInfo(account.getRecipientAddressResolver());
@@ -250,7 +246,7 @@ public class CallManager implements AutoCloseable {
         fireCallEvent(state, null);
 
         // Schedule ring timeout
-        scheduler.schedule(() -> handleRingTimeout(callId), RING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        maintenanceLane.schedule(() -> handleRingTimeout(callId), RING_TIMEOUT);
 
         logger.debug("Incoming call {} from {}", callIdUnsigned(callId), senderAddress);
     }
@@ -754,7 +750,6 @@ public class CallManager implements AutoCloseable {
 
     @Override
     public void close() {
-        scheduler.shutdownNow();
         for (var callId : new ArrayList<>(activeCalls.keySet())) {
             endCall(callId, "shutdown");
         }
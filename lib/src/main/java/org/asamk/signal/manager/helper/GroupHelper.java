@@ -92,6 +92,12 @@ public class GroupHelper {
         return groups;
     }
 
+    public List<GroupInfo> getGroups(GroupId after, int limit) {
+        final var groups = account.getGroupStore().getGroups(after, limit);
+        groups.forEach(group -> fillOrUpdateGroup(group, false));
+        return groups;
+    }
+
     public List<GroupInfo> getGroups(Collection<GroupId> groupIds) {
         final var groups = account.getGroupStore()
                 .getGroups()
@@ -41,9 +41,11 @@ import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Maybe;
@@ -53,10 +55,15 @@ public final class ProfileHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(ProfileHelper.class);
 
+    private static final long PROFILE_CACHE_DURATION = 6 * 60 * 60 * 1000;
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
 
+    private final Map<ProfileRequest, Single<ProfileAndCredential>> pendingProfileRequests = new ConcurrentHashMap<>();
+    private final ProfileRequestLimiter profileRequestLimiter = new ProfileRequestLimiter();
+
     public ProfileHelper(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
@@ -103,6 +110,15 @@ public final class ProfileHelper {
         return getRecipientProfiles(recipientIds, false);
     }
 
+    /**
+     * Retrieves the profiles of the recipients that haven't been updated recently.
+     *
+     * @return the recipients whose profiles were outdated and have been retrieved again
+     */
+    public Set<RecipientId> refreshOutdatedRecipientProfiles(Collection<RecipientId> recipientIds) {
+        return refreshProfiles(recipientIds, false);
+    }
+
     public void refreshRecipientProfile(RecipientId recipientId) {
         getRecipientProfile(recipientId, true);
     }
@@ -118,7 +134,7 @@ public final class ProfileHelper {
                 .map(recipientId -> retrieveProfile(recipientId,
                         SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL,
                         false).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
+        Maybe.merge(profileFetches, ProfileRequestLimiter.MAX_LIMIT).blockingSubscribe();
 
         return recipientIds.stream().map(r -> account.getProfileStore().getExpiringProfileKeyCredential(r)).toList();
     }
@@ -244,15 +260,25 @@ public final class ProfileHelper {
     }
 
     private List<Profile> getRecipientProfiles(Collection<RecipientId> recipientIds, boolean force) {
+        refreshProfiles(recipientIds, force);
         final var profileStore = account.getProfileStore();
+        return recipientIds.stream().map(profileStore::getProfile).toList();
+    }
+
+    private Set<RecipientId> refreshProfiles(Collection<RecipientId> recipientIds, boolean force) {
+        final var outdatedRecipientIds = force
+                ? Set.copyOf(recipientIds)
+                : account.getProfileStore()
+                        .getRecipientIdsWithProfileOlderThan(recipientIds,
+                                System.currentTimeMillis() - PROFILE_CACHE_DURATION);
         final var profileFetches = Flowable.fromIterable(recipientIds)
-                .filter(recipientId -> force || isProfileRefreshRequired(profileStore.getProfile(recipientId)))
+                .distinct()
+                .filter(outdatedRecipientIds::contains)
                 .map(recipientId -> retrieveProfile(recipientId,
                         SignalServiceProfile.RequestType.PROFILE,
                         false).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
-
-        return recipientIds.stream().map(profileStore::getProfile).toList();
+        Maybe.merge(profileFetches, ProfileRequestLimiter.MAX_LIMIT).blockingSubscribe();
+        return outdatedRecipientIds;
     }
 
     private Profile getRecipientProfile(RecipientId recipientId, boolean force) {
@@ -279,7 +305,7 @@ public final class ProfileHelper {
         }
         // Profiles are cached for 6h before retrieving them again, unless forced
         final var now = System.currentTimeMillis();
-        return now - profile.getLastUpdateTimestamp() >= 6 * 60 * 60 * 1000;
+        return now - profile.getLastUpdateTimestamp() >= PROFILE_CACHE_DURATION;
     }
 
     public void downloadProfileAvatar(
@@ -312,10 +338,54 @@ public final class ProfileHelper {
         }
     }
 
+    /**
+     * Concurrent requests for the same recipient and request type share a single server request.
+     * A pending profile request with credential also satisfies a plain profile request, and a pending request that
+     * downloads the avatar also satisfies a request that ignores avatars.
+     */
     private Single<ProfileAndCredential> retrieveProfile(
             RecipientId recipientId,
             SignalServiceProfile.RequestType requestType,
             final boolean ignoreAvatars
+    ) {
+        return Single.defer(() -> {
+            final var pendingRequest = getPendingProfileRequest(recipientId, requestType, ignoreAvatars);
+            if (pendingRequest != null) {
+                logger.trace("Joining pending profile request for {}", recipientId);
+                return pendingRequest;
+            }
+            final var key = new ProfileRequest(recipientId, requestType, ignoreAvatars);
+            return pendingProfileRequests.computeIfAbsent(key,
+                    k -> profileRequestLimiter.limit(fetchProfile(recipientId, requestType, ignoreAvatars))
+                            .doFinally(() -> pendingProfileRequests.remove(k))
+                            .cache());
+        });
+    }
+
+    private Single<ProfileAndCredential> getPendingProfileRequest(
+            final RecipientId recipientId,
+            final SignalServiceProfile.RequestType requestType,
+            final boolean ignoreAvatars
+    ) {
+        final var requestTypes = requestType == SignalServiceProfile.RequestType.PROFILE
+                ? List.of(SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL, requestType)
+                : List.of(requestType);
+        final var avatarModes = ignoreAvatars ? List.of(true, false) : List.of(false);
+        for (final var type : requestTypes) {
+            for (final var ignore : avatarModes) {
+                final var pending = pendingProfileRequests.get(new ProfileRequest(recipientId, type, ignore));
+                if (pending != null) {
+                    return pending;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Single<ProfileAndCredential> fetchProfile(
+            RecipientId recipientId,
+            SignalServiceProfile.RequestType requestType,
+            final boolean ignoreAvatars
     ) {
         var unidentifiedAccess = getUnidentifiedAccess(recipientId);
         var profileKey = Optional.ofNullable(account.getProfileStore().getProfileKey(recipientId));
@@ -473,4 +543,8 @@ public final class ProfileHelper {
     private @Nullable SealedSenderAccess getUnidentifiedAccess(RecipientId recipientId) {
         return context.getUnidentifiedAccessHelper().getSealedSenderAccessFor(recipientId, true);
     }
+
+    private record ProfileRequest(
+            RecipientId recipientId, SignalServiceProfile.RequestType requestType, boolean ignoreAvatars
+    ) {}
 }
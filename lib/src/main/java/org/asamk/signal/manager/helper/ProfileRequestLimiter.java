@@ -0,0 +1,154 @@
+package org.asamk.signal.manager.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.push.exceptions.RateLimitException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableEmitter;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Limits the number of concurrent profile requests of an account.
+ * <p>
+ * The limit adapts to the server responses: it grows slowly while requests are answered quickly and is reduced
+ * when requests become slow or the server responds with a rate limit.
+ */
+final class ProfileRequestLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProfileRequestLimiter.class);
+
+    static final int MAX_LIMIT = 32;
+    private static final int MIN_LIMIT = 1;
+    private static final int INITIAL_LIMIT = 10;
+    private static final long SLOW_REQUEST_NANOS = 5_000_000_000L;
+
+    private final Queue<Permit> waiting = new ArrayDeque<>();
+    private double limit = INITIAL_LIMIT;
+    private int running;
+
+    <T> Single<T> limit(Single<T> request) {
+        return Single.defer(() -> {
+            final var permit = new Permit();
+            return acquire(permit).andThen(Single.defer(() -> {
+                start(permit);
+                final var start = System.nanoTime();
+                return request.doOnSuccess(_ -> onSuccess(System.nanoTime() - start))
+                        .doOnError(this::onError)
+                        .doFinally(() -> release(permit));
+            }));
+        });
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    private Completable acquire(final Permit permit) {
+        return Completable.create(emitter -> {
+            emitter.setCancellable(() -> cancel(permit));
+            synchronized (this) {
+                if (emitter.isDisposed()) {
+                    return;
+                }
+                permit.emitter = emitter;
+                if (running < (int) limit) {
+                    running++;
+                    permit.granted = true;
+                } else {
+                    waiting.add(permit);
+                    return;
+                }
+            }
+            emitter.onComplete();
+        });
+    }
+
+    private synchronized void start(final Permit permit) {
+        permit.started = true;
+    }
+
+    /**
+     * Called when the request is disposed, or once its permit has been handed over.
+     * A permit that was granted, but whose request was disposed before it started, is released here, because the
+     * request never runs and would never release it.
+     */
+    private void cancel(final Permit permit) {
+        synchronized (this) {
+            if (!permit.granted) {
+                waiting.remove(permit);
+                return;
+            }
+            if (permit.started) {
+                return;
+            }
+        }
+        release(permit);
+    }
+
+    private void release(final Permit permit) {
+        final var next = new ArrayList<Permit>();
+        synchronized (this) {
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            running--;
+            while (running < (int) limit && !waiting.isEmpty()) {
+                final var nextPermit = waiting.poll();
+                if (nextPermit.emitter.isDisposed()) {
+                    continue;
+                }
+                running++;
+                nextPermit.granted = true;
+                next.add(nextPermit);
+            }
+        }
+        next.forEach(p -> p.emitter.onComplete());
+    }
+
+    private void onSuccess(long durationNanos) {
+        synchronized (this) {
+            if (durationNanos >= SLOW_REQUEST_NANOS) {
+                decreaseLimit(0.75);
+            } else {
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+        }
+    }
+
+    private void onError(Throwable e) {
+        if (e instanceof RateLimitException) {
+            synchronized (this) {
+                decreaseLimit(0.5);
+            }
+        }
+    }
+
+    private void decreaseLimit(double factor) {
+        final var newLimit = Math.max(MIN_LIMIT, limit * factor);
+        if ((int) newLimit != (int) limit) {
+            logger.debug("Reducing concurrent profile requests to {}", (int) newLimit);
+        }
+        limit = newLimit;
+    }
+
+    /**
+     * The state of one request, guarded by the limiter.
+     */
+    private static final class Permit {
+
+        private CompletableEmitter emitter;
+        private boolean granted;
+        private boolean started;
+        private boolean released;
+    }
+}
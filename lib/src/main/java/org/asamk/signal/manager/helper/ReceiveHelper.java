@@ -324,7 +324,9 @@ public class ReceiveHelper {
     }
 
     private void onWebSocketStateChange(final WebSocketConnectionState s) {
-        if (s.equals(WebSocketConnectionState.AUTHENTICATION_FAILED)) {
+        if (s.equals(WebSocketConnectionState.CONNECTED)) {
+            account.getStartupTimeline().markOnce("first-websocket-connect");
+        } else if (s.equals(WebSocketConnectionState.AUTHENTICATION_FAILED)) {
             account.setRegistered(false);
             authenticationFailureListener.call();
         }
@@ -60,8 +60,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import okio.ByteString;
@@ -119,9 +121,25 @@ public class SendHelper {
             final boolean includeSelf,
             final Optional<Long> editTargetTimestamp,
             boolean urgent
+    ) throws IOException, GroupNotFoundException, NotAGroupMemberException, GroupSendingNotAllowedException {
+        return sendAsGroupMessage(messageBuilder, groupId, includeSelf, editTargetTimestamp, urgent, null);
+    }
+
+    /**
+     * Send a group message to the given group
+     * The result for each recipient is passed to the resultListener as soon as it is available,
+     * the listener may be called concurrently from multiple threads.
+     */
+    public List<SendMessageResult> sendAsGroupMessage(
+            final SignalServiceDataMessage.Builder messageBuilder,
+            final GroupId groupId,
+            final boolean includeSelf,
+            final Optional<Long> editTargetTimestamp,
+            boolean urgent,
+            final Consumer<SendMessageResult> resultListener
     ) throws IOException, GroupNotFoundException, NotAGroupMemberException, GroupSendingNotAllowedException {
         final var g = getGroupForSending(groupId);
-        return sendAsGroupMessage(messageBuilder, g, includeSelf, editTargetTimestamp, urgent);
+        return sendAsGroupMessage(messageBuilder, g, includeSelf, editTargetTimestamp, urgent, resultListener);
     }
 
     /**
@@ -133,7 +151,13 @@ public class SendHelper {
             final Set<RecipientId> recipientIds,
             final GroupInfo groupInfo
     ) throws IOException {
-        return sendGroupMessage(message, recipientIds, groupInfo, ContentHint.IMPLICIT, Optional.empty(), true);
+        return sendGroupMessage(message,
+                recipientIds,
+                groupInfo,
+                ContentHint.IMPLICIT,
+                Optional.empty(),
+                true,
+                null);
     }
 
     public SendMessageResult sendReceiptMessage(
@@ -422,7 +446,8 @@ public class SendHelper {
             final GroupInfo g,
             final boolean includeSelf,
             final Optional<Long> editTargetTimestamp,
-            boolean urgent
+            boolean urgent,
+            final Consumer<SendMessageResult> resultListener
     ) throws IOException, GroupSendingNotAllowedException {
         GroupUtils.setGroupContext(messageBuilder, g);
         messageBuilder.withExpiration(g.getMessageExpirationTimer());
@@ -443,7 +468,13 @@ public class SendHelper {
             }
         }
 
-        return sendGroupMessage(message, recipients, g, ContentHint.RESENDABLE, editTargetTimestamp, urgent);
+        return sendGroupMessage(message,
+                recipients,
+                g,
+                ContentHint.RESENDABLE,
+                editTargetTimestamp,
+                urgent,
+                resultListener);
     }
 
     private List<SendMessageResult> sendGroupMessage(
@@ -452,14 +483,24 @@ public class SendHelper {
             final GroupInfo groupInfo,
             final ContentHint contentHint,
             final Optional<Long> editTargetTimestamp,
-            boolean urgent
+            boolean urgent,
+            final Consumer<SendMessageResult> resultListener
     ) throws IOException {
         final var messageSender = dependencies.getMessageSender();
         final var messageSendLogStore = account.getMessageSendLogStore();
         final AtomicLong entryId = new AtomicLong(-1);
 
+        // Each recipient is reported once, even if its result is also part of the final result list
+        final var reportedRecipients = ConcurrentHashMap.<SignalServiceAddress>newKeySet();
+        final Consumer<SendMessageResult> reportResult = result -> {
+            if (resultListener != null && reportedRecipients.add(result.getAddress())) {
+                resultListener.accept(result);
+            }
+        };
+
         final PartialSendCompleteListener partialSendCompleteListener = sendResult -> {
             logger.trace("Partial message send result: {}", sendResult.isSuccess());
+            reportResult.accept(sendResult);
             synchronized (entryId) {
                 if (entryId.get() == -1) {
                     final var newId = messageSendLogStore.insertIfPossible(message.getTimestamp(),
@@ -507,6 +548,7 @@ public class SendHelper {
                 editTargetTimestamp.map(timestamp -> new SignalServiceEditMessage(timestamp, message)).orElse(null),
                 sendResult -> {
                     logger.trace("Partial message send results: {}", sendResult.size());
+                    sendResult.stream().filter(SendMessageResult::isSuccess).forEach(reportResult);
                     synchronized (entryId) {
                         if (entryId.get() == -1) {
                             final var newId = messageSendLogStore.insertIfPossible(message.getTimestamp(),
@@ -534,6 +576,7 @@ public class SendHelper {
 
         for (var r : results) {
             handleSendMessageResult(r);
+            reportResult.accept(r);
         }
 
         return results;
@@ -245,6 +245,7 @@ public class StorageHelper {
                 logger.debug("Remote version was newer, but there were no remote-only IDs.");
             }
             connection.commit();
+            account.getRecipientStore().notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to sync remote storage", e);
         }
@@ -272,6 +273,7 @@ public class StorageHelper {
                         .deleteUnknownStorageIds(connection, remote.stream().map(SignalStorageRecord::getId).toList());
             }
             connection.commit();
+            account.getRecipientStore().notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to sync remote storage", e);
         }
@@ -0,0 +1,99 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.AccountStats;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.util.CacheCounter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Caches the contact or profile names of recently seen recipients, so rendering received messages doesn't query the
+ * database for the same senders again and again.
+ * <p>
+ * The names of a recipient are discarded when the recipient store reports a committed change of its contact, profile
+ * or address. Entries also expire after a few minutes, so outdated profiles are still refreshed.
+ */
+final class DisplayNameCache {
+
+    private static final int MAX_ENTRIES = 1000;
+    private static final long MAX_AGE_MILLIS = 5 * 60_000;
+
+    private final Consumer<Consumer<RecipientId>> changeListenerRegistration;
+    private final Map<RecipientIdentifier.Single, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RecipientIdentifier.Single, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final CacheCounter counter = new CacheCounter("display-names", MAX_ENTRIES);
+    private boolean listening;
+    // Incremented with every invalidation, names loaded in the meantime may already be outdated
+    private long invalidationCount;
+
+    /**
+     * @param changeListenerRegistration registers the listener for recipient changes, it's only called on first use,
+     *                                   so creating the cache doesn't open the recipient store
+     */
+    DisplayNameCache(final Consumer<Consumer<RecipientId>> changeListenerRegistration) {
+        this.changeListenerRegistration = changeListenerRegistration;
+    }
+
+    String get(
+            final RecipientIdentifier.Single recipient,
+            final Function<RecipientIdentifier.Single, RecipientId> resolver,
+            final Function<RecipientId, String> loader
+    ) {
+        final var now = System.currentTimeMillis();
+        final long currentInvalidationCount;
+        synchronized (this) {
+            if (!listening) {
+                listening = true;
+                changeListenerRegistration.accept(this::invalidate);
+            }
+            final var entry = entries.get(recipient);
+            if (entry != null && now - entry.created() < MAX_AGE_MILLIS) {
+                counter.hit();
+                return entry.name();
+            }
+            currentInvalidationCount = invalidationCount;
+        }
+        counter.miss();
+
+        final var recipientId = resolver.apply(recipient);
+        final var name = recipientId == null ? null : loader.apply(recipientId);
+
+        synchronized (this) {
+            // Don't cache a name that may already be outdated, because a recipient changed while it was loaded
+            if (invalidationCount == currentInvalidationCount) {
+                entries.put(recipient, new Entry(recipientId, name, now));
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Discards the names of the recipient, for all identifiers it was resolved from.
+     */
+    synchronized void invalidate(final RecipientId recipientId) {
+        invalidationCount++;
+        entries.values().removeIf(entry -> recipientId.equals(entry.recipientId()));
+    }
+
+    synchronized AccountStats.Cache getStats() {
+        return counter.getStats(entries.size());
+    }
+
+    /**
+     * Drops the least recently used names, until at most the given number is cached.
+     */
+    synchronized void trim(final int maxEntries) {
+        CacheCounter.trim(entries, maxEntries);
+    }
+
+    private record Entry(RecipientId recipientId, String name, long created) {}
+}
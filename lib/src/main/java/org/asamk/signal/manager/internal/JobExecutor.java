@@ -1,89 +1,325 @@
 package org.asamk.signal.manager.internal;
 
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.helper.Context;
 import org.asamk.signal.manager.jobs.Job;
+import org.asamk.signal.manager.jobs.RetryJobException;
+import org.asamk.signal.manager.storage.jobs.StoredJob;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
 
+/**
+ * Runs the background jobs of an account.
+ * <p>
+ * Waiting jobs are started in the order of their priority class, each class has its own limit of running jobs. A job
+ * with a key isn't enqueued again while an equal job is waiting and doesn't run concurrently with a job of the same
+ * key. Jobs that share an exclusion key, e.g. the jobs that merge recipients, don't run concurrently either, even in
+ * different priority classes. Jobs have all exclusion keys unless they declare otherwise. Jobs that fail temporarily
+ * are retried with an exponential backoff. Serializable jobs are stored in the account database until they have
+ * finished, so they are run again after a restart.
+ */
 public class JobExecutor implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(JobExecutor.class);
+
+    private static final Duration RETRY_BASE_DELAY = Duration.ofSeconds(10);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(15);
+
     private final Context context;
     private final ExecutorService executorService;
-    private Job running;
-    private final Queue<Job> queue = new ArrayDeque<>();
+    private final Scheduler scheduler;
+    private final Storage storage;
+    private final BiFunction<String, String, Job> deserializer;
+    private final Map<Job.Priority, Queue<Entry>> queues = new EnumMap<>(Job.Priority.class);
+    private final Map<Job.Priority, Integer> runningCounts = new EnumMap<>(Job.Priority.class);
+    private final Set<String> waitingKeys = new HashSet<>();
+    private final Set<String> runningKeys = new HashSet<>();
+    private final Set<String> runningExclusionKeys = new HashSet<>();
+    private int running;
+    private boolean restored;
+    private boolean closed;
 
     public JobExecutor(final Context context) {
+        this(context,
+                Executors.newVirtualThreadPerTaskExecutor(),
+                (task, delay) -> context.getAccount().getMaintenanceLane().schedule(task, delay),
+                new AccountStorage(context),
+                Job::deserialize);
+    }
+
+    JobExecutor(
+            final Context context,
+            final ExecutorService executorService,
+            final Scheduler scheduler,
+            final Storage storage,
+            final BiFunction<String, String, Job> deserializer
+    ) {
         this.context = context;
-        this.executorService = Executors.newVirtualThreadPerTaskExecutor();
+        this.executorService = executorService;
+        this.scheduler = scheduler;
+        this.storage = storage;
+        this.deserializer = deserializer;
+        for (final var priority : Job.Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            runningCounts.put(priority, 0);
+        }
     }
 
     public void enqueueJob(Job job) {
-        if (executorService.isShutdown()) {
-            logger.debug("Not enqueuing {} job, shutting down", job.getClass().getSimpleName());
+        enqueueJob(job, Duration.ZERO);
+    }
+
+    /**
+     * Enqueues the job after the given delay, a delayed job is only coalesced with an equal waiting job once the
+     * delay has passed.
+     */
+    public void enqueueJob(Job job, Duration delay) {
+        if (isClosed()) {
+            logger.debug("Not enqueuing {} job, shutting down", getName(job));
             return;
         }
 
-        synchronized (queue) {
-            logger.trace("Enqueuing {} job", job.getClass().getSimpleName());
-            queue.add(job);
+        if (delay.isZero()) {
+            add(new Entry(job, 1, null));
+        } else {
+            final var entry = new Entry(job, 1, persist(job));
+            scheduler.schedule(() -> add(entry), delay);
         }
-
-        runNextJob();
     }
 
-    private void runNextJob() {
-        Job job;
-        synchronized (queue) {
-            if (running != null) {
+    /**
+     * Enqueues the jobs that were stored before the last shutdown, only the first call has an effect.
+     */
+    public void restorePersistedJobs() {
+        synchronized (this) {
+            if (restored) {
                 return;
             }
-            job = queue.poll();
-            running = job;
+            restored = true;
         }
+        for (final var storedJob : storage.getJobs()) {
+            final var job = deserializer.apply(storedJob.type(), storedJob.data());
+            if (job == null) {
+                logger.debug("Dropping stored {} job, it can't be restored", storedJob.type());
+                storage.deleteJob(storedJob.id());
+                continue;
+            }
+            logger.debug("Restoring stored {} job", storedJob.type());
+            add(new Entry(job, 1, storedJob.id()));
+        }
+    }
 
-        if (job == null) {
-            synchronized (this) {
-                this.notifyAll();
+    private void add(final Entry entry) {
+        final var job = entry.job();
+        final var key = job.getKey();
+        final boolean duplicate;
+        synchronized (this) {
+            if (closed) {
+                // A stored job is restored on the next start
+                logger.debug("Not enqueuing {} job, shutting down", getName(job));
+                return;
             }
+            duplicate = key != null && !waitingKeys.add(key);
+        }
+        if (duplicate) {
+            logger.trace("Not enqueuing {} job, an equal job is already waiting", getName(job));
+            removePersisted(job, entry);
             return;
         }
-        logger.debug("Running {} job", job.getClass().getSimpleName());
-        executorService.execute(() -> {
-            try {
-                job.run(context);
-            } catch (Throwable e) {
-                logger.warn("Job {} failed", job.getClass().getSimpleName(), e);
-            } finally {
-                synchronized (queue) {
-                    running = null;
+
+        final var persistedEntry = entry.persistedId() == null ? entry.withPersistedId(persist(job)) : entry;
+        synchronized (this) {
+            logger.trace("Enqueuing {} job", getName(job));
+            queues.get(job.getPriority()).add(persistedEntry);
+        }
+
+        runNextJobs();
+    }
+
+    private void runNextJobs() {
+        synchronized (this) {
+            for (final var priority : Job.Priority.values()) {
+                final var iterator = queues.get(priority).iterator();
+                while (runningCounts.get(priority) < priority.getMaxRunning() && iterator.hasNext()) {
+                    final var entry = iterator.next();
+                    final var key = entry.job().getKey();
+                    final var exclusionKeys = entry.job().getExclusionKeys();
+                    if ((key != null && runningKeys.contains(key)) || exclusionKeys.stream()
+                            .anyMatch(runningExclusionKeys::contains)) {
+                        continue;
+                    }
+                    iterator.remove();
+                    if (key != null) {
+                        waitingKeys.remove(key);
+                        runningKeys.add(key);
+                    }
+                    runningExclusionKeys.addAll(exclusionKeys);
+                    runningCounts.merge(priority, 1, Integer::sum);
+                    running++;
+                    executorService.execute(() -> runJob(entry));
                 }
-                runNextJob();
             }
-        });
+
+            if (running == 0) {
+                this.notifyAll();
+            }
+        }
     }
 
-    @Override
-    public void close() {
-        final boolean queueEmpty;
-        synchronized (queue) {
-            queueEmpty = queue.isEmpty();
+    private void runJob(final Entry entry) {
+        final var job = entry.job();
+        logger.debug("Running {} job", getName(job));
+        var retry = false;
+        try {
+            job.run(context);
+        } catch (RetryJobException e) {
+            if (entry.attempt() < job.getMaxAttempts()) {
+                retry = true;
+                logger.warn("Job {} failed, retrying later: {}", getName(job), e.getMessage());
+                logger.debug("Job {} failed", getName(job), e);
+            } else {
+                logger.warn("Job {} failed", getName(job), e);
+            }
+        } catch (Throwable e) {
+            logger.warn("Job {} failed", getName(job), e);
+        }
+
+        if (retry && !isClosed()) {
+            final var delay = getRetryDelay(entry.attempt());
+            final var nextEntry = new Entry(job, entry.attempt() + 1, entry.persistedId());
+            scheduler.schedule(() -> add(nextEntry), delay);
+        } else if (!retry) {
+            removePersisted(job, entry);
+        }
+
+        synchronized (this) {
+            running--;
+            runningCounts.merge(job.getPriority(), -1, Integer::sum);
+            final var key = job.getKey();
+            if (key != null) {
+                runningKeys.remove(key);
+            }
+            runningExclusionKeys.removeAll(job.getExclusionKeys());
+        }
+        runNextJobs();
+    }
+
+    private static Duration getRetryDelay(final int attempt) {
+        final var delay = RETRY_BASE_DELAY.multipliedBy(1L << Math.min(attempt - 1, 16));
+        return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+    }
+
+    private Long persist(final Job job) {
+        final var data = job.serialize();
+        if (data == null) {
+            return null;
         }
-        if (queueEmpty) {
-            executorService.close();
+        try {
+            return storage.addJob(job.getClass().getSimpleName(), data);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to store {} job, it won't be restored after a restart", getName(job), e);
+            return null;
+        }
+    }
+
+    private void removePersisted(final Job job, final Entry entry) {
+        if (entry.persistedId() == null) {
             return;
         }
+        try {
+            storage.deleteJob(entry.persistedId());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to remove stored {} job", getName(job), e);
+        }
+    }
+
+    public synchronized AccountStats.Jobs getStats() {
+        final var queued = queues.values().stream().mapToInt(Queue::size).sum();
+        return new AccountStats.Jobs(queued, running);
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private static String getName(final Job job) {
+        return job.getClass().getSimpleName();
+    }
+
+    /**
+     * Waits until the waiting and running jobs have finished, delayed jobs and retries are dropped.
+     * No new jobs are accepted anymore, so jobs that keep being enqueued can't delay the shutdown.
+     */
+    @Override
+    public void close() {
         synchronized (this) {
-            try {
-                this.wait();
-            } catch (InterruptedException ignored) {
+            closed = true;
+            while (running > 0 || queues.values().stream().anyMatch(queue -> !queue.isEmpty())) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
         }
         executorService.close();
     }
+
+    interface Scheduler {
+
+        void schedule(Runnable task, Duration delay);
+    }
+
+    /**
+     * Stores the serialized jobs until they have finished.
+     */
+    interface Storage {
+
+        List<StoredJob> getJobs();
+
+        long addJob(String type, String data);
+
+        void deleteJob(long id);
+    }
+
+    /**
+     * The job store is only opened once a job is stored or restored.
+     */
+    private record AccountStorage(Context context) implements Storage {
+
+        @Override
+        public List<StoredJob> getJobs() {
+            return context.getAccount().getJobStore().getJobs();
+        }
+
+        @Override
+        public long addJob(final String type, final String data) {
+            return context.getAccount().getJobStore().addJob(type, data);
+        }
+
+        @Override
+        public void deleteJob(final long id) {
+            context.getAccount().getJobStore().deleteJob(id);
+        }
+    }
+
+    private record Entry(Job job, int attempt, Long persistedId) {
+
+        Entry withPersistedId(final Long persistedId) {
+            return new Entry(job, attempt, persistedId);
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package org.asamk.signal.manager.internal;
 
 import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
 import org.asamk.signal.manager.api.CallInfo;
@@ -29,6 +30,7 @@ import org.asamk.signal.manager.api.DeviceLimitExceededException;
 import org.asamk.signal.manager.api.DeviceLinkUrl;
 import org.asamk.signal.manager.api.Group;
 import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.GroupIdFormatException;
 import org.asamk.signal.manager.api.GroupInviteLinkUrl;
 import org.asamk.signal.manager.api.GroupNotFoundException;
 import org.asamk.signal.manager.api.GroupSendingNotAllowedException;
@@ -36,6 +38,7 @@ import org.asamk.signal.manager.api.Identity;
 import org.asamk.signal.manager.api.IdentityVerificationCode;
 import org.asamk.signal.manager.api.InactiveGroupLinkException;
 import org.asamk.signal.manager.api.IncorrectPinException;
+import org.asamk.signal.manager.api.InvalidCursorException;
 import org.asamk.signal.manager.api.InvalidDeviceLinkException;
 import org.asamk.signal.manager.api.InvalidNumberException;
 import org.asamk.signal.manager.api.InvalidStickerException;
@@ -47,6 +50,7 @@ import org.asamk.signal.manager.api.MessageEnvelope.Sync.MessageRequestResponse;
 import org.asamk.signal.manager.api.NonNormalizedPhoneNumberException;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
+import org.asamk.signal.manager.api.Page;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PendingAdminApprovalException;
 import org.asamk.signal.manager.api.PhoneNumberSharingMode;
@@ -60,6 +64,7 @@ import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResult;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.StartupReport;
 import org.asamk.signal.manager.api.StickerPackId;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
 import org.asamk.signal.manager.api.StickerPackUrl;
@@ -77,7 +82,7 @@ import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
 import org.asamk.signal.manager.helper.AccountFileUpdater;
 import org.asamk.signal.manager.helper.Context;
 import org.asamk.signal.manager.helper.RecipientHelper.RegisteredUser;
-import org.asamk.signal.manager.jobs.RefreshRecipientsJob;
+import org.asamk.signal.manager.jobs.CheckAccountStateJob;
 import org.asamk.signal.manager.jobs.SyncStorageJob;
 import org.asamk.signal.manager.storage.AttachmentStore;
 import org.asamk.signal.manager.storage.AvatarStore;
@@ -91,6 +96,7 @@ import org.asamk.signal.manager.storage.stickerPacks.JsonStickerPack;
 import org.asamk.signal.manager.storage.stickerPacks.StickerPackStore;
 import org.asamk.signal.manager.storage.stickers.StickerPack;
 import org.asamk.signal.manager.util.AttachmentUtils;
+import org.asamk.signal.manager.util.IOUtils;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.asamk.signal.manager.util.MimeUtils;
 import org.asamk.signal.manager.util.PhoneNumberFormatter;
@@ -135,6 +141,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -145,9 +152,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
@@ -166,14 +174,23 @@ public class ManagerImpl implements Manager {
 
     private static final Logger logger = LoggerFactory.getLogger(ManagerImpl.class);
 
+    // The shared directories are walked at most once a minute, instead of once for each account
+    private static final long SHARED_DISK_USAGE_MAX_AGE = Duration.ofMinutes(1).toNanos();
+    private static final Map<File, Pair<Long, AccountStats.DiskUsage>> sharedDiskUsage = new ConcurrentHashMap<>();
+
     private SignalAccount account;
+    private final PathConfig pathConfig;
     private final SignalDependencies dependencies;
     private final Context context;
 
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final SendScheduler sendScheduler = new SendScheduler(executor);
+    private final DisplayNameCache displayNameCache = new DisplayNameCache(listener -> account.getRecipientStore()
+            .addChangeListener(listener));
 
     private Thread receiveThread;
     private boolean isReceivingSynchronous;
+    private boolean hasDeferredAccountChecks;
     private final Set<ReceiveMessageHandler> weakHandlers = new HashSet<>();
     private final Set<ReceiveMessageHandler> messageHandlers = new HashSet<>();
     private final List<Runnable> closedListeners = new ArrayList<>();
@@ -189,6 +206,7 @@ public class ManagerImpl implements Manager {
             String userAgent
     ) {
         this.account = account;
+        this.pathConfig = pathConfig;
 
         final var sessionLock = new ReentrantSignalSessionLock();
         this.dependencies = new SignalDependencies(serviceEnvironmentConfig,
@@ -197,7 +215,9 @@ public class ManagerImpl implements Manager {
                 account.getSignalServiceDataStore(),
                 account.getDeviceId(),
                 executor,
-                sessionLock);
+                sessionLock,
+                account.getKeepAliveLane(),
+                account.getStartupTimeline());
         final var avatarStore = new AvatarStore(pathConfig.avatarsPath());
         final var attachmentStore = new AttachmentStore(pathConfig.attachmentsPath());
         final var stickerPackStore = new StickerPackStore(pathConfig.stickerPacksPath());
@@ -217,8 +237,15 @@ public class ManagerImpl implements Manager {
             }
         }, dependencies, avatarStore, attachmentStore, stickerPackStore);
         this.context.getAccountHelper().setUnregisteredListener(this::close);
+        // The failed check runs as a job, which the closing manager waits for, so it's closed on another thread
+        this.context.getAccountHelper()
+                .setAccountCheckFailedListener(() -> Thread.ofVirtual().name("account-check-close").start(this::close));
         this.context.getReceiveHelper().setAuthenticationFailureListener(this::close);
         this.context.getReceiveHelper().setCaughtUpWithOldMessagesListener(() -> {
+            final var startupTimeline = account.getStartupTimeline();
+            if (startupTimeline.markOnce("first-caught-up")) {
+                startupTimeline.logSummary(account.getNumber());
+            }
             synchronized (this) {
                 this.notifyAll();
             }
@@ -256,14 +283,86 @@ public class ManagerImpl implements Manager {
 
     public void checkAccountState() throws IOException {
         context.getAccountHelper().checkAccountState();
-        final var lastRecipientsRefresh = account.getLastRecipientsRefresh();
-        if (lastRecipientsRefresh == null
-                || lastRecipientsRefresh < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) {
-            context.getJobExecutor().enqueueJob(new RefreshRecipientsJob());
-            context.getAccountHelper().checkWhoAmiI();
+        context.getJobExecutor().restorePersistedJobs();
+        context.getAccountHelper().refreshRecipientsIfNecessary();
+    }
+
+    /**
+     * Only runs the checks that don't need the network, the other checks are run in the background after
+     * {@link #startDeferredAccountChecks()} has been called.
+     */
+    public void checkLocalAccountState() throws IOException {
+        context.getAccountHelper().checkLocalAccountState();
+        synchronized (this) {
+            hasDeferredAccountChecks = true;
         }
     }
 
+    @Override
+    public void startDeferredAccountChecks() {
+        synchronized (this) {
+            if (!hasDeferredAccountChecks) {
+                return;
+            }
+            hasDeferredAccountChecks = false;
+        }
+        context.getJobExecutor().enqueueJob(new CheckAccountStateJob());
+    }
+
+    @Override
+    public StartupReport getStartupReport() {
+        return account.getStartupTimeline().getReport();
+    }
+
+    @Override
+    public AccountStats getAccountStats() throws IOException {
+        final AccountStats.Database databaseStats;
+        try {
+            databaseStats = account.getDatabaseStats();
+        } catch (SQLException e) {
+            throw new IOException("Failed to read database size", e);
+        }
+        final int receiveHandlers;
+        synchronized (messageHandlers) {
+            receiveHandlers = messageHandlers.size() + weakHandlers.size();
+        }
+        return new AccountStats(getCacheStats(),
+                databaseStats,
+                account.getMessageCache().getDiskUsage(),
+                getSharedDiskUsage(pathConfig.attachmentsPath()),
+                getSharedDiskUsage(pathConfig.avatarsPath()),
+                getSharedDiskUsage(pathConfig.stickerPacksPath()),
+                context.getJobExecutor().getStats(),
+                receiveHandlers);
+    }
+
+    private static AccountStats.DiskUsage getSharedDiskUsage(final File directory) {
+        final var now = System.nanoTime();
+        return sharedDiskUsage.compute(directory,
+                (d, cached) -> cached != null && now - cached.first() < SHARED_DISK_USAGE_MAX_AGE
+                        ? cached
+                        : new Pair<>(now, IOUtils.getDiskUsage(d))).second();
+    }
+
+    private List<AccountStats.Cache> getCacheStats() {
+        final var stats = new ArrayList<>(account.getOpenStoreCacheStats());
+        stats.add(displayNameCache.getStats());
+        return stats;
+    }
+
+    @Override
+    public void trimCaches(final int maxEntries) {
+        final var cachedEntries = getCacheStats().stream().mapToInt(AccountStats.Cache::size).sum();
+        if (cachedEntries <= maxEntries) {
+            return;
+        }
+        logger.debug("Trimming caches from {} to {} entries", cachedEntries, maxEntries);
+        // Each cache is shrunk by the same factor, so it keeps its share of the budget
+        final var factor = (double) maxEntries / cachedEntries;
+        account.trimOpenStoreCaches(factor);
+        displayNameCache.trim((int) (displayNameCache.getStats().size() * factor));
+    }
+
     @Override
     public Map<String, UserStatus> getUserStatus(Set<String> numbers) throws IOException, RateLimitException {
         final var canonicalizedNumbers = numbers.stream().collect(Collectors.toMap(n -> n, n -> {
@@ -578,6 +677,20 @@ public class ManagerImpl implements Manager {
         return context.getGroupHelper().getGroups(groupIds).stream().map(this::toGroup).toList();
     }
 
+    @Override
+    public Page<Group> getGroups(String cursor, int limit) throws InvalidCursorException {
+        final GroupId after;
+        try {
+            after = cursor == null ? null : GroupId.fromBase64(Page.decodeCursor("groups", cursor));
+        } catch (GroupIdFormatException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        final var groups = context.getGroupHelper().getGroups(after, limit + 1);
+        final var page = groups.stream().limit(limit).map(this::toGroup).toList();
+        return new Page<>(page,
+                groups.size() > limit ? Page.encodeCursor("groups", page.getLast().groupId().toBase64()) : null);
+    }
+
     private Group toGroup(final GroupInfo groupInfo) {
         if (groupInfo == null) {
             return null;
@@ -685,7 +798,7 @@ public class ManagerImpl implements Manager {
             Set<RecipientIdentifier> recipients,
             boolean notifySelf
     ) throws IOException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException {
-        return sendMessage(messageBuilder, recipients, notifySelf, Optional.empty(), true);
+        return sendMessage(messageBuilder, recipients, notifySelf, Optional.empty(), true, null);
     }
 
     private SendMessageResults sendMessage(
@@ -693,8 +806,11 @@ public class ManagerImpl implements Manager {
             Set<RecipientIdentifier> recipients,
             boolean notifySelf,
             Optional<Long> editTargetTimestamp,
-            boolean urgent
+            boolean urgent,
+            SendMessageResultListener resultListener
     ) throws IOException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException {
+        final SendMessageResultListener listener = resultListener == null ? (_, _) -> {
+        } : resultListener;
         var results = new HashMap<RecipientIdentifier, List<SendMessageResult>>();
         long timestamp = getNextMessageTimestamp();
         messageBuilder.withTimestamp(timestamp);
@@ -710,20 +826,31 @@ public class ManagerImpl implements Manager {
                                   editTargetTimestamp,
                                   urgent)
                         : context.getSendHelper().sendSelfMessage(messageBuilder, editTargetTimestamp);
-                results.put(recipient, List.of(toSendMessageResult(result)));
+                final var sendMessageResult = toSendMessageResult(result);
+                results.put(recipient, List.of(sendMessageResult));
+                listener.handleSendMessageResult(recipient, sendMessageResult);
             } else if (recipient instanceof RecipientIdentifier.Single single) {
+                SendMessageResult sendMessageResult;
                 try {
                     final var recipientId = context.getRecipientHelper().resolveRecipient(single);
                     final var result = context.getSendHelper()
                             .sendMessage(messageBuilder, recipientId, editTargetTimestamp, urgent);
-                    results.put(recipient, List.of(toSendMessageResult(result)));
+                    sendMessageResult = toSendMessageResult(result);
                 } catch (UnregisteredRecipientException e) {
-                    results.put(recipient,
-                            List.of(SendMessageResult.unregisteredFailure(single.toPartialRecipientAddress())));
+                    sendMessageResult = SendMessageResult.unregisteredFailure(single.toPartialRecipientAddress());
                 }
+                results.put(recipient, List.of(sendMessageResult));
+                listener.handleSendMessageResult(recipient, sendMessageResult);
             } else if (recipient instanceof RecipientIdentifier.Group(GroupId groupId)) {
                 final var result = context.getSendHelper()
-                        .sendAsGroupMessage(messageBuilder, groupId, notifySelf, editTargetTimestamp, urgent);
+                        .sendAsGroupMessage(messageBuilder,
+                                groupId,
+                                notifySelf,
+                                editTargetTimestamp,
+                                urgent,
+                                resultListener == null
+                                        ? null
+                                        : r -> listener.handleSendMessageResult(recipient, toSendMessageResult(r)));
                 results.put(recipient, result.stream().map(this::toSendMessageResult).toList());
             }
         }
@@ -821,6 +948,16 @@ public class ManagerImpl implements Manager {
             Message message,
             Set<RecipientIdentifier> recipients,
             boolean notifySelf
+    ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
+        return sendMessage(message, recipients, notifySelf, null);
+    }
+
+    @Override
+    public SendMessageResults sendMessage(
+            Message message,
+            Set<RecipientIdentifier> recipients,
+            boolean notifySelf,
+            SendMessageResultListener resultListener
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
         final var selfProfile = context.getProfileHelper().getSelfProfile();
         if (selfProfile == null || selfProfile.getDisplayName().isEmpty()) {
@@ -829,7 +966,20 @@ public class ManagerImpl implements Manager {
         }
         final var messageBuilder = SignalServiceDataMessage.newBuilder();
         applyMessage(messageBuilder, message);
-        return sendMessage(messageBuilder, recipients, notifySelf, Optional.empty(), message.urgent());
+        return sendMessage(messageBuilder,
+                recipients,
+                notifySelf,
+                Optional.empty(),
+                message.urgent(),
+                resultListener);
+    }
+
+    @Override
+    public CompletableFuture<SendMessageResults> scheduleMessage(
+            final Message message,
+            final RecipientIdentifier recipient
+    ) {
+        return sendScheduler.schedule(recipient, () -> sendMessage(message, Set.of(recipient), false));
     }
 
     @Override
@@ -837,10 +987,25 @@ public class ManagerImpl implements Manager {
             Message message,
             Set<RecipientIdentifier> recipients,
             long editTargetTimestamp
+    ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
+        return sendEditMessage(message, recipients, editTargetTimestamp, null);
+    }
+
+    @Override
+    public SendMessageResults sendEditMessage(
+            Message message,
+            Set<RecipientIdentifier> recipients,
+            long editTargetTimestamp,
+            SendMessageResultListener resultListener
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
         final var messageBuilder = SignalServiceDataMessage.newBuilder();
         applyMessage(messageBuilder, message);
-        return sendMessage(messageBuilder, recipients, false, Optional.of(editTargetTimestamp), message.urgent());
+        return sendMessage(messageBuilder,
+                recipients,
+                false,
+                Optional.of(editTargetTimestamp),
+                message.urgent(),
+                resultListener);
     }
 
     @Override
@@ -1508,7 +1673,7 @@ public class ManagerImpl implements Manager {
         if (receiveThread != null || isReceivingSynchronous) {
             return;
         }
-        receiveThread = Thread.ofPlatform().name("receive-" + threadNumber.getAndIncrement()).start(() -> {
+        receiveThread = Thread.ofVirtual().name("receive-" + threadNumber.getAndIncrement()).start(() -> {
             logger.debug("Starting receiving messages");
             context.getReceiveHelper().receiveMessagesContinuously(this::passReceivedMessageToHandlers);
             logger.debug("Finished receiving messages");
@@ -1681,25 +1846,80 @@ public class ManagerImpl implements Manager {
         return account.getRecipientStore()
                 .getRecipients(onlyContacts, blocked, recipientIds, name)
                 .stream()
-                .map(s -> new Recipient(s.getRecipientId(),
-                        s.getAddress().toApiRecipientAddress(),
-                        s.getContact(),
-                        s.getProfileKey(),
-                        s.getExpiringProfileKeyCredential(),
-                        s.getProfile(),
-                        s.getDiscoverable()))
+                .map(this::toRecipient)
                 .toList();
     }
 
     @Override
-    public String getContactOrProfileName(RecipientIdentifier.Single recipient) {
-        final RecipientId recipientId;
+    public Page<Recipient> getRecipients(
+            boolean onlyContacts,
+            Optional<Boolean> blocked,
+            Optional<String> name,
+            String cursor,
+            int limit
+    ) throws InvalidCursorException {
+        final long afterId;
         try {
-            recipientId = context.getRecipientHelper().resolveRecipient(recipient);
-        } catch (UnregisteredRecipientException e) {
-            return null;
+            afterId = cursor == null ? 0 : Long.parseLong(Page.decodeCursor("recipients", cursor));
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        final var recipients = account.getRecipientStore()
+                .getRecipients(onlyContacts, blocked, Set.of(), name, afterId, limit + 1);
+        final var pageRecipients = recipients.stream().limit(limit).toList();
+        if (pageRecipients.isEmpty()) {
+            return new Page<>(List.of(), null);
         }
+        // only refresh the profiles of this page
+        Set<RecipientId> refreshedRecipientIds;
+        try {
+            refreshedRecipientIds = context.getProfileHelper()
+                    .refreshOutdatedRecipientProfiles(pageRecipients.stream()
+                            .filter(r -> r.isRegistered())
+                            .map(r -> r.getRecipientId())
+                            .toList());
+        } catch (Exception e) {
+            logger.warn("Failed to refresh profiles for recipients", e);
+            refreshedRecipientIds = Set.of();
+        }
+        // Only the refreshed recipients are read again, without the filters, so the page keeps its size
+        final var refreshedRecipients = refreshedRecipientIds.isEmpty()
+                ? Map.<RecipientId, org.asamk.signal.manager.storage.recipients.Recipient>of()
+                : account.getRecipientStore()
+                        .getRecipients(false, Optional.empty(), refreshedRecipientIds, Optional.empty())
+                        .stream()
+                        .collect(Collectors.toMap(r -> r.getRecipientId(), r -> r));
+        final var page = pageRecipients.stream()
+                .map(r -> refreshedRecipients.getOrDefault(r.getRecipientId(), r))
+                .map(this::toRecipient)
+                .toList();
+        final var nextCursor = recipients.size() > limit ? Page.encodeCursor("recipients",
+                String.valueOf(pageRecipients.getLast().getRecipientId().id())) : null;
+        return new Page<>(page, nextCursor);
+    }
 
+    private Recipient toRecipient(final org.asamk.signal.manager.storage.recipients.Recipient s) {
+        return new Recipient(s.getRecipientId(),
+                s.getAddress().toApiRecipientAddress(),
+                s.getContact(),
+                s.getProfileKey(),
+                s.getExpiringProfileKeyCredential(),
+                s.getProfile(),
+                s.getDiscoverable());
+    }
+
+    @Override
+    public String getContactOrProfileName(RecipientIdentifier.Single recipient) {
+        return displayNameCache.get(recipient, r -> {
+            try {
+                return context.getRecipientHelper().resolveRecipient(r);
+            } catch (UnregisteredRecipientException e) {
+                return null;
+            }
+        }, this::loadContactOrProfileName);
+    }
+
+    private String loadContactOrProfileName(RecipientId recipientId) {
         final var contact = account.getContactStore().getContact(recipientId);
         if (contact != null && !Util.isEmpty(contact.getName())) {
             return contact.getName();
@@ -1728,6 +1948,18 @@ public class ManagerImpl implements Manager {
                 .toList();
     }
 
+    @Override
+    public Page<Identity> getIdentities(String cursor, int limit) throws InvalidCursorException {
+        final var afterAddress = cursor == null ? "" : Page.decodeCursor("identities", cursor);
+        final var identities = account.getIdentityKeyStore().getIdentities(afterAddress, limit + 1);
+        final var pageIdentities = identities.stream().limit(limit).toList();
+        final var page = pageIdentities.stream().map(this::toIdentity).filter(Objects::nonNull).toList();
+        return new Page<>(page,
+                identities.size() > limit
+                        ? Page.encodeCursor("identities", pageIdentities.getLast().getAddress())
+                        : null);
+    }
+
     private Identity toIdentity(final IdentityInfo identityInfo) {
         if (identityInfo == null) {
             return null;
@@ -2029,6 +2261,7 @@ public class ManagerImpl implements Manager {
         if (thread != null) {
             stopReceiveThread(thread);
         }
+        sendScheduler.close();
         context.close();
         executor.close();
 
@@ -7,12 +7,14 @@ import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.SignalAccountFiles;
 import org.asamk.signal.manager.api.AccountCheckException;
 import org.asamk.signal.manager.api.NotRegisteredException;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
 import org.signal.core.util.UuidUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -20,27 +22,96 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * Manages the accounts of the multi-account mode.
+ * <p>
+ * In lazy mode the accounts aren't loaded at startup. An account is loaded when it's first requested with
+ * {@link #getManager(String)} and closed again when it hasn't been used for the idle timeout, which releases its
+ * database, connections and threads. The added and removed handlers are called on each activation and eviction, so
+ * the daemon interfaces subscribe to and unsubscribe from the account as usual.
+ * Received messages count as use, and with a poll interval all inactive accounts are activated periodically to
+ * receive their pending messages. Accounts that are retained, e.g. by a running request or a client subscription,
+ * aren't closed until they're released again.
+ * <p>
+ * Otherwise all accounts are loaded at startup, possibly in the background, see {@link #addLoadingManager}.
+ */
 public class MultiAccountManagerImpl implements MultiAccountManager {
 
     private static final Logger logger = LoggerFactory.getLogger(MultiAccountManagerImpl.class);
 
+    private static final Duration MAX_EVICTION_CHECK_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration UNAVAILABLE_ACCOUNT_RETRY_INTERVAL = Duration.ofMinutes(10);
+
     private final Set<Consumer<Manager>> onManagerAddedHandlers = new HashSet<>();
     private final Set<Consumer<Manager>> onManagerRemovedHandlers = new HashSet<>();
+    private final Set<Runnable> closedListeners = new HashSet<>();
     private final Set<Manager> managers = new HashSet<>();
+    private final Object loadLock = new Object();
     private final Map<URI, ProvisioningManager> provisioningManagers = new HashMap<>();
     private final SignalAccountFiles signalAccountFiles;
+    private final Duration idleTimeout;
+    private final Map<Manager, Long> lastUsed = new ConcurrentHashMap<>();
+    private final Map<Manager, Integer> useCounts = new ConcurrentHashMap<>();
+    // Accounts that failed to load as not registered, with the time of the failure
+    private final Map<String, Long> unavailableAccounts = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Manager>> loadingManagers = new ConcurrentHashMap<>();
+    private final MaintenanceScheduler.Lane maintenanceLane;
+    private volatile boolean closed;
+    private volatile boolean deferredAccountChecksStarted;
 
     public MultiAccountManagerImpl(final Collection<Manager> managers, final SignalAccountFiles signalAccountFiles) {
         this.signalAccountFiles = signalAccountFiles;
+        this.idleTimeout = null;
+        this.maintenanceLane = null;
         this.managers.addAll(managers);
         managers.forEach(m -> m.addClosedListener(() -> this.removeManager(m)));
     }
 
+    /**
+     * Creates a multi-account manager in lazy mode, without loading any account.
+     *
+     * @param pollInterval interval to activate the inactive accounts to receive their messages, or null
+     */
+    public MultiAccountManagerImpl(
+            final SignalAccountFiles signalAccountFiles,
+            final Duration idleTimeout,
+            final Duration pollInterval
+    ) {
+        this.signalAccountFiles = signalAccountFiles;
+        this.idleTimeout = idleTimeout;
+        this.maintenanceLane = MaintenanceScheduler.getInstance().createLane();
+        final var checkInterval = idleTimeout.compareTo(MAX_EVICTION_CHECK_INTERVAL) < 0
+                ? idleTimeout
+                : MAX_EVICTION_CHECK_INTERVAL;
+        maintenanceLane.scheduleWithFixedDelay(this::evictIdleManagers, checkInterval, checkInterval);
+        if (pollInterval != null) {
+            maintenanceLane.scheduleWithFixedDelay(this::pollInactiveAccounts, pollInterval, pollInterval);
+        }
+    }
+
+    private boolean isLazy() {
+        return idleTimeout != null;
+    }
+
     @Override
     public List<String> getAccountNumbers() {
+        if (isLazy()) {
+            try {
+                return signalAccountFiles.getAllLocalAccountNumbers()
+                        .stream()
+                        .filter(number -> !isUnavailable(number))
+                        .sorted()
+                        .toList();
+            } catch (IOException e) {
+                logger.warn("Failed to read local accounts, only listing active accounts: {}", e.getMessage());
+            }
+        }
         synchronized (managers) {
             return managers.stream().map(Manager::getSelfNumber).toList();
         }
@@ -53,14 +124,108 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    /**
+     * Adds the manager of an account that is being loaded in the background, once the load has finished.
+     * Until then {@link #getManager(String)} waits for the load instead of loading the account a second time.
+     *
+     * @param identifiers the number and ACI of the account
+     * @return completes after the manager has been added
+     */
+    public CompletableFuture<Manager> addLoadingManager(
+            final Collection<String> identifiers,
+            final CompletableFuture<Manager> manager
+    ) {
+        identifiers.forEach(identifier -> loadingManagers.put(identifier, manager));
+        return manager.whenComplete((m, e) -> {
+            if (e != null) {
+                logger.warn("Failed to load account {}", identifiers.iterator().next(), e);
+            } else if (m != null && closed) {
+                m.close();
+            } else if (m != null) {
+                addManager(m);
+            }
+            identifiers.forEach(identifier -> loadingManagers.remove(identifier, manager));
+        });
+    }
+
     private void addManager(final Manager m) {
         synchronized (managers) {
-            if (managers.contains(m)) {
+            if (!addManagerLocked(m)) {
                 return;
             }
-            managers.add(m);
-            m.addClosedListener(() -> this.removeManager(m));
         }
+        notifyManagerAdded(m);
+    }
+
+    private boolean addManagerLocked(final Manager m) {
+        if (managers.contains(m)) {
+            return false;
+        }
+        managers.add(m);
+        // The account may have been registered again
+        unavailableAccounts.remove(m.getSelfNumber());
+        m.addClosedListener(() -> this.removeManager(m));
+        if (deferredAccountChecksStarted) {
+            m.startDeferredAccountChecks();
+        }
+        if (isLazy()) {
+            lastUsed.put(m, System.nanoTime());
+            // Received messages keep the account active, the weak handler doesn't start receiving by itself
+            m.addReceiveHandler((envelope, e) -> markUsed(m), true);
+        }
+        return true;
+    }
+
+    /**
+     * Also starts the deferred checks of accounts that are loaded later.
+     */
+    @Override
+    public void startDeferredAccountChecks() {
+        final List<Manager> currentManagers;
+        synchronized (managers) {
+            deferredAccountChecksStarted = true;
+            currentManagers = new ArrayList<>(managers);
+        }
+        currentManagers.forEach(Manager::startDeferredAccountChecks);
+    }
+
+    private void markUsed(final Manager m) {
+        // Evicted managers aren't tracked anymore
+        lastUsed.replace(m, System.nanoTime());
+    }
+
+    @Override
+    public void retain(final Manager m) {
+        if (isLazy()) {
+            useCounts.merge(m, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    public void release(final Manager m) {
+        if (!isLazy()) {
+            return;
+        }
+        final var count = useCounts.computeIfPresent(m, (_m, c) -> c > 1 ? c - 1 : null);
+        if (count == null) {
+            // The idle timeout starts when the account is no longer used
+            markUsed(m);
+        }
+    }
+
+    private boolean isUnavailable(final String number) {
+        final var since = unavailableAccounts.get(number);
+        if (since == null) {
+            return false;
+        }
+        if (System.nanoTime() - since - UNAVAILABLE_ACCOUNT_RETRY_INTERVAL.toNanos() < 0) {
+            return true;
+        }
+        unavailableAccounts.remove(number, since);
+        return false;
+    }
+
+    private void notifyManagerAdded(final Manager m) {
         synchronized (onManagerAddedHandlers) {
             for (final var handler : onManagerAddedHandlers) {
                 handler.accept(m);
@@ -75,17 +240,30 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    @Override
+    public void removeOnManagerAddedHandler(final Consumer<Manager> handler) {
+        synchronized (onManagerAddedHandlers) {
+            onManagerAddedHandlers.remove(handler);
+        }
+    }
+
     void removeManager(final Manager m) {
         synchronized (managers) {
             if (!managers.remove(m)) {
                 return;
             }
         }
+        notifyManagerRemoved(m);
+    }
+
+    private void notifyManagerRemoved(final Manager m) {
+        lastUsed.remove(m);
         synchronized (onManagerRemovedHandlers) {
             for (final var handler : onManagerRemovedHandlers) {
                 handler.accept(m);
             }
         }
+        useCounts.remove(m);
     }
 
     @Override
@@ -95,48 +273,119 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    @Override
+    public void removeOnManagerRemovedHandler(final Consumer<Manager> handler) {
+        synchronized (onManagerRemovedHandlers) {
+            onManagerRemovedHandlers.remove(handler);
+        }
+    }
+
     @Override
     public Manager getManager(final String identifier) {
+        final var isAci = UuidUtil.INSTANCE.isUuid(identifier);
+        final var existing = findManager(identifier, isAci);
+        if (existing != null) {
+            return existing;
+        }
+        final var loading = loadingManagers.get(identifier);
+        if (loading != null) {
+            final var loaded = loading.handle((m, e) -> m).join();
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+        final Manager newManager;
+        // Accounts are loaded one at a time, but requests for loaded accounts don't have to wait for the load
+        synchronized (loadLock) {
+            final var loaded = findManager(identifier, isAci);
+            if (loaded != null) {
+                return loaded;
+            }
+            newManager = loadManager(identifier, isAci);
+            if (newManager == null) {
+                return null;
+            }
+            synchronized (managers) {
+                addManagerLocked(newManager);
+            }
+        }
+        notifyManagerAdded(newManager);
+        return newManager;
+    }
+
+    private Manager findManager(final String identifier, final boolean isAci) {
         synchronized (managers) {
-            if (UuidUtil.INSTANCE.isUuid(identifier)) {
-                // Check if UUID corresponds to an already-loaded manager
-                final var existing = managers.stream()
-                        .filter(m -> m.getSelfACI().equals(identifier))
-                        .findFirst()
-                        .orElse(null);
-                if (existing != null) {
-                    logger.debug("Found already loaded manager for ACI: {}", identifier);
-                    return existing;
-                }
-                // Load by ACI
-                try {
-                    final var newManager = signalAccountFiles.initManagerByAci(identifier);
-                    managers.add(newManager);
-                    return newManager;
-                } catch (NotRegisteredException e) {
-                    logger.debug("Manager not found by ACI: {}", identifier);
-                } catch (IOException | IllegalArgumentException | AccountCheckException e) {
-                    logger.warn("Failed to load new manager by ACI: {}", identifier, e);
-                }
-            } else {
-                // Phone number — check already loaded managers
-                var existing = managers.stream()
-                        .filter(m -> m.getSelfNumber().equals(identifier))
-                        .findFirst()
-                        .orElse(null);
-                if (existing != null) {
-                    return existing;
-                }
-                // Load by phone number
-                try {
-                    final var newManager = signalAccountFiles.initManagerByNumber(identifier);
-                    managers.add(newManager);
-                    return newManager;
-                } catch (NotRegisteredException | IOException | IllegalArgumentException | AccountCheckException e) {
-                    logger.warn("Failed to load manager by number: {}", identifier, e);
+            final var existing = managers.stream()
+                    .filter(m -> isAci ? m.getSelfACI().equals(identifier) : m.getSelfNumber().equals(identifier))
+                    .findFirst()
+                    .orElse(null);
+            if (existing != null && isLazy()) {
+                markUsed(existing);
+            }
+            return existing;
+        }
+    }
+
+    private Manager loadManager(final String identifier, final boolean isAci) {
+        if (isAci) {
+            try {
+                return signalAccountFiles.initManagerByAci(identifier);
+            } catch (NotRegisteredException e) {
+                logger.debug("Manager not found by ACI: {}", identifier);
+            } catch (IOException | IllegalArgumentException | AccountCheckException e) {
+                logger.warn("Failed to load new manager by ACI: {}", identifier, e);
+            }
+        } else {
+            try {
+                final var manager = signalAccountFiles.initManagerByNumber(identifier);
+                if (isLazy()) {
+                    logger.info("Activated account {}", identifier);
                 }
+                return manager;
+            } catch (NotRegisteredException e) {
+                unavailableAccounts.put(identifier, System.nanoTime());
+                logger.warn("Failed to load manager by number: {}", identifier, e);
+            } catch (IOException | IllegalArgumentException | AccountCheckException e) {
+                logger.warn("Failed to load manager by number: {}", identifier, e);
+            }
+        }
+        return null;
+    }
+
+    private void evictIdleManagers() {
+        final var idleSince = System.nanoTime() - idleTimeout.toNanos();
+        final List<Manager> idleManagers;
+        synchronized (managers) {
+            idleManagers = managers.stream()
+                    .filter(m -> !useCounts.containsKey(m))
+                    .filter(m -> lastUsed.getOrDefault(m, 0L) - idleSince < 0)
+                    .toList();
+            idleManagers.forEach(managers::remove);
+        }
+        for (final var m : idleManagers) {
+            logger.info("Closing idle account {}", m.getSelfNumber());
+            notifyManagerRemoved(m);
+            try {
+                m.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close idle account {}", m.getSelfNumber(), e);
+            }
+        }
+    }
+
+    private void pollInactiveAccounts() {
+        final Set<String> activeNumbers;
+        synchronized (managers) {
+            activeNumbers = managers.stream().map(Manager::getSelfNumber).collect(Collectors.toSet());
+        }
+        for (final var number : getAccountNumbers()) {
+            if (closed) {
+                return;
+            }
+            if (!activeNumbers.contains(number)) {
+                logger.debug("Activating account {} to receive pending messages", number);
+                getManager(number);
             }
-            return null;
         }
     }
 
@@ -162,8 +411,26 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         return signalAccountFiles.initRegistrationManager(number, this::addManager);
     }
 
+    @Override
+    public void addClosedListener(final Runnable listener) {
+        synchronized (closedListeners) {
+            closedListeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeClosedListener(final Runnable listener) {
+        synchronized (closedListeners) {
+            closedListeners.remove(listener);
+        }
+    }
+
     @Override
     public void close() {
+        closed = true;
+        if (maintenanceLane != null) {
+            maintenanceLane.close();
+        }
         final List<Thread> closeThreads;
         synchronized (managers) {
             closeThreads = new ArrayList<>(managers).stream()
@@ -180,5 +447,11 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         synchronized (managers) {
             managers.clear();
         }
+        final List<Runnable> listeners;
+        synchronized (closedListeners) {
+            listeners = List.copyOf(closedListeners);
+            closedListeners.clear();
+        }
+        listeners.forEach(Runnable::run);
     }
 }
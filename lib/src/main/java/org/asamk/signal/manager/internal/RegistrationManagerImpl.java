@@ -196,6 +196,12 @@ public class RegistrationManagerImpl implements RegistrationManager {
         return account.isRegistered();
     }
 
+    @Override
+    public String getSelfACI() {
+        final var aci = account.getAci();
+        return aci == null ? null : aci.toString();
+    }
+
     private boolean attemptReregisterAccount(final String recoveryPassword) {
         try {
             if (account.getPniIdentityKeyPair() == null) {
@@ -233,7 +239,9 @@ public class RegistrationManagerImpl implements RegistrationManager {
                     account.getSignalServiceDataStore(),
                     0,
                     null,
-                    new ReentrantSignalSessionLock());
+                    new ReentrantSignalSessionLock(),
+                    account.getKeepAliveLane(),
+                    account.getStartupTimeline());
             handleResponseException(dependencies.getAccountApi()
                     .setAccountAttributes(account.getAccountAttributes(null)));
             account.setRegistered(true);
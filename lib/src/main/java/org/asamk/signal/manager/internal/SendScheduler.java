@@ -0,0 +1,282 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.ProofRequiredException;
+import org.asamk.signal.manager.api.RateLimitException;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.SendMessageResult;
+import org.asamk.signal.manager.api.SendMessageResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends scheduled messages of an account with a bounded number of parallel sends.
+ * <p>
+ * Messages to the same recipient are sent in the order they were scheduled. When the server rate limits the account,
+ * sending is paused for all recipients until the rate limit has expired. Messages that failed only due to a rate
+ * limit are sent again after the pause.
+ */
+final class SendScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendScheduler.class);
+
+    private static final int MAX_PARALLEL_SENDS = 8;
+    private static final int MAX_RATE_LIMIT_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 5_000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+
+    private final Executor executor;
+    private final Timer timer;
+    private final Map<RecipientIdentifier, Queue<Task>> queues = new HashMap<>();
+    private final Deque<RecipientIdentifier> ready = new ArrayDeque<>();
+    private int running;
+    private long pausedUntil;
+    private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    private boolean resumeScheduled;
+    private boolean closed;
+
+    SendScheduler(final Executor executor) {
+        this(executor, new Timer() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+
+            @Override
+            public void schedule(final long delayMillis, final Runnable task) {
+                CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executor).execute(task);
+            }
+        });
+    }
+
+    SendScheduler(final Executor executor, final Timer timer) {
+        this.executor = executor;
+        this.timer = timer;
+    }
+
+    CompletableFuture<SendMessageResults> schedule(final RecipientIdentifier recipient, final Sender sender) {
+        final var task = new Task(sender, new CompletableFuture<>());
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Send scheduler has been closed"));
+            }
+            final var queue = queues.computeIfAbsent(recipient, _ -> new ArrayDeque<>());
+            queue.add(task);
+            if (queue.size() == 1) {
+                ready.add(recipient);
+            }
+        }
+        dispatch();
+        return task.future;
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            final var pause = pausedUntil - timer.currentTimeMillis();
+            if (pause > 0) {
+                if (!resumeScheduled && !ready.isEmpty()) {
+                    resumeScheduled = true;
+                    timer.schedule(pause, () -> {
+                        synchronized (this) {
+                            resumeScheduled = false;
+                        }
+                        dispatch();
+                    });
+                }
+                return;
+            }
+            while (running < MAX_PARALLEL_SENDS && !ready.isEmpty()) {
+                final var recipient = ready.poll();
+                final var task = queues.get(recipient).peek();
+                running++;
+                executor.execute(() -> runTask(recipient, task));
+            }
+        }
+    }
+
+    private void runTask(final RecipientIdentifier recipient, final Task task) {
+        task.attempts++;
+        SendMessageResults results = null;
+        Throwable error = null;
+        try {
+            results = task.sender.send();
+        } catch (Throwable e) {
+            error = e;
+        }
+
+        final var rateLimited = (
+                results != null ? isRetryableRateLimit(results) : isRetryableRateLimit(error)
+        ) && task.attempts < MAX_RATE_LIMIT_ATTEMPTS;
+        final boolean retry;
+        synchronized (this) {
+            running--;
+            if (results != null) {
+                updateBackoff(results);
+            } else {
+                updateBackoff(error);
+            }
+            retry = rateLimited && !closed;
+            if (retry) {
+                logger.debug("Sending to {} was rate limited, retrying after pause", recipient.getIdentifier());
+                ready.addFirst(recipient);
+            } else if (!closed) {
+                final var queue = queues.get(recipient);
+                queue.poll();
+                if (queue.isEmpty()) {
+                    queues.remove(recipient);
+                } else {
+                    ready.add(recipient);
+                }
+            }
+        }
+
+        if (!retry) {
+            if (error != null) {
+                task.future.completeExceptionally(error);
+            } else {
+                task.future.complete(results);
+            }
+        }
+        dispatch();
+    }
+
+    private static boolean isRetryableRateLimit(final SendMessageResults results) {
+        return results.hasOnlyRateLimitFailure()
+                && results.results()
+                .values()
+                .stream()
+                .flatMap(List::stream)
+                .allMatch(r -> r.proofRequiredFailure() == null);
+    }
+
+    private static boolean isRetryableRateLimit(final Throwable error) {
+        return findCause(error, RateLimitException.class) != null
+                || findCause(error, org.whispersystems.signalservice.api.push.exceptions.RateLimitException.class)
+                != null;
+    }
+
+    private static <T extends Throwable> T findCause(final Throwable error, final Class<T> type) {
+        for (var e = error; e != null; e = e.getCause()) {
+            if (type.isInstance(e)) {
+                return type.cast(e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A thrown rate limit pauses the sends like a rate limited result.
+     * Other exceptions, like network failures, say nothing about the rate limit, so they neither reset nor grow the
+     * backoff.
+     */
+    private void updateBackoff(final Throwable error) {
+        final var proofRequired = findCause(error, ProofRequiredException.class);
+        if (proofRequired != null) {
+            pause(Optional.of(proofRequired.getRetryAfterMilliseconds()));
+            return;
+        }
+        final var rateLimit = findCause(error, RateLimitException.class);
+        if (rateLimit != null) {
+            pause(Optional.ofNullable(rateLimit.getRetryAfterMilliseconds()));
+            return;
+        }
+        final var serviceRateLimit = findCause(error,
+                org.whispersystems.signalservice.api.push.exceptions.RateLimitException.class);
+        if (serviceRateLimit != null) {
+            pause(serviceRateLimit.getRetryAfterMilliseconds());
+        }
+    }
+
+    private void updateBackoff(final SendMessageResults results) {
+        final var rateLimitResults = results.results()
+                .values()
+                .stream()
+                .flatMap(List::stream)
+                .filter(SendMessageResult::isRateLimitFailure)
+                .toList();
+        if (rateLimitResults.isEmpty()) {
+            if (results.hasSuccess()) {
+                backoffMillis = INITIAL_BACKOFF_MILLIS;
+            }
+            return;
+        }
+
+        final var serverRetryAfter = rateLimitResults.stream()
+                .map(r -> r.proofRequiredFailure() != null
+                        ? Long.valueOf(r.proofRequiredFailure().getRetryAfterMilliseconds())
+                        : r.rateLimitRetryAfterMilliseconds())
+                .filter(Objects::nonNull)
+                .max(Long::compareTo);
+        pause(serverRetryAfter);
+    }
+
+    /**
+     * @param serverRetryAfter the retry-after of the server, without it the backoff is used and doubled
+     */
+    private void pause(final Optional<Long> serverRetryAfter) {
+        final var retryAfter = serverRetryAfter.orElse(backoffMillis);
+        if (serverRetryAfter.isEmpty()) {
+            backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        }
+        final var newPausedUntil = timer.currentTimeMillis() + retryAfter;
+        if (newPausedUntil > pausedUntil) {
+            logger.info("Account is rate limited, pausing scheduled sends for {} seconds",
+                    Math.ceilDiv(retryAfter, 1000L));
+            pausedUntil = newPausedUntil;
+        }
+    }
+
+    @Override
+    public void close() {
+        final var pending = new ArrayDeque<Task>();
+        synchronized (this) {
+            closed = true;
+            queues.forEach((recipient, queue) -> {
+                // The first task is still running, unless its recipient is waiting to be dispatched
+                queue.stream().skip(ready.contains(recipient) ? 0 : 1).forEach(pending::add);
+            });
+            queues.clear();
+            ready.clear();
+        }
+        pending.forEach(task -> task.future.completeExceptionally(new IOException("Send scheduler has been closed")));
+    }
+
+    interface Sender {
+
+        SendMessageResults send() throws Exception;
+    }
+
+    interface Timer {
+
+        long currentTimeMillis();
+
+        void schedule(long delayMillis, Runnable task);
+    }
+
+    private static final class Task {
+
+        private final Sender sender;
+        private final CompletableFuture<SendMessageResults> future;
+        private int attempts;
+
+        private Task(final Sender sender, final CompletableFuture<SendMessageResults> future) {
+            this.sender = sender;
+            this.future = future;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.asamk.signal.manager.internal;
 
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
+import org.asamk.signal.manager.util.StartupTimeline;
 import org.asamk.signal.manager.util.Utils;
 import org.signal.core.util.UptimeSleepTimer;
 import org.signal.libsignal.metadata.certificate.CertificateValidator;
@@ -68,8 +70,11 @@ public class SignalDependencies {
     private final int deviceId;
     private final ExecutorService executor;
     private final SignalSessionLock sessionLock;
+    private final MaintenanceScheduler.Lane keepAliveLane;
+    private final StartupTimeline startupTimeline;
 
     private boolean allowStories = true;
+    private boolean dependencyCreated;
 
     private SignalServiceAccountManager accountManager;
     private AccountApi accountApi;
@@ -109,7 +114,9 @@ public class SignalDependencies {
             final SignalServiceDataStore dataStore,
             final int deviceId,
             final ExecutorService executor,
-            final SignalSessionLock sessionLock
+            final SignalSessionLock sessionLock,
+            final MaintenanceScheduler.Lane keepAliveLane,
+            final StartupTimeline startupTimeline
     ) {
         this.serviceEnvironmentConfig = serviceEnvironmentConfig;
         this.userAgent = userAgent;
@@ -118,6 +125,8 @@ public class SignalDependencies {
         this.deviceId = deviceId;
         this.executor = executor;
         this.sessionLock = sessionLock;
+        this.keepAliveLane = keepAliveLane;
+        this.startupTimeline = startupTimeline;
     }
 
     public void resetAfterAddressChange() {
@@ -304,7 +313,7 @@ public class SignalDependencies {
     public SignalWebSocket.AuthenticatedWebSocket getAuthenticatedSignalWebSocket() {
         return getOrCreate(() -> authenticatedSignalWebSocket, () -> {
             final var timer = new UptimeSleepTimer();
-            final var healthMonitor = new SignalWebSocketHealthMonitor(timer);
+            final var healthMonitor = new SignalWebSocketHealthMonitor(keepAliveLane);
 
             authenticatedSignalWebSocket = new SignalWebSocket.AuthenticatedWebSocket(() -> new LibSignalChatConnection(
                     "normal",
@@ -319,7 +328,7 @@ public class SignalDependencies {
     public SignalWebSocket.UnauthenticatedWebSocket getUnauthenticatedSignalWebSocket() {
         return getOrCreate(() -> unauthenticatedSignalWebSocket, () -> {
             final var timer = new UptimeSleepTimer();
-            final var healthMonitor = new SignalWebSocketHealthMonitor(timer);
+            final var healthMonitor = new SignalWebSocketHealthMonitor(keepAliveLane);
 
             unauthenticatedSignalWebSocket = new SignalWebSocket.UnauthenticatedWebSocket(() -> new LibSignalChatConnection(
                     "unidentified",
@@ -421,7 +430,14 @@ public class SignalDependencies {
             if (value != null) {
                 return value;
             }
+            // The dependencies are created lazily, so the startup cost shows up with their first use
+            final var firstCreation = !dependencyCreated;
+            dependencyCreated = true;
+            final var begin = startupTimeline.begin();
             creator.call();
+            if (firstCreation) {
+                startupTimeline.end("dependency-creation", begin);
+            }
             return supplier.get();
         }
     }
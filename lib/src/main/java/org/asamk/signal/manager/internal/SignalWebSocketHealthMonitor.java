@@ -1,7 +1,7 @@
 package org.asamk.signal.manager.internal;
 
+import org.asamk.signal.manager.util.MaintenanceScheduler;
 import org.jetbrains.annotations.NotNull;
-import org.signal.core.util.SleepTimer;
 import org.signal.network.util.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,8 +9,10 @@ import org.whispersystems.signalservice.api.websocket.HealthMonitor;
 import org.whispersystems.signalservice.api.websocket.SignalWebSocket;
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState;
 
+import java.time.Duration;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.rxjava3.schedulers.Schedulers;
@@ -23,23 +25,37 @@ final class SignalWebSocketHealthMonitor implements HealthMonitor {
     /**
      * This is the amount of time in between sent keep alives. Must be greater than [KEEP_ALIVE_TIMEOUT]
      */
-    private static final long KEEP_ALIVE_SEND_CADENCE = TimeUnit.SECONDS.toMillis(30);
+    private static final Duration KEEP_ALIVE_SEND_CADENCE = Duration.ofSeconds(30);
 
     /**
      * This is the amount of time we will wait for a response to the keep alive before we consider the websockets dead.
      * It is required that this value be less than [KEEP_ALIVE_SEND_CADENCE]
      */
-    private static final long KEEP_ALIVE_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
+    private static final Duration KEEP_ALIVE_TIMEOUT = Duration.ofSeconds(20);
 
-    private final Executor executor = Executors.newSingleThreadExecutor();
-    private final SleepTimer sleepTimer;
+    private final Executor executor = createSerialExecutor();
+    private final MaintenanceScheduler.Lane keepAliveLane;
     private SignalWebSocket webSocket = null;
     private volatile KeepAliveSender keepAliveSender = null;
     private boolean needsKeepAlive = false;
-    private long lastKeepAliveReceived = 0;
+    private volatile long lastKeepAliveReceived = 0;
 
-    public SignalWebSocketHealthMonitor(SleepTimer sleepTimer) {
-        this.sleepTimer = sleepTimer;
+    public SignalWebSocketHealthMonitor(MaintenanceScheduler.Lane keepAliveLane) {
+        this.keepAliveLane = keepAliveLane;
+    }
+
+    /**
+     * The state changes are handled one at a time, the thread ends when it's idle, so closed websockets don't keep it.
+     */
+    private static Executor createSerialExecutor() {
+        final var executor = new ThreadPoolExecutor(1,
+                1,
+                1,
+                TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                Thread.ofVirtual().name("websocket-health").factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     void monitor(SignalWebSocket webSocket) {
@@ -106,61 +122,48 @@ final class SignalWebSocketHealthMonitor implements HealthMonitor {
     /**
      * Sends periodic heartbeats/keep-alives over the WebSocket to prevent connection timeouts. If
      * the WebSocket fails to get a return heartbeat after [KEEP_ALIVE_TIMEOUT] seconds, it is forced to be recreated.
+     * The keep alives are scheduled on the account's keep alive lane, instead of a sleeping thread per websocket.
      */
-    private final class KeepAliveSender extends Thread {
+    private final class KeepAliveSender {
 
         private volatile boolean shouldKeepRunning = true;
+        private MaintenanceScheduler.Task sendTask;
+        private MaintenanceScheduler.Task checkTask;
 
-        @Override
-        public void run() {
-            logger.debug("[KeepAliveSender({})] started", this.threadId());
+        void start() {
+            logger.debug("[KeepAliveSender] started");
             lastKeepAliveReceived = System.currentTimeMillis();
+            sendTask = keepAliveLane.scheduleWithFixedDelay(this::sendKeepAlive,
+                    KEEP_ALIVE_SEND_CADENCE,
+                    KEEP_ALIVE_SEND_CADENCE);
+        }
 
-            var keepAliveSendTime = System.currentTimeMillis();
-            while (shouldKeepRunning && sendKeepAlives()) {
-                try {
-                    final var nextKeepAliveSendTime = keepAliveSendTime + KEEP_ALIVE_SEND_CADENCE;
-                    sleepUntil(nextKeepAliveSendTime);
-
-                    if (shouldKeepRunning && sendKeepAlives()) {
-                        keepAliveSendTime = System.currentTimeMillis();
-                        webSocket.sendKeepAlive();
-                    }
-
-                    final var responseRequiredTime = keepAliveSendTime + KEEP_ALIVE_TIMEOUT;
-                    sleepUntil(responseRequiredTime);
-
-                    if (shouldKeepRunning && sendKeepAlives()) {
-                        if (lastKeepAliveReceived < keepAliveSendTime) {
-                            logger.debug("Missed keep alive, last: {} needed by: {}",
-                                    lastKeepAliveReceived,
-                                    responseRequiredTime);
-                            webSocket.forceNewWebSocket();
-                        }
-                    }
-                } catch (Throwable e) {
-                    logger.warn("Keep alive sender failed", e);
-                }
+        private void sendKeepAlive() {
+            if (!shouldKeepRunning || !sendKeepAlives()) {
+                return;
             }
-            logger.debug("[KeepAliveSender({})] ended", threadId());
+            final var keepAliveSendTime = System.currentTimeMillis();
+            webSocket.sendKeepAlive();
+            checkTask = keepAliveLane.schedule(() -> checkKeepAliveResponse(keepAliveSendTime), KEEP_ALIVE_TIMEOUT);
         }
 
-        void sleepUntil(long timeMillis) {
-            while (System.currentTimeMillis() < timeMillis) {
-                final var waitTime = timeMillis - System.currentTimeMillis();
-                if (waitTime > 0) {
-                    try {
-                        sleepTimer.sleep(waitTime);
-                    } catch (InterruptedException e) {
-                        logger.warn("WebSocket health monitor interrupted", e);
-                    }
-                }
+        private void checkKeepAliveResponse(final long keepAliveSendTime) {
+            if (shouldKeepRunning && sendKeepAlives() && lastKeepAliveReceived < keepAliveSendTime) {
+                logger.debug("Missed keep alive, last: {} needed by: {}",
+                        lastKeepAliveReceived,
+                        keepAliveSendTime + KEEP_ALIVE_TIMEOUT.toMillis());
+                webSocket.forceNewWebSocket();
             }
         }
 
         void shutdown() {
             shouldKeepRunning = false;
+            sendTask.cancel();
+            final var checkTask = this.checkTask;
+            if (checkTask != null) {
+                checkTask.cancel();
+            }
+            logger.debug("[KeepAliveSender] ended");
         }
     }
 }
-
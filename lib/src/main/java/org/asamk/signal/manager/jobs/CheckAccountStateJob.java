@@ -0,0 +1,49 @@
+package org.asamk.signal.manager.jobs;
+
+import org.asamk.signal.manager.helper.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Runs the network checks of an account that have been deferred on startup.
+ */
+public class CheckAccountStateJob implements Job {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckAccountStateJob.class);
+
+    @Override
+    public String getKey() {
+        return "CheckAccountStateJob";
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY, PRE_KEYS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.HIGH;
+    }
+
+    @Override
+    public void run(Context context) {
+        logger.trace("Running deferred account checks");
+        final var startupTimeline = context.getAccount().getStartupTimeline();
+        final var begin = startupTimeline.begin();
+        try {
+            context.getAccountHelper().checkAccountState();
+            context.getJobExecutor().restorePersistedJobs();
+            context.getAccountHelper().refreshRecipientsIfNecessary();
+        } catch (IOException e) {
+            // Same as a failed check on startup, where the account isn't loaded
+            logger.warn("Deferred account check failed, closing account: {}", e.getMessage());
+            logger.debug("Deferred account check failed", e);
+            context.getAccountHelper().handleAccountCheckFailed();
+        }
+        startupTimeline.end("deferred-account-check", begin);
+    }
+}
@@ -5,11 +5,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Set;
 
 public class CheckWhoAmIJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(CheckWhoAmIJob.class);
 
+    @Override
+    public String getKey() {
+        return "CheckWhoAmIJob";
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.HIGH;
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Checking whoAmI");
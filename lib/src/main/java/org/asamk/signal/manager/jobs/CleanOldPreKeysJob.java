@@ -4,10 +4,27 @@ import org.asamk.signal.manager.helper.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Set;
+
 public class CleanOldPreKeysJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(CleanOldPreKeysJob.class);
 
+    @Override
+    public String getKey() {
+        return "CleanOldPreKeysJob";
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(PRE_KEYS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Cleaning old prekeys");
@@ -4,6 +4,8 @@ import org.asamk.signal.manager.helper.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Set;
+
 public class DownloadProfileAvatarJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadProfileAvatarJob.class);
@@ -13,6 +15,21 @@ public class DownloadProfileAvatarJob implements Job {
         this.avatarPath = avatarPath;
     }
 
+    @Override
+    public String getKey() {
+        return "DownloadProfileAvatarJob:" + avatarPath;
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public String serialize() {
+        return avatarPath;
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Downloading profile avatar {}", avatarPath);
@@ -5,6 +5,8 @@ import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Set;
+
 public class DownloadProfileJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadProfileJob.class);
@@ -14,6 +16,16 @@ public class DownloadProfileJob implements Job {
         this.address = address;
     }
 
+    @Override
+    public String getKey() {
+        return "DownloadProfileJob:" + address.getIdentifier();
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY);
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Refreshing profile for {}", address);
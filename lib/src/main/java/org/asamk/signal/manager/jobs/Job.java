@@ -2,7 +2,99 @@ package org.asamk.signal.manager.jobs;
 
 import org.asamk.signal.manager.helper.Context;
 
+import java.util.Set;
+
 public interface Job {
 
+    /**
+     * Exclusion key of the jobs that modify and merge recipients.
+     */
+    String RECIPIENTS_EXCLUSION_KEY = "recipients";
+
+    /**
+     * Exclusion key of the jobs that refresh or remove pre-keys.
+     */
+    String PRE_KEYS_EXCLUSION_KEY = "pre-keys";
+
+    /**
+     * Exclusion keys of the jobs that may modify any account state, the default for all jobs.
+     */
+    Set<String> ACCOUNT_EXCLUSION_KEYS = Set.of(RECIPIENTS_EXCLUSION_KEY, PRE_KEYS_EXCLUSION_KEY);
+
     void run(Context context);
+
+    /**
+     * Jobs with the same key are coalesced while they are waiting and don't run concurrently.
+     *
+     * @return the key of the job or null if every enqueued job should run
+     */
+    default String getKey() {
+        return null;
+    }
+
+    /**
+     * Jobs that share an exclusion key don't run concurrently, also in different priority classes, but they are
+     * coalesced only by their key. By default a job has all exclusion keys, so it's only run concurrently with the
+     * jobs that don't touch the same account state.
+     *
+     * @return the exclusion keys of the job or an empty set if it can run concurrently with all other jobs
+     */
+    default Set<String> getExclusionKeys() {
+        return ACCOUNT_EXCLUSION_KEYS;
+    }
+
+    default Priority getPriority() {
+        return Priority.NORMAL;
+    }
+
+    /**
+     * The job is run again with increasing delays if it throws a {@link RetryJobException}, until it has been run
+     * this many times.
+     */
+    default int getMaxAttempts() {
+        return 1;
+    }
+
+    /**
+     * The serialized jobs are stored in the account database until they have finished, so they are run again after a
+     * restart. The job must be restored in {@link #deserialize(String, String)}.
+     *
+     * @return the job data or null if the job isn't persisted
+     */
+    default String serialize() {
+        return null;
+    }
+
+    /**
+     * @return the restored job or null if the type is unknown
+     */
+    static Job deserialize(String type, String data) {
+        return switch (type) {
+            case "SyncStorageJob" -> new SyncStorageJob(SyncStorageJob.FORCE_PUSH.equals(data));
+            case "RefreshRecipientsJob" -> new RefreshRecipientsJob();
+            case "RetrieveStickerPackJob" -> RetrieveStickerPackJob.deserialize(data);
+            case "DownloadProfileAvatarJob" -> new DownloadProfileAvatarJob(data);
+            default -> null;
+        };
+    }
+
+    /**
+     * The priority classes are run in this order, each class has its own limit of concurrently running jobs, so slow
+     * jobs of a lower priority don't block the other jobs.
+     */
+    enum Priority {
+        HIGH(1),
+        NORMAL(2),
+        LOW(1);
+
+        private final int maxRunning;
+
+        Priority(final int maxRunning) {
+            this.maxRunning = maxRunning;
+        }
+
+        public int getMaxRunning() {
+            return maxRunning;
+        }
+    }
 }
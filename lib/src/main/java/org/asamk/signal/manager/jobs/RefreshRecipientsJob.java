@@ -4,10 +4,32 @@ import org.asamk.signal.manager.helper.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Set;
+
 public class RefreshRecipientsJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(RefreshRecipientsJob.class);
 
+    @Override
+    public String getKey() {
+        return "RefreshRecipientsJob";
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    public String serialize() {
+        return "";
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Full CDSI recipients refresh");
@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Set;
 
 public class RetrieveStickerPackJob implements Job {
 
@@ -21,15 +22,45 @@ public class RetrieveStickerPackJob implements Job {
         this.packKey = packKey;
     }
 
+    static RetrieveStickerPackJob deserialize(final String data) {
+        final var parts = data.split(":", 2);
+        try {
+            return new RetrieveStickerPackJob(StickerPackId.deserialize(Hex.fromStringCondensed(parts[0])),
+                    Hex.fromStringCondensed(parts[1]));
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            logger.debug("Invalid stored sticker pack job, ignoring: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return "RetrieveStickerPackJob:" + Hex.toStringCondensed(packId.serialize());
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of();
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return 3;
+    }
+
+    @Override
+    public String serialize() {
+        return Hex.toStringCondensed(packId.serialize()) + ":" + Hex.toStringCondensed(packKey);
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Downloading sticker pack {}", packId);
         try {
             context.getStickerHelper().retrieveStickerPack(packId, packKey);
         } catch (IOException e) {
-            logger.warn("Failed to retrieve sticker pack {}: {}",
-                    Hex.toStringCondensed(packId.serialize()),
-                    e.getMessage());
+            throw new RetryJobException("Failed to retrieve sticker pack " + Hex.toStringCondensed(packId.serialize()),
+                    e);
         } catch (InvalidMessageException e) {
             logger.warn("Failed to retrieve sticker pack {}, invalid pack data: {}",
                     Hex.toStringCondensed(packId.serialize()),
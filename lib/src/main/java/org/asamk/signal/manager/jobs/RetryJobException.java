@@ -0,0 +1,11 @@
+package org.asamk.signal.manager.jobs;
+
+/**
+ * Thrown by a job that failed temporarily, e.g. because of a network error, to run it again later.
+ */
+public class RetryJobException extends RuntimeException {
+
+    public RetryJobException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -5,9 +5,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Set;
 
 public class SyncStorageJob implements Job {
 
+    static final String FORCE_PUSH = "force-push";
+
     private final boolean forcePush;
 
     private static final Logger logger = LoggerFactory.getLogger(SyncStorageJob.class);
@@ -20,6 +23,31 @@ public class SyncStorageJob implements Job {
         this.forcePush = forcePush;
     }
 
+    @Override
+    public String getKey() {
+        return forcePush ? "SyncStorageJob:" + FORCE_PUSH : "SyncStorageJob";
+    }
+
+    @Override
+    public Set<String> getExclusionKeys() {
+        return Set.of(RECIPIENTS_EXCLUSION_KEY);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.HIGH;
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return 3;
+    }
+
+    @Override
+    public String serialize() {
+        return forcePush ? FORCE_PUSH : "";
+    }
+
     @Override
     public void run(Context context) {
         logger.trace("Running storage sync job");
@@ -30,7 +58,7 @@ public class SyncStorageJob implements Job {
                 context.getStorageHelper().syncDataWithStorage();
             }
         } catch (IOException e) {
-            logger.warn("Failed to sync storage data", e);
+            throw new RetryJobException("Failed to sync storage data", e);
         }
     }
 }
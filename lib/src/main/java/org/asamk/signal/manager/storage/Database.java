@@ -47,6 +47,18 @@ public abstract class Database implements AutoCloseable {
         return dataSource.getConnection();
     }
 
+    /**
+     * @param name the name of a pragma that returns a single number, like page_count
+     */
+    public final long getPragma(final String name) throws SQLException {
+        try (final var connection = dataSource.getConnection()) {
+            try (final var statement = connection.createStatement();
+                 final var resultSet = statement.executeQuery("PRAGMA " + name)) {
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
     @Override
     public void close() {
         dataSource.close();
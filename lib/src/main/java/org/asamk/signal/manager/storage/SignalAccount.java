@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.asamk.signal.manager.Settings;
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.Contact;
 import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.Pair;
@@ -21,6 +22,7 @@ import org.asamk.signal.manager.storage.groups.LegacyGroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
 import org.asamk.signal.manager.storage.identities.LegacyIdentityKeyStore;
 import org.asamk.signal.manager.storage.identities.SignalIdentityKeyStore;
+import org.asamk.signal.manager.storage.jobs.JobStore;
 import org.asamk.signal.manager.storage.keyValue.KeyValueEntry;
 import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
 import org.asamk.signal.manager.storage.messageCache.MessageCache;
@@ -53,6 +55,8 @@ import org.asamk.signal.manager.storage.stickers.StickerStore;
 import org.asamk.signal.manager.storage.threads.LegacyJsonThreadStore;
 import org.asamk.signal.manager.util.IOUtils;
 import org.asamk.signal.manager.util.KeyUtils;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
+import org.asamk.signal.manager.util.StartupTimeline;
 import org.signal.core.models.AccountEntropyPool;
 import org.signal.core.models.MasterKey;
 import org.signal.core.models.ServiceId;
@@ -99,6 +103,7 @@ import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -176,6 +181,7 @@ public class SignalAccount implements Closeable {
     private GroupStore groupStore;
     private RecipientStore recipientStore;
     private StickerStore stickerStore;
+    private JobStore jobStore;
     private UnknownStorageIdStore unknownStorageIdStore;
     private ConfigurationStore configurationStore;
     private KeyValueStore keyValueStore;
@@ -186,10 +192,14 @@ public class SignalAccount implements Closeable {
 
     private AccountDatabase accountDatabase;
     private RecipientId selfRecipientId;
+    private final MaintenanceScheduler.Lane maintenanceLane = MaintenanceScheduler.getInstance().createLane();
+    private final MaintenanceScheduler.Lane keepAliveLane = MaintenanceScheduler.getInstance().createPriorityLane();
+    private final StartupTimeline startupTimeline;
 
-    private SignalAccount(final FileChannel fileChannel, final FileLock lock) {
+    private SignalAccount(final FileChannel fileChannel, final FileLock lock, final StartupTimeline startupTimeline) {
         this.fileChannel = fileChannel;
         this.lock = lock;
+        this.startupTimeline = startupTimeline;
     }
 
     public File getDataPath() {
@@ -203,13 +213,22 @@ public class SignalAccount implements Closeable {
             final Settings settings
     ) throws IOException {
         logger.trace("Opening account file");
+        final var startupTimeline = new StartupTimeline();
         final var fileName = getFileName(dataPath, accountPath);
+        var begin = startupTimeline.begin();
         final var pair = openFileChannel(fileName, waitForLock);
+        startupTimeline.end("account-file-lock", begin);
         try {
-            var signalAccount = new SignalAccount(pair.first(), pair.second());
+            var signalAccount = new SignalAccount(pair.first(), pair.second(), startupTimeline);
+            begin = startupTimeline.begin();
             signalAccount.load(dataPath, accountPath, settings);
+            startupTimeline.end("account-file-load", begin);
+            begin = startupTimeline.begin();
             signalAccount.migrateLegacyConfigs();
+            startupTimeline.end("migration-checks", begin);
+            begin = startupTimeline.begin();
             signalAccount.init();
+            startupTimeline.end("self-recipient-init", begin);
 
             return signalAccount;
         } catch (Throwable e) {
@@ -236,7 +255,7 @@ public class SignalAccount implements Closeable {
         }
 
         final var pair = openFileChannel(fileName, true);
-        var signalAccount = new SignalAccount(pair.first(), pair.second());
+        var signalAccount = new SignalAccount(pair.first(), pair.second(), new StartupTimeline());
 
         signalAccount.accountPath = accountPath;
         signalAccount.number = number;
@@ -273,7 +292,7 @@ public class SignalAccount implements Closeable {
         IOUtils.createPrivateFile(fileName);
 
         final var pair = openFileChannel(fileName, true);
-        final var signalAccount = new SignalAccount(pair.first(), pair.second());
+        final var signalAccount = new SignalAccount(pair.first(), pair.second(), new StartupTimeline());
 
         signalAccount.dataPath = dataPath;
         signalAccount.accountPath = accountPath;
@@ -1283,6 +1302,10 @@ public class SignalAccount implements Closeable {
         return getOrCreate(() -> stickerStore, () -> stickerStore = new StickerStore(getAccountDatabase()));
     }
 
+    public JobStore getJobStore() {
+        return getOrCreate(() -> jobStore, () -> jobStore = new JobStore(getAccountDatabase()));
+    }
+
     public SenderKeyStore getSenderKeyStore() {
         return getOrCreate(() -> senderKeyStore, () -> senderKeyStore = new SenderKeyStore(getAccountDatabase()));
     }
@@ -1305,20 +1328,84 @@ public class SignalAccount implements Closeable {
                 () -> messageCache = new MessageCache(getMessageCachePath(dataPath, accountPath)));
     }
 
+    /**
+     * @return the cache stats of the stores that have been opened, the other stores aren't opened for it
+     */
+    public List<AccountStats.Cache> getOpenStoreCacheStats() {
+        final var stats = new ArrayList<AccountStats.Cache>();
+        for (final var accountData : List.of(aciAccountData, pniAccountData)) {
+            if (accountData.sessionStore != null) {
+                stats.add(accountData.sessionStore.getCacheStats());
+            }
+        }
+        if (recipientStore != null) {
+            stats.add(recipientStore.getCacheStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Shrinks the caches of the stores that have been opened by the given factor.
+     */
+    public void trimOpenStoreCaches(final double factor) {
+        for (final var accountData : List.of(aciAccountData, pniAccountData)) {
+            final var sessionStore = accountData.sessionStore;
+            if (sessionStore != null) {
+                sessionStore.trimCache((int) (sessionStore.getCacheStats().size() * factor));
+            }
+        }
+        if (recipientStore != null) {
+            recipientStore.trimCache((int) (recipientStore.getCacheStats().size() * factor));
+        }
+    }
+
+    /**
+     * @return the size of the account database and its write-ahead log
+     */
+    public AccountStats.Database getDatabaseStats() throws SQLException {
+        final var walFile = new File(getDatabaseFile(dataPath, accountPath).getPath() + "-wal");
+        final var database = getAccountDatabase();
+        return new AccountStats.Database(database.getPragma("page_size"),
+                database.getPragma("page_count"),
+                database.getPragma("freelist_count"),
+                walFile.length());
+    }
+
     public AccountDatabase getAccountDatabase() {
         return getOrCreate(() -> accountDatabase, () -> {
+            final var begin = startupTimeline.begin();
             try {
                 accountDatabase = AccountDatabase.init(getDatabaseFile(dataPath, accountPath));
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
+            startupTimeline.end("database-init", begin);
         });
     }
 
     public MessageSendLogStore getMessageSendLogStore() {
         return getOrCreate(() -> messageSendLogStore,
                 () -> messageSendLogStore = new MessageSendLogStore(getAccountDatabase(),
-                        settings.disableMessageSendLog()));
+                        settings.disableMessageSendLog(),
+                        maintenanceLane));
+    }
+
+    /**
+     * The periodic maintenance tasks of this account are scheduled on this lane, it's closed with the account.
+     */
+    public MaintenanceScheduler.Lane getMaintenanceLane() {
+        return maintenanceLane;
+    }
+
+    /**
+     * The websocket keep alives are scheduled on their own priority lane, so slow maintenance tasks can't delay them.
+     */
+    public MaintenanceScheduler.Lane getKeepAliveLane() {
+        return keepAliveLane;
+    }
+
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
     }
 
     public CredentialsProvider getCredentialsProvider() {
@@ -1800,6 +1887,8 @@ public class SignalAccount implements Closeable {
     @Override
     public void close() {
         synchronized (fileChannel) {
+            maintenanceLane.close();
+            keepAliveLane.close();
             if (accountDatabase != null) {
                 accountDatabase.close();
             }
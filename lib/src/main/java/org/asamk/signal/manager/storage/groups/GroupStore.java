@@ -417,7 +417,34 @@ public class GroupStore {
     }
 
     public List<GroupInfo> getGroups() {
-        return Stream.concat(getGroupsV2().stream(), getGroupsV1().stream()).toList();
+        return Stream.concat(getGroupsV2(null, Integer.MAX_VALUE).stream(),
+                getGroupsV1(null, Integer.MAX_VALUE).stream()).toList();
+    }
+
+    /**
+     * Returns at most limit groups that come after the given group, v2 groups first, each ordered by group id.
+     *
+     * @param after the last group of the previous page or null to start with the first group
+     */
+    public List<GroupInfo> getGroups(GroupId after, int limit) {
+        final var groups = new ArrayList<GroupInfo>();
+        final GroupIdV1 afterV1;
+        switch (after) {
+            case null -> {
+                groups.addAll(getGroupsV2(null, limit));
+                afterV1 = null;
+            }
+            case GroupIdV2 afterV2 -> {
+                groups.addAll(getGroupsV2(afterV2, limit));
+                afterV1 = null;
+            }
+            // All v2 groups have been listed before the first v1 group
+            case GroupIdV1 groupIdV1 -> afterV1 = groupIdV1;
+        }
+        if (groups.size() < limit) {
+            groups.addAll(getGroupsV1(afterV1, limit - groups.size()));
+        }
+        return groups;
     }
 
     public List<GroupIdV1> getGroupV1Ids(Connection connection) throws SQLException {
@@ -688,17 +715,21 @@ public class GroupStore {
         }
     }
 
-    private List<GroupInfoV2> getGroupsV2() {
+    private List<GroupInfoV2> getGroupsV2(GroupIdV2 after, int limit) {
         final var sql = (
                 """
                 SELECT g.group_id, g.master_key, g.group_data, g.distribution_id, g.blocked, g.profile_sharing, g.permission_denied, g.storage_record
                 FROM %s g
+                WHERE g.group_id > ?
+                ORDER BY g.group_id
                 """
         ).formatted(TABLE_GROUP_V2);
         try (final var connection = database.getConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, after == null ? new byte[0] : after.serialize());
                 return Utils.executeQueryForStream(statement, this::getGroupInfoV2FromResultSet)
                         .filter(Objects::nonNull)
+                        .limit(limit)
                         .toList();
             }
         } catch (SQLException e) {
@@ -797,17 +828,21 @@ public class GroupStore {
                 : StorageId.forGroupV2(storageId);
     }
 
-    private List<GroupInfoV1> getGroupsV1() {
+    private List<GroupInfoV1> getGroupsV1(GroupIdV1 after, int limit) {
         final var sql = (
                 """
                 SELECT g.group_id, g.group_id_v2, g.name, g.color, (select group_concat(gm.recipient_id) from %s gm where gm.group_id = g._id) as members, g.expiration_time, g.blocked, g.archived, g.storage_record
                 FROM %s g
+                WHERE g.group_id > ?
+                ORDER BY g.group_id
                 """
         ).formatted(TABLE_GROUP_V1_MEMBER, TABLE_GROUP_V1);
         try (final var connection = database.getConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, after == null ? new byte[0] : after.serialize());
                 return Utils.executeQueryForStream(statement, this::getGroupInfoV1FromResultSet)
                         .filter(Objects::nonNull)
+                        .limit(limit)
                         .toList();
             }
         } catch (SQLException e) {
@@ -201,16 +201,27 @@ public class IdentityKeyStore {
     }
 
     public List<IdentityInfo> getIdentities() {
+        return getIdentities("", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns at most limit identities with an address greater than the given address, ordered by address.
+     */
+    public List<IdentityInfo> getIdentities(String afterAddress, int limit) {
         try (final var connection = database.getConnection()) {
             final var sql = (
                     """
                     SELECT i.address, i.identity_key, i.added_timestamp, i.trust_level
                     FROM %s AS i
+                    WHERE i.address > ?
+                    ORDER BY i.address
                     """
             ).formatted(TABLE_IDENTITY);
             try (final var statement = connection.prepareStatement(sql)) {
+                statement.setString(1, afterAddress);
                 return Utils.executeQueryForStream(statement, this::getIdentityInfoFromResultSet)
                         .filter(Objects::nonNull)
+                        .limit(limit)
                         .toList();
             }
         } catch (SQLException e) {
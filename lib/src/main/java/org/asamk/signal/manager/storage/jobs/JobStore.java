@@ -0,0 +1,95 @@
+package org.asamk.signal.manager.storage.jobs;
+
+import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.Utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Stores the queued jobs that should be run again after a restart, until they have finished.
+ */
+public class JobStore {
+
+    private static final String TABLE_JOB = "job";
+
+    private final Database database;
+
+    public static void createSql(Connection connection) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE job (
+                                      _id INTEGER PRIMARY KEY,
+                                      type TEXT NOT NULL,
+                                      data TEXT NOT NULL
+                                    ) STRICT;
+                                    """);
+        }
+    }
+
+    public JobStore(final Database database) {
+        this.database = database;
+    }
+
+    public List<StoredJob> getJobs() {
+        final var sql = (
+                """
+                SELECT j._id, j.type, j.data
+                FROM %s j
+                ORDER BY j._id
+                """
+        ).formatted(TABLE_JOB);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getStoredJobFromResultSet)) {
+                    return result.toList();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from job store", e);
+        }
+    }
+
+    public long addJob(final String type, final String data) {
+        final var sql = (
+                """
+                INSERT INTO %s (type, data)
+                VALUES (?, ?)
+                RETURNING _id
+                """
+        ).formatted(TABLE_JOB);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setString(1, type);
+                statement.setString(2, data);
+                return Utils.executeQuerySingleRow(statement, Utils::getIdMapper);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update job store", e);
+        }
+    }
+
+    public void deleteJob(final long id) {
+        final var sql = (
+                """
+                DELETE FROM %s
+                WHERE _id = ?
+                """
+        ).formatted(TABLE_JOB);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, id);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update job store", e);
+        }
+    }
+
+    private StoredJob getStoredJobFromResultSet(ResultSet resultSet) throws SQLException {
+        return new StoredJob(resultSet.getLong("_id"), resultSet.getString("type"), resultSet.getString("data"));
+    }
+}
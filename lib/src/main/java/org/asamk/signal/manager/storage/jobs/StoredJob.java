@@ -0,0 +1,3 @@
+package org.asamk.signal.manager.storage.jobs;
+
+public record StoredJob(long id, String type, String data) {}
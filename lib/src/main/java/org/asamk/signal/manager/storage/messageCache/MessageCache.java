@@ -1,5 +1,6 @@
 package org.asamk.signal.manager.storage.messageCache;
 
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.util.IOUtils;
 import org.asamk.signal.manager.util.MessageCacheUtils;
@@ -49,6 +50,10 @@ public class MessageCache {
         }).map(CachedMessage::new).toList();
     }
 
+    public AccountStats.DiskUsage getDiskUsage() {
+        return IOUtils.getDiskUsage(messageCachePath);
+    }
+
     public CachedMessage cacheMessage(SignalServiceEnvelope envelope, RecipientId recipientId) {
         final var now = System.currentTimeMillis();
 
@@ -5,10 +5,19 @@ import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.libsignal.zkgroup.profiles.ExpiringProfileKeyCredential;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
 
+import java.util.Collection;
+import java.util.Set;
+
 public interface ProfileStore {
 
     Profile getProfile(RecipientId recipientId);
 
+    /**
+     * Returns the subset of the given recipients that have no stored profile or
+     * a profile that was last updated at or before the given timestamp.
+     */
+    Set<RecipientId> getRecipientIdsWithProfileOlderThan(Collection<RecipientId> recipientIds, long timestamp);
+
     ProfileKey getProfileKey(RecipientId recipientId);
 
     ExpiringProfileKeyCredential getExpiringProfileKeyCredential(RecipientId recipientId);
@@ -1,5 +1,6 @@
 package org.asamk.signal.manager.storage.recipients;
 
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.Contact;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PhoneNumberSharingMode;
@@ -9,6 +10,7 @@ import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
 import org.asamk.signal.manager.storage.contacts.ContactsStore;
 import org.asamk.signal.manager.storage.profiles.ProfileStore;
+import org.asamk.signal.manager.util.CacheCounter;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.signal.core.models.ServiceId;
 import org.signal.core.models.ServiceId.ACI;
@@ -30,12 +32,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -43,6 +49,9 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     private static final Logger logger = LoggerFactory.getLogger(RecipientStore.class);
     private static final String TABLE_RECIPIENT = "recipient";
+    // Same as Contact.getName() and Profile.getDisplayName()
+    private static final String SQL_CONTACT_NAME = "CASE WHEN IFNULL(r.given_name, '') = '' THEN IFNULL(r.family_name, '') WHEN IFNULL(r.family_name, '') = '' THEN r.given_name ELSE r.given_name || ' ' || r.family_name END";
+    private static final String SQL_PROFILE_NAME = "CASE WHEN IFNULL(r.profile_given_name, '') = '' THEN IFNULL(r.profile_family_name, '') WHEN IFNULL(r.profile_family_name, '') = '' THEN r.profile_given_name ELSE r.profile_given_name || ' ' || r.profile_family_name END";
     private static final String SQL_IS_CONTACT = "r.given_name IS NOT NULL OR r.family_name IS NOT NULL OR r.nick_name IS NOT NULL OR r.nick_name_given_name IS NOT NULL OR r.nick_name_family_name IS NOT NULL OR r.note IS NOT NULL OR r.expiration_time > 0 OR r.profile_sharing = TRUE OR r.color IS NOT NULL OR r.blocked = TRUE OR r.archived = TRUE";
 
     private final RecipientMergeHandler recipientMergeHandler;
@@ -62,6 +71,15 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                     return size() > MAX_RECIPIENT_CACHE_SIZE;
                 }
             });
+    private final CacheCounter recipientAddressCacheCounter = new CacheCounter("recipient-addresses",
+            MAX_RECIPIENT_CACHE_SIZE);
+
+    // Notified after a change of a contact, profile or address has been committed, to update derived caches
+    private final List<Consumer<RecipientId>> changeListeners = new CopyOnWriteArrayList<>();
+    // The recipients changed by each connection until it's committed, the changes of a connection that is closed
+    // without a commit are dropped with the connection
+    private final Map<Connection, Set<RecipientId>> uncommittedChanges = Collections.synchronizedMap(
+            new WeakHashMap<>());
 
     public static void createSql(Connection connection) throws SQLException {
         // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
@@ -125,6 +143,43 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         this.database = database;
     }
 
+    /**
+     * Adds a listener that's called with the recipient whose contact, profile or address was modified, after the
+     * change has been committed.
+     */
+    public void addChangeListener(final Consumer<RecipientId> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Notifies the change listeners of the recipients that were modified with the connection, must be called once
+     * its changes have been committed.
+     */
+    public void notifyCommittedChanges(final Connection connection) {
+        final var recipientIds = uncommittedChanges.remove(connection);
+        if (recipientIds == null) {
+            return;
+        }
+        for (final var recipientId : recipientIds) {
+            changeListeners.forEach(listener -> listener.accept(recipientId));
+        }
+    }
+
+    public AccountStats.Cache getCacheStats() {
+        synchronized (recipientAddressCache) {
+            return recipientAddressCacheCounter.getStats(recipientAddressCache.size());
+        }
+    }
+
+    /**
+     * Drops the least recently used addresses from the cache, until at most the given number is cached.
+     */
+    public void trimCache(final int maxEntries) {
+        synchronized (recipientAddressCache) {
+            CacheCounter.trim(recipientAddressCache, maxEntries);
+        }
+    }
+
     public RecipientAddress resolveRecipientAddress(RecipientId recipientId) {
         try (final var connection = database.getConnection()) {
             return resolveRecipientAddress(connection, recipientId);
@@ -197,8 +252,10 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     public RecipientId resolveRecipient(final ServiceId serviceId) {
         final var recipientWithAddress = recipientAddressCache.get(serviceId);
         if (recipientWithAddress != null) {
+            recipientAddressCacheCounter.hit();
             return recipientWithAddress.id();
         }
+        // The miss is counted by findByServiceId, which looks up the cache again
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             final var recipientId = resolveRecipientLocked(connection, serviceId);
@@ -330,6 +387,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     public void storeContact(RecipientId recipientId, final Contact contact) {
         try (final var connection = database.getConnection()) {
             storeContact(connection, recipientId, contact);
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -420,8 +478,23 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             Optional<Boolean> blocked,
             Set<RecipientId> recipientIds,
             Optional<String> name
+    ) {
+        return getRecipients(onlyContacts, blocked, recipientIds, name, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns at most limit recipients with an id greater than afterId, ordered by id.
+     */
+    public List<Recipient> getRecipients(
+            boolean onlyContacts,
+            Optional<Boolean> blocked,
+            Set<RecipientId> recipientIds,
+            Optional<String> name,
+            long afterId,
+            int limit
     ) {
         final var sqlWhere = new ArrayList<String>();
+        sqlWhere.add("r._id > ?");
         if (onlyContacts) {
             sqlWhere.add("r.unregistered_timestamp IS NULL");
             sqlWhere.add("(" + SQL_IS_CONTACT + ")");
@@ -436,6 +509,9 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                     .collect(Collectors.joining(","));
             sqlWhere.add("r._id IN (" + recipientIdsCommaSeparated + ")");
         }
+        if (name.isPresent()) {
+            sqlWhere.add("((" + SQL_CONTACT_NAME + ") = ? OR (" + SQL_PROFILE_NAME + ") = ?)");
+        }
         final var sql = (
                 """
                 SELECT r._id,
@@ -447,18 +523,25 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                        r.storage_record
                 FROM %s r
                 WHERE (r.number IS NOT NULL OR r.pni IS NOT NULL OR r.aci IS NOT NULL) AND %s
+                ORDER BY r._id
+                LIMIT ?
                 """
-        ).formatted(TABLE_RECIPIENT, sqlWhere.isEmpty() ? "TRUE" : String.join(" AND ", sqlWhere));
+        ).formatted(TABLE_RECIPIENT, String.join(" AND ", sqlWhere));
         final var selfAddress = selfAddressProvider.getSelfAddress();
         try (final var connection = database.getConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
+                var parameterIndex = 1;
+                statement.setLong(parameterIndex++, afterId);
                 if (blocked.isPresent()) {
-                    statement.setBoolean(1, blocked.get());
+                    statement.setBoolean(parameterIndex++, blocked.get());
                 }
+                if (name.isPresent()) {
+                    statement.setString(parameterIndex++, name.get());
+                    statement.setString(parameterIndex++, name.get());
+                }
+                statement.setInt(parameterIndex, limit);
                 try (var result = Utils.executeQueryForStream(statement, this::getRecipientFromResultSet)) {
-                    return result.filter(r -> name.isEmpty() || (
-                            r.getContact() != null && name.get().equals(r.getContact().getName())
-                    ) || (r.getProfile() != null && name.get().equals(r.getProfile().getDisplayName()))).map(r -> {
+                    return result.map(r -> {
                         if (r.getAddress().matches(selfAddress)) {
                             return Recipient.newBuilder(r)
                                     .withProfileKey(selfProfileKeyProvider.getSelfProfileKey())
@@ -624,6 +707,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             storeExpiringProfileKeyCredential(connection, recipientId, null);
             deleteRecipient(connection, recipientId);
             connection.commit();
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -638,6 +722,37 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
+    @Override
+    public Set<RecipientId> getRecipientIdsWithProfileOlderThan(
+            final Collection<RecipientId> recipientIds,
+            final long timestamp
+    ) {
+        if (recipientIds.isEmpty()) {
+            return Set.of();
+        }
+        final var recipientIdsCommaSeparated = recipientIds.stream()
+                .map(recipientId -> String.valueOf(recipientId.id()))
+                .distinct()
+                .collect(Collectors.joining(","));
+        final var sql = (
+                """
+                SELECT r._id
+                FROM %s r
+                WHERE (r.profile_capabilities IS NULL OR r.profile_last_update_timestamp <= ?) AND r._id IN (%s)
+                """
+        ).formatted(TABLE_RECIPIENT, recipientIdsCommaSeparated);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, timestamp);
+                try (var result = Utils.executeQueryForStream(statement, this::getRecipientIdFromResultSet)) {
+                    return result.collect(Collectors.toSet());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from recipient store", e);
+        }
+    }
+
     @Override
     public ProfileKey getProfileKey(final RecipientId recipientId) {
         try (final var connection = database.getConnection()) {
@@ -660,6 +775,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     public void storeProfile(RecipientId recipientId, final Profile profile) {
         try (final var connection = database.getConnection()) {
             storeProfile(connection, recipientId, profile);
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -914,6 +1030,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             statement.setLong(17, recipientId.id());
             statement.executeUpdate();
         }
+        recipientChanged(connection, recipientId);
         if (contact != null && contact.unregisteredTimestamp() != null) {
             markUnregisteredAndSplitIfNecessary(connection, recipientId);
         }
@@ -997,6 +1114,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                 }
             }
             connection.commit();
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -1029,6 +1147,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                 markUnregisteredAndSplitIfNecessary(connection, recipientId);
             }
             connection.commit();
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -1151,6 +1270,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             statement.setLong(11, recipientId.id());
             statement.executeUpdate();
         }
+        recipientChanged(connection, recipientId);
         rotateStorageId(connection, recipientId);
     }
 
@@ -1212,6 +1332,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             connection.setAutoCommit(false);
             pair = resolveRecipientTrustedLocked(connection, address, isSelf);
             connection.commit();
+            notifyCommittedChanges(connection);
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
@@ -1222,6 +1343,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                 connection.setAutoCommit(false);
                 mergeRecipients(connection, pair.first(), pair.second());
                 connection.commit();
+                notifyCommittedChanges(connection);
             } catch (SQLException e) {
                 throw new RuntimeException("Failed update recipient store", e);
             }
@@ -1258,6 +1380,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             recipientMergeHandler.mergeRecipients(connection, recipientId, toBeMergedRecipientId);
             deleteRecipient(connection, toBeMergedRecipientId);
             recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(toBeMergedRecipientId));
+            recipientChanged(connection, toBeMergedRecipientId);
         }
     }
 
@@ -1357,6 +1480,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             statement.setLong(1, recipientId.id());
             statement.executeUpdate();
         }
+        recipientChanged(connection, recipientId);
     }
 
     private void updateRecipientAddress(
@@ -1380,9 +1504,14 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             statement.setLong(5, recipientId.id());
             statement.executeUpdate();
         }
+        recipientChanged(connection, recipientId);
         rotateStorageId(connection, recipientId);
     }
 
+    private void recipientChanged(final Connection connection, final RecipientId recipientId) {
+        uncommittedChanges.computeIfAbsent(connection, _ -> new HashSet<>()).add(recipientId);
+    }
+
     private void deleteRecipient(final Connection connection, final RecipientId recipientId) throws SQLException {
         final var sql = (
                 """
@@ -1467,8 +1596,10 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     ) throws SQLException {
         var recipientWithAddress = Optional.ofNullable(recipientAddressCache.get(serviceId));
         if (recipientWithAddress.isPresent()) {
+            recipientAddressCacheCounter.hit();
             return recipientWithAddress;
         }
+        recipientAddressCacheCounter.miss();
         final var sql = """
                         SELECT r._id, r.number, r.aci, r.pni, r.username
                         FROM %s r
@@ -4,6 +4,7 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.groups.GroupUtils;
 import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
 import org.signal.core.models.ServiceId;
 import org.signal.libsignal.zkgroup.InvalidInputException;
 import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
@@ -30,31 +31,29 @@ public class MessageSendLogStore implements AutoCloseable {
     private static final String TABLE_MESSAGE_SEND_LOG_CONTENT = "message_send_log_content";
 
     private static final Duration LOG_DURATION = Duration.ofDays(1);
+    private static final Duration CLEANUP_INTERVAL = Duration.ofHours(1);
 
     private final Database database;
-    private final Thread cleanupThread;
+    private final MaintenanceScheduler.Task cleanupTask;
     private final boolean sendLogDisabled;
 
-    public MessageSendLogStore(final Database database, final boolean disableMessageSendLog) {
+    public MessageSendLogStore(
+            final Database database,
+            final boolean disableMessageSendLog,
+            final MaintenanceScheduler.Lane maintenanceLane
+    ) {
         this.database = database;
         this.sendLogDisabled = disableMessageSendLog;
-        this.cleanupThread = Thread.ofPlatform().name("msl-cleanup").daemon().start(() -> {
-            try {
-                final var interval = Duration.ofHours(1).toMillis();
-                while (!Thread.interrupted()) {
-                    try (final var connection = database.getConnection()) {
-                        deleteOutdatedEntries(connection);
-                    } catch (SQLException e) {
-                        logger.debug("MSL", e);
-                        logger.warn("Deleting outdated entries failed");
-                        break;
-                    }
-                    Thread.sleep(interval);
-                }
-            } catch (InterruptedException e) {
-                logger.debug("Stopping msl cleanup thread");
-            }
-        });
+        this.cleanupTask = maintenanceLane.scheduleWithFixedDelay(this::cleanup, Duration.ZERO, CLEANUP_INTERVAL);
+    }
+
+    private void cleanup() {
+        try (final var connection = database.getConnection()) {
+            deleteOutdatedEntries(connection);
+        } catch (SQLException e) {
+            logger.debug("MSL", e);
+            logger.warn("Deleting outdated entries failed");
+        }
     }
 
     public static void createSql(Connection connection) throws SQLException {
@@ -255,11 +254,7 @@ public class MessageSendLogStore implements AutoCloseable {
 
     @Override
     public void close() {
-        cleanupThread.interrupt();
-        try {
-            cleanupThread.join();
-        } catch (InterruptedException ignored) {
-        }
+        cleanupTask.cancel();
     }
 
     private RecipientDevices getRecipientDevices(final SendMessageResult sendMessageResult) {
@@ -1,8 +1,10 @@
 package org.asamk.signal.manager.storage.sessions;
 
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
+import org.asamk.signal.manager.util.CacheCounter;
 import org.signal.core.models.ServiceId;
 import org.signal.libsignal.protocol.NoSessionException;
 import org.signal.libsignal.protocol.SignalProtocolAddress;
@@ -20,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -40,6 +43,7 @@ public class SessionStore implements SignalServiceSessionStore {
 
     private final Database database;
     private final int accountIdType;
+    private final CacheCounter cacheCounter;
 
     public static void createSql(Connection connection) throws SQLException {
         // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
@@ -60,6 +64,23 @@ public class SessionStore implements SignalServiceSessionStore {
     public SessionStore(final Database database, final ServiceIdType serviceIdType) {
         this.database = database;
         this.accountIdType = Utils.getAccountIdType(serviceIdType);
+        this.cacheCounter = new CacheCounter("sessions-" + serviceIdType.name().toLowerCase(Locale.ROOT),
+                MAX_CACHE_SIZE);
+    }
+
+    public AccountStats.Cache getCacheStats() {
+        synchronized (cachedSessions) {
+            return cacheCounter.getStats(cachedSessions.size());
+        }
+    }
+
+    /**
+     * Drops the least recently used sessions from the cache, until at most the given number is cached.
+     */
+    public void trimCache(final int maxEntries) {
+        synchronized (cachedSessions) {
+            CacheCounter.trim(cachedSessions, maxEntries);
+        }
     }
 
     @Override
@@ -315,9 +336,11 @@ public class SessionStore implements SignalServiceSessionStore {
         synchronized (cachedSessions) {
             final var session = cachedSessions.get(key);
             if (session != null) {
+                cacheCounter.hit();
                 return session;
             }
         }
+        cacheCounter.miss();
         final var sql = (
                 """
                 SELECT s.record
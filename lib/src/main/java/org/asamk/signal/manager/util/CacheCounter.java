@@ -0,0 +1,48 @@
+package org.asamk.signal.manager.util;
+
+import org.asamk.signal.manager.api.AccountStats;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the hits and misses of an in-memory cache, for the account statistics.
+ */
+public final class CacheCounter {
+
+    private final String name;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CacheCounter(final String name, final int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+
+    public void hit() {
+        hits.increment();
+    }
+
+    public void miss() {
+        misses.increment();
+    }
+
+    public AccountStats.Cache getStats(final int size) {
+        return new AccountStats.Cache(name, size, maxSize, hits.sum(), misses.sum());
+    }
+
+    /**
+     * Removes the eldest entries of an access ordered map, until it contains at most the given number of entries.
+     * The caller must hold the lock of the map.
+     */
+    public static void trim(final Map<?, ?> cache, final int maxEntries) {
+        final Iterator<?> iterator = cache.keySet().iterator();
+        var remove = cache.size() - Math.max(0, maxEntries);
+        while (remove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package org.asamk.signal.manager.util;
 
+import org.asamk.signal.manager.api.AccountStats;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Set;
 
@@ -102,4 +106,20 @@ public class IOUtils {
             return -1;
         }
     }
+
+    /**
+     * @return the number of files in the directory and its subdirectories and their total size, or zero if the
+     * directory doesn't exist
+     */
+    public static AccountStats.DiskUsage getDiskUsage(final File directory) {
+        if (!directory.exists()) {
+            return new AccountStats.DiskUsage(0, 0);
+        }
+        try (final var files = Files.walk(directory.toPath())) {
+            final var sizes = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).toArray();
+            return new AccountStats.DiskUsage(sizes.length, Arrays.stream(sizes).sum());
+        } catch (IOException | UncheckedIOException e) {
+            return new AccountStats.DiskUsage(0, 0);
+        }
+    }
 }
@@ -0,0 +1,225 @@
+package org.asamk.signal.manager.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the periodic maintenance tasks of all accounts in the process, like the message send log cleanup and the
+ * websocket keep alives, with a single timer thread instead of a sleeping thread per task and account.
+ * <p>
+ * Due tasks are executed on virtual threads. Each account schedules its tasks on its own {@link Lane}. Only one task
+ * of a lane runs at a time and lanes with due tasks take turns, so an account with many or slow tasks can't delay the
+ * tasks of the other accounts. The number of tasks running at the same time is bounded as well.
+ * <p>
+ * Time critical tasks like the websocket keep alives are scheduled on priority lanes, see
+ * {@link #createPriorityLane()}. Their due tasks run first and aren't counted against the bound, so they can't be
+ * starved by slow tasks.
+ */
+public final class MaintenanceScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MaintenanceScheduler.class);
+
+    static final int MAX_RUNNING_TASKS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final MaintenanceScheduler instance = new MaintenanceScheduler(MAX_RUNNING_TASKS,
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("maintenance-", 0).factory()));
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final Executor executor;
+    private final int maxRunning;
+    private final Deque<Lane> ready = new ArrayDeque<>();
+    private final Deque<Lane> readyPriority = new ArrayDeque<>();
+    private int running;
+
+    MaintenanceScheduler(final int maxRunning, final Executor executor) {
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name("maintenance-timer").daemon().factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+        this.maxRunning = maxRunning;
+    }
+
+    public static MaintenanceScheduler getInstance() {
+        return instance;
+    }
+
+    public Lane createLane() {
+        return new Lane(false);
+    }
+
+    /**
+     * Creates a lane for short, time critical tasks, e.g. keep alives.
+     * Its tasks don't wait for the tasks of the other lanes, but still run one at a time.
+     */
+    public Lane createPriorityLane() {
+        return new Lane(true);
+    }
+
+    private void makeDue(final Lane lane, final Task task) {
+        synchronized (this) {
+            if (task.cancelled) {
+                return;
+            }
+            lane.due.add(task);
+            if (!lane.running && !lane.queued) {
+                enqueue(lane);
+            }
+        }
+        dispatch();
+    }
+
+    private void enqueue(final Lane lane) {
+        lane.queued = true;
+        (lane.priority ? readyPriority : ready).add(lane);
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            while (!readyPriority.isEmpty()) {
+                start(readyPriority.poll());
+            }
+            while (running < maxRunning && !ready.isEmpty()) {
+                start(ready.poll());
+            }
+        }
+    }
+
+    private void start(final Lane lane) {
+        lane.queued = false;
+        final var task = lane.due.poll();
+        if (task == null) {
+            return;
+        }
+        lane.running = true;
+        if (!lane.priority) {
+            running++;
+        }
+        executor.execute(() -> runTask(lane, task));
+    }
+
+    private void runTask(final Lane lane, final Task task) {
+        try {
+            task.action.run();
+        } catch (Throwable e) {
+            logger.warn("Maintenance task failed", e);
+        }
+
+        synchronized (this) {
+            if (!lane.priority) {
+                running--;
+            }
+            lane.running = false;
+            if (!lane.due.isEmpty()) {
+                // The lane goes to the back, so the other lanes with due tasks run first
+                enqueue(lane);
+            }
+            if (task.repeatDelay != null && !task.cancelled) {
+                task.schedule(task.repeatDelay);
+            } else {
+                lane.tasks.remove(task);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * The tasks of one account, they are executed one at a time.
+     */
+    public final class Lane implements AutoCloseable {
+
+        private final Queue<Task> due = new ArrayDeque<>();
+        private final Set<Task> tasks = new HashSet<>();
+        private final boolean priority;
+        private boolean running;
+        private boolean queued;
+        private boolean closed;
+
+        private Lane(final boolean priority) {
+            this.priority = priority;
+        }
+
+        public Task schedule(final Runnable action, final Duration delay) {
+            return add(new Task(this, action, null), delay);
+        }
+
+        /**
+         * Runs the action repeatedly, the delay starts when the previous run has finished.
+         */
+        public Task scheduleWithFixedDelay(final Runnable action, final Duration initialDelay, final Duration delay) {
+            return add(new Task(this, action, delay), initialDelay);
+        }
+
+        private Task add(final Task task, final Duration delay) {
+            synchronized (MaintenanceScheduler.this) {
+                if (closed) {
+                    task.cancelled = true;
+                    return task;
+                }
+                tasks.add(task);
+                task.schedule(delay);
+            }
+            return task;
+        }
+
+        /**
+         * Cancels all tasks of this lane, a task that is currently running isn't interrupted.
+         */
+        @Override
+        public void close() {
+            synchronized (MaintenanceScheduler.this) {
+                closed = true;
+                for (final var task : new HashSet<>(tasks)) {
+                    task.cancel();
+                }
+            }
+        }
+    }
+
+    public final class Task {
+
+        private final Lane lane;
+        private final Runnable action;
+        private final Duration repeatDelay;
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+
+        private Task(final Lane lane, final Runnable action, final Duration repeatDelay) {
+            this.lane = lane;
+            this.action = action;
+            this.repeatDelay = repeatDelay;
+        }
+
+        private void schedule(final Duration delay) {
+            future = timer.schedule(() -> makeDue(lane, this), delay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Cancels further runs of the task, a run that has already started isn't interrupted.
+         */
+        public void cancel() {
+            synchronized (MaintenanceScheduler.this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                lane.due.remove(this);
+                lane.tasks.remove(this);
+            }
+        }
+    }
+}
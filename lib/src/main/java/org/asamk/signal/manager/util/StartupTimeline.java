@@ -0,0 +1,86 @@
+package org.asamk.signal.manager.util;
+
+import org.asamk.signal.manager.api.StartupReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Records how long the phases of loading an account take, to find out what makes the startup slow.
+ * <p>
+ * Phases can contain other phases, e.g. the database is initialized by the first phase that accesses it.
+ */
+public final class StartupTimeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeline.class);
+
+    private final long startedTimestamp = System.currentTimeMillis();
+    private final long startedNanos = System.nanoTime();
+    private final List<StartupReport.Phase> phases = new ArrayList<>();
+
+    /**
+     * @return the start time to pass to {@link #end(String, long)}
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(final String name, final long begin) {
+        final var phase = new StartupReport.Phase(name,
+                toMillis(begin - startedNanos),
+                toMillis(System.nanoTime() - begin));
+        logger.debug("Startup phase {} took {}ms", name, phase.duration());
+        add(phase);
+    }
+
+    /**
+     * Records an event, only its first occurrence is kept.
+     *
+     * @return true if this was the first occurrence
+     */
+    public boolean markOnce(final String name) {
+        final var phase = new StartupReport.Phase(name, toMillis(System.nanoTime() - startedNanos), 0);
+        synchronized (phases) {
+            if (phases.stream().anyMatch(p -> p.name().equals(name))) {
+                return false;
+            }
+            phases.add(phase);
+        }
+        logger.debug("Startup event {} after {}ms", name, phase.offset());
+        return true;
+    }
+
+    public StartupReport getReport() {
+        synchronized (phases) {
+            final var sortedPhases = phases.stream()
+                    .sorted(Comparator.comparingLong(StartupReport.Phase::offset))
+                    .toList();
+            return new StartupReport(startedTimestamp, sortedPhases);
+        }
+    }
+
+    public void logSummary(final String account) {
+        final var summary = getReport().phases()
+                .stream()
+                .map(p -> p.duration() == 0
+                        ? p.name() + " at " + p.offset() + "ms"
+                        : p.name() + " " + p.duration() + "ms")
+                .collect(Collectors.joining(", "));
+        logger.info("Startup timeline of {}: {}", account, summary);
+    }
+
+    private void add(final StartupReport.Phase phase) {
+        synchronized (phases) {
+            phases.add(phase);
+        }
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,34 @@
+package org.asamk.signal.manager.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PageTest {
+
+    @Test
+    void pagesThroughList() throws InvalidCursorException {
+        final var list = List.of(1, 2, 3, 4, 5);
+
+        final var first = Page.fromList(list, null, 2);
+        assertEquals(List.of(1, 2), first.items());
+        final var second = Page.fromList(list, first.nextCursor(), 2);
+        assertEquals(List.of(3, 4), second.items());
+        final var last = Page.fromList(list, second.nextCursor(), 2);
+        assertEquals(List.of(5), last.items());
+        assertNull(last.nextCursor());
+    }
+
+    @Test
+    void rejectsCursorOfOtherList() {
+        final var cursor = Page.encodeCursor("groups", "abc");
+
+        assertThrows(InvalidCursorException.class, () -> Page.decodeCursor("identities", cursor));
+        assertThrows(InvalidCursorException.class, () -> Page.fromList(List.of(1), cursor, 1));
+        assertThrows(InvalidCursorException.class, () -> Page.decodeCursor("groups", "not base64!"));
+    }
+}
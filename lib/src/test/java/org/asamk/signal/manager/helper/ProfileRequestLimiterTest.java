@@ -0,0 +1,106 @@
+package org.asamk.signal.manager.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProfileRequestLimiterTest {
+
+    private static long countRunning(List<SingleSubject<String>> requests) {
+        return requests.stream().filter(SingleSubject::hasObservers).count();
+    }
+
+    @Test
+    void limitsConcurrentRequests() {
+        final var limiter = new ProfileRequestLimiter();
+        final var limit = limiter.getLimit();
+        final var requests = new ArrayList<SingleSubject<String>>();
+        for (var i = 0; i < limit + 5; i++) {
+            final var request = SingleSubject.<String>create();
+            requests.add(request);
+            limiter.limit(request).subscribe();
+        }
+
+        assertEquals(limit, countRunning(requests));
+
+        requests.getFirst().onSuccess("done");
+        assertEquals(limit, countRunning(requests));
+        assertTrue(requests.get(limit).hasObservers());
+    }
+
+    @Test
+    void disposedWaitingRequestsAreSkipped() {
+        final var limiter = new ProfileRequestLimiter();
+        final var limit = limiter.getLimit();
+        final var requests = new ArrayList<SingleSubject<String>>();
+        for (var i = 0; i < limit; i++) {
+            final var request = SingleSubject.<String>create();
+            requests.add(request);
+            limiter.limit(request).subscribe();
+        }
+        final var cancelled = SingleSubject.<String>create();
+        limiter.limit(cancelled).subscribe().dispose();
+        final var waiting = SingleSubject.<String>create();
+        limiter.limit(waiting).subscribe();
+
+        requests.getFirst().onSuccess("done");
+
+        assertFalse(cancelled.hasObservers());
+        assertTrue(waiting.hasObservers());
+    }
+
+    @Test
+    void fastRequestsIncreaseLimit() {
+        final var limiter = new ProfileRequestLimiter();
+        final var initialLimit = limiter.getLimit();
+        for (var i = 0; i < initialLimit * 2; i++) {
+            limiter.limit(Single.just("done")).blockingGet();
+        }
+
+        assertTrue(limiter.getLimit() > initialLimit);
+    }
+
+    @Test
+    void cancelledRequestsDontLeakPermits() throws Exception {
+        final var limiter = new ProfileRequestLimiter();
+        final var limit = limiter.getLimit();
+        try (final var executor = Executors.newFixedThreadPool(4)) {
+            final var tasks = new ArrayList<Future<?>>();
+            for (var t = 0; t < 4; t++) {
+                tasks.add(executor.submit(() -> {
+                    for (var i = 0; i < 2000; i++) {
+                        final var request = SingleSubject.<String>create();
+                        final var disposable = limiter.limit(request).subscribe();
+                        if (i % 2 == 0) {
+                            disposable.dispose();
+                        } else {
+                            request.onSuccess("done");
+                        }
+                    }
+                }));
+            }
+            for (final var task : tasks) {
+                task.get();
+            }
+        }
+
+        assertEquals(0, limiter.getRunning());
+        final var requests = new ArrayList<SingleSubject<String>>();
+        for (var i = 0; i < limit; i++) {
+            final var request = SingleSubject.<String>create();
+            requests.add(request);
+            limiter.limit(request).subscribe();
+        }
+        assertEquals(limit, countRunning(requests));
+    }
+}
@@ -0,0 +1,75 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.TestRecipientId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DisplayNameCacheTest {
+
+    private static final RecipientIdentifier.Single RECIPIENT = new RecipientIdentifier.Number("+10000000000");
+    private static final RecipientIdentifier.Single OTHER_RECIPIENT = new RecipientIdentifier.Number("+10000000001");
+    private static final RecipientId RECIPIENT_ID = TestRecipientId.createTestId(1);
+    private static final RecipientId OTHER_RECIPIENT_ID = TestRecipientId.createTestId(2);
+
+    private final List<Consumer<RecipientId>> listeners = new ArrayList<>();
+    private final DisplayNameCache cache = new DisplayNameCache(listeners::add);
+
+    private static RecipientId resolve(final RecipientIdentifier.Single recipient) {
+        return recipient == RECIPIENT ? RECIPIENT_ID : OTHER_RECIPIENT_ID;
+    }
+
+    private String get(final RecipientIdentifier.Single recipient, final String prefix, final AtomicInteger loads) {
+        return cache.get(recipient, DisplayNameCacheTest::resolve, _ -> prefix + " " + loads.incrementAndGet());
+    }
+
+    private void recipientChanged(final RecipientId recipientId) {
+        listeners.forEach(listener -> listener.accept(recipientId));
+    }
+
+    @Test
+    void loadsNameOnlyOnceUntilRecipientChanges() {
+        final var loads = new AtomicInteger();
+
+        assertEquals("Name 1", get(RECIPIENT, "Name", loads));
+        assertEquals("Name 1", get(RECIPIENT, "Name", loads));
+
+        recipientChanged(RECIPIENT_ID);
+        assertEquals("Name 2", get(RECIPIENT, "Name", loads));
+    }
+
+    @Test
+    void keepsNamesOfOtherRecipients() {
+        final var loads = new AtomicInteger();
+        get(RECIPIENT, "Name", loads);
+        get(OTHER_RECIPIENT, "Other", loads);
+
+        recipientChanged(RECIPIENT_ID);
+
+        assertEquals("Other 2", get(OTHER_RECIPIENT, "Other", loads));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void doesNotCacheNameChangedWhileLoading() {
+        final var loads = new AtomicInteger();
+
+        cache.get(RECIPIENT, DisplayNameCacheTest::resolve, _ -> {
+            loads.incrementAndGet();
+            recipientChanged(RECIPIENT_ID);
+            return "Old";
+        });
+        assertEquals("New", cache.get(RECIPIENT, DisplayNameCacheTest::resolve, _ -> {
+            loads.incrementAndGet();
+            return "New";
+        }));
+        assertEquals(2, loads.get());
+    }
+}
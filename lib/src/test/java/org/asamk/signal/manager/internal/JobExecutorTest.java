@@ -0,0 +1,340 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.helper.Context;
+import org.asamk.signal.manager.jobs.Job;
+import org.asamk.signal.manager.jobs.RetryJobException;
+import org.asamk.signal.manager.storage.jobs.StoredJob;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobExecutorTest {
+
+    private final BlockingQueue<Scheduled> scheduled = new LinkedBlockingQueue<>();
+    private final MemoryStorage storage = new MemoryStorage();
+    private final List<String> ran = new ArrayList<>();
+    private final JobExecutor executor = new JobExecutor(null,
+            Executors.newVirtualThreadPerTaskExecutor(),
+            (task, delay) -> scheduled.add(new Scheduled(task, delay)),
+            storage,
+            (type, data) -> "TestJob".equals(type) ? new TestJob("restored:" + data).serialized(data) : null);
+
+    @Test
+    void coalescesWaitingJobsWithTheSameKey() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final var started = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("blocker").priority(Job.Priority.HIGH).blockingOn(started, release));
+        started.await();
+        for (var i = 0; i < 3; i++) {
+            executor.enqueueJob(new TestJob("keyed").priority(Job.Priority.HIGH).key("key"));
+        }
+
+        assertEquals(1, executor.getStats().queued());
+        release.countDown();
+        executor.close();
+        assertEquals(List.of("blocker", "keyed"), ran);
+    }
+
+    @Test
+    void slowLowPriorityJobsDontBlockHigherPriorities() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final var started = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("slow").priority(Job.Priority.LOW).blockingOn(started, release));
+        started.await();
+        executor.enqueueJob(new TestJob("low").priority(Job.Priority.LOW));
+        final var highFinished = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("high").priority(Job.Priority.HIGH).finished(highFinished));
+
+        assertTrue(highFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getStats().queued());
+        release.countDown();
+        executor.close();
+        assertEquals(List.of("high", "slow", "low"), ran);
+    }
+
+    @Test
+    void jobsWithTheSameExclusionKeyDontRunConcurrently() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final var started = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("refresh").priority(Job.Priority.LOW)
+                .exclusionKeys(Set.of(Job.RECIPIENTS_EXCLUSION_KEY))
+                .blockingOn(started, release));
+        started.await();
+        executor.enqueueJob(new TestJob("sync").priority(Job.Priority.HIGH)
+                .exclusionKeys(Set.of(Job.RECIPIENTS_EXCLUSION_KEY)));
+        // Jobs without the exclusion key aren't blocked by the waiting job
+        final var otherFinished = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("other").priority(Job.Priority.HIGH).finished(otherFinished));
+
+        assertTrue(otherFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getStats().queued());
+        release.countDown();
+        executor.close();
+        assertEquals(List.of("other", "refresh", "sync"), ran);
+    }
+
+    @Test
+    void jobsSharingAnExclusionKeyNeverOverlapAcrossPriorities() {
+        final var active = new AtomicInteger();
+        final var maxActive = new AtomicInteger();
+        final var priorities = Job.Priority.values();
+        for (var i = 0; i < 30; i++) {
+            final var exclusionKeys = i % 2 == 0
+                    ? Set.of(Job.RECIPIENTS_EXCLUSION_KEY)
+                    : Set.of(Job.RECIPIENTS_EXCLUSION_KEY, Job.PRE_KEYS_EXCLUSION_KEY);
+            executor.enqueueJob(new TestJob("job" + i).priority(priorities[i % priorities.length])
+                    .exclusionKeys(exclusionKeys)
+                    .action(() -> {
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        Thread.sleep(2);
+                        active.decrementAndGet();
+                    }));
+        }
+
+        executor.close();
+        assertEquals(30, ran.size());
+        assertEquals(1, maxActive.get());
+    }
+
+    @Test
+    void jobsWithoutDeclaredExclusionKeysAreSerialized() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final var started = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("default").priority(Job.Priority.LOW)
+                .defaultExclusionKeys()
+                .blockingOn(started, release));
+        started.await();
+        executor.enqueueJob(new TestJob("preKeys").priority(Job.Priority.HIGH)
+                .exclusionKeys(Set.of(Job.PRE_KEYS_EXCLUSION_KEY)));
+        final var otherFinished = new CountDownLatch(1);
+        executor.enqueueJob(new TestJob("other").priority(Job.Priority.HIGH).finished(otherFinished));
+
+        assertTrue(otherFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getStats().queued());
+        release.countDown();
+        executor.close();
+        assertEquals(List.of("other", "default", "preKeys"), ran);
+    }
+
+    @Test
+    void retriesFailedJobsWithBackoffAndKeepsThemStored() throws InterruptedException {
+        final var attempts = new AtomicInteger();
+        executor.enqueueJob(new TestJob("retried").maxAttempts(3).serialized("data").action(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new RetryJobException("network failure", new IOException());
+            }
+        }));
+
+        final var firstRetry = nextScheduled();
+        assertEquals(Duration.ofSeconds(10), firstRetry.delay());
+        assertEquals(1, storage.jobs.size());
+        firstRetry.task().run();
+        final var secondRetry = nextScheduled();
+        assertEquals(Duration.ofSeconds(20), secondRetry.delay());
+        secondRetry.task().run();
+
+        executor.close();
+        assertEquals(3, attempts.get());
+        assertTrue(storage.jobs.isEmpty());
+        assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    void doesNotRetryAfterMaxAttempts() throws InterruptedException {
+        final var attempts = new AtomicInteger();
+        executor.enqueueJob(new TestJob("failing").maxAttempts(2).serialized("data").action(() -> {
+            attempts.incrementAndGet();
+            throw new RetryJobException("network failure", new IOException());
+        }));
+
+        nextScheduled().task().run();
+        executor.close();
+
+        assertEquals(2, attempts.get());
+        assertTrue(scheduled.isEmpty());
+        assertTrue(storage.jobs.isEmpty());
+    }
+
+    @Test
+    void restoresPersistedJobs() {
+        storage.jobs.put(1L, new StoredJob(1L, "TestJob", "a"));
+        storage.jobs.put(2L, new StoredJob(2L, "UnknownJob", "b"));
+
+        executor.restorePersistedJobs();
+        executor.restorePersistedJobs();
+        executor.close();
+
+        assertEquals(List.of("restored:a"), ran);
+        assertTrue(storage.jobs.isEmpty());
+    }
+
+    @Test
+    void closeReturnsWhileJobsAreEnqueuedContinuously() {
+        final var runs = new AtomicInteger();
+        final var job = new TestJob("repeating");
+        job.action(() -> {
+            runs.incrementAndGet();
+            executor.enqueueJob(job);
+        });
+        executor.enqueueJob(job);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), executor::close);
+        final var runsAfterClose = runs.get();
+        executor.enqueueJob(job);
+        assertEquals(runsAfterClose, runs.get());
+    }
+
+    private Scheduled nextScheduled() throws InterruptedException {
+        final var next = scheduled.poll(5, TimeUnit.SECONDS);
+        assertNotNull(next, "nothing has been scheduled");
+        return next;
+    }
+
+    private record Scheduled(Runnable task, Duration delay) {}
+
+    private static final class MemoryStorage implements JobExecutor.Storage {
+
+        private final Map<Long, StoredJob> jobs = new TreeMap<>();
+        private long nextId = 100;
+
+        @Override
+        public synchronized List<StoredJob> getJobs() {
+            return List.copyOf(jobs.values());
+        }
+
+        @Override
+        public synchronized long addJob(final String type, final String data) {
+            final var id = nextId++;
+            jobs.put(id, new StoredJob(id, type, data));
+            return id;
+        }
+
+        @Override
+        public synchronized void deleteJob(final long id) {
+            jobs.remove(id);
+        }
+    }
+
+    private interface Action {
+
+        void run() throws InterruptedException;
+    }
+
+    private final class TestJob implements Job {
+
+        private final String name;
+        private String key;
+        private Set<String> exclusionKeys = Set.of();
+        private Priority priority = Priority.NORMAL;
+        private int maxAttempts = 1;
+        private String data;
+        private Action action = () -> {};
+        private CountDownLatch finished = new CountDownLatch(1);
+
+        private TestJob(final String name) {
+            this.name = name;
+        }
+
+        TestJob key(final String key) {
+            this.key = key;
+            return this;
+        }
+
+        TestJob exclusionKeys(final Set<String> exclusionKeys) {
+            this.exclusionKeys = exclusionKeys;
+            return this;
+        }
+
+        TestJob defaultExclusionKeys() {
+            this.exclusionKeys = null;
+            return this;
+        }
+
+        TestJob priority(final Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        TestJob maxAttempts(final int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        TestJob serialized(final String data) {
+            this.data = data;
+            return this;
+        }
+
+        TestJob action(final Action action) {
+            this.action = action;
+            return this;
+        }
+
+        TestJob finished(final CountDownLatch finished) {
+            this.finished = finished;
+            return this;
+        }
+
+        TestJob blockingOn(final CountDownLatch started, final CountDownLatch release) {
+            return action(() -> {
+                started.countDown();
+                release.await();
+            });
+        }
+
+        @Override
+        public void run(final Context context) {
+            try {
+                action.run();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            synchronized (ran) {
+                ran.add(name);
+            }
+            finished.countDown();
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Set<String> getExclusionKeys() {
+            return exclusionKeys == null ? Job.super.getExclusionKeys() : exclusionKeys;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        @Override
+        public String serialize() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.RateLimitException;
+import org.asamk.signal.manager.api.RecipientAddress;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.SendMessageResult;
+import org.asamk.signal.manager.api.SendMessageResults;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SendSchedulerTest {
+
+    private static final RecipientIdentifier RECIPIENT = new RecipientIdentifier.Number("+491234");
+    private static final RecipientIdentifier OTHER_RECIPIENT = new RecipientIdentifier.Number("+495678");
+
+    private static SendMessageResults emptyResults(long timestamp) {
+        return new SendMessageResults(timestamp, Map.of());
+    }
+
+    private static SendMessageResults successResults(long timestamp) {
+        return new SendMessageResults(timestamp,
+                Map.of(RECIPIENT,
+                        List.of(new SendMessageResult(new RecipientAddress("+491234"),
+                                true,
+                                false,
+                                false,
+                                false,
+                                null,
+                                null,
+                                false))));
+    }
+
+    private static SendMessageResults rateLimitedResults(long timestamp, Long retryAfterMillis) {
+        return new SendMessageResults(timestamp,
+                Map.of(RECIPIENT,
+                        List.of(new SendMessageResult(new RecipientAddress("+491234"),
+                                false,
+                                false,
+                                false,
+                                false,
+                                new RateLimitException(retryAfterMillis),
+                                null,
+                                false))));
+    }
+
+    @Test
+    void sendsMessagesToSameRecipientInOrder() {
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var scheduler = new SendScheduler(executor);
+            final var sent = new ArrayList<Long>();
+            final var futures = new ArrayList<CompletableFuture<SendMessageResults>>();
+            for (var i = 0L; i < 10; i++) {
+                final var timestamp = i;
+                futures.add(scheduler.schedule(RECIPIENT, () -> {
+                    synchronized (sent) {
+                        sent.add(timestamp);
+                    }
+                    return emptyResults(timestamp);
+                }));
+            }
+            futures.forEach(CompletableFuture::join);
+
+            assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), sent);
+        }
+    }
+
+    @Test
+    void limitsParallelSends() {
+        final var timer = new ManualTimer();
+        final var scheduler = new SendScheduler(timer::execute, timer);
+        final var futures = new ArrayList<CompletableFuture<SendMessageResults>>();
+        for (var i = 0; i < 50; i++) {
+            futures.add(scheduler.schedule(new RecipientIdentifier.Number("+49" + i), () -> emptyResults(0)));
+        }
+
+        assertEquals(8, timer.tasks.size());
+
+        timer.runTasks();
+        futures.forEach(future -> assertTrue(future.isDone()));
+    }
+
+    @Test
+    void rateLimitPausesAllRecipientsUntilRetryAfter() {
+        final var timer = new ManualTimer();
+        final var scheduler = new SendScheduler(timer::execute, timer);
+        final var sent = new ArrayList<RecipientIdentifier>();
+        final var first = scheduler.schedule(RECIPIENT, () -> {
+            sent.add(RECIPIENT);
+            return sent.size() == 1 ? rateLimitedResults(1, 10_000L) : successResults(1);
+        });
+        timer.runTasks();
+        final var second = scheduler.schedule(OTHER_RECIPIENT, () -> {
+            sent.add(OTHER_RECIPIENT);
+            return emptyResults(2);
+        });
+        timer.runTasks();
+
+        assertEquals(List.of(RECIPIENT), sent);
+        assertFalse(first.isDone());
+
+        timer.advance(9_999);
+        assertEquals(List.of(RECIPIENT), sent);
+
+        timer.advance(1);
+        assertEquals(List.of(RECIPIENT, RECIPIENT, OTHER_RECIPIENT), sent);
+        assertEquals(1, first.join().timestamp());
+        assertEquals(2, second.join().timestamp());
+    }
+
+    @Test
+    void backoffGrowsWithoutRetryAfterAndResetsAfterSuccess() {
+        final var timer = new ManualTimer();
+        final var scheduler = new SendScheduler(timer::execute, timer);
+
+        final var rateLimited = scheduler.schedule(RECIPIENT, () -> rateLimitedResults(1, null));
+        timer.runTasks();
+        timer.advance(5_000);
+        timer.advance(10_000);
+
+        // The last attempt isn't retried, the rate limited result is returned
+        assertTrue(rateLimited.join().hasOnlyRateLimitFailure());
+        assertEquals(List.of(5_000L, 10_000L), timer.delays);
+
+        timer.advance(20_000);
+        final var success = scheduler.schedule(RECIPIENT, () -> successResults(2));
+        timer.runTasks();
+        assertEquals(2, success.join().timestamp());
+        timer.delays.clear();
+        final var attempts = new int[1];
+        final var retried = scheduler.schedule(RECIPIENT,
+                () -> ++attempts[0] == 1 ? rateLimitedResults(3, null) : successResults(3));
+        timer.runTasks();
+        timer.advance(5_000);
+
+        assertEquals(3, retried.join().timestamp());
+        assertEquals(List.of(5_000L), timer.delays);
+    }
+
+    @Test
+    void thrownRateLimitPausesAndRetries() {
+        final var timer = new ManualTimer();
+        final var scheduler = new SendScheduler(timer::execute, timer);
+        final var attempts = new int[1];
+        final var future = scheduler.schedule(RECIPIENT, () -> {
+            if (++attempts[0] == 1) {
+                throw new IOException(new RateLimitException(3_000L));
+            }
+            return successResults(1);
+        });
+        timer.runTasks();
+
+        assertFalse(future.isDone());
+        assertEquals(List.of(3_000L), timer.delays);
+
+        timer.advance(3_000);
+        assertEquals(1, future.join().timestamp());
+        assertEquals(2, attempts[0]);
+    }
+
+    @Test
+    void thrownFailureIsNotRetriedAndDoesNotPause() {
+        final var timer = new ManualTimer();
+        final var scheduler = new SendScheduler(timer::execute, timer);
+        final var failed = scheduler.schedule(RECIPIENT, () -> {
+            throw new IOException("network failure");
+        });
+        timer.runTasks();
+
+        final var e = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(IOException.class, e.getCause());
+
+        final var next = scheduler.schedule(RECIPIENT, () -> successResults(2));
+        timer.runTasks();
+        assertEquals(2, next.join().timestamp());
+        assertTrue(timer.delays.isEmpty());
+    }
+
+    @Test
+    void failsPendingMessagesOnClose() {
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var scheduler = new SendScheduler(executor);
+            final var release = new CountDownLatch(1);
+            final var first = scheduler.schedule(RECIPIENT, () -> {
+                release.await();
+                return emptyResults(1);
+            });
+            final var second = scheduler.schedule(RECIPIENT, () -> emptyResults(2));
+
+            scheduler.close();
+            release.countDown();
+
+            assertEquals(1, first.join().timestamp());
+            assertTrue(second.isCompletedExceptionally());
+        }
+    }
+
+    /**
+     * Runs the scheduler's tasks and delayed resumes only when the test asks for it.
+     */
+    private static final class ManualTimer implements SendScheduler.Timer {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private final List<Long> delays = new ArrayList<>();
+        private final List<Delayed> delayed = new ArrayList<>();
+        private long now;
+
+        void execute(final Runnable task) {
+            tasks.add(task);
+        }
+
+        void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        void advance(final long millis) {
+            now += millis;
+            runTasks();
+            final var due = delayed.stream().filter(d -> d.time() <= now).toList();
+            delayed.removeAll(due);
+            due.forEach(d -> d.task().run());
+            runTasks();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void schedule(final long delayMillis, final Runnable task) {
+            delays.add(delayMillis);
+            delayed.add(new Delayed(now + delayMillis, task));
+        }
+
+        private record Delayed(long time, Runnable task) {}
+    }
+}
@@ -0,0 +1,38 @@
+package org.asamk.signal.manager.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CacheCounterTest {
+
+    @Test
+    void trimKeepsRecentlyUsedEntries() {
+        final var cache = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+
+        CacheCounter.trim(cache, 2);
+
+        assertEquals(List.of("c", "a"), List.copyOf(cache.keySet()));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        final var counter = new CacheCounter("test", 10);
+        counter.hit();
+        counter.hit();
+        counter.hit();
+        counter.miss();
+
+        final var stats = counter.getStats(4);
+
+        assertEquals(4, stats.size());
+        assertEquals(0.75, stats.hitRate());
+    }
+}
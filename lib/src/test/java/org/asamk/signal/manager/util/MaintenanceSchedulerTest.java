@@ -0,0 +1,136 @@
+package org.asamk.signal.manager.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The dispatched tasks are only run when the test asks for it, so the tests don't depend on timing.
+ * Tasks with the same delay are made due by the timer thread in the order they were scheduled, so once a task of a
+ * priority lane that was scheduled last has been dispatched, the earlier tasks are due as well.
+ */
+class MaintenanceSchedulerTest {
+
+    private final BlockingQueue<Runnable> dispatched = new LinkedBlockingQueue<>();
+    private final List<String> order = new ArrayList<>();
+
+    @Test
+    void runsTasksOfOneLaneOneAtATime() throws InterruptedException {
+        final var scheduler = new MaintenanceScheduler(4, dispatched::add);
+        final var lane = scheduler.createLane();
+        for (var i = 0; i < 3; i++) {
+            lane.schedule(record("task" + i), Duration.ZERO);
+        }
+        scheduler.createPriorityLane().schedule(record("marker"), Duration.ZERO);
+
+        // Only the first task has been dispatched, the next one only after it has finished
+        final var first = nextTask();
+        final var marker = nextTask();
+        assertTrue(dispatched.isEmpty());
+        first.run();
+        runNext();
+        runNext();
+        assertTrue(dispatched.isEmpty());
+        marker.run();
+        assertEquals(List.of("task0", "task1", "task2", "marker"), order);
+    }
+
+    @Test
+    void lanesTakeTurns() throws InterruptedException {
+        final var scheduler = new MaintenanceScheduler(1, dispatched::add);
+        final var busyLane = scheduler.createLane();
+        final var otherLane = scheduler.createLane();
+        busyLane.schedule(record("busy"), Duration.ZERO);
+        final var busyTask = nextTask();
+        for (var i = 0; i < 10; i++) {
+            busyLane.schedule(record("busy"), Duration.ZERO);
+        }
+        otherLane.schedule(record("other"), Duration.ZERO);
+        scheduler.createPriorityLane().schedule(record("marker"), Duration.ZERO);
+        runNext();
+        assertTrue(dispatched.isEmpty());
+
+        busyTask.run();
+        for (var i = 0; i < 11; i++) {
+            runNext();
+        }
+
+        assertTrue(dispatched.isEmpty());
+        // The other lane's task runs before the queued tasks of the busy lane
+        assertEquals(List.of("marker", "busy", "other"), order.subList(0, 3));
+        assertEquals(13, order.size());
+    }
+
+    @Test
+    void priorityLaneIsNotLimitedByRunningTasks() throws InterruptedException {
+        final var scheduler = new MaintenanceScheduler(1, dispatched::add);
+        final var slowLane = scheduler.createLane();
+        final var otherLane = scheduler.createLane();
+        final var keepAliveLane = scheduler.createPriorityLane();
+        slowLane.schedule(record("slow"), Duration.ZERO);
+        final var slowTask = nextTask();
+        otherLane.schedule(record("other"), Duration.ZERO);
+        keepAliveLane.schedule(record("keepAlive"), Duration.ZERO);
+
+        // The keep alive is dispatched while the slow task is still running
+        runNext();
+        assertEquals(List.of("keepAlive"), order);
+        assertTrue(dispatched.isEmpty());
+
+        slowTask.run();
+        runNext();
+        assertEquals(List.of("keepAlive", "slow", "other"), order);
+    }
+
+    @Test
+    void repeatsUntilLaneIsClosed() throws InterruptedException {
+        final var scheduler = new MaintenanceScheduler(4, dispatched::add);
+        final var lane = scheduler.createLane();
+        lane.scheduleWithFixedDelay(record("repeated"), Duration.ZERO, Duration.ofMillis(10));
+        for (var i = 0; i < 3; i++) {
+            runNext();
+        }
+        lane.close();
+        // A run that was dispatched before the lane was closed isn't repeated
+        final var pending = dispatched.poll();
+        if (pending != null) {
+            pending.run();
+        }
+        final var runsAfterClose = order.size();
+
+        // The marker is due after the next run would have been
+        scheduler.createPriorityLane().schedule(record("marker"), Duration.ofMillis(50));
+        runNext();
+
+        assertTrue(dispatched.isEmpty());
+        assertEquals(runsAfterClose + 1, order.size());
+        assertEquals("marker", order.getLast());
+    }
+
+    private Runnable record(final String name) {
+        return () -> {
+            synchronized (order) {
+                order.add(name);
+            }
+        };
+    }
+
+    private Runnable nextTask() throws InterruptedException {
+        final var task = dispatched.poll(5, TimeUnit.SECONDS);
+        assertNotNull(task, "no task has been dispatched");
+        return task;
+    }
+
+    private void runNext() throws InterruptedException {
+        nextTask().run();
+    }
+}
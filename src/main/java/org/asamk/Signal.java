@@ -409,6 +409,41 @@ public interface Signal extends DBusInterface {
         }
     }
 
+    /**
+     * The receipts of several messages, possibly from different senders, emitted instead of or in addition to
+     * ReceiptReceived and ReceiptReceivedV2. The sender at each index belongs to the timestamp at the same index.
+     */
+    class ReceiptsReceived extends DBusSignal {
+
+        private final String type;
+        private final List<String> senders;
+        private final List<Long> timestamps;
+
+        public ReceiptsReceived(
+                String objectpath,
+                final String type,
+                final List<String> senders,
+                final List<Long> timestamps
+        ) throws DBusException {
+            super(objectpath, type, senders, timestamps);
+            this.type = type;
+            this.senders = senders;
+            this.timestamps = timestamps;
+        }
+
+        public String getReceiptType() {
+            return type;
+        }
+
+        public List<String> getSenders() {
+            return senders;
+        }
+
+        public List<Long> getTimestamps() {
+            return timestamps;
+        }
+    }
+
     class SyncMessageReceived extends DBusSignal {
 
         private final long timestamp;
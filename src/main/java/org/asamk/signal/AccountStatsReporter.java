@@ -0,0 +1,93 @@
+package org.asamk.signal;
+
+import org.asamk.signal.json.JsonReceiveEventBus;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AccountStats;
+import org.asamk.signal.manager.util.MaintenanceScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically logs the resource usage of the daemon's accounts and shrinks the caches of accounts that exceed the
+ * cache budget.
+ */
+public class AccountStatsReporter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountStatsReporter.class);
+
+    private static final Duration BUDGET_CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private final Supplier<List<Manager>> managers;
+    private final boolean logStats;
+    private final Integer cacheBudget;
+    private final MaintenanceScheduler.Lane lane = MaintenanceScheduler.getInstance().createLane();
+
+    /**
+     * @param statsInterval interval for logging the account stats, or null to not log them
+     * @param cacheBudget   the number of cache entries each account may keep, or null for no budget
+     */
+    public AccountStatsReporter(
+            final Supplier<List<Manager>> managers,
+            final Duration statsInterval,
+            final Integer cacheBudget
+    ) {
+        this.managers = managers;
+        this.logStats = statsInterval != null;
+        this.cacheBudget = cacheBudget;
+        if (statsInterval != null || cacheBudget != null) {
+            final var interval = statsInterval == null ? BUDGET_CHECK_INTERVAL : statsInterval;
+            lane.scheduleWithFixedDelay(this::run, interval, interval);
+        }
+    }
+
+    private void run() {
+        for (final var m : managers.get()) {
+            if (cacheBudget != null) {
+                m.trimCaches(cacheBudget);
+            }
+            if (logStats) {
+                try {
+                    logStats(m, m.getAccountStats());
+                } catch (IOException e) {
+                    logger.warn("Failed to get stats of account {}: {}", m.getSelfNumber(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void logStats(final Manager m, final AccountStats stats) {
+        final var caches = stats.caches()
+                .stream()
+                .map(c -> c.name() + "=" + c.size() + "/" + c.maxSize() + " (" + Math.round(c.hitRate() * 100) + "%)")
+                .collect(Collectors.joining(", "));
+        final var database = stats.database();
+        logger.info(
+                "Account {}: caches {}; database {} KiB, {} KiB free, WAL {} KiB; message cache {} messages, {} KiB; jobs {} queued, {} running; {} receive handlers, {} subscribers",
+                m.getSelfNumber(),
+                caches,
+                database.bytes() / 1024,
+                database.freeBytes() / 1024,
+                database.walBytes() / 1024,
+                stats.messageCache().files(),
+                stats.messageCache().bytes() / 1024,
+                stats.jobs().queued(),
+                stats.jobs().running(),
+                stats.receiveHandlers(),
+                JsonReceiveEventBus.getSubscriberCount(m));
+        logger.debug("Shared directories: attachments {} KiB, avatars {} KiB, stickers {} KiB",
+                stats.attachments().bytes() / 1024,
+                stats.avatars().bytes() / 1024,
+                stats.stickers().bytes() / 1024);
+    }
+
+    @Override
+    public void close() {
+        lane.close();
+    }
+}
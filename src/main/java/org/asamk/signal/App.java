@@ -8,6 +8,7 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import org.asamk.signal.commands.Command;
 import org.asamk.signal.commands.CommandHandler;
 import org.asamk.signal.commands.Commands;
+import org.asamk.signal.commands.DaemonCommand;
 import org.asamk.signal.commands.LocalCommand;
 import org.asamk.signal.commands.MultiLocalCommand;
 import org.asamk.signal.commands.ProvisioningCommand;
@@ -16,11 +17,13 @@ import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.manager.AccountLoadSettings;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.Settings;
 import org.asamk.signal.manager.SignalAccountFiles;
 import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.AccountShard;
 import org.asamk.signal.manager.api.NotRegisteredException;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustNewIdentity;
@@ -35,6 +38,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.time.Duration;
+import java.util.Objects;
 import java.util.Set;
 
 import static net.sourceforge.argparse4j.DefaultSettings.VERSION_0_9_0_DEFAULT_SETTINGS;
@@ -178,6 +183,10 @@ public class App {
         }
 
         if (account == null) {
+            if (command instanceof DaemonCommand daemonCommand && ns.get("router-workers") != null) {
+                commandHandler.handleRouterCommand(daemonCommand, signalAccountFiles);
+                return;
+            }
             if (command instanceof MultiLocalCommand multiLocalCommand) {
                 handleMultiLocalCommand(multiLocalCommand, signalAccountFiles, commandHandler);
                 return;
@@ -237,7 +246,7 @@ public class App {
         return outputWriter;
     }
 
-    private SignalAccountFiles loadSignalAccountFiles() throws IOErrorException {
+    private SignalAccountFiles loadSignalAccountFiles() throws IOErrorException, UserErrorException {
         final File dataPath;
         final var dataDir = ns.getString("data-dir");
         if (dataDir != null) {
@@ -257,12 +266,22 @@ public class App {
                 : trustNewIdentityCli == TrustNewIdentityCli.ALWAYS ? TrustNewIdentity.ALWAYS : TrustNewIdentity.NEVER;
 
         final var disableSendLog = Boolean.TRUE.equals(ns.getBoolean("disable-send-log"));
+        final var deferAccountChecks = Boolean.TRUE.equals(ns.getBoolean("defer-account-checks"));
+
+        final var shard = ns.getString("shard");
+        final AccountShard accountShard;
+        try {
+            accountShard = shard == null ? null : AccountShard.parse(shard);
+        } catch (IllegalArgumentException e) {
+            throw new UserErrorException(e.getMessage());
+        }
 
         try {
             return new SignalAccountFiles(dataPath,
                     serviceEnvironment,
                     BaseConfig.USER_AGENT,
-                    new Settings(trustNewIdentity, disableSendLog));
+                    new Settings(trustNewIdentity, disableSendLog, deferAccountChecks),
+                    accountShard);
         } catch (IOException e) {
             throw new IOErrorException("Failed to read local accounts list", e);
         }
@@ -306,7 +325,31 @@ public class App {
             final SignalAccountFiles signalAccountFiles,
             final CommandHandler commandHandler
     ) throws CommandException {
-        try (var multiAccountManager = signalAccountFiles.initMultiAccountManager()) {
+        final var idleTimeout = ns.<Integer>get("account-idle-timeout");
+        final var pollInterval = ns.<Integer>get("account-poll-interval");
+        if (idleTimeout != null && idleTimeout <= 0) {
+            throw new UserErrorException("Account idle timeout must be greater than 0");
+        }
+        if (pollInterval != null && (idleTimeout == null || pollInterval <= 0)) {
+            throw new UserErrorException("Account poll interval requires an account idle timeout and must be greater than 0");
+        }
+        final var loadParallelism = ns.<Integer>get("account-load-parallelism");
+        final var loadIoParallelism = ns.<Integer>get("account-load-io-parallelism");
+        if (loadParallelism != null && loadParallelism <= 0) {
+            throw new UserErrorException("Account load parallelism must be greater than 0");
+        }
+        if (loadIoParallelism != null && loadIoParallelism <= 0) {
+            throw new UserErrorException("Account load I/O parallelism must be greater than 0");
+        }
+        final var loadSettings = new AccountLoadSettings(Objects.requireNonNullElse(loadParallelism,
+                AccountLoadSettings.DEFAULT.parallelism()),
+                Objects.requireNonNullElse(loadIoParallelism, AccountLoadSettings.DEFAULT.ioParallelism()));
+        // The daemon already serves the accounts that have been loaded, while the others are still loading
+        final var waitForAccounts = !(command instanceof DaemonCommand);
+        try (var multiAccountManager = idleTimeout == null
+                ? signalAccountFiles.initMultiAccountManager(loadSettings, waitForAccounts)
+                : signalAccountFiles.initLazyMultiAccountManager(Duration.ofSeconds(idleTimeout),
+                        pollInterval == null ? null : Duration.ofSeconds(pollInterval))) {
             commandHandler.handleMultiLocalCommand(command, multiAccountManager);
         } catch (IOException e) {
             throw new IOErrorException("Failed to load local accounts file", e);
@@ -7,6 +7,7 @@ import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.ProvisioningManager;
 import org.asamk.signal.manager.RegistrationManager;
+import org.asamk.signal.manager.SignalAccountFiles;
 import org.asamk.signal.output.OutputWriter;
 
 public class CommandHandler {
@@ -43,4 +44,11 @@ public class CommandHandler {
     ) throws CommandException {
         command.handleCommand(ns, multiAccountManager, outputWriter);
     }
+
+    public void handleRouterCommand(
+            final DaemonCommand command,
+            final SignalAccountFiles signalAccountFiles
+    ) throws CommandException {
+        command.handleRouterCommand(ns, signalAccountFiles);
+    }
 }
@@ -18,8 +18,10 @@ public class Commands {
         addCommand(new FinishChangeNumberCommand());
         addCommand(new FinishLinkCommand());
         addCommand(new HangupCallCommand());
+        addCommand(new GetAccountStatsCommand());
         addCommand(new GetAttachmentCommand());
         addCommand(new GetAvatarCommand());
+        addCommand(new GetStartupReportCommand());
         addCommand(new GetStickerCommand());
         addCommand(new GetUserStatusCommand());
         addCommand(new AddStickerPackCommand());
@@ -42,6 +44,7 @@ public class Commands {
         addCommand(new RemovePinCommand());
         addCommand(new RemoteDeleteCommand());
         addCommand(new SendAdminDeleteCommand());
+        addCommand(new SendBulkCommand());
         addCommand(new SendCommand());
         addCommand(new SendContactsCommand());
         addCommand(new SendMessageRequestResponseCommand());
@@ -4,6 +4,7 @@ import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
+import org.asamk.signal.AccountStatsReporter;
 import org.asamk.signal.DbusConfig;
 import org.asamk.signal.OutputType;
 import org.asamk.signal.ReceiveMessageHandler;
@@ -12,11 +13,18 @@ import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.dbus.DbusHandler;
+import org.asamk.signal.dbus.DbusReceiptSignals;
 import org.asamk.signal.http.HttpServerHandler;
+import org.asamk.signal.http.WebSocketHandler;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
+import org.asamk.signal.jsonrpc.MessageEncoding;
+import org.asamk.signal.jsonrpc.ShardRouter;
+import org.asamk.signal.jsonrpc.ShardWorker;
 import org.asamk.signal.jsonrpc.SocketHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
+import org.asamk.signal.manager.SignalAccountFiles;
+import org.asamk.signal.manager.api.AccountShard;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
@@ -30,9 +38,14 @@ import java.net.InetSocketAddress;
 import java.net.UnixDomainSocketAddress;
 import java.nio.channels.Channel;
 import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.SequencedCollection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.asamk.signal.util.CommandUtil.getReceiveConfig;
 
@@ -56,6 +69,10 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         subparser.addArgument("--bus-name")
                 .setDefault(DbusConfig.getBusname())
                 .help("Specify the D-Bus bus name to connect to.");
+        subparser.addArgument("--dbus-receipt-signals")
+                .help("Specify which DBus signals are emitted for received receipts.")
+                .type(Arguments.enumStringType(DbusReceiptSignals.class))
+                .setDefault(DbusReceiptSignals.LEGACY);
         subparser.addArgument("--socket")
                 .nargs("?")
                 .type(File.class)
@@ -65,10 +82,46 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
                 .nargs("?")
                 .setConst("localhost:7583")
                 .help("Expose a JSON-RPC interface on a TCP socket (default localhost:7583).");
+        subparser.addArgument("--socket-encoding")
+                .help("Specify the message encoding of the UNIX and TCP sockets, cbor messages are length-prefixed.")
+                .type(Arguments.enumStringType(MessageEncoding.class))
+                .setDefault(MessageEncoding.JSON);
+        subparser.addArgument("--socket-event-loops")
+                .type(int.class)
+                .help("Handle the UNIX and TCP socket connections on the given number of event loop threads, instead of a thread for each connection.");
         subparser.addArgument("--http")
                 .nargs("?")
                 .setConst("localhost:8080")
                 .help("Expose a JSON-RPC interface as http endpoint (default localhost:8080).");
+        subparser.addArgument("--websocket")
+                .nargs("?")
+                .setConst("localhost:8081")
+                .help("Expose a JSON-RPC interface as WebSocket endpoint (default localhost:8081).");
+        subparser.addArgument("--account-idle-timeout")
+                .type(int.class)
+                .help("Multi-account mode: Load accounts on first use and close them after the given number of seconds without use.");
+        subparser.addArgument("--account-poll-interval")
+                .type(int.class)
+                .help("Multi-account mode: Load inactive accounts every given number of seconds to receive their pending messages.");
+        subparser.addArgument("--account-load-parallelism")
+                .type(int.class)
+                .help("Multi-account mode: Number of accounts that are loaded and checked at the same time on startup.");
+        subparser.addArgument("--account-load-io-parallelism")
+                .type(int.class)
+                .help("Multi-account mode: Number of accounts whose files and databases are opened at the same time on startup.");
+        subparser.addArgument("--account-stats-interval")
+                .type(int.class)
+                .help("Log the caches, database size, disk usage and background jobs of each account every given number of seconds.");
+        subparser.addArgument("--account-cache-budget")
+                .type(int.class)
+                .help("Shrink the in-memory caches of an account when they hold more than the given number of entries together.");
+        subparser.addArgument("--router-workers")
+                .type(int.class)
+                .help("Multi-account mode: Distribute the accounts to the given number of worker processes and forward the JSON-RPC requests to them.");
+        subparser.addArgument("--shard").help(Arguments.SUPPRESS);
+        subparser.addArgument("--defer-account-checks")
+                .help("Run the network checks of the accounts in the background after the daemon has started.")
+                .action(Arguments.storeTrue());
         subparser.addArgument("--no-receive-stdout")
                 .help("Don’t print received messages to stdout.")
                 .action(Arguments.storeTrue());
@@ -104,6 +157,12 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             final Manager m,
             final OutputWriter outputWriter
     ) throws CommandException {
+        if (ns.get("account-idle-timeout") != null || ns.get("account-poll-interval") != null) {
+            throw new UserErrorException("Account idle timeout and poll interval are only supported in multi-account mode");
+        }
+        if (ns.get("router-workers") != null) {
+            throw new UserErrorException("Router workers are only supported in multi-account mode");
+        }
         Shutdown.installHandler();
         logger.info("Starting daemon in single-account mode for {}", m.getSelfNumber());
         final var noReceiveStdOut = Boolean.TRUE.equals(ns.getBoolean("no-receive-stdout"));
@@ -113,8 +172,10 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         m.setReceiveConfig(receiveConfig);
         addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
 
-        try (final var daemonHandler = new SingleAccountDaemonHandler(m, receiveMode)) {
+        try (final var daemonHandler = new SingleAccountDaemonHandler(m, receiveMode);
+             final var accountStatsReporter = createAccountStatsReporter(ns, () -> List.of(m))) {
             setup(ns, daemonHandler);
+            m.startDeferredAccountChecks();
 
             m.addClosedListener(Shutdown::triggerShutdown);
 
@@ -136,17 +197,23 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         final var noReceiveStdOut = Boolean.TRUE.equals(ns.getBoolean("no-receive-stdout"));
         final var receiveMode = ns.<ReceiveMode>get("receive-mode");
         final var receiveConfig = getReceiveConfig(ns);
-        c.getManagers().forEach(m -> {
-            m.setReceiveConfig(receiveConfig);
-            addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
-        });
-        c.addOnManagerAddedHandler(m -> {
+        // Accounts are still being loaded in the background, each one must be set up exactly once
+        final var setUpManagers = ConcurrentHashMap.<Manager>newKeySet();
+        final Consumer<Manager> setUpManager = m -> {
+            if (!setUpManagers.add(m)) {
+                return;
+            }
             m.setReceiveConfig(receiveConfig);
             addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
-        });
+        };
+        c.addOnManagerAddedHandler(setUpManager);
+        c.addOnManagerRemovedHandler(setUpManagers::remove);
+        c.getManagers().forEach(setUpManager);
 
-        try (final var daemonHandler = new MultiAccountDaemonHandler(c, receiveMode)) {
+        try (final var daemonHandler = new MultiAccountDaemonHandler(c, receiveMode);
+             final var accountStatsReporter = createAccountStatsReporter(ns, c::getManagers)) {
             setup(ns, daemonHandler);
+            c.startDeferredAccountChecks();
 
             synchronized (this) {
                 try {
@@ -157,13 +224,157 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         }
     }
 
+    /**
+     * Starts the worker daemons, each loads a shard of the local accounts, and forwards the JSON-RPC requests of the
+     * clients to them.
+     */
+    public void handleRouterCommand(
+            final Namespace ns,
+            final SignalAccountFiles signalAccountFiles
+    ) throws CommandException {
+        final int workerCount = ns.getInt("router-workers");
+        if (workerCount < 1) {
+            throw new UserErrorException("Number of router workers must be greater than 0");
+        }
+        Shutdown.installHandler();
+        logger.info("Starting daemon in router mode with {} workers", workerCount);
+        final Map<String, Integer> accountShards;
+        final File socketDir;
+        try {
+            accountShards = signalAccountFiles.getAccountShards(workerCount);
+            socketDir = new File(new File(IOUtils.getRuntimeDir(), "signal-cli"),
+                    "router-" + ProcessHandle.current().pid());
+            IOUtils.createPrivateDirectories(socketDir);
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to prepare router workers: " + e.getMessage(), e);
+        }
+
+        final var workers = new ArrayList<ShardWorker>();
+        try {
+            try {
+                final var daemonArgs = getWorkerDaemonArgs(ns);
+                for (var i = 0; i < workerCount; i++) {
+                    workers.add(ShardWorker.start(new AccountShard(i, workerCount),
+                            new File(socketDir, "worker-" + i + ".socket").toPath(),
+                            getWorkerGlobalArgs(ns, i),
+                            daemonArgs));
+                }
+                for (final var worker : workers) {
+                    worker.waitUntilReady();
+                }
+            } catch (IOException e) {
+                throw new IOErrorException("Failed to start router workers: " + e.getMessage(), e);
+            }
+            // Without the worker its accounts aren't available anymore, the daemon should be restarted
+            workers.forEach(worker -> worker.onExit(Shutdown::triggerShutdown));
+
+            final var receiveMode = ns.<ReceiveMode>get("receive-mode");
+            try (final var router = new ShardRouter(workers, accountShards, receiveMode == ReceiveMode.ON_START);
+                 final var daemonHandler = new RouterDaemonHandler(router, receiveMode)) {
+                setup(ns, daemonHandler);
+
+                try {
+                    Shutdown.waitForShutdown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        } finally {
+            workers.parallelStream().forEach(ShardWorker::close);
+            if (!socketDir.delete()) {
+                logger.debug("Failed to remove router socket directory {}", socketDir);
+            }
+        }
+    }
+
+    private static List<String> getWorkerGlobalArgs(final Namespace ns, final int index) {
+        final var args = new ArrayList<String>();
+        final var verbose = ns.getInt("verbose");
+        for (var i = 0; verbose != null && i < verbose; i++) {
+            args.add("-v");
+        }
+        final var logFile = ns.<File>get("log-file");
+        if (logFile != null) {
+            // Each worker writes its own log file, the processes can't share one
+            args.addAll(List.of("--log-file", logFile.getPath() + ".worker-" + index));
+        }
+        if (Boolean.TRUE.equals(ns.getBoolean("scrub-log"))) {
+            args.add("--scrub-log");
+        }
+        final var dataDir = ns.getString("data-dir");
+        if (dataDir != null) {
+            args.addAll(List.of("--data-dir", dataDir));
+        }
+        args.addAll(List.of("--service-environment", ns.get("service-environment").toString()));
+        args.addAll(List.of("--trust-new-identities", ns.get("trust-new-identities").toString()));
+        if (Boolean.TRUE.equals(ns.getBoolean("disable-send-log"))) {
+            args.add("--disable-send-log");
+        }
+        final var output = ns.get("output");
+        if (output != null) {
+            args.addAll(List.of("--output", output.toString()));
+        }
+        return args;
+    }
+
+    private static AccountStatsReporter createAccountStatsReporter(
+            final Namespace ns,
+            final Supplier<List<Manager>> managers
+    ) throws UserErrorException {
+        final var statsInterval = ns.<Integer>get("account-stats-interval");
+        final var cacheBudget = ns.<Integer>get("account-cache-budget");
+        if (statsInterval != null && statsInterval <= 0) {
+            throw new UserErrorException("Account stats interval must be greater than 0");
+        }
+        if (cacheBudget != null && cacheBudget < 0) {
+            throw new UserErrorException("Account cache budget must not be negative");
+        }
+        return new AccountStatsReporter(managers,
+                statsInterval == null ? null : Duration.ofSeconds(statsInterval),
+                cacheBudget);
+    }
+
+    private static List<String> getWorkerDaemonArgs(final Namespace ns) {
+        final var args = new ArrayList<String>();
+        args.addAll(List.of("--receive-mode", ns.get("receive-mode").toString()));
+        for (final var option : List.of("account-idle-timeout",
+                "account-poll-interval",
+                "account-load-parallelism",
+                "account-load-io-parallelism",
+                "account-stats-interval",
+                "account-cache-budget",
+                "socket-event-loops")) {
+            final var value = ns.get(option);
+            if (value != null) {
+                args.addAll(List.of("--" + option, value.toString()));
+            }
+        }
+        for (final var flag : List.of("defer-account-checks",
+                "no-receive-stdout",
+                "ignore-attachments",
+                "ignore-stories",
+                "ignore-avatars",
+                "ignore-stickers",
+                "send-read-receipts")) {
+            if (Boolean.TRUE.equals(ns.getBoolean(flag))) {
+                args.add("--" + flag);
+            }
+        }
+        return args;
+    }
+
     private static void setup(final Namespace ns, final DaemonHandler daemonHandler) throws CommandException {
+        final var socketEncoding = ns.<MessageEncoding>get("socket-encoding");
+        final var socketEventLoops = ns.<Integer>get("socket-event-loops");
+        if (socketEventLoops != null && socketEventLoops <= 0) {
+            throw new UserErrorException("Socket event loops must be greater than 0");
+        }
+        final var eventLoopThreads = socketEventLoops == null ? 0 : socketEventLoops;
         final Channel inheritedChannel;
         try {
             if (System.inheritedChannel() instanceof ServerSocketChannel serverChannel) {
                 inheritedChannel = serverChannel;
                 logger.info("Using inherited socket: " + serverChannel.getLocalAddress());
-                daemonHandler.runSocket(serverChannel);
+                daemonHandler.runSocket(serverChannel, socketEncoding, eventLoopThreads);
             } else {
                 inheritedChannel = null;
             }
@@ -175,14 +386,14 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         if (socketFile != null) {
             final var address = UnixDomainSocketAddress.of(socketFile.toPath());
             final var serverChannel = IOUtils.bindSocket(address);
-            daemonHandler.runSocket(serverChannel);
+            daemonHandler.runSocket(serverChannel, socketEncoding, eventLoopThreads);
         }
 
         final var tcpAddress = ns.getString("tcp");
         if (tcpAddress != null) {
             final var address = IOUtils.parseInetSocketAddress(tcpAddress);
             final var serverChannel = IOUtils.bindSocket(address);
-            daemonHandler.runSocket(serverChannel);
+            daemonHandler.runSocket(serverChannel, socketEncoding, eventLoopThreads);
         }
 
         final var httpAddress = ns.getString("http");
@@ -191,16 +402,23 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             daemonHandler.runHttp(address);
         }
 
+        final var webSocketAddress = ns.getString("websocket");
+        if (webSocketAddress != null) {
+            final var address = IOUtils.parseInetSocketAddress(webSocketAddress);
+            final var serverChannel = IOUtils.bindSocket(address);
+            daemonHandler.runWebSocket(serverChannel, address);
+        }
+
         final var isDbusSystem = Boolean.TRUE.equals(ns.getBoolean("dbus-system"));
         if (isDbusSystem) {
             final var busName = ns.getString("bus-name");
-            daemonHandler.runDbus(true, busName);
+            daemonHandler.runDbus(true, busName, ns.get("dbus-receipt-signals"));
         }
 
         final var isDbusSession = Boolean.TRUE.equals(ns.getBoolean("dbus"));
         if (isDbusSession) {
             final var busName = ns.getString("bus-name");
-            daemonHandler.runDbus(false, busName);
+            daemonHandler.runDbus(false, busName, ns.get("dbus-receipt-signals"));
         }
 
         if (!isDbusSystem
@@ -208,6 +426,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
                 && socketFile == null
                 && tcpAddress == null
                 && httpAddress == null
+                && webSocketAddress == null
                 && inheritedChannel == null) {
             throw new UserErrorException("At least one channel parameter is required, e.g. --socket or --dbus.");
         }
@@ -231,14 +450,34 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             this.receiveMode = receiveMode;
         }
 
-        public abstract void runSocket(ServerSocketChannel serverChannel) throws CommandException;
-
-        public abstract void runDbus(boolean isDbusSystem, final String busname) throws CommandException;
+        /**
+         * @param eventLoopThreads number of event loop threads for the connections, or 0 for a thread per connection
+         */
+        public abstract void runSocket(
+                ServerSocketChannel serverChannel,
+                MessageEncoding encoding,
+                int eventLoopThreads
+        ) throws CommandException;
+
+        public abstract void runDbus(
+                boolean isDbusSystem,
+                final String busname,
+                DbusReceiptSignals receiptSignals
+        ) throws CommandException;
 
         public abstract void runHttp(InetSocketAddress address) throws CommandException;
 
-        protected final void runSocket(final SocketHandler socketHandler) {
-            socketHandler.init();
+        public abstract void runWebSocket(
+                ServerSocketChannel serverChannel,
+                InetSocketAddress address
+        ) throws CommandException;
+
+        protected final void runSocket(final SocketHandler socketHandler) throws CommandException {
+            try {
+                socketHandler.init();
+            } catch (IOException ex) {
+                throw new IOErrorException("Failed to initialize JSON-RPC socket", ex);
+            }
             this.closeables.add(socketHandler);
         }
 
@@ -258,6 +497,11 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             this.closeables.add(handler);
         }
 
+        protected final void runWebSocket(final WebSocketHandler handler) {
+            handler.init();
+            this.closeables.add(handler);
+        }
+
         @Override
         public void close() {
             for (final var closeable : new ArrayList<>(this.closeables)) {
@@ -281,19 +525,40 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         }
 
         @Override
-        public void runSocket(final ServerSocketChannel serverChannel) {
-            runSocket(new SocketHandler(serverChannel, m, receiveMode == ReceiveMode.MANUAL));
+        public void runSocket(
+                final ServerSocketChannel serverChannel,
+                final MessageEncoding encoding,
+                final int eventLoopThreads
+        ) throws CommandException {
+            runSocket(new SocketHandler(serverChannel,
+                    m,
+                    encoding,
+                    receiveMode == ReceiveMode.MANUAL,
+                    eventLoopThreads));
         }
 
         @Override
-        public void runDbus(final boolean isDbusSystem, final String busname) throws CommandException {
-            runDbus(new DbusHandler(isDbusSystem, busname, m, receiveMode != ReceiveMode.ON_START));
+        public void runDbus(
+                final boolean isDbusSystem,
+                final String busname,
+                final DbusReceiptSignals receiptSignals
+        ) throws CommandException {
+            runDbus(new DbusHandler(isDbusSystem,
+                    busname,
+                    m,
+                    receiveMode != ReceiveMode.ON_START,
+                    receiptSignals));
         }
 
         @Override
         public void runHttp(InetSocketAddress address) throws CommandException {
             runHttp(new HttpServerHandler(address, m));
         }
+
+        @Override
+        public void runWebSocket(final ServerSocketChannel serverChannel, final InetSocketAddress address) {
+            runWebSocket(new WebSocketHandler(serverChannel, address, m, receiveMode == ReceiveMode.MANUAL));
+        }
     }
 
     private static final class MultiAccountDaemonHandler extends DaemonHandler {
@@ -306,18 +571,80 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         }
 
         @Override
-        public void runSocket(final ServerSocketChannel serverChannel) {
-            runSocket(new SocketHandler(serverChannel, c, receiveMode == ReceiveMode.MANUAL));
+        public void runSocket(
+                final ServerSocketChannel serverChannel,
+                final MessageEncoding encoding,
+                final int eventLoopThreads
+        ) throws CommandException {
+            runSocket(new SocketHandler(serverChannel,
+                    c,
+                    encoding,
+                    receiveMode == ReceiveMode.MANUAL,
+                    eventLoopThreads));
         }
 
         @Override
-        public void runDbus(final boolean isDbusSystem, final String busname) throws CommandException {
-            runDbus(new DbusHandler(isDbusSystem, busname, c, receiveMode != ReceiveMode.ON_START));
+        public void runDbus(
+                final boolean isDbusSystem,
+                final String busname,
+                final DbusReceiptSignals receiptSignals
+        ) throws CommandException {
+            runDbus(new DbusHandler(isDbusSystem,
+                    busname,
+                    c,
+                    receiveMode != ReceiveMode.ON_START,
+                    receiptSignals));
         }
 
         @Override
         public void runHttp(final InetSocketAddress address) throws CommandException {
             runHttp(new HttpServerHandler(address, c));
         }
+
+        @Override
+        public void runWebSocket(final ServerSocketChannel serverChannel, final InetSocketAddress address) {
+            runWebSocket(new WebSocketHandler(serverChannel, address, c, receiveMode == ReceiveMode.MANUAL));
+        }
+    }
+
+    private static final class RouterDaemonHandler extends DaemonHandler {
+
+        private final ShardRouter router;
+
+        public RouterDaemonHandler(final ShardRouter router, final ReceiveMode receiveMode) {
+            super(receiveMode);
+            this.router = router;
+        }
+
+        @Override
+        public void runSocket(
+                final ServerSocketChannel serverChannel,
+                final MessageEncoding encoding,
+                final int eventLoopThreads
+        ) throws CommandException {
+            runSocket(new SocketHandler(serverChannel, router, encoding, eventLoopThreads));
+        }
+
+        @Override
+        public void runDbus(
+                final boolean isDbusSystem,
+                final String busname,
+                final DbusReceiptSignals receiptSignals
+        ) throws CommandException {
+            throw new UserErrorException("DBus isn't supported in router mode");
+        }
+
+        @Override
+        public void runHttp(final InetSocketAddress address) throws CommandException {
+            runHttp(new HttpServerHandler(address, router));
+        }
+
+        @Override
+        public void runWebSocket(
+                final ServerSocketChannel serverChannel,
+                final InetSocketAddress address
+        ) throws CommandException {
+            throw new UserErrorException("WebSocket isn't supported in router mode");
+        }
     }
 }
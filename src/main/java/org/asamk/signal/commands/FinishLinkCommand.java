@@ -73,10 +73,11 @@ public class FinishLinkCommand implements JsonRpcMultiCommand<FinishLinkCommand.
                     + "\" before trying again.");
         }
 
-        jsonWriter.write(new JsonFinishLink(number));
+        final var manager = m.getManager(number);
+        jsonWriter.write(new JsonFinishLink(number, manager == null ? null : manager.getSelfACI()));
     }
 
     public record FinishLinkParams(String deviceLinkUri, String deviceName) {}
 
-    private record JsonFinishLink(String number) {}
+    private record JsonFinishLink(String number, String uuid) {}
 }
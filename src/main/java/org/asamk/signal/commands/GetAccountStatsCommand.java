@@ -0,0 +1,123 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
+import org.asamk.signal.json.JsonReceiveEventBus;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AccountStats;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+public class GetAccountStatsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getAccountStats";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Show the caches, database size, disk usage and background jobs of the account.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns,
+            final Manager m,
+            final OutputWriter outputWriter
+    ) throws CommandException {
+        final AccountStats stats;
+        try {
+            stats = m.getAccountStats();
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to get account stats: " + e.getMessage(), e);
+        }
+        final var subscribers = JsonReceiveEventBus.getSubscriberCount(m);
+        switch (outputWriter) {
+            case JsonWriter jsonWriter -> jsonWriter.write(new JsonAccountStats(stats, subscribers));
+            case PlainTextWriter plainTextWriter -> {
+                for (final var cache : stats.caches()) {
+                    plainTextWriter.println("Cache {}: {}/{} entries, hit rate {}%",
+                            cache.name(),
+                            cache.size(),
+                            cache.maxSize(),
+                            Math.round(cache.hitRate() * 100));
+                }
+                final var database = stats.database();
+                plainTextWriter.println("Database: {} bytes, {} bytes free, WAL {} bytes",
+                        database.bytes(),
+                        database.freeBytes(),
+                        database.walBytes());
+                plainTextWriter.println("Message cache: {} messages, {} bytes",
+                        stats.messageCache().files(),
+                        stats.messageCache().bytes());
+                plainTextWriter.println("Attachments (shared): {} files, {} bytes",
+                        stats.attachments().files(),
+                        stats.attachments().bytes());
+                plainTextWriter.println("Avatars (shared): {} files, {} bytes",
+                        stats.avatars().files(),
+                        stats.avatars().bytes());
+                plainTextWriter.println("Stickers (shared): {} files, {} bytes",
+                        stats.stickers().files(),
+                        stats.stickers().bytes());
+                plainTextWriter.println("Jobs: {} queued, {} running", stats.jobs().queued(), stats.jobs().running());
+                plainTextWriter.println("Receive handlers: {}, subscribers: {}", stats.receiveHandlers(), subscribers);
+            }
+        }
+    }
+
+    private record JsonAccountStats(
+            List<JsonCache> caches,
+            JsonDatabase database,
+            JsonDiskUsage messageCache,
+            JsonDiskUsage attachments,
+            JsonDiskUsage avatars,
+            JsonDiskUsage stickers,
+            int queuedJobs,
+            int runningJobs,
+            int receiveHandlers,
+            int subscribers
+    ) {
+
+        JsonAccountStats(AccountStats stats, int subscribers) {
+            this(stats.caches().stream().map(JsonCache::new).toList(),
+                    new JsonDatabase(stats.database()),
+                    new JsonDiskUsage(stats.messageCache()),
+                    new JsonDiskUsage(stats.attachments()),
+                    new JsonDiskUsage(stats.avatars()),
+                    new JsonDiskUsage(stats.stickers()),
+                    stats.jobs().queued(),
+                    stats.jobs().running(),
+                    stats.receiveHandlers(),
+                    subscribers);
+        }
+
+        private record JsonCache(String name, int size, int maxSize, long hits, long misses, double hitRate) {
+
+            JsonCache(AccountStats.Cache cache) {
+                this(cache.name(), cache.size(), cache.maxSize(), cache.hits(), cache.misses(), cache.hitRate());
+            }
+        }
+
+        private record JsonDatabase(long bytes, long freeBytes, long walBytes, long pageSize) {
+
+            JsonDatabase(AccountStats.Database database) {
+                this(database.bytes(), database.freeBytes(), database.walBytes(), database.pageSize());
+            }
+        }
+
+        private record JsonDiskUsage(int files, long bytes) {
+
+            JsonDiskUsage(AccountStats.DiskUsage diskUsage) {
+                this(diskUsage.files(), diskUsage.bytes());
+            }
+        }
+    }
+}
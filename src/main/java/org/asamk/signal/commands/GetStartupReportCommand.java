@@ -0,0 +1,60 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.StartupReport;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+import java.util.List;
+
+public class GetStartupReportCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getStartupReport";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Show how long the phases of loading the account took.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns,
+            final Manager m,
+            final OutputWriter outputWriter
+    ) throws CommandException {
+        final var report = m.getStartupReport();
+        switch (outputWriter) {
+            case JsonWriter jsonWriter -> jsonWriter.write(new JsonStartupReport(report));
+            case PlainTextWriter plainTextWriter -> {
+                for (final var phase : report.phases()) {
+                    plainTextWriter.println("{}: started after {}ms, took {}ms",
+                            phase.name(),
+                            phase.offset(),
+                            phase.duration());
+                }
+            }
+        }
+    }
+
+    private record JsonStartupReport(long startedTimestamp, List<JsonPhase> phases) {
+
+        JsonStartupReport(StartupReport report) {
+            this(report.startedTimestamp(), report.phases().stream().map(JsonPhase::new).toList());
+        }
+
+        private record JsonPhase(String name, long offsetMillis, long durationMillis) {
+
+            JsonPhase(StartupReport.Phase phase) {
+                this(phase.name(), phase.offset(), phase.duration());
+            }
+        }
+    }
+}
@@ -5,17 +5,21 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.json.JsonContact;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.Contact;
+import org.asamk.signal.manager.api.InvalidCursorException;
 import org.asamk.signal.manager.api.PhoneNumberSharingMode;
 import org.asamk.signal.manager.api.Profile;
+import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
 import org.asamk.signal.util.CommandUtil;
 
 import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -43,6 +47,7 @@ public class ListContactsCommand implements JsonRpcLocalCommand {
         subparser.addArgument("--internal")
                 .action(Arguments.storeTrue())
                 .help("Include internal information that's normally not user visible");
+        ListOptions.attachToSubparser(subparser);
     }
 
     @Override
@@ -56,10 +61,31 @@ public class ListContactsCommand implements JsonRpcLocalCommand {
         final var recipientStrings = ns.<String>getList("recipient");
         final var recipientIdentifiers = CommandUtil.getSingleRecipientIdentifiers(recipientStrings, m.getSelfNumber());
         final var name = ns.getString("name");
-        final var recipients = m.getRecipients(!allRecipients,
-                Optional.ofNullable(blocked),
-                recipientIdentifiers,
-                Optional.ofNullable(name));
+        final var listOptions = ListOptions.from(ns);
+        final List<Recipient> recipients;
+        final String nextCursor;
+        if (listOptions.isPaged()) {
+            if (!recipientIdentifiers.isEmpty()) {
+                throw new UserErrorException("Paging can't be combined with a list of recipients");
+            }
+            try {
+                final var page = m.getRecipients(!allRecipients,
+                        Optional.ofNullable(blocked),
+                        Optional.ofNullable(name),
+                        listOptions.cursor(),
+                        listOptions.pageLimit());
+                recipients = page.items();
+                nextCursor = page.nextCursor();
+            } catch (InvalidCursorException e) {
+                throw ListOptions.invalidCursor(e);
+            }
+        } else {
+            recipients = m.getRecipients(!allRecipients,
+                    Optional.ofNullable(blocked),
+                    recipientIdentifiers,
+                    Optional.ofNullable(name));
+            nextCursor = null;
+        }
 
         final var detailed = Boolean.TRUE.equals(ns.getBoolean("detailed"));
         final var internal = Boolean.TRUE.equals(ns.getBoolean("internal"));
@@ -113,6 +139,9 @@ public class ListContactsCommand implements JsonRpcLocalCommand {
                                         r.getDiscoverable() == null ? "" : String.valueOf(r.getDiscoverable()));
                     }
                 }
+                if (nextCursor != null) {
+                    writer.println("Next cursor: {}", nextCursor);
+                }
             }
             case JsonWriter writer -> {
                 final var jsonContacts = recipients.stream().map(r -> {
@@ -164,7 +193,7 @@ public class ListContactsCommand implements JsonRpcLocalCommand {
                                                       .encodeToString(r.getProfile().getMobileCoinAddress())),
                             jsonInternal);
                 }).toList();
-                writer.write(jsonContacts);
+                listOptions.writeJson(writer, jsonContacts, nextCursor);
             }
         }
     }
@@ -7,9 +7,11 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.Group;
 import org.asamk.signal.manager.api.GroupMember;
+import org.asamk.signal.manager.api.InvalidCursorException;
 import org.asamk.signal.manager.api.RecipientAddress;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
@@ -18,6 +20,7 @@ import org.asamk.signal.util.CommandUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -38,6 +41,7 @@ public class ListGroupsCommand implements JsonRpcLocalCommand {
                 .action(Arguments.storeTrue())
                 .help("List the members and group invite links of each group. If output=json, then this is always set");
         subparser.addArgument("-g", "--group-id").help("Specify one or more group IDs to show.").nargs("*");
+        ListOptions.attachToSubparser(subparser);
     }
 
     private static Set<String> resolveMembers(Set<GroupMember> addresses) {
@@ -108,7 +112,25 @@ public class ListGroupsCommand implements JsonRpcLocalCommand {
     ) throws CommandException {
         final var groupIdStrings = ns.<String>getList("group-id");
         final var groupIds = CommandUtil.getGroupIds(groupIdStrings);
-        var groups = groupIds.isEmpty() ? m.getGroups() : m.getGroups(groupIds);
+        final var listOptions = ListOptions.from(ns);
+        final List<Group> groups;
+        String nextCursor = null;
+        if (!groupIds.isEmpty()) {
+            if (listOptions.isPaged()) {
+                throw new UserErrorException("Paging can't be combined with a list of group ids");
+            }
+            groups = m.getGroups(groupIds);
+        } else if (listOptions.isPaged()) {
+            try {
+                final var page = m.getGroups(listOptions.cursor(), listOptions.pageLimit());
+                groups = page.items();
+                nextCursor = page.nextCursor();
+            } catch (InvalidCursorException e) {
+                throw ListOptions.invalidCursor(e);
+            }
+        } else {
+            groups = m.getGroups();
+        }
 
         switch (outputWriter) {
             case JsonWriter jsonWriter -> {
@@ -135,13 +157,16 @@ public class ListGroupsCommand implements JsonRpcLocalCommand {
                             group.permissionSendMessage().name(),
                             groupInviteLink == null ? null : groupInviteLink.getUrl());
                 }).toList();
-                jsonWriter.write(jsonGroups);
+                listOptions.writeJson(jsonWriter, jsonGroups, nextCursor);
             }
             case PlainTextWriter writer -> {
                 boolean detailed = Boolean.TRUE.equals(ns.getBoolean("detailed"));
                 for (var group : groups) {
                     printGroupPlainText(writer, group, detailed);
                 }
+                if (nextCursor != null) {
+                    writer.println("Next cursor: {}", nextCursor);
+                }
             }
         }
     }
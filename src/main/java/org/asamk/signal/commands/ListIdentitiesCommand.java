@@ -4,8 +4,10 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.Identity;
+import org.asamk.signal.manager.api.InvalidCursorException;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
@@ -42,6 +44,7 @@ public class ListIdentitiesCommand implements JsonRpcLocalCommand {
     public void attachToSubparser(final Subparser subparser) {
         subparser.help("List all known identity keys and their trust status, fingerprint and safety number.");
         subparser.addArgument("-n", "--number").help("Only show identity keys for the given phone number.");
+        ListOptions.attachToSubparser(subparser);
     }
 
     @Override
@@ -51,12 +54,25 @@ public class ListIdentitiesCommand implements JsonRpcLocalCommand {
             final OutputWriter outputWriter
     ) throws CommandException {
         var number = ns.getString("number");
+        final var listOptions = ListOptions.from(ns);
 
         List<Identity> identities;
-        if (number == null) {
-            identities = m.getIdentities();
-        } else {
+        String nextCursor = null;
+        if (number != null) {
+            if (listOptions.isPaged()) {
+                throw new UserErrorException("Paging can't be combined with a number");
+            }
             identities = m.getIdentities(CommandUtil.getSingleRecipientIdentifier(number, m.getSelfNumber()));
+        } else if (listOptions.isPaged()) {
+            try {
+                final var page = m.getIdentities(listOptions.cursor(), listOptions.pageLimit());
+                identities = page.items();
+                nextCursor = page.nextCursor();
+            } catch (InvalidCursorException e) {
+                throw ListOptions.invalidCursor(e);
+            }
+        } else {
+            identities = m.getIdentities();
         }
 
         switch (outputWriter) {
@@ -64,6 +80,9 @@ public class ListIdentitiesCommand implements JsonRpcLocalCommand {
                 for (var id : identities) {
                     printIdentityFingerprint(writer, id);
                 }
+                if (nextCursor != null) {
+                    writer.println("Next cursor: {}", nextCursor);
+                }
             }
             case JsonWriter writer -> {
                 final var jsonIdentities = identities.stream().map(id -> {
@@ -80,7 +99,7 @@ public class ListIdentitiesCommand implements JsonRpcLocalCommand {
                             id.trustLevel().name(),
                             id.dateAddedTimestamp());
                 }).toList();
-                writer.write(jsonIdentities);
+                listOptions.writeJson(writer, jsonIdentities, nextCursor);
             }
         }
     }
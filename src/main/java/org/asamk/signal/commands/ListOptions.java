@@ -0,0 +1,82 @@
+package org.asamk.signal.commands;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.manager.api.InvalidCursorException;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.util.Util;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paging and field selection options shared by the list commands.
+ * <p>
+ * If a limit or cursor is given, only one page is listed and the JSON output is an object with the items and the
+ * cursor for the next page. Otherwise the complete list is written, as before.
+ */
+record ListOptions(Integer limit, String cursor, List<String> fields) {
+
+    static void attachToSubparser(final Subparser subparser) {
+        subparser.addArgument("--limit")
+                .type(int.class)
+                .help("Only list the given number of entries and return a cursor for the next page.");
+        subparser.addArgument("--cursor").help("List the next page, starting after the given cursor.");
+        subparser.addArgument("--fields")
+                .nargs("+")
+                .help("Only include the given fields in the JSON output of each entry.");
+    }
+
+    static ListOptions from(final Namespace ns) throws UserErrorException {
+        final Integer limit = ns.get("limit");
+        if (limit != null && limit <= 0) {
+            throw new UserErrorException("Limit must be greater than 0");
+        }
+        return new ListOptions(limit, ns.getString("cursor"), ns.getList("fields"));
+    }
+
+    boolean isPaged() {
+        return limit != null || cursor != null;
+    }
+
+    int pageLimit() {
+        return limit == null ? 100 : limit;
+    }
+
+    static UserErrorException invalidCursor(final InvalidCursorException e) {
+        return new UserErrorException(e.getMessage() + ", it must be the next cursor of a previous page");
+    }
+
+    void writeJson(final JsonWriter writer, final List<?> items, final String nextCursor) {
+        final var projected = project(items);
+        if (isPaged()) {
+            writer.write(new JsonPage(projected, nextCursor));
+        } else {
+            writer.write(projected);
+        }
+    }
+
+    private List<?> project(final List<?> items) {
+        if (fields == null || fields.isEmpty()) {
+            return items;
+        }
+        final var objectMapper = Util.createJsonObjectMapper();
+        return items.stream().map(item -> {
+            final Map<String, Object> map = objectMapper.convertValue(item, new TypeReference<>() {});
+            final var projected = new LinkedHashMap<String, Object>();
+            for (final var field : fields) {
+                if (map.containsKey(field)) {
+                    projected.put(field, map.get(field));
+                }
+            }
+            return projected;
+        }).toList();
+    }
+
+    private record JsonPage(List<?> items, String nextCursor) {}
+}
@@ -0,0 +1,150 @@
+package org.asamk.signal.commands;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.json.JsonSendMessageResult;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.Message;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.UnregisteredRecipientException;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.StreamingJsonWriter;
+import org.asamk.signal.util.CommandUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SendBulkCommand implements JsonRpcSingleCommand<SendBulkCommand.SendBulkParams> {
+
+    @Override
+    public String getName() {
+        return "sendBulk";
+    }
+
+    @Override
+    public TypeReference<SendBulkParams> getRequestType() {
+        return new TypeReference<>() {};
+    }
+
+    @Override
+    public void handleCommand(
+            final SendBulkParams request,
+            final Manager m,
+            final JsonWriter jsonWriter
+    ) throws CommandException {
+        if (request == null || request.messages() == null || request.messages().isEmpty()) {
+            throw new UserErrorException("No messages given");
+        }
+
+        final var jobs = new ArrayList<BulkJob>(request.messages().size());
+        for (var i = 0; i < request.messages().size(); i++) {
+            jobs.add(parseBulkMessage(m, i, request.messages().get(i)));
+        }
+
+        final var total = jobs.size();
+        final var progressStep = Math.max(1, total / 100);
+        final var completed = new AtomicInteger();
+        final var failed = new AtomicInteger();
+        final var futures = new ArrayList<CompletableFuture<JsonBulkSendResult>>(total);
+        for (final var job : jobs) {
+            futures.add(m.scheduleMessage(job.message(), job.recipient()).handle((results, e) -> {
+                final var result = e != null ? toErrorResult(e) : toJsonResult(job.recipient(), results);
+                if (result.error() != null || !results.hasSuccess()) {
+                    failed.incrementAndGet();
+                }
+                final var count = completed.incrementAndGet();
+                if (jsonWriter instanceof StreamingJsonWriter writer && (count % progressStep == 0 || count == total)) {
+                    writer.writePartial("sendBulkProgress",
+                            Map.of("completed", count, "failed", failed.get(), "total", total));
+                }
+                return result;
+            }));
+        }
+
+        final var results = futures.stream().map(CompletableFuture::join).toList();
+        jsonWriter.write(Map.of("results", results));
+    }
+
+    private static BulkJob parseBulkMessage(
+            final Manager m,
+            final int index,
+            final BulkMessage bulkMessage
+    ) throws UserErrorException {
+        final var recipientIdentifiers = CommandUtil.getRecipientIdentifiers(m,
+                false,
+                bulkMessage.recipient() == null ? null : List.of(bulkMessage.recipient()),
+                bulkMessage.groupId() == null ? null : List.of(bulkMessage.groupId()),
+                bulkMessage.username() == null ? null : List.of(bulkMessage.username()));
+        if (recipientIdentifiers.size() != 1) {
+            throw new UserErrorException("Message " + index + " must have exactly one recipient, group or username");
+        }
+
+        final var messageText = bulkMessage.message() == null ? "" : bulkMessage.message();
+        final var attachments = bulkMessage.attachments() == null ? List.<String>of() : bulkMessage.attachments();
+        if (messageText.isEmpty() && attachments.isEmpty()) {
+            throw new UserErrorException("Message " + index + " is empty, either a message or attachment must be given");
+        }
+
+        final var message = new Message(messageText,
+                attachments,
+                false,
+                false,
+                List.of(),
+                Optional.empty(),
+                Optional.empty(),
+                List.of(),
+                Optional.empty(),
+                List.of(),
+                !Boolean.TRUE.equals(bulkMessage.noUrgent()));
+        return new BulkJob(recipientIdentifiers.iterator().next(), message);
+    }
+
+    private static JsonBulkSendResult toJsonResult(
+            final RecipientIdentifier recipient,
+            final SendMessageResults results
+    ) {
+        final var groupId = recipient instanceof RecipientIdentifier.Group g ? g.groupId() : null;
+        final var jsonResults = results.results()
+                .values()
+                .stream()
+                .flatMap(List::stream)
+                .map(r -> JsonSendMessageResult.from(r, groupId))
+                .toList();
+        return new JsonBulkSendResult(results.timestamp(), jsonResults, null);
+    }
+
+    private static JsonBulkSendResult toErrorResult(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        final var error = e instanceof UnregisteredRecipientException u
+                ? "The user " + u.getSender().getIdentifier() + " is not registered."
+                : "Failed to send message: " + e.getMessage() + " (" + e.getClass().getSimpleName() + ")";
+        return new JsonBulkSendResult(null, null, error);
+    }
+
+    public record SendBulkParams(List<BulkMessage> messages) {}
+
+    public record BulkMessage(
+            String recipient,
+            String groupId,
+            String username,
+            String message,
+            List<String> attachments,
+            Boolean noUrgent
+    ) {}
+
+    private record BulkJob(RecipientIdentifier recipient, Message message) {}
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private record JsonBulkSendResult(Long timestamp, List<JsonSendMessageResult> results, String error) {}
+}
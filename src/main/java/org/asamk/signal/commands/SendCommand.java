@@ -18,9 +18,11 @@ import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.TextStyle;
 import org.asamk.signal.manager.api.UnregisteredRecipientException;
 import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.StreamingJsonWriter;
 import org.asamk.signal.util.CommandUtil;
 import org.asamk.signal.util.Hex;
 import org.asamk.signal.util.IOUtils;
+import org.asamk.signal.util.SendMessageResultStreamer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +34,7 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static org.asamk.signal.util.SendMessageResultUtils.outputResult;
+import static org.asamk.signal.util.SendMessageResultUtils.outputStreamedResult;
 
 public class SendCommand implements JsonRpcLocalCommand {
 
@@ -245,6 +248,7 @@ public class SendCommand implements JsonRpcLocalCommand {
         }
 
         final var editTimestamp = ns.getLong("edit-timestamp");
+        final var streamResults = Boolean.TRUE.equals(ns.getBoolean("stream-results"));
 
         try {
             final var message = new Message(messageText,
@@ -258,6 +262,14 @@ public class SendCommand implements JsonRpcLocalCommand {
                     Optional.ofNullable((storyReply)),
                     textStyles,
                     !noUrgent);
+            if (streamResults && outputWriter instanceof StreamingJsonWriter writer) {
+                final var streamer = new SendMessageResultStreamer(writer, "sendResults");
+                var results = editTimestamp != null
+                        ? m.sendEditMessage(message, recipientIdentifiers, editTimestamp, streamer)
+                        : m.sendMessage(message, recipientIdentifiers, notifySelf, streamer);
+                outputStreamedResult(writer, results, streamer.getResultCount());
+                return;
+            }
             var results = editTimestamp != null
                     ? m.sendEditMessage(message, recipientIdentifiers, editTimestamp)
                     : m.sendMessage(message, recipientIdentifiers, notifySelf);
@@ -62,6 +62,7 @@ public class VerifyCommand implements RegistrationCommand, JsonRpcRegistrationCo
             final JsonWriter jsonWriter
     ) throws CommandException {
         verify(m, request.verificationCode(), request.pin());
+        jsonWriter.write(new JsonVerify(m.getSelfACI()));
     }
 
     private void verify(
@@ -86,4 +87,6 @@ public class VerifyCommand implements RegistrationCommand, JsonRpcRegistrationCo
     }
 
     public record VerifyParams(String verificationCode, String pin) {}
+
+    private record JsonVerify(String uuid) {}
 }
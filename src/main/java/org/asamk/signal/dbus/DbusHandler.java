@@ -30,12 +30,15 @@ public class DbusHandler implements AutoCloseable {
     private final List<AutoCloseable> closeables = new ArrayList<>();
     private final DbusRunner dbusRunner;
     private final boolean noReceiveOnStart;
+    private final DbusReceiptSignals receiptSignals;
+    private DbusSignalEmitter signalEmitter;
 
     public DbusHandler(
             final boolean isDbusSystem,
             final String busname,
             final Manager m,
-            final boolean noReceiveOnStart
+            final boolean noReceiveOnStart,
+            final DbusReceiptSignals receiptSignals
     ) {
         this.isDbusSystem = isDbusSystem;
         this.dbusRunner = (connection) -> {
@@ -45,6 +48,7 @@ public class DbusHandler implements AutoCloseable {
             }
         };
         this.noReceiveOnStart = noReceiveOnStart;
+        this.receiptSignals = receiptSignals;
         this.busname = busname;
     }
 
@@ -52,7 +56,8 @@ public class DbusHandler implements AutoCloseable {
             final boolean isDbusSystem,
             final String busname,
             final MultiAccountManager c,
-            final boolean noReceiveOnStart
+            final boolean noReceiveOnStart,
+            final DbusReceiptSignals receiptSignals
     ) {
         this.isDbusSystem = isDbusSystem;
         this.dbusRunner = (connection) -> {
@@ -88,6 +93,7 @@ public class DbusHandler implements AutoCloseable {
             }
         };
         this.noReceiveOnStart = noReceiveOnStart;
+        this.receiptSignals = receiptSignals;
         this.busname = busname;
     }
 
@@ -101,6 +107,7 @@ public class DbusHandler implements AutoCloseable {
             dBusConnection = DBusConnectionBuilder.forType(busType)
                     .withDisconnectCallback(new DisconnectCallback())
                     .build();
+            signalEmitter = new DbusSignalEmitter(dBusConnection, receiptSignals);
             dbusRunner.run(dBusConnection);
         } catch (DBusException e) {
             throw new UnexpectedErrorException("Dbus command failed: " + e.getMessage(), e);
@@ -123,6 +130,7 @@ public class DbusHandler implements AutoCloseable {
         if (dBusConnection == null) {
             return;
         }
+        signalEmitter.close();
         dBusConnection.close();
         for (final var c : new ArrayList<>(closeables)) {
             c.close();
@@ -132,7 +140,7 @@ public class DbusHandler implements AutoCloseable {
     }
 
     private Thread exportDbusObject(final DBusConnection conn, final String objectPath, final Manager m) {
-        final var signal = new DbusSignalImpl(m, conn, objectPath, noReceiveOnStart);
+        final var signal = new DbusSignalImpl(m, conn, objectPath, noReceiveOnStart, signalEmitter);
         closeables.add(signal);
 
         return Thread.ofPlatform().name("dbus-init-" + m.getSelfNumber()).start(signal::initObjects);
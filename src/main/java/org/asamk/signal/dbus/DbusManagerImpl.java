@@ -2,6 +2,7 @@ package org.asamk.signal.dbus;
 
 import org.asamk.Signal;
 import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AccountStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
 import org.asamk.signal.manager.api.CallInfo;
@@ -41,6 +42,7 @@ import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResult;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.StartupReport;
 import org.asamk.signal.manager.api.StickerPack;
 import org.asamk.signal.manager.api.StickerPackId;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
@@ -1008,6 +1010,25 @@ public class DbusManagerImpl implements Manager {
         throw new UnsupportedOperationException("Voice calls are not supported over DBus");
     }
 
+    @Override
+    public void startDeferredAccountChecks() {
+    }
+
+    @Override
+    public StartupReport getStartupReport() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AccountStats getAccountStats() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void trimCaches(final int maxEntries) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void close() {
         synchronized (this) {
@@ -0,0 +1,42 @@
+package org.asamk.signal.dbus;
+
+/**
+ * The DBus signals that are emitted for received receipts.
+ */
+public enum DbusReceiptSignals {
+    /**
+     * A ReceiptReceived and a ReceiptReceivedV2 signal for each timestamp.
+     */
+    LEGACY {
+        @Override
+        public String toString() {
+            return "legacy";
+        }
+    },
+    /**
+     * ReceiptsReceived signals, each one contains the receipts that were received at about the same time.
+     */
+    BATCHED {
+        @Override
+        public String toString() {
+            return "batched";
+        }
+    },
+    /**
+     * Both the legacy and the batched signals.
+     */
+    ALL {
+        @Override
+        public String toString() {
+            return "all";
+        }
+    };
+
+    boolean isLegacy() {
+        return this != BATCHED;
+    }
+
+    boolean isBatched() {
+        return this != LEGACY;
+    }
+}
@@ -5,8 +5,6 @@ import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.RecipientAddress;
-import org.freedesktop.dbus.connections.impl.DBusConnection;
-import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.types.Variant;
 
 import java.io.Serializable;
@@ -17,24 +15,20 @@ import java.util.Map;
 
 public class DbusReceiveMessageHandler implements Manager.ReceiveMessageHandler {
 
-    private final DBusConnection conn;
+    private final DbusSignalEmitter emitter;
     private final String objectPath;
 
-    public DbusReceiveMessageHandler(DBusConnection conn, final String objectPath) {
-        this.conn = conn;
+    public DbusReceiveMessageHandler(final DbusSignalEmitter emitter, final String objectPath) {
+        this.emitter = emitter;
         this.objectPath = objectPath;
     }
 
     @Override
     public void handleMessage(MessageEnvelope envelope, Throwable exception) {
-        try {
-            sendDbusMessages(envelope);
-        } catch (DBusException e) {
-            throw new RuntimeException(e);
-        }
+        sendDbusMessages(envelope);
     }
 
-    private void sendDbusMessages(MessageEnvelope envelope) throws DBusException {
+    private void sendDbusMessages(MessageEnvelope envelope) {
         final var senderString = envelope.sourceAddress().map(RecipientAddress::getLegacyIdentifier).orElse("");
         if (envelope.receipt().isPresent()) {
             final var receiptMessage = envelope.receipt().get();
@@ -44,10 +38,7 @@ public class DbusReceiveMessageHandler implements Manager.ReceiveMessageHandler
                 case DELIVERY -> "delivery";
                 case UNKNOWN -> "unknown";
             };
-            for (long timestamp : receiptMessage.timestamps()) {
-                conn.sendMessage(new Signal.ReceiptReceived(objectPath, timestamp, senderString));
-                conn.sendMessage(new Signal.ReceiptReceivedV2(objectPath, timestamp, senderString, type, Map.of()));
-            }
+            emitter.emitReceipt(objectPath, senderString, type, receiptMessage.timestamps());
         }
         if (envelope.data().isPresent()) {
             var message = envelope.data().get();
@@ -60,13 +51,13 @@ public class DbusReceiveMessageHandler implements Manager.ReceiveMessageHandler
                     .map(MessageEnvelope.Data.GroupContext::isGroupUpdate)
                     .orElse(false);
             if (!message.isEndSession() && !isGroupUpdate) {
-                conn.sendMessage(new Signal.MessageReceived(objectPath,
+                emitter.emit(() -> new Signal.MessageReceived(objectPath,
                         message.timestamp(),
                         senderString,
                         groupId,
                         message.body().orElse(""),
                         getAttachments(message)));
-                conn.sendMessage(new Signal.MessageReceivedV2(objectPath,
+                emitter.emit(() -> new Signal.MessageReceivedV2(objectPath,
                         message.timestamp(),
                         senderString,
                         groupId,
@@ -86,7 +77,7 @@ public class DbusReceiveMessageHandler implements Manager.ReceiveMessageHandler
                     .map(MessageEnvelope.Data.GroupContext::isGroupUpdate)
                     .orElse(false);
             if (!message.isEndSession() && !isGroupUpdate) {
-                conn.sendMessage(new Signal.EditMessageReceived(objectPath,
+                emitter.emit(() -> new Signal.EditMessageReceived(objectPath,
                         message.timestamp(),
                         editMessage.targetSentTimestamp(),
                         senderString,
@@ -108,14 +99,14 @@ public class DbusReceiveMessageHandler implements Manager.ReceiveMessageHandler
                                 .map(GroupId::serialize)
                                 .orElseGet(() -> new byte[0]);
 
-                        conn.sendMessage(new Signal.SyncMessageReceived(objectPath,
+                        emitter.emit(() -> new Signal.SyncMessageReceived(objectPath,
                                 dataMessage.timestamp(),
                                 senderString,
                                 transcript.destination().map(RecipientAddress::getLegacyIdentifier).orElse(""),
                                 groupId,
                                 dataMessage.body().orElse(""),
                                 getAttachments(dataMessage)));
-                        conn.sendMessage(new Signal.SyncMessageReceivedV2(objectPath,
+                        emitter.emit(() -> new Signal.SyncMessageReceivedV2(objectPath,
                                 dataMessage.timestamp(),
                                 senderString,
                                 transcript.destination().map(RecipientAddress::getLegacyIdentifier).orElse(""),
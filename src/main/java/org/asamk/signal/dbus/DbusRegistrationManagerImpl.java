@@ -63,6 +63,11 @@ public class DbusRegistrationManagerImpl implements RegistrationManager {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public String getSelfACI() {
+        return null;
+    }
+
     @Override
     public void close() {
     }
@@ -0,0 +1,216 @@
+package org.asamk.signal.dbus;
+
+import org.asamk.Signal;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.messages.DBusSignal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the signals of received messages on its own thread, so a burst of received messages doesn't block the receive
+ * loop while the signals are written to the bus.
+ * <p>
+ * The signals are sent in the order they were emitted. If the queue is full, emitting blocks until there is room
+ * again. Receipts that are waiting in the queue at the same time are combined into batched ReceiptsReceived signals.
+ */
+public class DbusSignalEmitter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DbusSignalEmitter.class);
+
+    private static final int MAX_QUEUED_SIGNALS = 10_000;
+    private static final int MAX_BATCHED_RECEIPTS = 1_000;
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    private static final Item CLOSE = new CloseItem();
+
+    private final Bus bus;
+    private final DbusReceiptSignals receiptSignals;
+    private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(MAX_QUEUED_SIGNALS);
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public DbusSignalEmitter(final DBusConnection connection, final DbusReceiptSignals receiptSignals) {
+        this(connection::sendMessage, receiptSignals);
+    }
+
+    DbusSignalEmitter(final Bus bus, final DbusReceiptSignals receiptSignals) {
+        this.bus = bus;
+        this.receiptSignals = receiptSignals;
+        this.thread = Thread.ofVirtual().name("dbus-signal-emitter").start(this::run);
+    }
+
+    /**
+     * Sends the signal created by the factory, the signal is created on the emitter thread.
+     */
+    public void emit(final SignalFactory signal) {
+        enqueue(new SignalItem(signal));
+    }
+
+    /**
+     * Sends the signals for a received receipt, depending on the configured receipt signals.
+     */
+    public void emitReceipt(
+            final String objectPath,
+            final String sender,
+            final String type,
+            final List<Long> timestamps
+    ) {
+        if (receiptSignals.isLegacy()) {
+            for (final var timestamp : timestamps) {
+                emit(() -> new Signal.ReceiptReceived(objectPath, timestamp, sender));
+                emit(() -> new Signal.ReceiptReceivedV2(objectPath, timestamp, sender, type, Map.of()));
+            }
+        }
+        if (receiptSignals.isBatched()) {
+            enqueue(new ReceiptItem(objectPath, sender, type, timestamps));
+        }
+    }
+
+    private void enqueue(final Item item) {
+        if (closed) {
+            return;
+        }
+        if (queue.offer(item)) {
+            return;
+        }
+        logger.debug("DBus signal queue is full, waiting for the bus");
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final var items = new ArrayList<Item>();
+        while (true) {
+            try {
+                items.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(items);
+            final var closeIndex = items.indexOf(CLOSE);
+            if (closeIndex >= 0) {
+                sendAll(items.subList(0, closeIndex));
+                break;
+            }
+            sendAll(items);
+            items.clear();
+        }
+    }
+
+    private void sendAll(final List<Item> items) {
+        ReceiptBatch batch = null;
+        for (final var item : items) {
+            switch (item) {
+                case SignalItem signalItem -> {
+                    if (batch != null) {
+                        batch.send();
+                        batch = null;
+                    }
+                    send(signalItem.signal());
+                }
+                case ReceiptItem receipt -> {
+                    if (batch != null && !batch.accepts(receipt)) {
+                        batch.send();
+                        batch = null;
+                    }
+                    if (batch == null) {
+                        batch = new ReceiptBatch(receipt.objectPath(), receipt.type());
+                    }
+                    batch.add(receipt);
+                }
+                case CloseItem _ -> {
+                }
+            }
+        }
+        if (batch != null) {
+            batch.send();
+        }
+    }
+
+    private void send(final SignalFactory signal) {
+        try {
+            bus.sendMessage(signal.create());
+        } catch (DBusException | RuntimeException e) {
+            logger.warn("Failed to send DBus signal: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the signals that are still queued and stops the emitter thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            // The emitter thread stops once it has sent the signals that were queued before
+            if (!queue.offer(CLOSE, CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                    || !thread.join(CLOSE_TIMEOUT)) {
+                logger.warn("Failed to send the queued DBus signals in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface SignalFactory {
+
+        DBusSignal create() throws DBusException;
+    }
+
+    /**
+     * Sends the signals to the bus, like {@link DBusConnection#sendMessage}.
+     */
+    interface Bus {
+
+        void sendMessage(DBusSignal signal);
+    }
+
+    private sealed interface Item {}
+
+    private record CloseItem() implements Item {}
+
+    private record SignalItem(SignalFactory signal) implements Item {}
+
+    private record ReceiptItem(String objectPath, String sender, String type, List<Long> timestamps) implements Item {}
+
+    private final class ReceiptBatch {
+
+        private final String objectPath;
+        private final String type;
+        private final List<String> senders = new ArrayList<>();
+        private final List<Long> timestamps = new ArrayList<>();
+
+        ReceiptBatch(final String objectPath, final String type) {
+            this.objectPath = objectPath;
+            this.type = type;
+        }
+
+        boolean accepts(final ReceiptItem receipt) {
+            return objectPath.equals(receipt.objectPath())
+                    && type.equals(receipt.type())
+                    && timestamps.size() + receipt.timestamps().size() <= MAX_BATCHED_RECEIPTS;
+        }
+
+        void add(final ReceiptItem receipt) {
+            for (final var timestamp : receipt.timestamps()) {
+                senders.add(receipt.sender());
+                timestamps.add(timestamp);
+            }
+        }
+
+        void send() {
+            DbusSignalEmitter.this.send(() -> new Signal.ReceiptsReceived(objectPath, type, senders, timestamps));
+        }
+    }
+}
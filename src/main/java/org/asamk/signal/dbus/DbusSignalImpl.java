@@ -42,6 +42,7 @@ import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.interfaces.DBusInterface;
+import org.freedesktop.dbus.interfaces.Properties;
 import org.freedesktop.dbus.types.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +55,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -67,15 +69,23 @@ import static org.asamk.signal.dbus.DbusUtils.makeValidObjectPathElement;
 
 public class DbusSignalImpl implements Signal, AutoCloseable {
 
+    private static final String DEVICE_INTERFACE = "org.asamk.Signal.Device";
+    private static final String GROUP_INTERFACE = "org.asamk.Signal.Group";
+    private static final String IDENTITY_INTERFACE = "org.asamk.Signal.Identity";
+
     private final Manager m;
     private final DBusConnection connection;
     private final String objectPath;
     private final boolean noReceiveOnStart;
+    private final DbusSignalEmitter signalEmitter;
 
     private DBusPath thisDevice;
     private final List<StructDevice> devices = new ArrayList<>();
     private final List<StructGroup> groups = new ArrayList<>();
     private final List<StructIdentity> identities = new ArrayList<>();
+    private final Map<String, DbusSignalDeviceImpl> exportedDevices = new HashMap<>();
+    private final Map<String, ExportedGroup> exportedGroups = new HashMap<>();
+    private final Map<String, DbusSignalIdentityImpl> exportedIdentities = new HashMap<>();
     private DbusReceiveMessageHandler dbusMessageHandler;
     private int subscriberCount;
 
@@ -85,12 +95,14 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
             final Manager m,
             DBusConnection connection,
             final String objectPath,
-            final boolean noReceiveOnStart
+            final boolean noReceiveOnStart,
+            final DbusSignalEmitter signalEmitter
     ) {
         this.m = m;
         this.connection = connection;
         this.objectPath = objectPath;
         this.noReceiveOnStart = noReceiveOnStart;
+        this.signalEmitter = signalEmitter;
 
         m.addAddressChangedListener(() -> {
             unExportObjects();
@@ -149,7 +161,7 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
     @Override
     public void subscribeReceive() {
         if (dbusMessageHandler == null) {
-            dbusMessageHandler = new DbusReceiveMessageHandler(connection, objectPath);
+            dbusMessageHandler = new DbusReceiveMessageHandler(signalEmitter, objectPath);
             m.addReceiveHandler(dbusMessageHandler);
         }
         subscriberCount++;
@@ -995,7 +1007,7 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
         return basePath + "/Devices/" + deviceId;
     }
 
-    private void updateDevices() {
+    private synchronized void updateDevices() {
         List<org.asamk.signal.manager.api.Device> linkedDevices;
         try {
             linkedDevices = m.getLinkedDevices();
@@ -1003,24 +1015,35 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
             throw new Error.Failure("Failed to get linked devices: " + e.getMessage());
         }
 
-        unExportDevices();
-
+        final var removedPaths = new HashSet<>(exportedDevices.keySet());
+        this.devices.clear();
         linkedDevices.forEach(d -> {
-            final var object = new DbusSignalDeviceImpl(d);
-            final var deviceObjectPath = object.getObjectPath();
-            exportObject(object);
+            final var deviceObjectPath = getDeviceObjectPath(objectPath, d.id());
+            removedPaths.remove(deviceObjectPath);
+            final var object = exportedDevices.get(deviceObjectPath);
+            if (object == null) {
+                final var newObject = new DbusSignalDeviceImpl(d);
+                exportObject(newObject);
+                exportedDevices.put(deviceObjectPath, newObject);
+            } else if (!object.device.equals(d)) {
+                final var previousProperties = object.GetAll(DEVICE_INTERFACE);
+                object.device = d;
+                emitPropertiesChanged(object, DEVICE_INTERFACE, previousProperties);
+            }
             if (d.isThisDevice()) {
                 thisDevice = new DBusPath(deviceObjectPath);
             }
             this.devices.add(new StructDevice(new DBusPath(deviceObjectPath), (long) d.id(), emptyIfNull(d.name())));
         });
+        removedPaths.forEach(path -> {
+            connection.unExportObject(path);
+            exportedDevices.remove(path);
+        });
     }
 
-    private void unExportDevices() {
-        this.devices.stream()
-                .map(StructDevice::getObjectPath)
-                .map(DBusPath::getPath)
-                .forEach(connection::unExportObject);
+    private synchronized void unExportDevices() {
+        exportedDevices.keySet().forEach(connection::unExportObject);
+        exportedDevices.clear();
         this.devices.clear();
     }
 
@@ -1028,23 +1051,38 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
         return basePath + "/Groups/" + makeValidObjectPathElement(Base64.getEncoder().encodeToString(groupId));
     }
 
-    private void updateGroups() {
+    private synchronized void updateGroups() {
         List<org.asamk.signal.manager.api.Group> groups;
         groups = m.getGroups();
 
-        unExportGroups();
-
+        final var removedPaths = new HashSet<>(exportedGroups.keySet());
+        this.groups.clear();
         groups.forEach(g -> {
-            final var object = new DbusSignalGroupImpl(g.groupId());
-            exportObject(object);
-            this.groups.add(new StructGroup(new DBusPath(object.getObjectPath()),
+            final var groupObjectPath = getGroupObjectPath(objectPath, g.groupId().serialize());
+            removedPaths.remove(groupObjectPath);
+            final var exported = exportedGroups.get(groupObjectPath);
+            if (exported == null) {
+                final var object = new DbusSignalGroupImpl(g.groupId());
+                exportObject(object);
+                exportedGroups.put(groupObjectPath, new ExportedGroup(object, g));
+            } else if (!exported.group().equals(g)) {
+                // The group properties are read from the manager, so the previous values aren't known anymore
+                exportedGroups.put(groupObjectPath, new ExportedGroup(exported.object(), g));
+                emitPropertiesChanged(exported.object(), GROUP_INTERFACE, Map.of());
+            }
+            this.groups.add(new StructGroup(new DBusPath(groupObjectPath),
                     g.groupId().serialize(),
                     emptyIfNull(g.title())));
         });
+        removedPaths.forEach(path -> {
+            connection.unExportObject(path);
+            exportedGroups.remove(path);
+        });
     }
 
-    private void unExportGroups() {
-        this.groups.stream().map(StructGroup::getObjectPath).map(DBusPath::getPath).forEach(connection::unExportObject);
+    private synchronized void unExportGroups() {
+        exportedGroups.keySet().forEach(connection::unExportObject);
+        exportedGroups.clear();
         this.groups.clear();
     }
 
@@ -1072,33 +1110,133 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
         }
     }
 
-    private void updateIdentities() {
+    private synchronized void updateIdentities() {
         List<org.asamk.signal.manager.api.Identity> identities;
         identities = m.getIdentities();
 
-        unExportIdentities();
-
+        final var removedPaths = new HashSet<>(exportedIdentities.keySet());
+        this.identities.clear();
         identities.forEach(i -> {
-            final var object = new DbusSignalIdentityImpl(i);
-            exportObject(object);
-            this.identities.add(new StructIdentity(new DBusPath(object.getObjectPath()),
+            final var identityObjectPath = getIdentityObjectPath(objectPath, i.recipient());
+            removedPaths.remove(identityObjectPath);
+            final var object = exportedIdentities.get(identityObjectPath);
+            if (object == null) {
+                final var newObject = new DbusSignalIdentityImpl(i);
+                exportObject(newObject);
+                exportedIdentities.put(identityObjectPath, newObject);
+            } else {
+                final var changedProperties = getChangedIdentityProperties(object.identity, i);
+                if (!changedProperties.isEmpty()) {
+                    object.identity = i;
+                    emitPropertiesChanged(object, IDENTITY_INTERFACE, changedProperties);
+                }
+            }
+            this.identities.add(new StructIdentity(new DBusPath(identityObjectPath),
                     i.recipient().uuid().map(UUID::toString).orElse(""),
                     i.recipient().number().orElse("")));
         });
+        removedPaths.forEach(path -> {
+            connection.unExportObject(path);
+            exportedIdentities.remove(path);
+        });
     }
 
-    private static String getIdentityObjectPath(String basePath, String id) {
-        return basePath + "/Identities/" + makeValidObjectPathElement(id);
+    /**
+     * Identity contains arrays, so the fields are compared instead of the records.
+     *
+     * @return the names of the identity properties that have changed
+     */
+    private static List<String> getChangedIdentityProperties(
+            final org.asamk.signal.manager.api.Identity previous,
+            final org.asamk.signal.manager.api.Identity identity
+    ) {
+        final var changed = new ArrayList<String>();
+        if (!previous.recipient().equals(identity.recipient())) {
+            changed.add("Number");
+            changed.add("Uuid");
+        }
+        if (!Arrays.equals(previous.fingerprint(), identity.fingerprint())) {
+            changed.add("Fingerprint");
+        }
+        if (!Objects.equals(previous.safetyNumber(), identity.safetyNumber())) {
+            changed.add("SafetyNumber");
+        }
+        if (!Arrays.equals(previous.scannableSafetyNumber(), identity.scannableSafetyNumber())) {
+            changed.add("ScannableSafetyNumber");
+        }
+        if (previous.trustLevel() != identity.trustLevel()) {
+            changed.add("TrustLevel");
+        }
+        if (previous.dateAddedTimestamp() != identity.dateAddedTimestamp()) {
+            changed.add("AddedDate");
+        }
+        return changed;
+    }
+
+    private static String getIdentityObjectPath(String basePath, RecipientAddress recipient) {
+        return basePath + "/Identities/" + makeValidObjectPathElement(recipient.getLegacyIdentifier()
+                + "_"
+                + recipient.getIdentifier());
     }
 
-    private void unExportIdentities() {
-        this.identities.stream()
-                .map(StructIdentity::getObjectPath)
-                .map(DBusPath::getPath)
-                .forEach(connection::unExportObject);
+    private synchronized void unExportIdentities() {
+        exportedIdentities.keySet().forEach(connection::unExportObject);
+        exportedIdentities.clear();
         this.identities.clear();
     }
 
+    /**
+     * Emits a PropertiesChanged signal with the properties that differ from the given previous values.
+     */
+    private void emitPropertiesChanged(
+            final DbusProperties object,
+            final String interfaceName,
+            final Map<String, Variant<?>> previousProperties
+    ) {
+        final var changedProperties = new HashMap<String, Variant<?>>();
+        object.GetAll(interfaceName).forEach((name, value) -> {
+            final var previousValue = previousProperties.get(name);
+            if (previousValue == null || !Objects.deepEquals(previousValue.getValue(), value.getValue())) {
+                changedProperties.put(name, value);
+            }
+        });
+        if (changedProperties.isEmpty()) {
+            return;
+        }
+        sendPropertiesChanged(object, interfaceName, changedProperties);
+    }
+
+    /**
+     * Emits a PropertiesChanged signal with the current values of the given properties.
+     */
+    private void emitPropertiesChanged(
+            final DbusProperties object,
+            final String interfaceName,
+            final List<String> propertyNames
+    ) {
+        final var changedProperties = new HashMap<String, Variant<?>>();
+        for (final var name : propertyNames) {
+            final Object value = object.Get(interfaceName, name);
+            changedProperties.put(name, value instanceof Variant<?> variant ? variant : new Variant<>(value));
+        }
+        sendPropertiesChanged(object, interfaceName, changedProperties);
+    }
+
+    private void sendPropertiesChanged(
+            final DbusProperties object,
+            final String interfaceName,
+            final Map<String, Variant<?>> changedProperties
+    ) {
+        try {
+            connection.sendMessage(new Properties.PropertiesChanged(object.getObjectPath(),
+                    interfaceName,
+                    changedProperties,
+                    List.of()));
+        } catch (DBusException e) {
+            logger.warn("Failed to send properties changed signal ({}): {}", object.getObjectPath(), e.getMessage());
+        }
+    }
+
     @Override
     public DBusPath getIdentity(String number) throws Error.Failure {
         final var found = identities.stream()
@@ -1119,25 +1257,25 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
 
     public class DbusSignalIdentityImpl extends DbusProperties implements Signal.Identity {
 
-        private final org.asamk.signal.manager.api.Identity identity;
+        private volatile org.asamk.signal.manager.api.Identity identity;
 
         public DbusSignalIdentityImpl(final org.asamk.signal.manager.api.Identity identity) {
             this.identity = identity;
-            super.addPropertiesHandler(new DbusInterfacePropertiesHandler("org.asamk.Signal.Identity",
-                    List.of(new DbusProperty<>("Number", () -> identity.recipient().number().orElse("")),
+            super.addPropertiesHandler(new DbusInterfacePropertiesHandler(IDENTITY_INTERFACE,
+                    List.of(new DbusProperty<>("Number", () -> this.identity.recipient().number().orElse("")),
                             new DbusProperty<>("Uuid",
-                                    () -> identity.recipient().uuid().map(UUID::toString).orElse("")),
-                            new DbusProperty<>("Fingerprint", identity::fingerprint),
-                            new DbusProperty<>("SafetyNumber", identity::safetyNumber),
-                            new DbusProperty<>("ScannableSafetyNumber", identity::scannableSafetyNumber),
-                            new DbusProperty<>("TrustLevel", identity::trustLevel),
-                            new DbusProperty<>("AddedDate", identity::dateAddedTimestamp))));
+                                    () -> this.identity.recipient().uuid().map(UUID::toString).orElse("")),
+                            new DbusProperty<>("Fingerprint", () -> this.identity.fingerprint()),
+                            new DbusProperty<>("SafetyNumber", () -> this.identity.safetyNumber()),
+                            new DbusProperty<>("ScannableSafetyNumber",
+                                    () -> this.identity.scannableSafetyNumber()),
+                            new DbusProperty<>("TrustLevel", () -> this.identity.trustLevel()),
+                            new DbusProperty<>("AddedDate", () -> this.identity.dateAddedTimestamp()))));
         }
 
         @Override
         public String getObjectPath() {
-            return getIdentityObjectPath(objectPath,
-                    identity.recipient().getLegacyIdentifier() + "_" + identity.recipient().getIdentifier());
+            return getIdentityObjectPath(objectPath, identity.recipient());
         }
 
         @Override
@@ -1181,14 +1319,14 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
 
     public class DbusSignalDeviceImpl extends DbusProperties implements Signal.Device {
 
-        private final org.asamk.signal.manager.api.Device device;
+        private volatile org.asamk.signal.manager.api.Device device;
 
         public DbusSignalDeviceImpl(final org.asamk.signal.manager.api.Device device) {
-            super.addPropertiesHandler(new DbusInterfacePropertiesHandler("org.asamk.Signal.Device",
-                    List.of(new DbusProperty<>("Id", device::id),
-                            new DbusProperty<>("Name", () -> emptyIfNull(device.name()), this::setDeviceName),
-                            new DbusProperty<>("Created", device::created),
-                            new DbusProperty<>("LastSeen", device::lastSeen))));
+            super.addPropertiesHandler(new DbusInterfacePropertiesHandler(DEVICE_INTERFACE,
+                    List.of(new DbusProperty<>("Id", () -> this.device.id()),
+                            new DbusProperty<>("Name", () -> emptyIfNull(this.device.name()), this::setDeviceName),
+                            new DbusProperty<>("Created", () -> this.device.created()),
+                            new DbusProperty<>("LastSeen", () -> this.device.lastSeen()))));
             this.device = device;
         }
 
@@ -1298,7 +1436,7 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
 
         public DbusSignalGroupImpl(final GroupId groupId) {
             this.groupId = groupId;
-            super.addPropertiesHandler(new DbusInterfacePropertiesHandler("org.asamk.Signal.Group",
+            super.addPropertiesHandler(new DbusInterfacePropertiesHandler(GROUP_INTERFACE,
                     List.of(new DbusProperty<>("Id", groupId::serialize),
                             new DbusProperty<>("Name", () -> emptyIfNull(getGroup().title()), this::setGroupName),
                             new DbusProperty<>("Description",
@@ -1480,4 +1618,6 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
             }
         }
     }
+
+    private record ExportedGroup(DbusSignalGroupImpl object, org.asamk.signal.manager.api.Group group) {}
 }
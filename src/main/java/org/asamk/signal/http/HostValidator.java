@@ -0,0 +1,97 @@
+package org.asamk.signal.http;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Validates the Host header of requests, to protect servers on a local address against DNS rebinding.
+ */
+final class HostValidator {
+
+    private final InetSocketAddress address;
+    private final Set<String> allowedHosts;
+
+    HostValidator(final InetSocketAddress address) {
+        this.address = address;
+        this.allowedHosts = buildAllowedHosts(address);
+    }
+
+    Set<String> getAllowedHosts() {
+        return allowedHosts;
+    }
+
+    /**
+     * @return true if the server is bound to any local address (0.0.0.0 or ::), then host validation is skipped
+     */
+    boolean isAnyLocalAddress() {
+        if (address == null) {
+            return false;
+        }
+        final var addr = address.getAddress();
+        if (addr != null && addr.isAnyLocalAddress()) {
+            return true;
+        }
+        final var hostStr = address.getHostString();
+        return "0.0.0.0".equals(hostStr) || "::".equals(hostStr);
+    }
+
+    boolean isHostAllowed(final String hostHeader) {
+        if (isAnyLocalAddress()) {
+            return true;
+        }
+
+        if (hostHeader == null || hostHeader.isEmpty()) {
+            return false;
+        }
+
+        String hostPart = hostHeader;
+        String portPart = null;
+        if (hostHeader.startsWith("[")) {
+            final var idx = hostHeader.indexOf(']');
+            if (idx == -1) return false;
+            hostPart = hostHeader.substring(1, idx);
+            if (hostHeader.length() > idx + 1 && hostHeader.charAt(idx + 1) == ':') {
+                portPart = hostHeader.substring(idx + 2);
+            }
+        } else {
+            final var colon = hostHeader.lastIndexOf(':');
+            if (colon != -1) {
+                final var possiblePort = hostHeader.substring(colon + 1);
+                if (possiblePort.chars().allMatch(Character::isDigit)) {
+                    hostPart = hostHeader.substring(0, colon);
+                    portPart = possiblePort;
+                }
+            }
+        }
+
+        hostPart = hostPart.toLowerCase(Locale.ROOT);
+        if (!allowedHosts.contains(hostPart)) {
+            return false;
+        }
+
+        if (portPart != null) {
+            try {
+                final var port = Integer.parseInt(portPart);
+                if (port != address.getPort()) return false;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Set<String> buildAllowedHosts(final InetSocketAddress address) {
+        final var s = new HashSet<String>();
+        final var host = address == null ? null : address.getHostString();
+        if (host != null && !host.isEmpty()) {
+            s.add(host.toLowerCase(Locale.ROOT));
+        }
+        s.add("localhost");
+        s.add("127.0.0.1");
+        s.add("::1");
+        return s;
+    }
+}
@@ -5,10 +5,14 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 import org.asamk.signal.commands.Commands;
-import org.asamk.signal.json.JsonReceiveMessageHandler;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.json.JsonReceiveEvent;
+import org.asamk.signal.json.JsonReceiveEventBus;
+import org.asamk.signal.json.ReceiveFilter;
 import org.asamk.signal.jsonrpc.JsonRpcReader;
 import org.asamk.signal.jsonrpc.JsonRpcResponse;
 import org.asamk.signal.jsonrpc.JsonRpcSender;
+import org.asamk.signal.jsonrpc.ShardRouter;
 import org.asamk.signal.jsonrpc.SignalJsonRpcCommandHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
@@ -19,18 +23,30 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class HttpServerHandler implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpServerHandler.class);
 
+    private static final Duration KEEP_ALIVE_INTERVAL = Duration.ofSeconds(15);
+    // Same as the grace period of the receive event buses
+    private static final long STREAM_POSITION_RETENTION_SECONDS = 60;
+
     private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
 
     private final InetSocketAddress address;
@@ -38,24 +54,50 @@ public class HttpServerHandler implements AutoCloseable {
     private final SignalJsonRpcCommandHandler commandHandler;
     private final MultiAccountManager c;
     private final Manager m;
+    private final ShardRouter router;
     private HttpServer server;
+    private ScheduledExecutorService keepAliveExecutor;
+    private final Duration keepAliveInterval;
+    private final Set<EventStream> eventStreams = ConcurrentHashMap.newKeySet();
+    private final Map<String, StreamPosition> streamPositions = new ConcurrentHashMap<>();
     private final AtomicBoolean shutdown = new AtomicBoolean(false);
-    private final Set<String> allowedHosts;
+    private final HostValidator hostValidator;
 
     public HttpServerHandler(final InetSocketAddress address, final Manager m) {
+        this(address, m, KEEP_ALIVE_INTERVAL);
+    }
+
+    HttpServerHandler(final InetSocketAddress address, final Manager m, final Duration keepAliveInterval) {
         this.address = address;
+        this.keepAliveInterval = keepAliveInterval;
         commandHandler = new SignalJsonRpcCommandHandler(m, Commands::getCommand);
         this.c = null;
         this.m = m;
-        this.allowedHosts = buildAllowedHosts(address);
+        this.router = null;
+        this.hostValidator = new HostValidator(address);
     }
 
     public HttpServerHandler(final InetSocketAddress address, final MultiAccountManager c) {
         this.address = address;
         commandHandler = new SignalJsonRpcCommandHandler(c, Commands::getCommand);
+        this.keepAliveInterval = KEEP_ALIVE_INTERVAL;
         this.c = c;
         this.m = null;
-        this.allowedHosts = buildAllowedHosts(address);
+        this.router = null;
+        this.hostValidator = new HostValidator(address);
+    }
+
+    /**
+     * Forwards the RPC requests to the worker daemons of the router, the events endpoint isn't available.
+     */
+    public HttpServerHandler(final InetSocketAddress address, final ShardRouter router) {
+        this.address = address;
+        this.keepAliveInterval = KEEP_ALIVE_INTERVAL;
+        this.commandHandler = null;
+        this.c = null;
+        this.m = null;
+        this.router = router;
+        this.hostValidator = new HostValidator(address);
     }
 
     public void init() throws IOException {
@@ -71,14 +113,21 @@ public class HttpServerHandler implements AutoCloseable {
         server.createContext("/api/v1/events", this::handleEventsEndpoint);
         server.createContext("/api/v1/check", this::handleCheckEndpoint);
 
+        keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+                .name("sse-keep-alive")
+                .factory());
+        keepAliveExecutor.scheduleAtFixedRate(this::sendKeepAlives,
+                keepAliveInterval.toMillis(),
+                keepAliveInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+
         server.start();
         logger.info("Started HTTP server on {}", address);
         // If we're listening on any local address (0.0.0.0 or ::), skip Host header validation
-        final var addr = address == null ? null : address.getAddress();
-        if (addr != null && addr.isAnyLocalAddress()) {
+        if (hostValidator.isAnyLocalAddress()) {
             logger.warn("HTTP server has no authentication; Host header validation DISABLED because listening on {}", address);
         } else {
-            logger.warn("HTTP server has no authentication; Host header is pinned to {}", allowedHosts);
+            logger.warn("HTTP server has no authentication; Host header is pinned to {}", hostValidator.getAllowedHosts());
         }
     }
 
@@ -86,9 +135,9 @@ public class HttpServerHandler implements AutoCloseable {
     public void close() {
         if (server != null) {
             shutdown.set(true);
-            synchronized (this) {
-                this.notifyAll();
-            }
+            keepAliveExecutor.shutdownNow();
+            keepAliveExecutor = null;
+            eventStreams.forEach(EventStream::stop);
             // Increase this delay when https://bugs.openjdk.org/browse/JDK-8304065 is fixed
             server.stop(2);
             server = null;
@@ -145,7 +194,9 @@ public class HttpServerHandler implements AutoCloseable {
             });
 
             final var jsonRpcReader = new JsonRpcReader(jsonRpcSender, httpExchange.getRequestBody());
-            jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
+            jsonRpcReader.readMessages((method, params, _) -> router != null
+                            ? router.handleRequest(method, params)
+                            : commandHandler.handleRequest(objectMapper, method, params),
                     response -> logger.debug("Received unexpected response for id {}", response.getId()));
 
             if (result[0] != null) {
@@ -179,6 +230,10 @@ public class HttpServerHandler implements AutoCloseable {
             sendResponse(405, null, httpExchange);
             return;
         }
+        if (router != null) {
+            sendResponse(501, null, httpExchange);
+            return;
+        }
 
         try {
             final var queryString = httpExchange.getRequestURI().getRawQuery();
@@ -190,43 +245,51 @@ public class HttpServerHandler implements AutoCloseable {
                 return;
             }
 
+            final ReceiveFilter filter;
+            try {
+                filter = getReceiveFilterFromQuery(query);
+            } catch (UserErrorException e) {
+                logger.debug("Invalid events filter: {}", e.getMessage());
+                sendResponse(400, null, httpExchange);
+                return;
+            }
+
             httpExchange.getResponseHeaders().add("Content-Type", "text/event-stream");
             httpExchange.sendResponseHeaders(200, 0);
             final var sender = new ServerSentEventSender(httpExchange.getResponseBody());
 
             // Flush HTTP response headers to the client immediately.
             // Without this, the JVM HttpServer buffers everything until a later write
-            // in the keep-alive loop (15 s), causing clients with shorter timeouts
+            // keep-alive (15 s), causing clients with shorter timeouts
             // (e.g. 10 s) to abort before receiving the initial response.
             httpExchange.getResponseBody().flush();
 
-            final var shouldStop = new AtomicBoolean(false);
-            final var handlers = subscribeReceiveHandlers(managers, sender, () -> {
-                shouldStop.set(true);
-                synchronized (this) {
-                    this.notifyAll();
-                }
-            });
-
+            final var stream = new EventStream(sender, new CompletableFuture<>(), new AtomicBoolean());
+            final var position = new StreamPosition();
+            streamPositions.put(position.streamId, position);
+            final var handlers = subscribeReceiveHandlers(managers,
+                    sender,
+                    filter,
+                    position,
+                    httpExchange.getRequestHeaders().getFirst("Last-Event-ID"),
+                    stream::stop);
+
+            eventStreams.add(stream);
             try {
-                while (true) {
-                    synchronized (this) {
-                        wait(15_000);
-                    }
-                    if (shouldStop.get() || shutdown.get()) {
-                        break;
-                    }
-
-                    try {
-                        sender.sendKeepAlive();
-                    } catch (IOException e) {
-                        break;
-                    }
+                if (shutdown.get()) {
+                    stream.stop();
                 }
+                // Only this connection's thread is woken up when the stream ends,
+                // keep-alives are sent by the shared keep-alive executor
+                stream.stopped().join();
             } finally {
+                eventStreams.remove(stream);
                 for (final var pair : handlers) {
                     unsubscribeReceiveHandler(pair);
                 }
+                // The client may reconnect with the id of an event of this stream
+                CompletableFuture.delayedExecutor(STREAM_POSITION_RETENTION_SECONDS, TimeUnit.SECONDS)
+                        .execute(() -> streamPositions.remove(position.streamId));
                 try {
                     httpExchange.getResponseBody().close();
                 } catch (IOException ignored) {
@@ -251,6 +314,18 @@ public class HttpServerHandler implements AutoCloseable {
         sendResponse(200, null, httpExchange);
     }
 
+    private static ReceiveFilter getReceiveFilterFromQuery(final Map<String, String> query) throws UserErrorException {
+        return ReceiveFilter.from(getQueryList(query, "types"),
+                getQueryList(query, "groupIds"),
+                getQueryList(query, "senders"),
+                query.containsKey("hasAttachments") ? !"false".equals(query.get("hasAttachments")) : null);
+    }
+
+    private static List<String> getQueryList(final Map<String, String> query, final String name) {
+        final var value = query.get(name);
+        return value == null || value.isEmpty() ? null : List.of(value.split(","));
+    }
+
     private List<Manager> getManagerFromQuery(final Map<String, String> query) {
         if (m != null) {
             return List.of(m);
@@ -273,99 +348,169 @@ public class HttpServerHandler implements AutoCloseable {
         throw new AssertionError("Unreachable state");
     }
 
-    private List<Pair<Manager, Manager.ReceiveMessageHandler>> subscribeReceiveHandlers(
+    /**
+     * Subscribes the event stream to the received messages of all managers.
+     * Events the client missed since the given last event id are replayed first, if they're still buffered.
+     *
+     * @param position    position of the new stream, updated with each sent event
+     * @param lastEventId the Last-Event-ID of the client, or null
+     */
+    private List<Pair<Manager, Consumer<JsonReceiveEvent>>> subscribeReceiveHandlers(
             final List<Manager> managers,
             final ServerSentEventSender sender,
+            final ReceiveFilter filter,
+            final StreamPosition position,
+            final String lastEventId,
             Callable unsubscribe
     ) {
+        final var lastEventIds = lastEventId == null || lastEventId.isEmpty() ? null : getLastEventIds(lastEventId);
         return managers.stream().map(m1 -> {
-            final var receiveMessageHandler = new JsonReceiveMessageHandler(m1, s -> {
+            final var account = m1.getSelfNumber();
+            final Consumer<JsonReceiveEvent> subscriber = event -> {
+                try {
+                    // Events of different accounts must be sent in the order of their stream position
+                    synchronized (position) {
+                        sender.sendEvent(position.next(account, event.getId()), "receive", event.getBytes());
+                    }
+                } catch (IOException e) {
+                    unsubscribe.call();
+                }
+            };
+            // An account that isn't known for the given id is reported as missed, with all buffered events
+            final var accountLastEventId = lastEventIds == null
+                    ? lastEventId
+                    : lastEventIds.getOrDefault(account, lastEventId);
+            // The account isn't closed when idle while a client is subscribed to it
+            if (c != null) {
+                c.retain(m1);
+            }
+            final var eventBus = JsonReceiveEventBus.get(m1);
+            final var subscribedPosition = eventBus.subscribe(subscriber, filter, accountLastEventId, () -> {
+                logger.debug("Events after {} of {} are no longer available for replay", lastEventId, account);
                 try {
-                    sender.sendEvent(null, "receive", List.of(objectMapper.writeValueAsString(s)));
+                    sender.sendEvent(null,
+                            "missedEvents",
+                            objectMapper.writeValueAsBytes(Map.of("account", account, "lastEventId", lastEventId)));
                 } catch (IOException e) {
                     unsubscribe.call();
                 }
             });
-            m1.addReceiveHandler(receiveMessageHandler);
-            return new Pair<>(m1, (Manager.ReceiveMessageHandler) receiveMessageHandler);
+            position.start(account, accountLastEventId == null ? subscribedPosition : accountLastEventId);
+            return new Pair<>(m1, subscriber);
         }).toList();
     }
 
-    private void unsubscribeReceiveHandler(final Pair<Manager, Manager.ReceiveMessageHandler> pair) {
-        final var m = pair.first();
-        final var handler = pair.second();
-        m.removeReceiveHandler(handler);
+    /**
+     * @return the last event id of each account at the given SSE event id, or null if the stream is no longer known
+     */
+    private Map<String, String> getLastEventIds(final String lastEventId) {
+        final var separator = lastEventId.lastIndexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        final var position = streamPositions.get(lastEventId.substring(0, separator));
+        if (position == null) {
+            return null;
+        }
+        try {
+            return position.getLastEventIds(Long.parseLong(lastEventId.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
-    private interface Callable {
+    private void unsubscribeReceiveHandler(final Pair<Manager, Consumer<JsonReceiveEvent>> pair) {
+        JsonReceiveEventBus.get(pair.first()).unsubscribe(pair.second());
+        if (c != null) {
+            c.release(pair.first());
+        }
+    }
 
-        void call();
+    private void sendKeepAlives() {
+        for (final var stream : eventStreams) {
+            if (!stream.keepAlivePending().compareAndSet(false, true)) {
+                // The previous keep-alive couldn't be written for a whole interval, the client doesn't read anymore
+                logger.debug("Stopping event stream, the client doesn't receive keep-alives");
+                stream.stop();
+                continue;
+            }
+            // Write on a separate thread, so a client that doesn't read doesn't delay the keep-alives of other streams
+            Thread.startVirtualThread(() -> {
+                try {
+                    stream.sender().sendKeepAlive();
+                    stream.keepAlivePending().set(false);
+                } catch (IOException e) {
+                    stream.stop();
+                }
+            });
+        }
     }
 
-    private Set<String> buildAllowedHosts(final InetSocketAddress address) {
-        final var s = new HashSet<String>();
-        final var host = address == null ? null : address.getHostString();
-        if (host != null && !host.isEmpty()) {
-            s.add(host.toLowerCase(Locale.ROOT));
+    private record EventStream(
+            ServerSentEventSender sender, CompletableFuture<Void> stopped, AtomicBoolean keepAlivePending
+    ) {
+
+        void stop() {
+            stopped.complete(null);
         }
-        s.add("localhost");
-        s.add("127.0.0.1");
-        s.add("::1");
-        return s;
     }
 
-    private boolean isHostAllowed(final HttpExchange httpExchange) {
-        // If the server is bound to any local address (0.0.0.0 or ::), skip host header validation
-        if (address != null) {
-            final var addr = address.getAddress();
-            if (addr != null && addr.isAnyLocalAddress()) {
-                return true;
-            }
-            final var hostStr = address.getHostString();
-            if ("0.0.0.0".equals(hostStr) || "::".equals(hostStr)) {
-                return true;
-            }
+    /**
+     * Position of an event stream in the events of its accounts.
+     * The SSE event id only contains the stream id and a counter, so its size doesn't depend on the number of
+     * accounts. The last event id of each account is looked up with it, when the client reconnects.
+     */
+    private static final class StreamPosition {
+
+        private static final int MAX_ENTRIES = 1000;
+
+        private final String streamId = UUID.randomUUID().toString();
+        // Last event id of each account before the first entry
+        private final Map<String, String> base = new HashMap<>();
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private long counter;
+
+        synchronized void start(final String account, final String eventId) {
+            base.putIfAbsent(account, eventId);
         }
 
-        final var hostHeader = httpExchange.getRequestHeaders().getFirst("Host");
-        if (hostHeader == null || hostHeader.isEmpty()) {
-            return false;
+        synchronized String next(final String account, final String eventId) {
+            entries.addLast(new Entry(++counter, account, eventId));
+            if (entries.size() > MAX_ENTRIES) {
+                final var entry = entries.removeFirst();
+                base.put(entry.account(), entry.eventId());
+            }
+            return streamId + ":" + counter;
         }
 
-        String hostPart = hostHeader;
-        String portPart = null;
-        if (hostHeader.startsWith("[")) {
-            final var idx = hostHeader.indexOf(']');
-            if (idx == -1) return false;
-            hostPart = hostHeader.substring(1, idx);
-            if (hostHeader.length() > idx + 1 && hostHeader.charAt(idx + 1) == ':') {
-                portPart = hostHeader.substring(idx + 2);
+        /**
+         * @return the last event id of each account, or null if the counter is no longer known
+         */
+        synchronized Map<String, String> getLastEventIds(final long counter) {
+            if (counter < 0 || counter > this.counter || (
+                    !entries.isEmpty() && counter < entries.getFirst().counter() - 1
+            )) {
+                return null;
             }
-        } else {
-            final var colon = hostHeader.lastIndexOf(':');
-            if (colon != -1) {
-                final var possiblePort = hostHeader.substring(colon + 1);
-                if (possiblePort.chars().allMatch(Character::isDigit)) {
-                    hostPart = hostHeader.substring(0, colon);
-                    portPart = possiblePort;
+            final var lastEventIds = new HashMap<>(base);
+            for (final var entry : entries) {
+                if (entry.counter() > counter) {
+                    break;
                 }
+                lastEventIds.put(entry.account(), entry.eventId());
             }
+            return lastEventIds;
         }
 
-        hostPart = hostPart.toLowerCase(Locale.ROOT);
-        if (!allowedHosts.contains(hostPart)) {
-            return false;
-        }
+        private record Entry(long counter, String account, String eventId) {}
+    }
 
-        if (portPart != null) {
-            try {
-                final var port = Integer.parseInt(portPart);
-                if (port != address.getPort()) return false;
-            } catch (NumberFormatException e) {
-                return false;
-            }
-        }
+    private interface Callable {
 
-        return true;
+        void call();
+    }
+
+    private boolean isHostAllowed(final HttpExchange httpExchange) {
+        return hostValidator.isHostAllowed(httpExchange.getRequestHeaders().getFirst("Host"));
     }
 }
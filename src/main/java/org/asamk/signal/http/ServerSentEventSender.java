@@ -1,9 +1,8 @@
 package org.asamk.signal.http;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -13,10 +12,12 @@ import java.util.List;
  */
 public class ServerSentEventSender {
 
-    private final BufferedWriter writer;
+    private static final byte[] DATA_FIELD = "data:".getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream outputStream;
 
     public ServerSentEventSender(final OutputStream outputStream) {
-        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.outputStream = new BufferedOutputStream(outputStream);
     }
 
     /**
@@ -25,31 +26,52 @@ public class ServerSentEventSender {
      * @param data  Event data, each entry must not contain newline chars.
      */
     public synchronized void sendEvent(String id, String event, List<String> data) throws IOException {
-        if (id != null) {
-            writer.write("id:");
-            writer.write(id);
-            writer.write("\n");
-        }
-        if (event != null) {
-            writer.write("event:");
-            writer.write(event);
-            writer.write("\n");
-        }
+        writeEventHeader(id, event);
         if (data.isEmpty()) {
-            writer.write("data\n");
+            write("data\n");
         } else {
             for (final var d : data) {
-                writer.write("data:");
-                writer.write(d);
-                writer.write("\n");
+                write("data:");
+                write(d);
+                write("\n");
             }
         }
-        writer.write("\n");
-        writer.flush();
+        write("\n");
+        outputStream.flush();
+    }
+
+    /**
+     * @param id    Event id
+     * @param event Event type
+     * @param data  UTF-8 encoded event data, must not contain newline chars.
+     */
+    public synchronized void sendEvent(String id, String event, byte[] data) throws IOException {
+        writeEventHeader(id, event);
+        outputStream.write(DATA_FIELD);
+        outputStream.write(data);
+        write("\n\n");
+        outputStream.flush();
     }
 
     public synchronized void sendKeepAlive() throws IOException {
-        writer.write(":\n");
-        writer.flush();
+        write(":\n");
+        outputStream.flush();
+    }
+
+    private void writeEventHeader(final String id, final String event) throws IOException {
+        if (id != null) {
+            write("id:");
+            write(id);
+            write("\n");
+        }
+        if (event != null) {
+            write("event:");
+            write(event);
+            write("\n");
+        }
+    }
+
+    private void write(final String s) throws IOException {
+        outputStream.write(s.getBytes(StandardCharsets.UTF_8));
     }
 }
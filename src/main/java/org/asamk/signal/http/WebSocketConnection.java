@@ -0,0 +1,399 @@
+package org.asamk.signal.http;
+
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * WebSocket framing (RFC 6455) of an upgraded connection, with optional permessage-deflate (RFC 7692).
+ * <p>
+ * The payload of the received data messages is provided as a continuous byte stream, so it can be read by the
+ * JSON-RPC reader like a socket connection. Control frames are answered while reading. Each written JSON message is
+ * sent as a single text message.
+ * <p>
+ * A client that doesn't answer a ping before the next one is due is considered dead and disconnected.
+ */
+final class WebSocketConnection implements ReadableByteChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketConnection.class);
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_GOING_AWAY = 1001;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+    /**
+     * How long the close frame and the output before it may take to be written, before the channel is closed anyway.
+     */
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Smaller messages are sent uncompressed, compressing them would hardly reduce their size.
+     */
+    private static final int MIN_COMPRESSED_SIZE = 256;
+    private static final byte[] DEFLATE_TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private final DataInputStream input;
+    private final GatheringByteChannel channel;
+    private final long maxMessageSize;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final AsyncJsonWriter writer;
+
+    private final byte[] mask = new byte[4];
+    private final byte[] readBuffer = new byte[8192];
+    private long frameRemaining;
+    private long framePosition;
+    private boolean finalFrame = true;
+    private boolean compressedMessage;
+    private boolean deflateTailFed;
+    private long messageSize;
+    private boolean closed;
+    private volatile boolean closeSent;
+    private volatile boolean pongPending;
+
+    /**
+     * @param deflate if permessage-deflate has been negotiated, outgoing messages are compressed without context
+     *                takeover
+     */
+    WebSocketConnection(
+            final InputStream input,
+            final GatheringByteChannel channel,
+            final boolean deflate,
+            final long maxMessageSize,
+            final long maxQueuedOutputSize
+    ) {
+        this.input = new DataInputStream(input);
+        this.channel = channel;
+        this.maxMessageSize = maxMessageSize;
+        this.deflater = deflate ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        this.inflater = deflate ? new Inflater(true) : null;
+        this.writer = new AsyncJsonWriter(channel,
+                maxQueuedOutputSize,
+                AsyncJsonWriter.OverflowPolicy.DISCONNECT,
+                this::frameMessage);
+    }
+
+    AsyncJsonWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        while (true) {
+            if (closed) {
+                return -1;
+            }
+            if (compressedMessage) {
+                final var n = inflate(dst);
+                if (n != 0) {
+                    return n;
+                }
+            } else if (frameRemaining > 0) {
+                final var n = readPayload(Math.min(dst.remaining(), readBuffer.length));
+                dst.put(readBuffer, 0, n);
+                return n;
+            } else if (!readFrame()) {
+                closed = true;
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the number of inflated bytes, 0 if the message is complete
+     */
+    private int inflate(final ByteBuffer dst) throws IOException {
+        while (true) {
+            if (inflater.needsInput()) {
+                if (frameRemaining > 0) {
+                    final var n = readPayload(readBuffer.length);
+                    inflater.setInput(readBuffer, 0, n);
+                } else if (!finalFrame) {
+                    if (!readFrame()) {
+                        closed = true;
+                        return -1;
+                    }
+                    continue;
+                } else if (!deflateTailFed) {
+                    inflater.setInput(DEFLATE_TAIL);
+                    deflateTailFed = true;
+                } else {
+                    compressedMessage = false;
+                    return 0;
+                }
+            }
+            final int n;
+            try {
+                n = inflater.inflate(dst);
+            } catch (DataFormatException e) {
+                throw protocolError(CLOSE_PROTOCOL_ERROR, "Invalid compressed message: " + e.getMessage());
+            }
+            if (inflater.finished()) {
+                // The client ended the deflate stream, the next message starts a new one
+                inflater.reset();
+            }
+            messageSize += n;
+            if (messageSize > maxMessageSize) {
+                throw protocolError(CLOSE_MESSAGE_TOO_BIG, "Message too big");
+            }
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Reads frames until the next data frame begins and handles the control frames.
+     *
+     * @return false if the connection has been closed
+     */
+    private boolean readFrame() throws IOException {
+        while (true) {
+            final var b0 = input.read();
+            if (b0 == -1) {
+                return false;
+            }
+            final var b1 = input.readUnsignedByte();
+            final var fin = (b0 & 0x80) != 0;
+            final var rsv1 = (b0 & 0x40) != 0;
+            final var opcode = b0 & 0x0f;
+            if ((b0 & 0x30) != 0 || (rsv1 && (inflater == null || opcode == OPCODE_CONTINUATION))) {
+                throw protocolError(CLOSE_PROTOCOL_ERROR, "Invalid reserved bits");
+            }
+            if ((b1 & 0x80) == 0) {
+                throw protocolError(CLOSE_PROTOCOL_ERROR, "Client frames must be masked");
+            }
+            long length = b1 & 0x7f;
+            if (length == 126) {
+                length = input.readUnsignedShort();
+            } else if (length == 127) {
+                length = input.readLong();
+                if (length < 0) {
+                    throw protocolError(CLOSE_PROTOCOL_ERROR, "Invalid frame length");
+                }
+            }
+            input.readFully(mask);
+            frameRemaining = length;
+            framePosition = 0;
+
+            if (opcode >= OPCODE_CLOSE) {
+                if (!fin || length > 125) {
+                    throw protocolError(CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+                }
+                final var payload = new byte[(int) length];
+                var offset = 0;
+                while (offset < payload.length) {
+                    offset += readPayload(payload, offset, payload.length - offset);
+                }
+                switch (opcode) {
+                    case OPCODE_CLOSE -> {
+                        final var code = payload.length >= 2
+                                ? ((payload[0] & 0xff) << 8) | (payload[1] & 0xff)
+                                : CLOSE_NORMAL;
+                        close(code, "");
+                        return false;
+                    }
+                    case OPCODE_PING -> writer.writeFrames(ByteBuffer.wrap(frame(OPCODE_PONG, false, payload)));
+                    case OPCODE_PONG -> pongPending = false;
+                    default -> throw protocolError(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+                }
+                continue;
+            }
+
+            switch (opcode) {
+                case OPCODE_TEXT, OPCODE_BINARY -> {
+                    if (!finalFrame) {
+                        throw protocolError(CLOSE_PROTOCOL_ERROR, "Expected continuation frame");
+                    }
+                    messageSize = 0;
+                    compressedMessage = rsv1;
+                    deflateTailFed = false;
+                }
+                case OPCODE_CONTINUATION -> {
+                    if (finalFrame) {
+                        throw protocolError(CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+                    }
+                }
+                default -> throw protocolError(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            }
+            finalFrame = fin;
+            if (!compressedMessage) {
+                messageSize += length;
+                if (messageSize > maxMessageSize) {
+                    throw protocolError(CLOSE_MESSAGE_TOO_BIG, "Message too big");
+                }
+            }
+            return true;
+        }
+    }
+
+    private int readPayload(final int maxLength) throws IOException {
+        return readPayload(readBuffer, 0, maxLength);
+    }
+
+    private int readPayload(final byte[] buffer, final int offset, final int maxLength) throws IOException {
+        final var n = input.read(buffer, offset, (int) Math.min(maxLength, frameRemaining));
+        if (n == -1) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+        for (var i = 0; i < n; i++) {
+            buffer[offset + i] ^= mask[(int) ((framePosition + i) & 3)];
+        }
+        framePosition += n;
+        frameRemaining -= n;
+        return n;
+    }
+
+    private IOException protocolError(final int code, final String reason) {
+        close(code, reason);
+        closed = true;
+        return new IOException(reason);
+    }
+
+    /**
+     * Sends a ping, called periodically. If the previous ping hasn't been answered, the connection is closed instead.
+     */
+    void ping() {
+        if (closeSent) {
+            return;
+        }
+        if (pongPending) {
+            Thread.ofVirtual().name("ws-disconnect").start(() -> disconnect(CLOSE_GOING_AWAY, "Ping timeout"));
+            return;
+        }
+        pongPending = true;
+        try {
+            writer.writeFrames(ByteBuffer.wrap(frame(OPCODE_PING, false, new byte[0])));
+        } catch (AssertionError e) {
+            // The connection is already closing
+        }
+    }
+
+    /**
+     * Sends a close frame and closes the channel once the pending output has been written, so the client receives
+     * the close frame. If the client doesn't read its output in time, the channel is closed anyway.
+     */
+    void disconnect(final int code, final String reason) {
+        close(code, reason);
+        writer.awaitWritten(CLOSE_TIMEOUT);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close channel: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a close frame, messages written afterward are discarded. The channel stays open, the close frame is
+     * written when the writer is closed or with {@link #disconnect(int, String)}.
+     */
+    synchronized void close(final int code, final String reason) {
+        if (closeSent) {
+            return;
+        }
+        closeSent = true;
+        final var reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        final var payload = new byte[2 + Math.min(reasonBytes.length, 123)];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, payload.length - 2);
+        try {
+            writer.writeFrames(ByteBuffer.wrap(frame(OPCODE_CLOSE, false, payload)));
+        } catch (AssertionError e) {
+            // The writer has already failed or been closed, the client can't receive the close frame anymore
+        }
+    }
+
+    private ByteBuffer[] frameMessage(final byte[] message) {
+        if (closeSent) {
+            return new ByteBuffer[0];
+        }
+        if (deflater == null || message.length < MIN_COMPRESSED_SIZE) {
+            return new ByteBuffer[]{ByteBuffer.wrap(frameHeader(OPCODE_TEXT, false, message.length)),
+                    ByteBuffer.wrap(message)};
+        }
+        // The deflate tail of the sync flush isn't sent, the receiver appends it again
+        final var compressed = deflate(message);
+        final var length = compressed.size() - DEFLATE_TAIL.length;
+        return new ByteBuffer[]{ByteBuffer.wrap(frameHeader(OPCODE_TEXT, true, length)),
+                ByteBuffer.wrap(compressed.toByteArray(), 0, length)};
+    }
+
+    private ByteArrayOutputStream deflate(final byte[] message) {
+        final var output = new ByteArrayOutputStream(message.length / 2 + 64);
+        final var buffer = new byte[8192];
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setInput(message);
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, n);
+            } while (n == buffer.length);
+        }
+        return output;
+    }
+
+    private static byte[] frame(final int opcode, final boolean compressed, final byte[] payload) {
+        final var header = frameHeader(opcode, compressed, payload.length);
+        final var frame = new byte[header.length + payload.length];
+        System.arraycopy(header, 0, frame, 0, header.length);
+        System.arraycopy(payload, 0, frame, header.length, payload.length);
+        return frame;
+    }
+
+    private static byte[] frameHeader(final int opcode, final boolean compressed, final int length) {
+        final var b0 = (byte) (0x80 | (compressed ? 0x40 : 0) | opcode);
+        if (length < 126) {
+            return new byte[]{b0, (byte) length};
+        } else if (length <= 0xffff) {
+            return new byte[]{b0, 126, (byte) (length >> 8), (byte) length};
+        } else {
+            return ByteBuffer.allocate(10).put(b0).put((byte) 127).putLong(length).array();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Releases the compression resources, the writer and the channel are closed by the caller.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (deflater != null) {
+            synchronized (deflater) {
+                deflater.end();
+            }
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.asamk.signal.http;
+
+import org.asamk.signal.jsonrpc.SignalJsonRpcDispatcherHandler;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.MultiAccountManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Provides the JSON-RPC interface over WebSocket connections on {@code /api/v1/ws}.
+ * <p>
+ * A WebSocket connection behaves like a socket connection, with requests, responses and notifications in both
+ * directions, each JSON-RPC message is a single text message. The permessage-deflate extension is supported.
+ * Ping frames are sent periodically, so idle connections aren't closed by reverse proxies.
+ */
+public class WebSocketHandler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketHandler.class);
+    private static final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    private static final String PATH = "/api/v1/ws";
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_SIZE = 16 * 1024;
+    private static final Duration PING_INTERVAL = Duration.ofSeconds(30);
+    /**
+     * Large enough for a send request with a base64 encoded attachment of the maximum attachment size.
+     */
+    private static final long MAX_MESSAGE_SIZE = 256L * 1024 * 1024;
+    /**
+     * Clients that don't read their pending messages before this size is reached are disconnected.
+     */
+    private static final long MAX_QUEUED_OUTPUT_SIZE = 64L * 1024 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final InetSocketAddress address;
+    private final HostValidator hostValidator;
+    private final Consumer<SignalJsonRpcDispatcherHandler> connectionHandler;
+    private final boolean noReceiveOnStart;
+    private final Set<SocketChannel> channels = ConcurrentHashMap.newKeySet();
+    private final Set<WebSocketConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private Thread listenerThread;
+    private ScheduledExecutorService pingExecutor;
+
+    public WebSocketHandler(
+            final ServerSocketChannel serverChannel,
+            final InetSocketAddress address,
+            final Manager m,
+            final boolean noReceiveOnStart
+    ) {
+        this.serverChannel = serverChannel;
+        this.address = address;
+        this.hostValidator = new HostValidator(address);
+        this.connectionHandler = dispatcher -> dispatcher.handleConnection(m);
+        this.noReceiveOnStart = noReceiveOnStart;
+    }
+
+    public WebSocketHandler(
+            final ServerSocketChannel serverChannel,
+            final InetSocketAddress address,
+            final MultiAccountManager c,
+            final boolean noReceiveOnStart
+    ) {
+        this.serverChannel = serverChannel;
+        this.address = address;
+        this.hostValidator = new HostValidator(address);
+        this.connectionHandler = dispatcher -> dispatcher.handleConnection(c);
+        this.noReceiveOnStart = noReceiveOnStart;
+    }
+
+    public void init() {
+        if (listenerThread != null) {
+            throw new AssertionError("WebSocketHandler already initialized");
+        }
+        logger.debug("Starting WebSocket server on {}", address);
+
+        pingExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("ws-ping").factory());
+        pingExecutor.scheduleAtFixedRate(() -> connections.forEach(WebSocketConnection::ping),
+                PING_INTERVAL.toMillis(),
+                PING_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+
+        listenerThread = Thread.ofPlatform().name("ws-listener").start(() -> {
+            try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                logger.info("Started WebSocket server on {}", address);
+                while (true) {
+                    final var connectionId = threadNumber.getAndIncrement();
+                    final SocketChannel channel;
+                    try {
+                        channel = serverChannel.accept();
+                    } catch (ClosedChannelException ignored) {
+                        logger.trace("Listening socket has been closed");
+                        break;
+                    } catch (IOException e) {
+                        logger.error("Failed to accept new WebSocket connection", e);
+                        break;
+                    }
+                    channels.add(channel);
+                    executor.submit(() -> {
+                        try (final var c = channel) {
+                            handleConnection(connectionId, c);
+                        } catch (IOException e) {
+                            logger.debug("WebSocket connection {} failed: {}", connectionId, e.getMessage());
+                        } catch (Throwable e) {
+                            logger.warn("WebSocket connection handler failed, closing connection", e);
+                        }
+                        channels.remove(channel);
+                    });
+                }
+            }
+        });
+        if (hostValidator.isAnyLocalAddress()) {
+            logger.warn("WebSocket server has no authentication; Host header validation DISABLED because listening on {}",
+                    address);
+        } else {
+            logger.warn("WebSocket server has no authentication; Host header is pinned to {}",
+                    hostValidator.getAllowedHosts());
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (listenerThread == null) {
+            return;
+        }
+        pingExecutor.shutdownNow();
+        pingExecutor = null;
+        serverChannel.close();
+        // The clients receive their pending output and the close frame, before the remaining channels are closed
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (final var connection : connections) {
+                executor.execute(() -> connection.disconnect(WebSocketConnection.CLOSE_GOING_AWAY, "Server shutdown"));
+            }
+        }
+        for (final var c : channels) {
+            c.close();
+        }
+        listenerThread.join();
+        channels.clear();
+        listenerThread = null;
+    }
+
+    private void handleConnection(final int connectionId, final SocketChannel channel) throws IOException {
+        final var input = new BufferedInputStream(Channels.newInputStream(channel));
+        final var request = readRequest(input);
+        if (request == null) {
+            return;
+        }
+        final var status = validateRequest(request);
+        if (status != 101) {
+            logger.debug("Rejected WebSocket request {} {} from {} with status {}",
+                    request.method(),
+                    request.path(),
+                    channel.getRemoteAddress(),
+                    status);
+            writeResponse(channel, status, status == 426 ? Map.of("Sec-WebSocket-Version", "13") : Map.of());
+            return;
+        }
+
+        final var deflate = acceptsDeflate(request.headers().get("sec-websocket-extensions"));
+        final var headers = new HashMap<String, String>();
+        headers.put("Upgrade", "websocket");
+        headers.put("Connection", "Upgrade");
+        headers.put("Sec-WebSocket-Accept", getAcceptKey(request.headers().get("sec-websocket-key")));
+        if (deflate) {
+            headers.put("Sec-WebSocket-Extensions", "permessage-deflate; server_no_context_takeover");
+        }
+        writeResponse(channel, 101, headers);
+
+        final var forwardedFor = request.headers().get("x-forwarded-for");
+        logger.info("Accepted new WebSocket connection {}: {}{}",
+                connectionId,
+                channel.getRemoteAddress(),
+                forwardedFor == null ? "" : " (forwarded for " + forwardedFor + ")");
+
+        final var connection = new WebSocketConnection(input,
+                channel,
+                deflate,
+                MAX_MESSAGE_SIZE,
+                MAX_QUEUED_OUTPUT_SIZE);
+        connections.add(connection);
+        try (final var writer = connection.getWriter()) {
+            connectionHandler.accept(new SignalJsonRpcDispatcherHandler(writer,
+                    connection,
+                    MAX_MESSAGE_SIZE,
+                    noReceiveOnStart));
+            connection.close(WebSocketConnection.CLOSE_NORMAL, "");
+        } finally {
+            connections.remove(connection);
+            connection.close();
+            logger.info("WebSocket connection {} closed", connectionId);
+        }
+    }
+
+    private int validateRequest(final Request request) {
+        if (!hostValidator.isHostAllowed(request.headers().get("host"))) {
+            return 421;
+        }
+        if (!isOriginAllowed(request.headers().get("origin"), request.headers().get("host"), hostValidator)) {
+            return 403;
+        }
+        final var path = request.path().split("\\?", 2)[0];
+        if (!PATH.equals(path)) {
+            return 404;
+        }
+        if (!"GET".equals(request.method())) {
+            return 405;
+        }
+        if (!"websocket".equalsIgnoreCase(request.headers().get("upgrade"))
+                || !hasToken(request.headers().get("connection"), "upgrade")
+                || request.headers().get("sec-websocket-key") == null) {
+            return 400;
+        }
+        if (!"13".equals(request.headers().get("sec-websocket-version"))) {
+            return 426;
+        }
+        return 101;
+    }
+
+    /**
+     * Browsers send the origin of the page that opened the connection, WebSocket connections aren't restricted by
+     * CORS. Only pages from the requested host or from an allowed host may connect, so websites can't use the
+     * JSON-RPC interface, even if the server is bound to any local address.
+     */
+    static boolean isOriginAllowed(final String origin, final String hostHeader, final HostValidator hostValidator) {
+        if (origin == null) {
+            // Not sent by clients other than browsers
+            return true;
+        }
+        try {
+            final var uri = new URI(origin);
+            final var host = uri.getHost();
+            if (host == null) {
+                return false;
+            }
+            final var originHost = uri.getPort() == -1 ? host : host + ":" + uri.getPort();
+            if (originHost.equalsIgnoreCase(hostHeader)) {
+                return true;
+            }
+            final var hostName = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+            return hostValidator.getAllowedHosts().contains(hostName.toLowerCase(Locale.ROOT));
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accepts the first permessage-deflate offer with parameters that can be fulfilled.
+     * Java's deflater always uses the maximum window size, so offers that limit the server window are declined.
+     */
+    static boolean acceptsDeflate(final String extensions) {
+        if (extensions == null) {
+            return false;
+        }
+        offers:
+        for (final var offer : extensions.split(",")) {
+            final var params = offer.split(";");
+            if (!"permessage-deflate".equals(params[0].trim())) {
+                continue;
+            }
+            for (var i = 1; i < params.length; i++) {
+                final var param = params[i].split("=", 2);
+                final var name = param[0].trim();
+                final var value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+                switch (name) {
+                    case "server_no_context_takeover", "client_no_context_takeover", "client_max_window_bits" -> {
+                    }
+                    case "server_max_window_bits" -> {
+                        if (!"15".equals(value)) {
+                            continue offers;
+                        }
+                    }
+                    default -> {
+                        continue offers;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean hasToken(final String header, final String token) {
+        if (header == null) {
+            return false;
+        }
+        for (final var part : header.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String getAcceptKey(final String key) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key.trim() + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the HTTP request head, the input is left at the start of the WebSocket frames.
+     *
+     * @return the request or null if the connection was closed before a complete request was received
+     */
+    private static Request readRequest(final InputStream input) throws IOException {
+        final var head = new ByteArrayOutputStream();
+        var matched = 0;
+        while (matched < 4) {
+            final var b = input.read();
+            if (b == -1) {
+                return null;
+            }
+            if (head.size() >= MAX_HANDSHAKE_SIZE) {
+                throw new IOException("WebSocket handshake request too large");
+            }
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        final var lines = head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+        final var requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            throw new IOException("Invalid WebSocket handshake request");
+        }
+        final var headers = new HashMap<String, String>();
+        for (var i = 1; i < lines.length; i++) {
+            final var separator = lines[i].indexOf(':');
+            if (separator > 0) {
+                final var name = lines[i].substring(0, separator).trim().toLowerCase(Locale.ROOT);
+                final var value = lines[i].substring(separator + 1).trim();
+                headers.merge(name, value, (a, b) -> a + ", " + b);
+            }
+        }
+        return new Request(requestLine[0], requestLine[1], headers);
+    }
+
+    private static void writeResponse(
+            final SocketChannel channel,
+            final int status,
+            final Map<String, String> headers
+    ) throws IOException {
+        final var response = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(switch (status) {
+            case 101 -> "Switching Protocols";
+            case 400 -> "Bad Request";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 421 -> "Misdirected Request";
+            case 426 -> "Upgrade Required";
+            default -> "Error";
+        }).append("\r\n");
+        headers.forEach((name, value) -> response.append(name).append(": ").append(value).append("\r\n"));
+        if (status != 101) {
+            response.append("Content-Length: 0\r\nConnection: close\r\n");
+        }
+        response.append("\r\n");
+        final var buffer = ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private record Request(String method, String path, Map<String, String> headers) {}
+}
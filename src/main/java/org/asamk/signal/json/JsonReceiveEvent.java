@@ -0,0 +1,83 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.output.RawJson;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A received message, converted to its JSON model once and shared by all subscribers.
+ * The encoded JSON is cached, so each subscriber only copies the bytes.
+ */
+public final class JsonReceiveEvent {
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, Object> object;
+    private final MessageEnvelope envelope;
+    private final long sequence;
+    private final String id;
+    private final Map<Object, RawJson> encoded = new ConcurrentHashMap<>();
+    private byte[] bytes;
+
+    JsonReceiveEvent(
+            final ObjectMapper objectMapper,
+            final Map<String, Object> object,
+            final MessageEnvelope envelope,
+            final long sequence,
+            final String id
+    ) {
+        this.objectMapper = objectMapper;
+        this.object = object;
+        this.envelope = envelope;
+        this.sequence = sequence;
+        this.id = id;
+    }
+
+    MessageEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the id of this event, unique for the account while the daemon is running
+     */
+    public String getId() {
+        return id;
+    }
+
+    public Map<String, Object> getObject() {
+        return object;
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON of this event
+     */
+    public synchronized byte[] getBytes() {
+        if (bytes == null) {
+            try {
+                bytes = objectMapper.writeValueAsBytes(object);
+            } catch (JsonProcessingException e) {
+                // Some issue with json serialization, probably caused by a bug
+                throw new AssertionError(e);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the encoded JSON of this event wrapped by the encoder, e.g. in a protocol message.
+     * The result is cached for the given key, so subscribers with the same wrapping share it, also its encoding in
+     * other data formats.
+     */
+    public RawJson getEncoded(final Object key, final Function<byte[], byte[]> encoder) {
+        return encoded.computeIfAbsent(key, _ -> new RawJson(encoder.apply(getBytes())));
+    }
+}
@@ -0,0 +1,278 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Distributes the received messages of a Manager to all JSON subscribers.
+ * Each message is converted to JSON only once, instead of once per subscriber.
+ * <p>
+ * Every event gets an id that increases monotonically for the account. The most recent events are kept in a bounded
+ * buffer, so a subscriber that reconnects can resume after the last event it has seen. When the last subscriber is
+ * removed, receiving stops right away, so new messages stay queued on the server instead of being acknowledged without
+ * a subscriber. The buffered events are kept for a grace period, for a subscriber that resumes after reconnecting.
+ */
+public class JsonReceiveEventBus implements Manager.ReceiveMessageHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonReceiveEventBus.class);
+
+    private static final int MAX_BUFFERED_EVENTS = 1000;
+    private static final long MAX_BUFFERED_BYTES = 16L * 1024 * 1024;
+    private static final long GRACE_PERIOD_SECONDS = 60;
+
+    private static final Map<Manager, JsonReceiveEventBus> eventBuses = new IdentityHashMap<>();
+
+    private final Manager m;
+    private final Executor gracePeriodExecutor;
+    private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    // Event ids of a previous daemon run must not be mistaken for ids of this run
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    // Guards the event buffer and the order of queued events, separate from the subscription lock, because removing
+    // the receive handler waits for the receive thread
+    private final Object eventLock = new Object();
+    // Only events that at least one subscriber selected are buffered, or all events while no subscriber is left
+    private final Deque<JsonReceiveEvent> recentEvents = new ArrayDeque<>();
+    private long bufferedBytes;
+    private long nextSequence = 1;
+    // Guarded by this
+    private boolean receiving;
+    private long unsubscribeCount;
+
+    JsonReceiveEventBus(final Manager m, final Executor gracePeriodExecutor) {
+        this.m = m;
+        this.gracePeriodExecutor = gracePeriodExecutor;
+    }
+
+    public static JsonReceiveEventBus get(final Manager m) {
+        synchronized (eventBuses) {
+            var eventBus = eventBuses.get(m);
+            if (eventBus == null) {
+                eventBus = new JsonReceiveEventBus(m,
+                        CompletableFuture.delayedExecutor(GRACE_PERIOD_SECONDS, TimeUnit.SECONDS));
+                eventBuses.put(m, eventBus);
+                m.addClosedListener(() -> {
+                    synchronized (eventBuses) {
+                        eventBuses.remove(m);
+                    }
+                });
+            }
+            return eventBus;
+        }
+    }
+
+    /**
+     * @return the number of JSON subscribers of the account, without creating an event bus for it
+     */
+    public static int getSubscriberCount(final Manager m) {
+        final JsonReceiveEventBus eventBus;
+        synchronized (eventBuses) {
+            eventBus = eventBuses.get(m);
+        }
+        return eventBus == null ? 0 : eventBus.subscribers.size();
+    }
+
+    /**
+     * Start receiving messages for the subscriber.
+     * The Manager starts receiving messages when the first subscriber is added.
+     */
+    public void subscribe(final Consumer<JsonReceiveEvent> subscriber) {
+        subscribe(subscriber, null, null, null);
+    }
+
+    /**
+     * Start receiving the messages selected by the filter for the subscriber.
+     * Messages that no subscriber selects aren't converted to JSON.
+     *
+     * @param filter the filter, or null to receive all messages
+     */
+    public void subscribe(final Consumer<JsonReceiveEvent> subscriber, final ReceiveFilter filter) {
+        subscribe(subscriber, filter, null, null);
+    }
+
+    /**
+     * Start receiving messages for the subscriber, after replaying the buffered events that follow the given event id.
+     * The replayed events are delivered before any new event, without gaps or duplicates.
+     *
+     * @param filter               the filter, or null to receive all messages
+     * @param lastEventId          id of the last event the subscriber has seen, or null to only receive new events
+     * @param missedEventsCallback called before the replay, if events after lastEventId are no longer buffered.
+     *                             All buffered events are replayed in that case.
+     * @return the id of the last event before the new events of the subscription, to resume from later
+     */
+    public synchronized String subscribe(
+            final Consumer<JsonReceiveEvent> subscriber,
+            final ReceiveFilter filter,
+            final String lastEventId,
+            final Runnable missedEventsCallback
+    ) {
+        final var subscription = new Subscription(subscriber, filter == null || filter.isEmpty() ? null : filter);
+        final String position;
+        synchronized (eventLock) {
+            if (lastEventId != null) {
+                final var sequence = parseSequence(lastEventId);
+                final var oldestSequence = recentEvents.isEmpty()
+                        ? nextSequence
+                        : recentEvents.getFirst().getSequence();
+                final var missedEvents = sequence == null || sequence >= nextSequence || sequence < oldestSequence - 1;
+                if (missedEvents && missedEventsCallback != null) {
+                    subscription.enqueue(missedEventsCallback);
+                }
+                for (final var event : recentEvents) {
+                    if ((missedEvents || event.getSequence() > sequence) && subscription.matches(event.getEnvelope())) {
+                        subscription.enqueue(event);
+                    }
+                }
+            }
+            subscribers.add(subscription);
+            position = epoch + "-" + (nextSequence - 1);
+        }
+        if (!receiving) {
+            receiving = true;
+            m.addReceiveHandler(this);
+        }
+        subscription.deliverQueued();
+        return position;
+    }
+
+    public synchronized void unsubscribe(final Consumer<JsonReceiveEvent> subscriber) {
+        if (subscribers.removeIf(s -> s.subscriber() == subscriber) && subscribers.isEmpty()) {
+            if (receiving) {
+                receiving = false;
+                m.removeReceiveHandler(this);
+            }
+            final var count = ++unsubscribeCount;
+            gracePeriodExecutor.execute(() -> clearBufferedEvents(count));
+        }
+    }
+
+    private synchronized void clearBufferedEvents(final long count) {
+        // A subscriber may have been added and removed again during the grace period
+        if (count != unsubscribeCount || !subscribers.isEmpty()) {
+            return;
+        }
+        synchronized (eventLock) {
+            recentEvents.clear();
+            bufferedBytes = 0;
+        }
+    }
+
+    @Override
+    public void handleMessage(final MessageEnvelope envelope, final Throwable exception) {
+        final List<Subscription> matchingSubscribers;
+        synchronized (eventLock) {
+            matchingSubscribers = subscribers.stream().filter(s -> s.matches(envelope)).toList();
+            // A message received while the last subscriber is removed is buffered, as the filter of a reconnecting
+            // subscriber isn't known
+            if (matchingSubscribers.isEmpty() && !subscribers.isEmpty()) {
+                return;
+            }
+            final var object = JsonReceiveMessageHandler.createEventObject(m, envelope, exception);
+            final var sequence = nextSequence++;
+            final var event = new JsonReceiveEvent(objectMapper, object, envelope, sequence, epoch + "-" + sequence);
+            bufferEvent(event);
+            for (final var subscription : matchingSubscribers) {
+                subscription.enqueue(event);
+            }
+        }
+        // Subscribers are called outside the lock, so a slow subscriber doesn't block the others
+        for (final var subscription : matchingSubscribers) {
+            subscription.deliverQueued();
+        }
+    }
+
+    private void bufferEvent(final JsonReceiveEvent event) {
+        recentEvents.addLast(event);
+        bufferedBytes += event.getBytes().length;
+        while (recentEvents.size() > MAX_BUFFERED_EVENTS || bufferedBytes > MAX_BUFFERED_BYTES) {
+            bufferedBytes -= recentEvents.removeFirst().getBytes().length;
+        }
+    }
+
+    private Long parseSequence(final String eventId) {
+        final var separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !epoch.equals(eventId.substring(0, separator))) {
+            return null;
+        }
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues the events of a subscriber in the order of their ids, they are delivered by the thread that queued them,
+     * unless another thread is already delivering to the same subscriber.
+     */
+    private static final class Subscription {
+
+        private final Consumer<JsonReceiveEvent> subscriber;
+        private final ReceiveFilter filter;
+        private final Queue<Runnable> queued = new ArrayDeque<>();
+        private boolean delivering;
+
+        private Subscription(final Consumer<JsonReceiveEvent> subscriber, final ReceiveFilter filter) {
+            this.subscriber = subscriber;
+            this.filter = filter;
+        }
+
+        Consumer<JsonReceiveEvent> subscriber() {
+            return subscriber;
+        }
+
+        boolean matches(final MessageEnvelope envelope) {
+            return filter == null || filter.matches(envelope);
+        }
+
+        synchronized void enqueue(final JsonReceiveEvent event) {
+            queued.add(() -> subscriber.accept(event));
+        }
+
+        synchronized void enqueue(final Runnable runnable) {
+            queued.add(runnable);
+        }
+
+        void deliverQueued() {
+            synchronized (this) {
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+            while (true) {
+                final Runnable next;
+                synchronized (this) {
+                    next = queued.poll();
+                    if (next == null) {
+                        delivering = false;
+                        return;
+                    }
+                }
+                try {
+                    next.run();
+                } catch (Exception e) {
+                    logger.warn("Receive event subscriber failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
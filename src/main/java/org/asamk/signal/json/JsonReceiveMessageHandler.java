@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.Map;
 
 public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler {
 
@@ -22,6 +23,10 @@ public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler
 
     @Override
     public void handleMessage(MessageEnvelope envelope, Throwable exception) {
+        jsonWriter.write(createEventObject(m, envelope, exception));
+    }
+
+    static Map<String, Object> createEventObject(Manager m, MessageEnvelope envelope, Throwable exception) {
         final var object = new HashMap<String, Object>();
         object.put("account", m.getSelfNumber());
         if (exception != null) {
@@ -31,7 +36,6 @@ public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler
         if (envelope != null) {
             object.put("envelope", JsonMessageEnvelope.from(envelope, exception, m));
         }
-
-        jsonWriter.write(object);
+        return object;
     }
 }
@@ -0,0 +1,120 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.RecipientAddress;
+import org.asamk.signal.util.CommandUtil;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Selects the received messages a subscriber is interested in.
+ * It's evaluated on the envelope, so messages that no subscriber wants are never converted to JSON.
+ * <p>
+ * A message must match all given criteria, empty criteria match all messages. Receive errors without an envelope
+ * are always delivered.
+ */
+public record ReceiveFilter(Set<Type> types, Set<GroupId> groupIds, Set<String> senders, boolean hasAttachments) {
+
+    public static ReceiveFilter from(
+            final Collection<String> types,
+            final Collection<String> groupIds,
+            final Collection<String> senders,
+            final Boolean hasAttachments
+    ) throws UserErrorException {
+        final var typeSet = EnumSet.noneOf(Type.class);
+        if (types != null) {
+            for (final var type : types) {
+                try {
+                    typeSet.add(Type.valueOf(type.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new UserErrorException("Invalid message type: " + type);
+                }
+            }
+        }
+        return new ReceiveFilter(typeSet,
+                CommandUtil.getGroupIds(groupIds),
+                senders == null ? Set.of() : Set.copyOf(senders),
+                Boolean.TRUE.equals(hasAttachments));
+    }
+
+    /**
+     * @return true if this filter selects all messages
+     */
+    public boolean isEmpty() {
+        return types.isEmpty() && groupIds.isEmpty() && senders.isEmpty() && !hasAttachments;
+    }
+
+    public boolean matches(final MessageEnvelope envelope) {
+        if (envelope == null) {
+            return true;
+        }
+        if (!types.isEmpty() && types.stream().noneMatch(type -> type.matches(envelope))) {
+            return false;
+        }
+        if (!groupIds.isEmpty() && getGroupIds(envelope).noneMatch(groupIds::contains)) {
+            return false;
+        }
+        if (!senders.isEmpty() && (envelope.sourceAddress().isEmpty() || !isSender(envelope.sourceAddress().get()))) {
+            return false;
+        }
+        return !hasAttachments
+                || getDataMessages(envelope).anyMatch(data -> !data.attachments().isEmpty())
+                || getStories(envelope).anyMatch(story -> story.fileAttachment().isPresent());
+    }
+
+    private boolean isSender(final RecipientAddress address) {
+        return Stream.of(address.number(), address.aci(), address.pni(), address.username())
+                .flatMap(Optional::stream)
+                .anyMatch(senders::contains);
+    }
+
+    private static Stream<GroupId> getGroupIds(final MessageEnvelope envelope) {
+        return Stream.of(getDataMessages(envelope).map(MessageEnvelope.Data::groupContext)
+                        .flatMap(Optional::stream)
+                        .map(MessageEnvelope.Data.GroupContext::groupId),
+                envelope.typing().flatMap(MessageEnvelope.Typing::groupId).stream(),
+                getStories(envelope).map(MessageEnvelope.Story::groupId).flatMap(Optional::stream)).flatMap(s -> s);
+    }
+
+    private static Stream<MessageEnvelope.Data> getDataMessages(final MessageEnvelope envelope) {
+        final var sent = envelope.sync().flatMap(MessageEnvelope.Sync::sent);
+        return Stream.of(envelope.data(),
+                envelope.edit().map(MessageEnvelope.Edit::dataMessage),
+                sent.flatMap(MessageEnvelope.Sync.Sent::message),
+                sent.flatMap(MessageEnvelope.Sync.Sent::editMessage).map(MessageEnvelope.Edit::dataMessage))
+                .flatMap(Optional::stream);
+    }
+
+    private static Stream<MessageEnvelope.Story> getStories(final MessageEnvelope envelope) {
+        return Stream.of(envelope.story(),
+                envelope.sync().flatMap(MessageEnvelope.Sync::sent).flatMap(MessageEnvelope.Sync.Sent::story)).flatMap(
+                Optional::stream);
+    }
+
+    public enum Type {
+        DATA,
+        RECEIPT,
+        TYPING,
+        STORY,
+        SYNC,
+        CALL;
+
+        boolean matches(final MessageEnvelope envelope) {
+            return switch (this) {
+                case DATA -> envelope.data().isPresent() || envelope.edit().isPresent();
+                case RECEIPT -> envelope.receipt().isPresent();
+                case TYPING -> envelope.typing().isPresent();
+                case STORY -> envelope.story().isPresent();
+                case SYNC -> envelope.sync().isPresent();
+                case CALL -> envelope.call().isPresent();
+            };
+        }
+    }
+}
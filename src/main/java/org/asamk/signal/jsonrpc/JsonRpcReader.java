@@ -1,12 +1,16 @@
 package org.asamk.signal.jsonrpc;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ValueNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
@@ -14,7 +18,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
@@ -27,13 +35,21 @@ public class JsonRpcReader {
 
     private final JsonRpcSender jsonRpcSender;
     private final ObjectMapper objectMapper;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private final InputStream input;
     private final Supplier<String> lineSupplier;
+    private final ReadableByteChannel channel;
+    private final long maxMessageSize;
+    private final MessageEncoding encoding;
 
     public JsonRpcReader(final JsonRpcSender jsonRpcSender, final Supplier<String> lineSupplier) {
         this.jsonRpcSender = jsonRpcSender;
         this.input = null;
         this.lineSupplier = lineSupplier;
+        this.channel = null;
+        this.maxMessageSize = 0;
+        this.encoding = MessageEncoding.JSON;
         this.objectMapper = Util.createJsonObjectMapper();
     }
 
@@ -41,10 +57,53 @@ public class JsonRpcReader {
         this.jsonRpcSender = jsonRpcSender;
         this.input = input;
         this.lineSupplier = null;
+        this.channel = null;
+        this.maxMessageSize = 0;
+        this.encoding = MessageEncoding.JSON;
+        this.objectMapper = Util.createJsonObjectMapper();
+    }
+
+    /**
+     * Reads the messages incrementally from the channel's bytes with a non-blocking parser, without splitting the
+     * input into lines first. Messages don't need to be separated by newlines.
+     *
+     * @param maxMessageSize maximum size of a single message in bytes, larger messages are rejected
+     */
+    public JsonRpcReader(
+            final JsonRpcSender jsonRpcSender,
+            final ReadableByteChannel channel,
+            final long maxMessageSize
+    ) {
+        this(jsonRpcSender, channel, maxMessageSize, MessageEncoding.JSON);
+    }
+
+    /**
+     * With a binary encoding, each message is read as a length-prefixed frame and decoded into the same data model as
+     * JSON messages.
+     *
+     * @param maxMessageSize maximum size of a single message in bytes, larger messages are rejected
+     */
+    public JsonRpcReader(
+            final JsonRpcSender jsonRpcSender,
+            final ReadableByteChannel channel,
+            final long maxMessageSize,
+            final MessageEncoding encoding
+    ) {
+        this.jsonRpcSender = jsonRpcSender;
+        this.input = null;
+        this.lineSupplier = null;
+        this.channel = channel;
+        this.maxMessageSize = maxMessageSize;
+        this.encoding = encoding;
         this.objectMapper = Util.createJsonObjectMapper();
     }
 
     public void readMessages(final RequestHandler requestHandler, final Consumer<JsonRpcResponse> responseHandler) {
+        if (channel != null) {
+            readMessagesFromChannel(requestHandler, responseHandler);
+            return;
+        }
+
         if (input != null) {
             JsonRpcMessage message = parseJsonRpcMessage(input);
             if (message == null) {
@@ -74,6 +133,392 @@ public class JsonRpcReader {
         }
     }
 
+    private void readMessagesFromChannel(
+            final RequestHandler requestHandler,
+            final Consumer<JsonRpcResponse> responseHandler
+    ) {
+        final var buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try (final var feed = createInputFeed(requestHandler, responseHandler, () -> {})) {
+            while (!Thread.interrupted()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    feed.endOfInput();
+                    break;
+                }
+                buffer.flip();
+                if (!feed.feed(buffer)) {
+                    break;
+                }
+            }
+        } catch (ClosedChannelException ignored) {
+            logger.trace("JSON-RPC input channel has been closed.");
+        } catch (IOException e) {
+            logger.error("Error occurred while reading JSON-RPC input", e);
+        }
+    }
+
+    /**
+     * Creates a feed for input that is pushed to the reader, e.g. by an event loop that reads from a non-blocking
+     * channel. The requests are handled on virtual threads, so feeding input doesn't wait for them.
+     *
+     * @param onClose called when the feed is closed, after the pending requests have been handled
+     */
+    public InputFeed createInputFeed(
+            final RequestHandler requestHandler,
+            final Consumer<JsonRpcResponse> responseHandler,
+            final Runnable onClose
+    ) {
+        final var executor = Executors.newVirtualThreadPerTaskExecutor();
+        final InputDecoder decoder = switch (encoding) {
+            case JSON -> new JsonInputDecoder(requestHandler, responseHandler, executor);
+            case CBOR -> new LengthPrefixedInputDecoder(Util.createCborObjectMapper(),
+                    requestHandler,
+                    responseHandler,
+                    executor);
+        };
+        return new InputFeed(decoder, () -> {
+            try {
+                decoder.close();
+                executor.close();
+            } finally {
+                onClose.run();
+            }
+        });
+    }
+
+    /**
+     * Receives the input of a connection in chunks and handles the complete messages.
+     */
+    public static final class InputFeed implements AutoCloseable {
+
+        private final InputDecoder decoder;
+        private final Runnable onClose;
+
+        private InputFeed(final InputDecoder decoder, final Runnable onClose) {
+            this.decoder = decoder;
+            this.onClose = onClose;
+        }
+
+        /**
+         * Consumes all remaining bytes of the buffer, the buffer can be reused once this method returns.
+         *
+         * @return false if the input is invalid and no further input is accepted
+         */
+        public boolean feed(final ByteBuffer buffer) throws IOException {
+            return decoder.feed(buffer);
+        }
+
+        public void endOfInput() throws IOException {
+            decoder.endOfInput();
+        }
+
+        /**
+         * Waits for the pending requests to be handled.
+         */
+        @Override
+        public void close() {
+            onClose.run();
+        }
+    }
+
+    private interface InputDecoder {
+
+        boolean feed(ByteBuffer buffer) throws IOException;
+
+        void endOfInput() throws IOException;
+
+        default void close() {
+        }
+    }
+
+    /**
+     * Tokenizes the messages with a non-blocking parser, the tokens of each message are buffered and turned into a
+     * tree by the thread that handles the message.
+     * <p>
+     * After invalid JSON the parser state is discarded and parsing restarts after the next newline, like the line
+     * based reader does.
+     */
+    private final class JsonInputDecoder implements InputDecoder {
+
+        private final RequestHandler requestHandler;
+        private final Consumer<JsonRpcResponse> responseHandler;
+        private final ExecutorService executor;
+        private JsonParser parser;
+        private ByteBufferFeeder feeder;
+        // Offset of the input where the current parser started
+        private long parserStart;
+        private TokenBuffer message;
+        private long messageStart;
+        private boolean skipMessage;
+        private boolean skipLine;
+        // Bytes fed to the parser in total and the offset after the last complete token
+        private long fedBytes;
+        private long tokenEnd;
+
+        private JsonInputDecoder(
+                final RequestHandler requestHandler,
+                final Consumer<JsonRpcResponse> responseHandler,
+                final ExecutorService executor
+        ) {
+            this.requestHandler = requestHandler;
+            this.responseHandler = responseHandler;
+            this.executor = executor;
+            createParser();
+        }
+
+        private void createParser() {
+            try {
+                this.parser = objectMapper.getFactory().createNonBlockingByteBufferParser();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+            this.parserStart = fedBytes;
+            this.tokenEnd = fedBytes;
+        }
+
+        @Override
+        public boolean feed(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (skipLine && !skipToNextLine(buffer)) {
+                    break;
+                }
+                final var bufferStart = buffer.position();
+                final var bufferOffset = fedBytes;
+                fedBytes += buffer.remaining();
+                if (message != null && fedBytes - messageStart > maxMessageSize) {
+                    // Reject the message before its tokens are parsed, the remaining tokens are skipped
+                    sendMessageTooLargeError();
+                    message = null;
+                    skipMessage = true;
+                }
+                // The parser reads the remaining bytes of the buffer without consuming them
+                feeder.feedInput(buffer);
+                try {
+                    if (!parseAvailableTokens()) {
+                        buffer.position(buffer.limit());
+                        return false;
+                    }
+                } catch (JsonParseException e) {
+                    sendParseError(e);
+                    // The parser has read the invalid byte, the rest of its line is skipped
+                    final var errorOffset = parserStart + parser.currentLocation().getByteOffset() - 1;
+                    final var restart = Math.clamp(errorOffset, Math.max(parserStart, bufferOffset), fedBytes);
+                    buffer.position(bufferStart + (int) (restart - bufferOffset));
+                    fedBytes = restart;
+                    parser.close();
+                    message = null;
+                    skipMessage = false;
+                    skipLine = true;
+                    continue;
+                }
+                buffer.position(buffer.limit());
+                if (fedBytes - tokenEnd > maxMessageSize) {
+                    // The parser buffers an incomplete token completely and can't skip it, so the connection is closed
+                    if (!skipMessage) {
+                        sendMessageTooLargeError();
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the next line has been found, then a new parser starts at its beginning
+         */
+        private boolean skipToNextLine(final ByteBuffer buffer) {
+            final var start = buffer.position();
+            for (var i = start; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    fedBytes += i + 1 - start;
+                    buffer.position(i + 1);
+                    skipLine = false;
+                    createParser();
+                    return true;
+                }
+            }
+            fedBytes += buffer.remaining();
+            buffer.position(buffer.limit());
+            return false;
+        }
+
+        @Override
+        public void endOfInput() throws IOException {
+            if (skipLine) {
+                return;
+            }
+            feeder.endOfInput();
+            try {
+                parseAvailableTokens();
+            } catch (JsonParseException e) {
+                sendParseError(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close JSON parser: {}", e.getMessage());
+            }
+        }
+
+        private boolean parseAvailableTokens() throws IOException {
+            while (true) {
+                final var token = parser.nextToken();
+                if (token == JsonToken.NOT_AVAILABLE) {
+                    return true;
+                }
+                if (token == null) {
+                    logger.trace("Reached end of JSON-RPC input stream.");
+                    return false;
+                }
+                tokenEnd = parserStart + parser.currentLocation().getByteOffset();
+
+                if (message == null && !skipMessage) {
+                    messageStart = parserStart + parser.currentTokenLocation().getByteOffset();
+                    message = new TokenBuffer(parser);
+                }
+                if (message != null) {
+                    if (tokenEnd - messageStart > maxMessageSize) {
+                        sendMessageTooLargeError();
+                        message = null;
+                        skipMessage = true;
+                    } else {
+                        message.copyCurrentEvent(parser);
+                    }
+                }
+
+                if (parser.getParsingContext().inRoot()) {
+                    if (message != null) {
+                        final var tokens = message;
+                        executor.submit(() -> {
+                            final var jsonRpcMessage = parseJsonRpcMessage(tokens);
+                            if (jsonRpcMessage != null) {
+                                handleMessage(jsonRpcMessage, requestHandler, responseHandler);
+                            }
+                        });
+                    }
+                    message = null;
+                    skipMessage = false;
+                }
+            }
+        }
+    }
+
+    private final class LengthPrefixedInputDecoder implements InputDecoder {
+
+        // The length header isn't trusted, the buffer grows as the data of the message arrives
+        private static final int INITIAL_MESSAGE_BUFFER_SIZE = 64 * 1024;
+
+        private final ObjectMapper messageMapper;
+        private final RequestHandler requestHandler;
+        private final Consumer<JsonRpcResponse> responseHandler;
+        private final ExecutorService executor;
+        private final ByteBuffer header = ByteBuffer.allocate(4);
+        private ByteBuffer message;
+        private int messageLength;
+        private long skipRemaining;
+
+        private LengthPrefixedInputDecoder(
+                final ObjectMapper messageMapper,
+                final RequestHandler requestHandler,
+                final Consumer<JsonRpcResponse> responseHandler,
+                final ExecutorService executor
+        ) {
+            this.messageMapper = messageMapper;
+            this.requestHandler = requestHandler;
+            this.responseHandler = responseHandler;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean feed(final ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                if (skipRemaining > 0) {
+                    final var skipped = (int) Math.min(skipRemaining, buffer.remaining());
+                    buffer.position(buffer.position() + skipped);
+                    skipRemaining -= skipped;
+                    continue;
+                }
+
+                if (message == null) {
+                    transfer(buffer, header);
+                    if (header.hasRemaining()) {
+                        break;
+                    }
+                    final var length = Integer.toUnsignedLong(header.getInt(0));
+                    header.clear();
+                    if (length > maxMessageSize) {
+                        sendMessageTooLargeError();
+                        skipRemaining = length;
+                        continue;
+                    }
+                    messageLength = (int) length;
+                    message = ByteBuffer.allocate(Math.min(messageLength, INITIAL_MESSAGE_BUFFER_SIZE));
+                }
+
+                if (!message.hasRemaining() && message.capacity() < messageLength) {
+                    final var grown = ByteBuffer.allocate((int) Math.min(2L * message.capacity(), messageLength));
+                    message = grown.put(message.flip());
+                }
+                transfer(buffer, message);
+                if (message.position() == messageLength) {
+                    final var bytes = message.array();
+                    message = null;
+                    executor.submit(() -> handleFrame(bytes));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void endOfInput() {
+            if (message != null || skipRemaining > 0) {
+                logger.debug("JSON-RPC input stream ended in the middle of a message.");
+            } else {
+                logger.trace("Reached end of JSON-RPC input stream.");
+            }
+        }
+
+        private void handleFrame(final byte[] bytes) {
+            final JsonNode jsonNode;
+            try {
+                jsonNode = messageMapper.readTree(bytes);
+            } catch (IOException e) {
+                // Frames are self-delimiting, so only this message is rejected
+                jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
+                        e.getMessage(),
+                        null), null));
+                return;
+            }
+            logger.trace("Incoming JSON-RPC message: {}", jsonNode);
+            final var jsonRpcMessage = parseJsonRpcMessage(jsonNode);
+            if (jsonRpcMessage != null) {
+                handleMessage(jsonRpcMessage, requestHandler, responseHandler);
+            }
+        }
+
+        private static void transfer(final ByteBuffer source, final ByteBuffer target) {
+            final var length = Math.min(source.remaining(), target.remaining());
+            target.put(source.slice(source.position(), length));
+            source.position(source.position() + length);
+        }
+    }
+
+    private void sendParseError(final JsonParseException e) {
+        final var error = new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR, e.getMessage(), null);
+        jsonRpcSender.sendResponse(JsonRpcResponse.forError(error, null));
+    }
+
+    private void sendMessageTooLargeError() {
+        jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                "Message exceeds the maximum size of " + maxMessageSize + " bytes",
+                null), null));
+    }
+
     private void handleMessage(
             final JsonRpcMessage message,
             final RequestHandler requestHandler,
@@ -131,7 +576,7 @@ public class JsonRpcReader {
 
     private JsonRpcResponse handleRequest(final RequestHandler requestHandler, final JsonRpcRequest request) {
         try {
-            final var result = requestHandler.apply(request.getMethod(), request.getParams());
+            final var result = requestHandler.apply(request.getMethod(), request.getParams(), request.getId());
             if (request.getId() != null) {
                 return JsonRpcResponse.forSuccess(result, request.getId());
             } else {
@@ -173,6 +618,18 @@ public class JsonRpcReader {
         return parseJsonRpcMessage(jsonNode);
     }
 
+    private JsonRpcMessage parseJsonRpcMessage(final TokenBuffer tokens) {
+        final JsonNode jsonNode;
+        try (final var parser = tokens.asParser(objectMapper)) {
+            jsonNode = objectMapper.readTree(parser);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        logger.trace("Incoming JSON-RPC message: {}", jsonNode);
+
+        return parseJsonRpcMessage(jsonNode);
+    }
+
     private JsonRpcMessage parseJsonRpcMessage(final InputStream input) {
         final JsonNode jsonNode;
         try {
@@ -294,6 +751,9 @@ public class JsonRpcReader {
 
     public interface RequestHandler {
 
-        JsonNode apply(String method, ContainerNode<?> params) throws JsonRpcException;
+        /**
+         * @param id the id of the request, or null if the request is a notification
+         */
+        JsonNode apply(String method, ContainerNode<?> params, ValueNode id) throws JsonRpcException;
     }
 }
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.ValueNode;
 
+import java.util.Objects;
+
 /**
  * Represents a JSON-RPC request.
  * <a href="https://www.jsonrpc.org/specification#request_object">https://www.jsonrpc.org/specification#request_object</a>
@@ -45,6 +47,17 @@ public final class JsonRpcRequest extends JsonRpcMessage {
         return new JsonRpcRequest("2.0", method, params, id);
     }
 
+    /**
+     * Creates a request that is answered with a response, the id must not be null.
+     */
+    public static JsonRpcRequest forRequest(
+            final String method,
+            final ContainerNode<?> params,
+            final ValueNode id
+    ) {
+        return new JsonRpcRequest("2.0", method, params, Objects.requireNonNull(id));
+    }
+
     private JsonRpcRequest() {
     }
 
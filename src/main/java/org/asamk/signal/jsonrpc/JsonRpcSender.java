@@ -1,7 +1,10 @@
 package org.asamk.signal.jsonrpc;
 
 import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.RawJson;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
 public class JsonRpcSender {
@@ -16,6 +19,13 @@ public class JsonRpcSender {
         jsonWriter.write(request);
     }
 
+    /**
+     * Send an already encoded request, e.g. created with {@link #encodeNotification(String, byte[])}.
+     */
+    public void sendRequest(RawJson request) {
+        jsonWriter.write(request);
+    }
+
     public void sendBatchRequests(List<JsonRpcRequest> requests) {
         jsonWriter.write(requests);
     }
@@ -27,4 +37,18 @@ public class JsonRpcSender {
     public void sendBatchResponses(List<JsonRpcResponse> responses) {
         jsonWriter.write(responses);
     }
+
+    /**
+     * Encode a notification with already encoded params, without serializing the params again.
+     *
+     * @param method the method name, must not contain characters that need escaping in JSON
+     */
+    public static byte[] encodeNotification(String method, byte[] params) {
+        final var prefix = ("{\"jsonrpc\":\"2.0\",\"method\":\"" + method + "\",\"params\":").getBytes(
+                StandardCharsets.UTF_8);
+        final var notification = Arrays.copyOf(prefix, prefix.length + params.length + 1);
+        System.arraycopy(params, 0, notification, prefix.length, params.length);
+        notification[notification.length - 1] = '}';
+        return notification;
+    }
 }
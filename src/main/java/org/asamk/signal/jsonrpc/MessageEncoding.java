@@ -0,0 +1,26 @@
+package org.asamk.signal.jsonrpc;
+
+/**
+ * Encoding of the JSON-RPC messages on a socket connection.
+ */
+public enum MessageEncoding {
+    /**
+     * JSON text, messages are usually separated by newlines.
+     */
+    JSON {
+        @Override
+        public String toString() {
+            return "json";
+        }
+    },
+    /**
+     * CBOR (RFC 8949) with the same data model as JSON, each message is prefixed with its length as 4 byte big-endian
+     * unsigned integer.
+     */
+    CBOR {
+        @Override
+        public String toString() {
+            return "cbor";
+        }
+    },
+}
@@ -0,0 +1,118 @@
+package org.asamk.signal.jsonrpc;
+
+import org.asamk.signal.manager.Manager;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of JSON-RPC requests that are executed concurrently.
+ * <p>
+ * Requests over the limit wait for a free slot, if too many requests are already waiting, the request is rejected
+ * with a server busy error. Cheap read requests use a separate lane, both per connection and per account, so they
+ * aren't stuck behind expensive requests like bulk sends.
+ */
+final class RequestLimiter {
+
+    static final int MAX_CONNECTION_REQUESTS = 16;
+    static final int MAX_CONNECTION_READ_REQUESTS = 16;
+    static final int MAX_ACCOUNT_REQUESTS = 8;
+    static final int MAX_ACCOUNT_READ_REQUESTS = 16;
+    static final int MAX_WAITING_REQUESTS = 256;
+
+    private static final Set<String> READ_METHODS = Set.of("version",
+            "listAccounts",
+            "listCalls",
+            "listContacts",
+            "listGroups",
+            "listIdentities",
+            "listStickerPacks",
+            "subscribeReceive",
+            "unsubscribeReceive",
+            "subscribeCallEvents",
+            "unsubscribeCallEvents");
+
+    private static final Map<Manager, Lanes> accountLimiters = new IdentityHashMap<>();
+
+    private final Semaphore running;
+    private final int maxWaiting;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    RequestLimiter(final int maxRunning, final int maxWaiting) {
+        this.running = new Semaphore(maxRunning, true);
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * @return true if the method only reads local data and should use the read lane
+     */
+    static boolean isReadMethod(final String method) {
+        return READ_METHODS.contains(method);
+    }
+
+    /**
+     * Creates the lanes of a single connection.
+     */
+    static Lanes forConnection() {
+        return new Lanes(new RequestLimiter(MAX_CONNECTION_REQUESTS, MAX_WAITING_REQUESTS),
+                new RequestLimiter(MAX_CONNECTION_READ_REQUESTS, MAX_WAITING_REQUESTS));
+    }
+
+    /**
+     * Returns the limiter of the account's lane for the given method, shared by all connections.
+     */
+    static RequestLimiter forAccount(final Manager m, final String method) {
+        final Lanes limiters;
+        synchronized (accountLimiters) {
+            var l = accountLimiters.get(m);
+            if (l == null) {
+                l = new Lanes(new RequestLimiter(MAX_ACCOUNT_REQUESTS, MAX_WAITING_REQUESTS),
+                        new RequestLimiter(MAX_ACCOUNT_READ_REQUESTS, MAX_WAITING_REQUESTS));
+                accountLimiters.put(m, l);
+                m.addClosedListener(() -> {
+                    synchronized (accountLimiters) {
+                        accountLimiters.remove(m);
+                    }
+                });
+            }
+            limiters = l;
+        }
+        return limiters.forMethod(method);
+    }
+
+    void acquire() throws JsonRpcException {
+        if (running.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.SERVER_BUSY,
+                    "Server busy, too many pending requests",
+                    null));
+        }
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.SERVER_BUSY,
+                    "Interrupted while waiting for pending requests",
+                    null));
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    void release() {
+        running.release();
+    }
+
+    record Lanes(RequestLimiter requests, RequestLimiter reads) {
+
+        RequestLimiter forMethod(final String method) {
+            return isReadMethod(method) ? reads : requests;
+        }
+    }
+}
@@ -0,0 +1,631 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+
+import org.asamk.signal.commands.Commands;
+import org.asamk.signal.commands.JsonRpcRegistrationCommand;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.asamk.signal.output.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forwards JSON-RPC requests to the {@link ShardWorker} daemons that have loaded the accounts.
+ * <p>
+ * Each client connection has its own connection to every worker, so the notifications of the workers are forwarded
+ * to the client they belong to. Requests with an account parameter are sent to the worker of that account, the
+ * accounts of a new registration or device link are added to the worker with the fewest accounts once they have been
+ * verified or linked, by number and by the ACI the worker reports. Subscriptions without an account and listAccounts are sent to all workers, the subscription ids
+ * of the workers are replaced with ids of the router.
+ */
+public class ShardRouter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    private static final int USER_ERROR = -1;
+    private static final long MAX_MESSAGE_SIZE = 256L * 1024 * 1024;
+    private static final long MAX_QUEUED_OUTPUT_SIZE = 64L * 1024 * 1024;
+
+    private static final AtomicInteger nextSubscriptionId = new AtomicInteger(0);
+
+    private final List<? extends Worker> workers;
+    private final boolean receiveOnStart;
+    private final Map<String, Integer> accountWorkers = new ConcurrentHashMap<>();
+    /**
+     * The workers of registrations that haven't been verified yet.
+     */
+    private final Map<String, Integer> registrationWorkers = new ConcurrentHashMap<>();
+    private final Map<String, Integer> deviceLinkWorkers = new ConcurrentHashMap<>();
+    private final int[] accountCounts;
+    private Connection sharedConnection;
+
+    /**
+     * @param accountShards  the worker index of each local account, by number and by ACI
+     * @param receiveOnStart if the workers send the received messages to every connection on start
+     */
+    public ShardRouter(
+            final List<? extends Worker> workers,
+            final Map<String, Integer> accountShards,
+            final boolean receiveOnStart
+    ) {
+        this.workers = workers;
+        this.receiveOnStart = receiveOnStart;
+        this.accountWorkers.putAll(accountShards);
+        this.accountCounts = new int[workers.size()];
+        accountShards.forEach((identifier, worker) -> {
+            if (!Manager.isValidAci(identifier)) {
+                accountCounts[worker]++;
+            }
+        });
+    }
+
+    /**
+     * Handles a client connection until its input ends.
+     *
+     * @param jsonWriter must write the messages with the given encoding
+     */
+    public void handleConnection(
+            final JsonWriter jsonWriter,
+            final ReadableByteChannel inputChannel,
+            final long maxMessageSize,
+            final MessageEncoding encoding
+    ) {
+        final var clientSender = new JsonRpcSender(jsonWriter);
+        final Connection connection;
+        try {
+            connection = new Connection(clientSender, () -> closeQuietly(inputChannel));
+        } catch (IOException e) {
+            logger.warn("Failed to connect to the workers: {}", e.getMessage());
+            return;
+        }
+        try (connection) {
+            final var reader = new JsonRpcReader(clientSender, inputChannel, maxMessageSize, encoding);
+            reader.readMessages(connection::handleRequest,
+                    response -> logger.debug("Received unexpected response for id {}", response.getId()));
+        }
+    }
+
+    /**
+     * Handles a client connection with input that is fed by the caller, e.g. by an event loop.
+     * The feed must be closed once the input has ended, to close the connections to the workers.
+     *
+     * @param jsonWriter      must write the messages with the given encoding
+     * @param closeConnection called when a worker connection is closed, it must end the input of the connection
+     * @throws IOException if connecting to the workers failed
+     */
+    public JsonRpcReader.InputFeed startConnection(
+            final JsonWriter jsonWriter,
+            final ReadableByteChannel inputChannel,
+            final long maxMessageSize,
+            final MessageEncoding encoding,
+            final Runnable closeConnection
+    ) throws IOException {
+        final var clientSender = new JsonRpcSender(jsonWriter);
+        final var connection = new Connection(clientSender, closeConnection);
+        final var reader = new JsonRpcReader(clientSender, inputChannel, maxMessageSize, encoding);
+        return reader.createInputFeed(connection::handleRequest,
+                response -> logger.debug("Received unexpected response for id {}", response.getId()),
+                connection::close);
+    }
+
+    /**
+     * Handles a request of a client that doesn't receive notifications, like the HTTP endpoint.
+     */
+    public JsonNode handleRequest(final String method, final ContainerNode<?> params) throws JsonRpcException {
+        return getSharedConnection().handleRequest(method, params, null);
+    }
+
+    private synchronized Connection getSharedConnection() throws JsonRpcException {
+        if (sharedConnection == null || sharedConnection.isClosed()) {
+            try {
+                sharedConnection = new Connection(null, () -> {});
+            } catch (IOException e) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        "Failed to connect to the workers: " + e.getMessage(),
+                        null));
+            }
+            if (receiveOnStart) {
+                // Nobody reads the notifications of the shared connection, the workers shouldn't send them
+                sharedConnection.unsubscribeReceiveOnStart();
+            }
+        }
+        return sharedConnection;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sharedConnection != null) {
+            sharedConnection.close();
+            sharedConnection = null;
+        }
+    }
+
+    /**
+     * Registrations of new accounts stay on the same worker until they have been verified.
+     */
+    private int getRegistrationWorker(final String account) {
+        final var worker = accountWorkers.get(account);
+        if (worker != null) {
+            return worker;
+        }
+        return registrationWorkers.computeIfAbsent(account, _ -> getLeastLoadedWorker());
+    }
+
+    /**
+     * @param aci the ACI of the new account as reported by the worker, so requests by ACI are routed as well
+     */
+    private void addAccount(final String account, final String aci, final int worker) {
+        synchronized (accountCounts) {
+            if (aci != null) {
+                accountWorkers.putIfAbsent(aci, worker);
+            }
+            if (accountWorkers.putIfAbsent(account, worker) != null) {
+                return;
+            }
+            accountCounts[worker]++;
+        }
+        logger.debug("Added new account to worker {}", worker);
+    }
+
+    private void removeAccount(final String account) {
+        synchronized (accountCounts) {
+            final var worker = accountWorkers.remove(account);
+            if (worker != null && !Manager.isValidAci(account)) {
+                accountCounts[worker]--;
+            }
+        }
+    }
+
+    private static String getAci(final JsonNode result) {
+        if (result == null || !result.hasNonNull("uuid")) {
+            return null;
+        }
+        final var aci = result.get("uuid").asText();
+        return Manager.isValidAci(aci) ? aci : null;
+    }
+
+    private int getLeastLoadedWorker() {
+        synchronized (accountCounts) {
+            var worker = 0;
+            for (var i = 1; i < accountCounts.length; i++) {
+                if (accountCounts[i] < accountCounts[worker]) {
+                    worker = i;
+                }
+            }
+            return worker;
+        }
+    }
+
+    /**
+     * Requests without an account are handled by the worker of the only account, like in multi-account mode.
+     */
+    private int getDefaultWorker() {
+        synchronized (accountCounts) {
+            var worker = 0;
+            var total = 0;
+            for (var i = 0; i < accountCounts.length; i++) {
+                total += accountCounts[i];
+                if (accountCounts[i] > 0) {
+                    worker = i;
+                }
+            }
+            return total == 1 ? worker : 0;
+        }
+    }
+
+    private static void closeQuietly(final AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.debug("Failed to close connection: {}", e.getMessage());
+        }
+    }
+
+    private static JsonRpcException userError(final String message) {
+        return new JsonRpcException(new JsonRpcResponse.Error(USER_ERROR, message, null));
+    }
+
+    /**
+     * The connections of one client to all workers.
+     */
+    private final class Connection implements AutoCloseable {
+
+        private final JsonRpcSender clientSender;
+        private final Runnable onUpstreamClosed;
+        private final List<Upstream> upstreams = new ArrayList<>();
+        private final Map<Integer, List<Pair<Upstream, Integer>>> subscriptions = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        /**
+         * @param clientSender receives the notifications of the workers, or null to drop them
+         */
+        Connection(final JsonRpcSender clientSender, final Runnable onUpstreamClosed) throws IOException {
+            this.clientSender = clientSender;
+            this.onUpstreamClosed = onUpstreamClosed;
+            try {
+                for (var i = 0; i < workers.size(); i++) {
+                    upstreams.add(new Upstream(this, i, workers.get(i).connect()));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        JsonNode handleRequest(
+                final String method,
+                final ContainerNode<?> params,
+                final ValueNode id
+        ) throws JsonRpcException {
+            final var account = params instanceof ObjectNode p && p.hasNonNull("account")
+                    ? p.get("account").asText()
+                    : null;
+            switch (method) {
+                case "subscribeReceive", "subscribeCallEvents" -> {
+                    return subscribe(method, params, account);
+                }
+                case "unsubscribeReceive", "unsubscribeCallEvents" -> {
+                    return unsubscribe(method, params);
+                }
+                case "listAccounts" -> {
+                    return listAccounts(params);
+                }
+                case "startLink" -> {
+                    final var worker = getLeastLoadedWorker();
+                    final var result = upstreams.get(worker).call(method, params, id, null);
+                    if (result != null && result.hasNonNull("deviceLinkUri")) {
+                        deviceLinkWorkers.put(result.get("deviceLinkUri").asText(), worker);
+                    }
+                    return result;
+                }
+                case "finishLink" -> {
+                    final var deviceLinkUri = params instanceof ObjectNode p && p.hasNonNull("deviceLinkUri")
+                            ? p.get("deviceLinkUri").asText()
+                            : null;
+                    final var linkWorker = deviceLinkUri == null ? null : deviceLinkWorkers.get(deviceLinkUri);
+                    final var worker = linkWorker == null ? getDefaultWorker() : linkWorker;
+                    final var result = upstreams.get(worker).call(method, params, id, null);
+                    if (deviceLinkUri != null) {
+                        deviceLinkWorkers.remove(deviceLinkUri);
+                    }
+                    if (result != null && result.hasNonNull("number")) {
+                        addAccount(result.get("number").asText(), getAci(result), worker);
+                    }
+                    return result;
+                }
+                default -> {
+                }
+            }
+
+            if (account == null) {
+                return upstreams.get(getDefaultWorker()).call(method, params, id, null);
+            }
+            if (Commands.getCommand(method) instanceof JsonRpcRegistrationCommand<?>) {
+                return callRegistration(method, params, id, account);
+            }
+            final var worker = accountWorkers.get(account);
+            if (worker == null) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                        "Specified account does not exist",
+                        null));
+            }
+            return upstreams.get(worker).call(method, params, id, null);
+        }
+
+        private JsonNode callRegistration(
+                final String method,
+                final ContainerNode<?> params,
+                final ValueNode id,
+                final String account
+        ) throws JsonRpcException {
+            final var worker = getRegistrationWorker(account);
+            final var result = upstreams.get(worker).call(method, params, id, null);
+            switch (method) {
+                case "verify" -> {
+                    addAccount(account, getAci(result), worker);
+                    registrationWorkers.remove(account);
+                }
+                case "deleteLocalAccountData" -> {
+                    removeAccount(account);
+                    registrationWorkers.remove(account);
+                }
+                default -> {
+                }
+            }
+            return result;
+        }
+
+        private JsonNode subscribe(
+                final String method,
+                final ContainerNode<?> params,
+                final String account
+        ) throws JsonRpcException {
+            final List<Upstream> targets;
+            if (account == null) {
+                targets = upstreams;
+            } else {
+                final var worker = accountWorkers.get(account);
+                if (worker == null) {
+                    throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                            "Specified account does not exist",
+                            null));
+                }
+                targets = List.of(upstreams.get(worker));
+            }
+
+            final var subscriptionId = nextSubscriptionId.getAndIncrement();
+            final var workerSubscriptions = new ArrayList<Pair<Upstream, Integer>>();
+            try {
+                for (final var upstream : targets) {
+                    final var result = upstream.call(method,
+                            params == null ? null : params.deepCopy(),
+                            null,
+                            subscriptionId);
+                    workerSubscriptions.add(new Pair<>(upstream, result.asInt()));
+                }
+            } catch (JsonRpcException e) {
+                unsubscribe(getUnsubscribeMethod(method), workerSubscriptions);
+                throw e;
+            }
+            subscriptions.put(subscriptionId, workerSubscriptions);
+            return IntNode.valueOf(subscriptionId);
+        }
+
+        private JsonNode unsubscribe(final String method, final ContainerNode<?> params) throws JsonRpcException {
+            final Integer subscriptionId = switch (params) {
+                case ArrayNode p -> p.isEmpty() ? null : p.get(0).asInt();
+                case ObjectNode p -> p.hasNonNull("subscription") ? p.get("subscription").asInt() : null;
+                case null, default -> null;
+            };
+            if (subscriptionId == null) {
+                throw userError("Missing subscription parameter with subscription id");
+            }
+            final var workerSubscriptions = subscriptions.remove(subscriptionId);
+            if (workerSubscriptions == null) {
+                throw userError("Unknown subscription id");
+            }
+            unsubscribe(method, workerSubscriptions);
+            return JsonNodeFactory.instance.objectNode();
+        }
+
+        private void unsubscribe(final String method, final List<Pair<Upstream, Integer>> workerSubscriptions) {
+            for (final var pair : workerSubscriptions) {
+                final var upstream = pair.first();
+                final var workerSubscriptionId = pair.second();
+                upstream.subscriptionIds.remove(workerSubscriptionId);
+                final var params = JsonNodeFactory.instance.objectNode().put("subscription", workerSubscriptionId);
+                try {
+                    upstream.call(method, params, null, null);
+                } catch (JsonRpcException e) {
+                    logger.debug("Failed to unsubscribe from worker {}: {}",
+                            upstream.worker,
+                            e.getError().getMessage());
+                }
+            }
+        }
+
+        private static String getUnsubscribeMethod(final String subscribeMethod) {
+            return "un" + subscribeMethod;
+        }
+
+        private JsonNode listAccounts(final ContainerNode<?> params) throws JsonRpcException {
+            final var accounts = JsonNodeFactory.instance.arrayNode();
+            for (final var upstream : upstreams) {
+                final var result = upstream.call("listAccounts",
+                        params == null ? null : params.deepCopy(),
+                        null,
+                        null);
+                if (result instanceof ArrayNode array) {
+                    accounts.addAll(array);
+                }
+            }
+            return accounts;
+        }
+
+        void unsubscribeReceiveOnStart() {
+            for (final var upstream : upstreams) {
+                try {
+                    upstream.call("unsubscribeReceive", null, null, null);
+                } catch (JsonRpcException e) {
+                    logger.debug("Failed to unsubscribe from worker {}: {}",
+                            upstream.worker,
+                            e.getError().getMessage());
+                }
+            }
+        }
+
+        void forwardNotification(final Upstream upstream, final String method, final ContainerNode<?> params) {
+            if (clientSender == null) {
+                return;
+            }
+            if (params instanceof ObjectNode p) {
+                if (p.has("subscription")) {
+                    final var subscriptionId = upstream.subscriptionIds.get(p.get("subscription").asInt());
+                    if (subscriptionId == null) {
+                        logger.debug("Dropping {} notification of unknown subscription", method);
+                        return;
+                    }
+                    p.put("subscription", subscriptionId);
+                } else if (p.has("requestId")) {
+                    final var pending = upstream.pending.get(p.get("requestId").asLong());
+                    if (pending == null || pending.clientId() == null) {
+                        return;
+                    }
+                    p.set("requestId", pending.clientId());
+                }
+            }
+            try {
+                clientSender.sendRequest(JsonRpcRequest.forNotification(method, params, null));
+            } catch (AssertionError e) {
+                if (!(e.getCause() instanceof ClosedChannelException)) {
+                    throw e;
+                }
+                logger.debug("Dropping {} notification, client connection has been closed", method);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (final var upstream : upstreams) {
+                upstream.close();
+            }
+        }
+    }
+
+    /**
+     * A client connection to one worker.
+     */
+    private static final class Upstream implements AutoCloseable {
+
+        private final Connection connection;
+        private final int worker;
+        private final SocketChannel channel;
+        private final AsyncJsonWriter writer;
+        private final JsonRpcSender sender;
+        private final AtomicLong nextRequestId = new AtomicLong(0);
+        private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+        /**
+         * Router subscription ids by the worker's subscription id.
+         */
+        private final Map<Integer, Integer> subscriptionIds = new ConcurrentHashMap<>();
+        private volatile boolean disconnected;
+
+        Upstream(final Connection connection, final int worker, final SocketChannel channel) {
+            this.connection = connection;
+            this.worker = worker;
+            this.channel = channel;
+            this.writer = new AsyncJsonWriter(channel, MAX_QUEUED_OUTPUT_SIZE, AsyncJsonWriter.OverflowPolicy.DISCONNECT);
+            this.sender = new JsonRpcSender(writer);
+            Thread.ofVirtual().name("router-worker-" + worker).start(this::readMessages);
+        }
+
+        private void readMessages() {
+            try {
+                final var reader = new JsonRpcReader(sender, channel, MAX_MESSAGE_SIZE, MessageEncoding.JSON);
+                reader.readMessages((method, params, _) -> {
+                    connection.forwardNotification(this, method, params);
+                    return null;
+                }, this::handleResponse);
+            } finally {
+                final var closedByClient = connection.isClosed();
+                disconnected = true;
+                pending.values()
+                        .forEach(p -> p.future()
+                                .completeExceptionally(new IOException("Connection to worker " + worker + " closed")));
+                if (!closedByClient) {
+                    logger.warn("Connection to worker {} closed", worker);
+                    connection.onUpstreamClosed.run();
+                    connection.close();
+                }
+            }
+        }
+
+        private void handleResponse(final JsonRpcResponse response) {
+            final var request = pending.get(response.getId().asLong());
+            if (request == null) {
+                logger.debug("Received response for unknown id {} from worker {}", response.getId(), worker);
+                return;
+            }
+            if (request.subscriptionId() != null && response.getResult() != null) {
+                // Registered before the request completes, so following notifications can be mapped
+                subscriptionIds.put(response.getResult().asInt(), request.subscriptionId());
+            }
+            request.future().complete(response);
+        }
+
+        /**
+         * Sends the request to the worker and waits for its response.
+         *
+         * @param clientId       the id of the client's request, used for its partial results
+         * @param subscriptionId the router subscription id, if the request creates a subscription
+         */
+        JsonNode call(
+                final String method,
+                final ContainerNode<?> params,
+                final ValueNode clientId,
+                final Integer subscriptionId
+        ) throws JsonRpcException {
+            final var requestId = nextRequestId.incrementAndGet();
+            final var request = new Pending(clientId, subscriptionId, new CompletableFuture<>());
+            pending.put(requestId, request);
+            if (disconnected) {
+                pending.remove(requestId);
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        "Worker " + worker + " is not available",
+                        null));
+            }
+            try {
+                sender.sendRequest(JsonRpcRequest.forRequest(method, params, LongNode.valueOf(requestId)));
+            } catch (AssertionError e) {
+                pending.remove(requestId);
+                if (!(e.getCause() instanceof IOException)) {
+                    throw e;
+                }
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        "Worker " + worker + " is not available: " + e.getCause().getMessage(),
+                        null));
+            }
+            try {
+                final var response = request.future().get();
+                if (response.getError() != null) {
+                    throw new JsonRpcException(response.getError());
+                }
+                return response.getResult();
+            } catch (ExecutionException e) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        "Worker " + worker + " is not available: " + e.getCause().getMessage(),
+                        null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        "Interrupted while waiting for worker " + worker,
+                        null));
+            } finally {
+                pending.remove(requestId);
+            }
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * A worker daemon that provides its accounts on a socket.
+     */
+    public interface Worker {
+
+        SocketChannel connect() throws IOException;
+    }
+
+    private record Pending(ValueNode clientId, Integer subscriptionId, CompletableFuture<JsonRpcResponse> future) {}
+}
@@ -0,0 +1,199 @@
+package org.asamk.signal.jsonrpc;
+
+import org.asamk.signal.Main;
+import org.asamk.signal.manager.api.AccountShard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A daemon child process that loads one shard of the local accounts and provides them on its own JSON-RPC socket.
+ */
+public final class ShardWorker implements ShardRouter.Worker, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+    /**
+     * Starting the process and reading the account list can take a while on a busy host, the socket is only bound
+     * afterward.
+     */
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(5);
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final AccountShard shard;
+    private final UnixDomainSocketAddress address;
+    private final Process process;
+    private volatile boolean closing;
+
+    private ShardWorker(final AccountShard shard, final UnixDomainSocketAddress address, final Process process) {
+        this.shard = shard;
+        this.address = address;
+        this.process = process;
+    }
+
+    /**
+     * Starts a signal-cli daemon for the shard, with the same executable as the current process.
+     *
+     * @param globalArgs the global arguments, given before the daemon command
+     * @param daemonArgs additional arguments of the daemon command
+     */
+    public static ShardWorker start(
+            final AccountShard shard,
+            final Path socketPath,
+            final List<String> globalArgs,
+            final List<String> daemonArgs
+    ) throws IOException {
+        Files.deleteIfExists(socketPath);
+        final var command = new ArrayList<>(getSelfCommand());
+        command.addAll(globalArgs);
+        command.addAll(List.of("daemon", "--socket", socketPath.toString(), "--shard", shard.toString()));
+        command.addAll(daemonArgs);
+        logger.debug("Starting worker for shard {}", shard);
+        final var process = new ProcessBuilder(command).redirectInput(ProcessBuilder.Redirect.PIPE)
+                .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        // The worker doesn't read from stdin
+        process.getOutputStream().close();
+        Thread.ofVirtual()
+                .name("shard-worker-output-" + shard.index())
+                .start(() -> forwardOutput(process.getInputStream()));
+        return new ShardWorker(shard, UnixDomainSocketAddress.of(socketPath), process);
+    }
+
+    /**
+     * Copies the output of the worker to stdout line by line, so the lines of the workers and the router don't
+     * interleave.
+     */
+    private static void forwardOutput(final InputStream output) {
+        try (final var input = new BufferedInputStream(output)) {
+            final var line = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != -1) {
+                line.write(b);
+                if (b == '\n') {
+                    writeLine(line);
+                }
+            }
+            if (line.size() > 0) {
+                writeLine(line);
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to read worker output: {}", e.getMessage());
+        }
+    }
+
+    private static void writeLine(final ByteArrayOutputStream line) {
+        synchronized (System.out) {
+            System.out.write(line.toByteArray(), 0, line.size());
+            System.out.flush();
+        }
+        line.reset();
+    }
+
+    private static List<String> getSelfCommand() throws IOException {
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            final var executable = ProcessHandle.current()
+                    .info()
+                    .command()
+                    .orElseThrow(() -> new IOException("Failed to determine the signal-cli executable"));
+            return List.of(executable);
+        }
+        final var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        return command;
+    }
+
+    public AccountShard getShard() {
+        return shard;
+    }
+
+    /**
+     * Waits until the worker accepts connections on its socket.
+     */
+    public void waitUntilReady() throws IOException {
+        final var deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IOException("Worker for shard " + shard + " exited with status " + process.exitValue());
+            }
+            try (final var ignored = connect()) {
+                logger.debug("Worker for shard {} is ready", shard);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("Worker for shard " + shard + " didn't start in time", e);
+                }
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for worker for shard " + shard, e);
+            }
+        }
+    }
+
+    @Override
+    public SocketChannel connect() throws IOException {
+        final var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Runs the handler if the worker exits without being closed.
+     */
+    public void onExit(final Runnable handler) {
+        process.onExit().thenRun(() -> {
+            if (!closing) {
+                logger.error("Worker for shard {} exited unexpectedly with status {}", shard, process.exitValue());
+                handler.run();
+            }
+        });
+    }
+
+    /**
+     * Asks the worker to shut down and kills it, if it doesn't exit in time.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        if (!process.isAlive()) {
+            return;
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Worker for shard {} didn't shut down in time, killing it", shard);
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+        }
+    }
+}
@@ -24,12 +24,14 @@ import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.StreamingJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 public class SignalJsonRpcCommandHandler {
@@ -62,17 +64,38 @@ public class SignalJsonRpcCommandHandler {
             final ObjectMapper objectMapper,
             final String method,
             ContainerNode<?> params
+    ) throws JsonRpcException {
+        return handleRequest(objectMapper, method, params, null);
+    }
+
+    /**
+     * @param partialResultSender receives the partial results written by commands that support streaming, as
+     *                            method name and result. If null, the command only returns its final result.
+     */
+    public JsonNode handleRequest(
+            final ObjectMapper objectMapper,
+            final String method,
+            ContainerNode<?> params,
+            final BiConsumer<String, Object> partialResultSender
     ) throws JsonRpcException {
         var command = getCommand(method);
         if (c != null) {
             if (command instanceof JsonRpcSingleCommand<?> jsonRpcCommand) {
                 final var manager = getManagerFromParams(params);
                 if (manager != null) {
-                    return runCommand(objectMapper, params, new CommandRunnerImpl<>(manager, jsonRpcCommand));
+                    return runAccountCommand(objectMapper,
+                            method,
+                            params,
+                            partialResultSender,
+                            manager,
+                            jsonRpcCommand);
                 }
             }
             if (command instanceof JsonRpcMultiCommand<?> jsonRpcCommand) {
-                return runCommand(objectMapper, params, new MultiCommandRunnerImpl<>(c, jsonRpcCommand));
+                return runCommand(objectMapper,
+                        params,
+                        partialResultSender,
+                        new MultiCommandRunnerImpl<>(c, jsonRpcCommand));
             }
             if (command instanceof JsonRpcRegistrationCommand<?> jsonRpcCommand) {
                 final var pair = getRegistrationManagerFromParams(params);
@@ -86,6 +109,7 @@ public class SignalJsonRpcCommandHandler {
                         if (manager != null) {
                             return runCommand(objectMapper,
                                     params,
+                                    partialResultSender,
                                     new RegistrationCommandRunnerImpl<>(manager, c, jsonRpcCommand));
                         } else {
                             throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
@@ -100,18 +124,19 @@ public class SignalJsonRpcCommandHandler {
         }
         if (command instanceof JsonRpcSingleCommand<?> jsonRpcCommand) {
             if (m != null) {
-                return runCommand(objectMapper, params, new CommandRunnerImpl<>(m, jsonRpcCommand));
+                return runAccountCommand(objectMapper, method, params, partialResultSender, m, jsonRpcCommand);
             }
 
             var manager = getManagerFromParams(params);
             if (manager == null) {
-                final var managers = c.getManagers();
-                if (managers.size() == 1) {
-                    manager = managers.getFirst();
+                // Not all accounts may be loaded, so the default account is determined from the account numbers
+                final var accountNumbers = c.getAccountNumbers();
+                if (accountNumbers.size() == 1) {
+                    manager = c.getManager(accountNumbers.getFirst());
                 }
             }
             if (manager != null) {
-                return runCommand(objectMapper, params, new CommandRunnerImpl<>(manager, jsonRpcCommand));
+                return runAccountCommand(objectMapper, method, params, partialResultSender, manager, jsonRpcCommand);
             } else {
                 throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
                         "Method requires valid account parameter",
@@ -225,19 +250,66 @@ public class SignalJsonRpcCommandHandler {
         TypeReference<T> getRequestType();
     }
 
+    /**
+     * Runs the command of an account, limiting the number of concurrent requests for each account.
+     */
+    private JsonNode runAccountCommand(
+            final ObjectMapper objectMapper,
+            final String method,
+            final ContainerNode<?> params,
+            final BiConsumer<String, Object> partialResultSender,
+            final Manager manager,
+            final JsonRpcSingleCommand<?> command
+    ) throws JsonRpcException {
+        // An idle account must not be closed while its request is handled
+        if (c != null) {
+            c.retain(manager);
+        }
+        try {
+            final var limiter = RequestLimiter.forAccount(manager, method);
+            limiter.acquire();
+            try {
+                return runCommand(objectMapper,
+                        params,
+                        partialResultSender,
+                        new CommandRunnerImpl<>(manager, command));
+            } finally {
+                limiter.release();
+            }
+        } finally {
+            if (c != null) {
+                c.release(manager);
+            }
+        }
+    }
+
     private JsonNode runCommand(
             final ObjectMapper objectMapper,
             final ContainerNode<?> params,
+            final BiConsumer<String, Object> partialResultSender,
             final CommandRunner<?> command
     ) throws JsonRpcException {
         final Object[] result = {null};
-        final JsonWriter commandJsonWriter = s -> {
+        final JsonWriter resultWriter = s -> {
             if (result[0] != null) {
                 throw new AssertionError("Command may only write one json result");
             }
 
             result[0] = s;
         };
+        final JsonWriter commandJsonWriter = partialResultSender == null
+                ? resultWriter
+                : new StreamingJsonWriter() {
+                    @Override
+                    public void write(final Object object) {
+                        resultWriter.write(object);
+                    }
+
+                    @Override
+                    public void writePartial(final String method, final Object partialResult) {
+                        partialResultSender.accept(method, partialResult);
+                    }
+                };
 
         try {
             parseParamsAndRunCommand(objectMapper, params, commandJsonWriter, command);
@@ -279,7 +351,8 @@ public class SignalJsonRpcCommandHandler {
         }
 
         Object output = result[0] == null ? Map.of() : result[0];
-        return objectMapper.valueToTree(output);
+        // The result is serialized directly when the response is written, instead of converting it to a tree first
+        return objectMapper.getNodeFactory().pojoNode(output);
     }
 
     private JsonNode getErrorDataNode(final ObjectMapper objectMapper, final Object[] result) {
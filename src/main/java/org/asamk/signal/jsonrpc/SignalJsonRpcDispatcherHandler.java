@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
 
 import org.asamk.signal.commands.Command;
 import org.asamk.signal.commands.Commands;
@@ -15,22 +16,31 @@ import org.asamk.signal.commands.JsonRpcSingleCommand;
 import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.json.JsonCallEvent;
-import org.asamk.signal.json.JsonReceiveMessageHandler;
+import org.asamk.signal.json.JsonReceiveEvent;
+import org.asamk.signal.json.JsonReceiveEventBus;
+import org.asamk.signal.json.ReceiveFilter;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.RawJson;
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -38,14 +48,25 @@ public class SignalJsonRpcDispatcherHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(SignalJsonRpcDispatcherHandler.class);
 
+    private static final Object INTERNAL_RECEIVE_NOTIFICATION = new Object();
+
     private final ObjectMapper objectMapper;
     private final JsonRpcSender jsonRpcSender;
     private final JsonRpcReader jsonRpcReader;
     private final boolean noReceiveOnStart;
 
-    private final Map<Integer, ArrayList<Pair<Manager, Manager.ReceiveMessageHandler>>> receiveHandlers = new HashMap<>();
+    private final Map<Integer, ArrayList<Pair<Manager, Consumer<JsonReceiveEvent>>>> receiveHandlers = new HashMap<>();
+    private final Map<Integer, ReceiveFilter> receiveFilters = new HashMap<>();
     private final Map<Integer, ArrayList<Pair<Manager, Manager.CallEventListener>>> callEventHandlers = new HashMap<>();
+    // Subscriptions of all accounts, which also subscribe accounts that are added later
+    private final Set<Integer> allAccountSubscriptions = new HashSet<>();
+    private final Consumer<Manager> onManagerAdded = this::subscribeAddedManager;
+    private final Consumer<Manager> onManagerRemoved = this::unsubscribeRemovedManager;
+    private MultiAccountManager multiAccountManager;
+    private Runnable closeConnection;
+    private Integer internalSubscriptionId;
     private SignalJsonRpcCommandHandler commandHandler;
+    private final RequestLimiter.Lanes connectionLimiters = RequestLimiter.forConnection();
 
     public SignalJsonRpcDispatcherHandler(
             final JsonWriter jsonWriter,
@@ -58,28 +79,103 @@ public class SignalJsonRpcDispatcherHandler {
         this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, lineSupplier);
     }
 
+    public SignalJsonRpcDispatcherHandler(
+            final JsonWriter jsonWriter,
+            final ReadableByteChannel inputChannel,
+            final long maxMessageSize,
+            final boolean noReceiveOnStart
+    ) {
+        this(jsonWriter, inputChannel, maxMessageSize, MessageEncoding.JSON, noReceiveOnStart);
+    }
+
+    /**
+     * @param jsonWriter must write the messages with the given encoding
+     */
+    public SignalJsonRpcDispatcherHandler(
+            final JsonWriter jsonWriter,
+            final ReadableByteChannel inputChannel,
+            final long maxMessageSize,
+            final MessageEncoding encoding,
+            final boolean noReceiveOnStart
+    ) {
+        this.noReceiveOnStart = noReceiveOnStart;
+        this.objectMapper = Util.createJsonObjectMapper();
+        this.jsonRpcSender = new JsonRpcSender(jsonWriter);
+        this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, inputChannel, maxMessageSize, encoding);
+    }
+
     public void handleConnection(final MultiAccountManager c) {
+        initConnection(c);
+        handleConnection();
+    }
+
+    /**
+     * Handles the connection with input that is fed by the caller, e.g. by an event loop.
+     * The feed must be closed once the input has ended, to remove the subscriptions of the connection.
+     *
+     * @param closeConnection called when the multi-account manager is closed, it must end the input of the connection
+     */
+    public JsonRpcReader.InputFeed startConnection(final MultiAccountManager c, final Runnable closeConnection) {
+        initConnection(c);
+        this.closeConnection = closeConnection;
+        c.addClosedListener(closeConnection);
+        return jsonRpcReader.createInputFeed(this::handleConnectionRequest,
+                this::handleUnexpectedResponse,
+                this::removeSubscriptions);
+    }
+
+    private void initConnection(final MultiAccountManager c) {
+        this.multiAccountManager = c;
         this.commandHandler = new SignalJsonRpcCommandHandler(c, this::getCommand);
 
         if (!noReceiveOnStart) {
-            this.subscribeReceive(c.getManagers(), true);
-            c.addOnManagerAddedHandler(m -> subscribeReceive(m, true));
-            c.addOnManagerRemovedHandler(this::unsubscribeReceive);
+            internalSubscriptionId = this.subscribeReceive(c.getManagers(), true);
+            allAccountSubscriptions.add(internalSubscriptionId);
         }
-        c.addOnManagerAddedHandler(m -> receiveHandlers.forEach((subscriptionId, handlers) -> handlers.add(
-                createReceiveHandler(m, subscriptionId, false))));
-        c.addOnManagerAddedHandler(m -> callEventHandlers.forEach((subscriptionId, handlers) -> handlers.add(
-                createCallEventHandler(m, subscriptionId))));
+        // Removed again when the connection is closed, so closed connections don't keep the handlers
+        c.addOnManagerAddedHandler(onManagerAdded);
+        c.addOnManagerRemovedHandler(onManagerRemoved);
+    }
 
-        handleConnection();
+    private void subscribeAddedManager(final Manager m) {
+        receiveHandlers.forEach((subscriptionId, handlers) -> {
+            if (allAccountSubscriptions.contains(subscriptionId)) {
+                final var internalSubscription = subscriptionId.equals(internalSubscriptionId);
+                handlers.add(createReceiveHandler(m,
+                        subscriptionId,
+                        internalSubscription,
+                        receiveFilters.get(subscriptionId)));
+            }
+        });
+        callEventHandlers.forEach((subscriptionId, handlers) -> {
+            if (allAccountSubscriptions.contains(subscriptionId)) {
+                handlers.add(createCallEventHandler(m, subscriptionId));
+            }
+        });
     }
 
-    public void handleConnection(final Manager m) {
-        this.commandHandler = new SignalJsonRpcCommandHandler(m, this::getCommand);
+    /**
+     * Removes the handlers of a removed or evicted manager, it's subscribed again if it's added again later.
+     */
+    private void unsubscribeRemovedManager(final Manager m) {
+        receiveHandlers.forEach((subscriptionId, handlers) -> handlers.removeIf(pair -> {
+            if (!pair.first().equals(m)) {
+                return false;
+            }
+            unsubscribeReceiveHandler(subscriptionId, pair);
+            return true;
+        }));
+        callEventHandlers.forEach((_subscriptionId, handlers) -> handlers.removeIf(pair -> {
+            if (!pair.first().equals(m)) {
+                return false;
+            }
+            unsubscribeCallEventHandler(pair);
+            return true;
+        }));
+    }
 
-        if (!noReceiveOnStart) {
-            subscribeReceive(m, true);
-        }
+    public void handleConnection(final Manager m) {
+        initConnection(m);
 
         final var currentThread = Thread.currentThread();
         m.addClosedListener(currentThread::interrupt);
@@ -87,10 +183,39 @@ public class SignalJsonRpcDispatcherHandler {
         handleConnection();
     }
 
+    /**
+     * Handles the connection with input that is fed by the caller, e.g. by an event loop.
+     * The feed must be closed once the input has ended, to remove the subscriptions of the connection.
+     *
+     * @param closeConnection called when the manager is closed, it must end the input of the connection
+     */
+    public JsonRpcReader.InputFeed startConnection(final Manager m, final Runnable closeConnection) {
+        initConnection(m);
+        m.addClosedListener(closeConnection);
+
+        return jsonRpcReader.createInputFeed(this::handleConnectionRequest,
+                this::handleUnexpectedResponse,
+                this::removeSubscriptions);
+    }
+
+    private void initConnection(final Manager m) {
+        this.commandHandler = new SignalJsonRpcCommandHandler(m, this::getCommand);
+
+        if (!noReceiveOnStart) {
+            internalSubscriptionId = subscribeReceive(m, true);
+        }
+    }
+
     private int subscribeCallEvents(final Manager manager) {
         return subscribeCallEvents(List.of(manager));
     }
 
+    private int subscribeAllCallEvents(final Collection<Manager> managers) {
+        final var subscriptionId = subscribeCallEvents(managers);
+        allAccountSubscriptions.add(subscriptionId);
+        return subscriptionId;
+    }
+
     private int subscribeCallEvents(final Collection<Manager> managers) {
         final var subscriptionId = nextSubscriptionId.getAndIncrement();
         final var listeners = managers.stream()
@@ -104,7 +229,7 @@ public class SignalJsonRpcDispatcherHandler {
         final Manager.CallEventListener listener = (callInfo, reason) -> {
             final var params = new ObjectNode(objectMapper.getNodeFactory());
             params.set("subscription", IntNode.valueOf(subscriptionId));
-            params.set("result", objectMapper.valueToTree(JsonCallEvent.from(callInfo, reason)));
+            params.set("result", objectMapper.getNodeFactory().pojoNode(JsonCallEvent.from(callInfo, reason)));
             final var jsonRpcRequest = JsonRpcRequest.forNotification("callEvent", params, null);
             try {
                 jsonRpcSender.sendRequest(jsonRpcRequest);
@@ -114,12 +239,14 @@ public class SignalJsonRpcDispatcherHandler {
                 }
             }
         };
+        retainManager(m);
         m.addCallEventListener(listener);
         return new Pair<>(m, listener);
     }
 
     private boolean unsubscribeCallEvents(final int subscriptionId) {
         final var handlers = callEventHandlers.remove(subscriptionId);
+        allAccountSubscriptions.remove(subscriptionId);
         if (handlers == null) {
             return false;
         }
@@ -138,59 +265,97 @@ public class SignalJsonRpcDispatcherHandler {
         final var m = pair.first();
         final var handler = pair.second();
         m.removeCallEventListener(handler);
+        releaseManager(m);
+    }
+
+    /**
+     * Explicit subscriptions keep their accounts loaded, the internal subscription follows the loaded accounts.
+     */
+    private void retainManager(final Manager m) {
+        if (multiAccountManager != null) {
+            multiAccountManager.retain(m);
+        }
+    }
+
+    private void releaseManager(final Manager m) {
+        if (multiAccountManager != null) {
+            multiAccountManager.release(m);
+        }
     }
 
     private static final AtomicInteger nextSubscriptionId = new AtomicInteger(0);
 
     private int subscribeReceive(final Manager manager, boolean internalSubscription) {
-        return subscribeReceive(List.of(manager), internalSubscription);
+        return subscribeReceive(List.of(manager), internalSubscription, null);
     }
 
     private int subscribeReceive(final List<Manager> managers, boolean internalSubscription) {
+        return subscribeReceive(managers, internalSubscription, null);
+    }
+
+    private int subscribeReceive(
+            final List<Manager> managers,
+            boolean internalSubscription,
+            final ReceiveFilter filter
+    ) {
         final var subscriptionId = nextSubscriptionId.getAndIncrement();
         final var handlers = managers.stream()
-                .map(m -> createReceiveHandler(m, subscriptionId, internalSubscription))
+                .map(m -> createReceiveHandler(m, subscriptionId, internalSubscription, filter))
                 .collect(Collectors.toCollection(ArrayList::new));
         receiveHandlers.put(subscriptionId, handlers);
+        if (filter != null) {
+            receiveFilters.put(subscriptionId, filter);
+        }
 
         return subscriptionId;
     }
 
-    private Pair<Manager, Manager.ReceiveMessageHandler> createReceiveHandler(
+    private Pair<Manager, Consumer<JsonReceiveEvent>> createReceiveHandler(
             final Manager m,
             final int subscriptionId,
-            final boolean internalSubscription
+            final boolean internalSubscription,
+            final ReceiveFilter filter
     ) {
-        final var receiveMessageHandler = new JsonReceiveMessageHandler(m, s -> {
-            ContainerNode<?> params;
-            if (internalSubscription) {
-                params = objectMapper.valueToTree(s);
-            } else {
-                final var paramsNode = new ObjectNode(objectMapper.getNodeFactory());
-                paramsNode.set("subscription", IntNode.valueOf(subscriptionId));
-                paramsNode.set("result", objectMapper.valueToTree(s));
-                params = paramsNode;
-            }
-            final var jsonRpcRequest = JsonRpcRequest.forNotification("receive", params, null);
+        final Consumer<JsonReceiveEvent> subscriber = event -> {
+            // Internal subscriptions send the same notification on every connection, so it's encoded only once
+            final var notification = internalSubscription
+                    ? event.getEncoded(INTERNAL_RECEIVE_NOTIFICATION,
+                    result -> JsonRpcSender.encodeNotification("receive", result))
+                    : new RawJson(JsonRpcSender.encodeNotification("receive",
+                            encodeSubscriptionParams(subscriptionId, event)));
             try {
-                jsonRpcSender.sendRequest(jsonRpcRequest);
+                jsonRpcSender.sendRequest(notification);
             } catch (AssertionError e) {
                 if (e.getCause() instanceof ClosedChannelException) {
                     unsubscribeReceive(subscriptionId);
                 }
             }
-        });
-        m.addReceiveHandler(receiveMessageHandler);
-        return new Pair<>(m, receiveMessageHandler);
+        };
+        if (!internalSubscription) {
+            retainManager(m);
+        }
+        JsonReceiveEventBus.get(m).subscribe(subscriber, filter);
+        return new Pair<>(m, subscriber);
+    }
+
+    private static byte[] encodeSubscriptionParams(final int subscriptionId, final JsonReceiveEvent event) {
+        final var prefix = ("{\"subscription\":" + subscriptionId + ",\"result\":").getBytes(StandardCharsets.UTF_8);
+        final var result = event.getBytes();
+        final var params = Arrays.copyOf(prefix, prefix.length + result.length + 1);
+        System.arraycopy(result, 0, params, prefix.length, result.length);
+        params[params.length - 1] = '}';
+        return params;
     }
 
     private boolean unsubscribeReceive(final int subscriptionId) {
         final var handlers = receiveHandlers.remove(subscriptionId);
+        receiveFilters.remove(subscriptionId);
+        allAccountSubscriptions.remove(subscriptionId);
         if (handlers == null) {
             return false;
         }
         for (final var pair : handlers) {
-            unsubscribeReceiveHandler(pair);
+            unsubscribeReceiveHandler(subscriptionId, pair);
         }
         return true;
     }
@@ -206,19 +371,74 @@ public class SignalJsonRpcDispatcherHandler {
 
     private void handleConnection() {
         try {
-            jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
-                    response -> logger.debug("Received unexpected response for id {}", response.getId()));
+            jsonRpcReader.readMessages(this::handleConnectionRequest, this::handleUnexpectedResponse);
         } finally {
-            receiveHandlers.forEach((_subscriptionId, handlers) -> handlers.forEach(this::unsubscribeReceiveHandler));
-            receiveHandlers.clear();
-            unsubscribeAllCallEvents();
+            removeSubscriptions();
         }
     }
 
-    private void unsubscribeReceiveHandler(final Pair<Manager, Manager.ReceiveMessageHandler> pair) {
-        final var m = pair.first();
-        final var handler = pair.second();
-        m.removeReceiveHandler(handler);
+    private JsonNode handleConnectionRequest(
+            final String method,
+            final ContainerNode<?> params,
+            final ValueNode id
+    ) throws JsonRpcException {
+        // Cheap reads have their own lane, so they aren't stuck behind the connection's sends
+        final var limiter = connectionLimiters.forMethod(method);
+        limiter.acquire();
+        try {
+            return handleRequest(method, params, id);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    private void handleUnexpectedResponse(final JsonRpcResponse response) {
+        logger.debug("Received unexpected response for id {}", response.getId());
+    }
+
+    private void removeSubscriptions() {
+        if (multiAccountManager != null) {
+            multiAccountManager.removeOnManagerAddedHandler(onManagerAdded);
+            multiAccountManager.removeOnManagerRemovedHandler(onManagerRemoved);
+            if (closeConnection != null) {
+                multiAccountManager.removeClosedListener(closeConnection);
+            }
+        }
+        receiveHandlers.forEach((subscriptionId, handlers) -> handlers.forEach(pair -> unsubscribeReceiveHandler(
+                subscriptionId,
+                pair)));
+        receiveHandlers.clear();
+        receiveFilters.clear();
+        allAccountSubscriptions.clear();
+        unsubscribeAllCallEvents();
+    }
+
+    private JsonNode handleRequest(
+            final String method,
+            final ContainerNode<?> params,
+            final ValueNode id
+    ) throws JsonRpcException {
+        return commandHandler.handleRequest(objectMapper,
+                method,
+                params,
+                id == null ? null : (partialMethod, result) -> sendPartialResult(partialMethod, id, result));
+    }
+
+    private void sendPartialResult(final String method, final ValueNode requestId, final Object result) {
+        final var params = new ObjectNode(objectMapper.getNodeFactory());
+        params.set("requestId", requestId);
+        params.set("result", objectMapper.getNodeFactory().pojoNode(result));
+        jsonRpcSender.sendRequest(JsonRpcRequest.forNotification(method, params, null));
+    }
+
+    private void unsubscribeReceiveHandler(
+            final int subscriptionId,
+            final Pair<Manager, Consumer<JsonReceiveEvent>> pair
+    ) {
+        JsonReceiveEventBus.get(pair.first()).unsubscribe(pair.second());
+        if (!Integer.valueOf(subscriptionId).equals(internalSubscriptionId)) {
+            releaseManager(pair.first());
+        }
     }
 
     private Command getCommand(final String method) {
@@ -237,34 +457,55 @@ public class SignalJsonRpcDispatcherHandler {
         return Commands.getCommand(method);
     }
 
-    private class SubscribeReceiveCommand implements JsonRpcSingleCommand<Void>, JsonRpcMultiCommand<Void> {
+    private class SubscribeReceiveCommand
+            implements JsonRpcSingleCommand<SubscribeReceiveParams>, JsonRpcMultiCommand<SubscribeReceiveParams> {
 
         @Override
         public String getName() {
             return "subscribeReceive";
         }
 
+        @Override
+        public TypeReference<SubscribeReceiveParams> getRequestType() {
+            return new TypeReference<>() {};
+        }
+
         @Override
         public void handleCommand(
-                final Void request,
+                final SubscribeReceiveParams request,
                 final Manager m,
                 final JsonWriter jsonWriter
         ) throws CommandException {
-            final var subscriptionId = subscribeReceive(m, false);
+            final var subscriptionId = subscribeReceive(List.of(m), false, getFilter(request));
             jsonWriter.write(subscriptionId);
         }
 
         @Override
         public void handleCommand(
-                final Void request,
+                final SubscribeReceiveParams request,
                 final MultiAccountManager c,
                 final JsonWriter jsonWriter
         ) throws CommandException {
-            final var subscriptionId = subscribeReceive(c.getManagers(), false);
+            final var subscriptionId = subscribeReceive(c.getManagers(), false, getFilter(request));
+            allAccountSubscriptions.add(subscriptionId);
             jsonWriter.write(subscriptionId);
         }
+
+        private ReceiveFilter getFilter(final SubscribeReceiveParams request) throws UserErrorException {
+            if (request == null) {
+                return null;
+            }
+            return ReceiveFilter.from(request.types(),
+                    request.groupIds(),
+                    request.senders(),
+                    request.hasAttachments());
+        }
     }
 
+    public record SubscribeReceiveParams(
+            List<String> types, List<String> groupIds, List<String> senders, Boolean hasAttachments
+    ) {}
+
     private class UnsubscribeReceiveCommand implements JsonRpcSingleCommand<JsonNode>, JsonRpcMultiCommand<JsonNode> {
 
         @Override
@@ -301,7 +542,10 @@ public class SignalJsonRpcDispatcherHandler {
         ) throws CommandException {
             final var subscriptionId = getSubscriptionId(request);
             if (subscriptionId == null) {
-                throw new UserErrorException("Missing subscription parameter with subscription id");
+                // Stops the notifications of all accounts that are sent on start, e.g. for the router
+                if (internalSubscriptionId == null || !unsubscribeReceive(internalSubscriptionId)) {
+                    throw new UserErrorException("Missing subscription parameter with subscription id");
+                }
             } else {
                 if (!unsubscribeReceive(subscriptionId)) {
                     throw new UserErrorException("Unknown subscription id");
@@ -311,8 +555,8 @@ public class SignalJsonRpcDispatcherHandler {
 
         private Integer getSubscriptionId(final JsonNode request) {
             return switch (request) {
-                case ArrayNode req -> req.get(0).asInt();
-                case ObjectNode req -> req.get("subscription").asInt();
+                case ArrayNode req -> req.isEmpty() ? null : req.get(0).asInt();
+                case ObjectNode req -> req.hasNonNull("subscription") ? req.get("subscription").asInt() : null;
                 case null, default -> null;
             };
         }
@@ -341,7 +585,7 @@ public class SignalJsonRpcDispatcherHandler {
                 final MultiAccountManager c,
                 final JsonWriter jsonWriter
         ) throws CommandException {
-            final var subscriptionId = subscribeCallEvents(c.getManagers());
+            final var subscriptionId = subscribeAllCallEvents(c.getManagers());
             jsonWriter.write(subscriptionId);
         }
     }
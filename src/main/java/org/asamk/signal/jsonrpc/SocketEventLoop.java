@@ -0,0 +1,279 @@
+package org.asamk.signal.jsonrpc;
+
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads and writes the data of many non-blocking socket connections on a single thread with a selector.
+ * <p>
+ * Idle connections only need their registration with the selector, no thread. The received bytes of all connections
+ * are read into one direct buffer of the event loop and copied out of it, the event loop itself never parses input.
+ * The copy is passed to the input feed of the connection on a virtual thread, which also handles the requests. A
+ * connection isn't read again until its previous input has been parsed, so at most one read buffer of input is pending
+ * per connection. Output is queued by the connection's {@link AsyncJsonWriter} and written by the event loop when the
+ * socket is writable, so the JDK's temporary direct buffers for socket writes are also only allocated once per event
+ * loop thread.
+ */
+public class SocketEventLoop implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SocketEventLoop.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public SocketEventLoop(final String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = Thread.ofPlatform().name(name).start(this::run);
+    }
+
+    /**
+     * Creates a connection for the channel, it's handled by the event loop once it's started.
+     */
+    public Connection createConnection(final SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        return new Connection(channel);
+    }
+
+    private void execute(final Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select(key -> {
+                    final var connection = (Connection) key.attachment();
+                    if (key.isValid() && key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Socket event loop failed", e);
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Socket event loop task failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop, the connections must have been closed before.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close selector: {}", e.getMessage());
+        }
+    }
+
+    public final class Connection implements AutoCloseable {
+
+        private final SocketChannel channel;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final CountDownLatch closedLatch = new CountDownLatch(1);
+        private volatile boolean disconnected;
+        // Only accessed by the event loop thread, after the connection has been started
+        private JsonRpcReader.InputFeed feed;
+        private AsyncJsonWriter writer;
+        private Runnable onClosed;
+        private SelectionKey key;
+        private Thread parsing;
+        private boolean finished;
+
+        private Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Starts reading the input of the connection.
+         *
+         * @param writer   must have been created with {@link #requestWrite()} as write listener
+         * @param onClosed called once the connection has been closed
+         */
+        public void start(
+                final JsonRpcReader.InputFeed feed,
+                final AsyncJsonWriter writer,
+                final Runnable onClosed
+        ) {
+            execute(() -> {
+                this.feed = feed;
+                this.writer = writer;
+                this.onClosed = onClosed;
+                try {
+                    key = channel.register(selector, SelectionKey.OP_READ, this);
+                } catch (IOException e) {
+                    logger.debug("Failed to register connection: {}", e.getMessage());
+                    finish();
+                    return;
+                }
+                if (disconnected) {
+                    finish();
+                }
+                // Output may have been queued before the connection was started
+                write();
+            });
+        }
+
+        /**
+         * Schedules writing the queued output, can be called from any thread.
+         */
+        public void requestWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                execute(this::write);
+            }
+        }
+
+        /**
+         * Stops reading input and closes the connection once the pending requests have been handled, without waiting
+         * for it.
+         */
+        public void disconnect() {
+            disconnected = true;
+            execute(this::finish);
+        }
+
+        /**
+         * Closes the connection and waits until the pending requests have been handled.
+         */
+        @Override
+        public void close() throws InterruptedException {
+            disconnect();
+            closedLatch.await();
+        }
+
+        private void read() {
+            readBuffer.clear();
+            final ByteBuffer input;
+            try {
+                final var read = channel.read(readBuffer);
+                if (read == 0) {
+                    return;
+                }
+                if (read < 0) {
+                    input = null;
+                } else {
+                    readBuffer.flip();
+                    input = ByteBuffer.allocate(read).put(readBuffer).flip();
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to read from connection: {}", e.getMessage());
+                finish();
+                return;
+            }
+            // The input is parsed off the event loop, reading resumes once it has been parsed
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            parsing = Thread.ofVirtual().name("socket-connection-input").start(() -> parse(input));
+        }
+
+        /**
+         * @param input the next input of the connection or null at the end of input
+         */
+        private void parse(final ByteBuffer input) {
+            var accepted = false;
+            try {
+                if (input == null) {
+                    feed.endOfInput();
+                } else {
+                    accepted = feed.feed(input);
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to read from connection: {}", e.getMessage());
+            } catch (RuntimeException | AssertionError e) {
+                logger.warn("Connection handler failed, closing connection", e);
+            }
+            final var readMore = accepted;
+            execute(() -> {
+                parsing = null;
+                if (!readMore) {
+                    finish();
+                } else if (!finished && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            });
+        }
+
+        private void write() {
+            writeScheduled.set(false);
+            if (key == null) {
+                return;
+            }
+            try {
+                final var done = writer.writeQueued();
+                if (key.isValid()) {
+                    key.interestOps(done
+                            ? key.interestOps() & ~SelectionKey.OP_WRITE
+                            : key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (finished || feed == null) {
+                return;
+            }
+            finished = true;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            // Waiting for the pending requests must not block the event loop
+            final var pendingInput = parsing;
+            Thread.ofVirtual().name("socket-connection-close").start(() -> {
+                try {
+                    if (pendingInput != null) {
+                        pendingInput.join();
+                    }
+                    feed.close();
+                    writer.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        logger.debug("Failed to close channel: {}", e.getMessage());
+                    }
+                    onClosed.run();
+                    closedLatch.countDown();
+                }
+            });
+        }
+    }
+}
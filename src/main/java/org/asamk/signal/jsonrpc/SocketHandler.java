@@ -2,20 +2,22 @@ package org.asamk.signal.jsonrpc;
 
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
-import org.asamk.signal.output.JsonWriterImpl;
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.util.IOUtils;
+import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -24,17 +26,61 @@ public class SocketHandler implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(SocketHandler.class);
     private static final AtomicInteger threadNumber = new AtomicInteger(0);
+    /**
+     * Large enough for a send request with a base64 encoded attachment of the maximum attachment size.
+     */
+    private static final long MAX_MESSAGE_SIZE = 256L * 1024 * 1024;
+    /**
+     * Clients that don't read their pending messages before this size is reached are disconnected.
+     */
+    private static final long MAX_QUEUED_OUTPUT_SIZE = 64L * 1024 * 1024;
 
     private final ServerSocketChannel serverChannel;
 
     private Thread listenerThread;
-    private final List<AutoCloseable> channels = new ArrayList<>();
+    private final Set<AutoCloseable> channels = ConcurrentHashMap.newKeySet();
     private final Consumer<SocketChannel> socketHandler;
+    private final InputFeedFactory inputFeedFactory;
     private final boolean noReceiveOnStart;
+    private final MessageEncoding encoding;
+    private final int eventLoopThreads;
+    private final List<SocketEventLoop> eventLoops = new ArrayList<>();
 
     public SocketHandler(final ServerSocketChannel serverChannel, final Manager m, final boolean noReceiveOnStart) {
+        this(serverChannel, m, MessageEncoding.JSON, noReceiveOnStart);
+    }
+
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final Manager m,
+            final MessageEncoding encoding,
+            final boolean noReceiveOnStart
+    ) {
+        this(serverChannel, m, encoding, noReceiveOnStart, 0);
+    }
+
+    /**
+     * @param eventLoopThreads number of event loop threads that handle the connections, or 0 to handle each connection
+     *                         on its own thread
+     */
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final Manager m,
+            final MessageEncoding encoding,
+            final boolean noReceiveOnStart,
+            final int eventLoopThreads
+    ) {
         this.serverChannel = serverChannel;
-        this.socketHandler = channel -> getSignalJsonRpcDispatcherHandler(channel).handleConnection(m);
+        this.encoding = encoding;
+        this.eventLoopThreads = eventLoopThreads;
+        this.socketHandler = channel -> {
+            try (final var jsonOutputWriter = createJsonWriter(channel, null)) {
+                getSignalJsonRpcDispatcherHandler(channel, jsonOutputWriter).handleConnection(m);
+            }
+        };
+        this.inputFeedFactory = (channel, jsonOutputWriter, closeConnection) -> getSignalJsonRpcDispatcherHandler(
+                channel,
+                jsonOutputWriter).startConnection(m, closeConnection);
         this.noReceiveOnStart = noReceiveOnStart;
     }
 
@@ -42,13 +88,85 @@ public class SocketHandler implements AutoCloseable {
             final ServerSocketChannel serverChannel,
             final MultiAccountManager c,
             final boolean noReceiveOnStart
+    ) {
+        this(serverChannel, c, MessageEncoding.JSON, noReceiveOnStart);
+    }
+
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final MultiAccountManager c,
+            final MessageEncoding encoding,
+            final boolean noReceiveOnStart
+    ) {
+        this(serverChannel, c, encoding, noReceiveOnStart, 0);
+    }
+
+    /**
+     * @param eventLoopThreads number of event loop threads that handle the connections, or 0 to handle each connection
+     *                         on its own thread
+     */
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final MultiAccountManager c,
+            final MessageEncoding encoding,
+            final boolean noReceiveOnStart,
+            final int eventLoopThreads
     ) {
         this.serverChannel = serverChannel;
-        this.socketHandler = channel -> getSignalJsonRpcDispatcherHandler(channel).handleConnection(c);
+        this.encoding = encoding;
+        this.eventLoopThreads = eventLoopThreads;
+        this.socketHandler = channel -> {
+            try (final var jsonOutputWriter = createJsonWriter(channel, null)) {
+                getSignalJsonRpcDispatcherHandler(channel, jsonOutputWriter).handleConnection(c);
+            }
+        };
+        this.inputFeedFactory = (channel, jsonOutputWriter, closeConnection) -> getSignalJsonRpcDispatcherHandler(
+                channel,
+                jsonOutputWriter).startConnection(c, closeConnection);
         this.noReceiveOnStart = noReceiveOnStart;
     }
 
-    public void init() {
+    /**
+     * Forwards the requests of the connections to the worker daemons of the router.
+     */
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final ShardRouter router,
+            final MessageEncoding encoding
+    ) {
+        this(serverChannel, router, encoding, 0);
+    }
+
+    /**
+     * Forwards the requests of the connections to the worker daemons of the router.
+     *
+     * @param eventLoopThreads number of event loop threads that handle the connections, or 0 to handle each connection
+     *                         on its own thread
+     */
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final ShardRouter router,
+            final MessageEncoding encoding,
+            final int eventLoopThreads
+    ) {
+        this.serverChannel = serverChannel;
+        this.encoding = encoding;
+        this.eventLoopThreads = eventLoopThreads;
+        this.socketHandler = channel -> {
+            try (final var jsonOutputWriter = createJsonWriter(channel, null)) {
+                router.handleConnection(jsonOutputWriter, channel, MAX_MESSAGE_SIZE, encoding);
+            }
+        };
+        this.inputFeedFactory = (channel, jsonOutputWriter, closeConnection) -> router.startConnection(
+                jsonOutputWriter,
+                channel,
+                MAX_MESSAGE_SIZE,
+                encoding,
+                closeConnection);
+        this.noReceiveOnStart = false;
+    }
+
+    public void init() throws IOException {
         if (listenerThread != null) {
             throw new AssertionError("SocketHandler already initialized");
         }
@@ -62,6 +180,10 @@ public class SocketHandler implements AutoCloseable {
         final var address = socketAddress == null ? "<Unknown socket address>" : socketAddress;
         logger.debug("Starting JSON-RPC server on {}", address);
 
+        for (var i = 0; i < eventLoopThreads; i++) {
+            eventLoops.add(new SocketEventLoop("daemon-event-loop-" + i));
+        }
+
         listenerThread = Thread.ofPlatform().name("daemon-listener").start(() -> {
             try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
                 logger.info("Started JSON-RPC server on {}", address);
@@ -80,6 +202,10 @@ public class SocketHandler implements AutoCloseable {
                         logger.error("Failed to accept new socket connection", e);
                         break;
                     }
+                    if (!eventLoops.isEmpty()) {
+                        startEventLoopConnection(connectionId, channel, clientString);
+                        continue;
+                    }
                     channels.add(channel);
                     executor.submit(() -> {
                         try (final var c = channel) {
@@ -97,6 +223,37 @@ public class SocketHandler implements AutoCloseable {
         });
     }
 
+    private void startEventLoopConnection(
+            final int connectionId,
+            final SocketChannel channel,
+            final String clientString
+    ) {
+        final var eventLoop = eventLoops.get(connectionId % eventLoops.size());
+        final SocketEventLoop.Connection connection;
+        try {
+            connection = eventLoop.createConnection(channel);
+        } catch (IOException e) {
+            logger.warn("Failed to configure non-blocking connection {}: {}", connectionId, e.getMessage());
+            closeQuietly(channel);
+            return;
+        }
+        final var jsonOutputWriter = createJsonWriter(channel, connection::requestWrite);
+        final JsonRpcReader.InputFeed feed;
+        try {
+            feed = inputFeedFactory.create(channel, jsonOutputWriter, connection::disconnect);
+        } catch (IOException e) {
+            logger.warn("Failed to start connection {}: {}", connectionId, e.getMessage());
+            jsonOutputWriter.close();
+            closeQuietly(channel);
+            return;
+        }
+        channels.add(connection);
+        connection.start(feed, jsonOutputWriter, () -> {
+            logger.info("Connection {} closed: {}", connectionId, clientString);
+            channels.remove(connection);
+        });
+    }
+
     @Override
     public void close() throws Exception {
         if (listenerThread == null) {
@@ -107,14 +264,60 @@ public class SocketHandler implements AutoCloseable {
             c.close();
         }
         listenerThread.join();
+        // Connections that were accepted while closing
+        for (final var c : new ArrayList<>(channels)) {
+            c.close();
+        }
         channels.clear();
+        for (final var eventLoop : eventLoops) {
+            eventLoop.close();
+        }
+        eventLoops.clear();
         listenerThread = null;
     }
 
-    private SignalJsonRpcDispatcherHandler getSignalJsonRpcDispatcherHandler(final SocketChannel c) {
-        final var lineSupplier = IOUtils.getLineSupplier(Channels.newReader(c, StandardCharsets.UTF_8));
-        final var jsonOutputWriter = new JsonWriterImpl(Channels.newWriter(c, StandardCharsets.UTF_8));
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close channel", e);
+        }
+    }
+
+    /**
+     * @param writeRequested notifies the event loop of the connection about queued output, or null to write the output
+     *                       on a separate thread
+     */
+    private AsyncJsonWriter createJsonWriter(final SocketChannel c, final Runnable writeRequested) {
+        return switch (encoding) {
+            case JSON -> new AsyncJsonWriter(c,
+                    MAX_QUEUED_OUTPUT_SIZE,
+                    AsyncJsonWriter.OverflowPolicy.DISCONNECT,
+                    Util.createJsonObjectMapper(),
+                    AsyncJsonWriter.Framing.LINE_SEPARATED,
+                    writeRequested);
+            case CBOR -> new AsyncJsonWriter(c,
+                    MAX_QUEUED_OUTPUT_SIZE,
+                    AsyncJsonWriter.OverflowPolicy.DISCONNECT,
+                    Util.createCborObjectMapper(),
+                    AsyncJsonWriter.Framing.LENGTH_PREFIXED,
+                    writeRequested);
+        };
+    }
+
+    private SignalJsonRpcDispatcherHandler getSignalJsonRpcDispatcherHandler(
+            final SocketChannel c,
+            final JsonWriter jsonOutputWriter
+    ) {
+        return new SignalJsonRpcDispatcherHandler(jsonOutputWriter, c, MAX_MESSAGE_SIZE, encoding, noReceiveOnStart);
+    }
+
+    private interface InputFeedFactory {
 
-        return new SignalJsonRpcDispatcherHandler(jsonOutputWriter, lineSupplier, noReceiveOnStart);
+        JsonRpcReader.InputFeed create(
+                SocketChannel channel,
+                AsyncJsonWriter jsonOutputWriter,
+                Runnable closeConnection
+        ) throws IOException;
     }
 }
@@ -0,0 +1,358 @@
+package org.asamk.signal.output;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * JsonWriter that doesn't block the writing threads on a slow connection.
+ * <p>
+ * Objects are serialized on the calling thread and queued, a single writer thread writes all pending messages to the
+ * channel with one gathering write. If the client doesn't read fast enough and the queued messages exceed the
+ * configured size, the overflow policy decides whether new messages are dropped or the connection is closed.
+ * <p>
+ * By default, messages are separated by newlines, other protocols can provide their own {@link Framing}, e.g. the
+ * length prefix used for binary encodings.
+ * <p>
+ * For a non-blocking channel that is handled by an event loop, the writer doesn't start its own thread. Instead, the
+ * event loop is notified when messages are queued and writes them with {@link #writeQueued()}.
+ */
+public class AsyncJsonWriter implements JsonWriter, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncJsonWriter.class);
+
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    private static final int MAX_GATHERED_BUFFERS = 64;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final GatheringByteChannel channel;
+    private final long maxQueuedBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final Framing framing;
+    private final ObjectMapper objectMapper;
+    private final boolean writeRawJson;
+    private final Queue<ByteBuffer> queue = new ArrayDeque<>();
+    private final Thread writerThread;
+    private final Runnable writeRequested;
+    private long queuedBytes;
+    private boolean closed;
+    private IOException failure;
+
+    public AsyncJsonWriter(
+            final GatheringByteChannel channel,
+            final long maxQueuedBytes,
+            final OverflowPolicy overflowPolicy
+    ) {
+        this(channel, maxQueuedBytes, overflowPolicy, Framing.LINE_SEPARATED);
+    }
+
+    public AsyncJsonWriter(
+            final GatheringByteChannel channel,
+            final long maxQueuedBytes,
+            final OverflowPolicy overflowPolicy,
+            final Framing framing
+    ) {
+        this(channel, maxQueuedBytes, overflowPolicy, Util.createJsonObjectMapper(), framing);
+    }
+
+    /**
+     * @param objectMapper serializes the messages, for a binary data format like CBOR {@link RawJson} values must be
+     *                     transcoded by the mapper
+     */
+    public AsyncJsonWriter(
+            final GatheringByteChannel channel,
+            final long maxQueuedBytes,
+            final OverflowPolicy overflowPolicy,
+            final ObjectMapper objectMapper,
+            final Framing framing
+    ) {
+        this(channel, maxQueuedBytes, overflowPolicy, objectMapper, framing, null);
+    }
+
+    /**
+     * @param writeRequested called when messages are queued, the event loop must then call {@link #writeQueued()}
+     *                       once the channel is writable
+     */
+    public AsyncJsonWriter(
+            final GatheringByteChannel channel,
+            final long maxQueuedBytes,
+            final OverflowPolicy overflowPolicy,
+            final ObjectMapper objectMapper,
+            final Framing framing,
+            final Runnable writeRequested
+    ) {
+        this.channel = channel;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.framing = framing;
+        this.objectMapper = objectMapper;
+        this.writeRawJson = JsonFactory.FORMAT_NAME_JSON.equals(objectMapper.getFactory().getFormatName());
+        this.writeRequested = writeRequested;
+        this.writerThread = writeRequested == null
+                ? Thread.ofVirtual().name("json-writer").start(this::writeQueuedMessages)
+                : null;
+    }
+
+    @Override
+    public void write(final Object object) {
+        final byte[] bytes;
+        try {
+            if (object instanceof RawJson rawJson) {
+                // Shared by all connections, so the transcoding is cached
+                bytes = writeRawJson ? rawJson.bytes() : rawJson.transcode(objectMapper);
+            } else {
+                bytes = objectMapper.writeValueAsBytes(object);
+            }
+        } catch (JsonProcessingException e) {
+            // Some issue with json serialization, probably caused by a bug
+            throw new AssertionError(e);
+        }
+        writeFrames(framing.frame(bytes));
+    }
+
+    /**
+     * Queues already framed data, e.g. control messages of the framing protocol.
+     */
+    public void writeFrames(final ByteBuffer... buffers) {
+        long size = 0;
+        for (final var buffer : buffers) {
+            size += buffer.remaining();
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                throw new AssertionError(failure);
+            }
+            if (closed) {
+                throw new AssertionError(new ClosedChannelException());
+            }
+            if (queuedBytes > 0 && queuedBytes + size > maxQueuedBytes) {
+                switch (overflowPolicy) {
+                    case DROP -> {
+                        logger.warn("Client doesn't read fast enough, dropping JSON message");
+                        return;
+                    }
+                    case DISCONNECT -> {
+                        logger.warn("Client doesn't read fast enough, closing connection");
+                        failure = new ClosedChannelException();
+                        queue.clear();
+                        closeChannel();
+                        notifyAll();
+                        if (writeRequested != null) {
+                            // Lets the event loop notice the failure, closing the channel cancels its registration
+                            writeRequested.run();
+                        }
+                        throw new AssertionError(failure);
+                    }
+                }
+            }
+            queue.addAll(Arrays.asList(buffers));
+            queuedBytes += size;
+            notifyAll();
+        }
+        if (writeRequested != null) {
+            writeRequested.run();
+        }
+    }
+
+    /**
+     * Writes as many of the queued messages as the non-blocking channel accepts without blocking.
+     * It must only be called by the event loop of the channel.
+     *
+     * @return true if all queued messages have been written
+     * @throws IOException if writing failed or the connection has been closed because the client didn't read fast
+     *                     enough
+     */
+    public boolean writeQueued() throws IOException {
+        final ByteBuffer[] buffers;
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (queue.isEmpty()) {
+                notifyAll();
+                return true;
+            }
+            buffers = queue.stream().limit(MAX_GATHERED_BUFFERS).toArray(ByteBuffer[]::new);
+        }
+
+        final long written;
+        try {
+            written = channel.write(buffers);
+        } catch (IOException e) {
+            logger.debug("Failed to write JSON messages: {}", e.getMessage());
+            synchronized (this) {
+                failure = e;
+                queue.clear();
+                notifyAll();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            // Only the event loop removes messages, so the written buffers are still at the head of the queue
+            while (!queue.isEmpty() && !queue.peek().hasRemaining()) {
+                queue.remove();
+            }
+            queuedBytes -= written;
+            if (queue.isEmpty()) {
+                notifyAll();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void writeQueuedMessages() {
+        while (true) {
+            final ByteBuffer[] buffers;
+            long bytes = 0;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (failure != null || queue.isEmpty()) {
+                    return;
+                }
+                buffers = queue.toArray(ByteBuffer[]::new);
+                queue.clear();
+            }
+            for (final var buffer : buffers) {
+                bytes += buffer.remaining();
+            }
+
+            try {
+                long written = 0;
+                while (written < bytes) {
+                    written += channel.write(buffers);
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to write JSON messages: {}", e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    queue.clear();
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                queuedBytes -= bytes;
+                notifyAll();
+            }
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close channel: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the remaining queued messages and stops the writer thread.
+     * If the client doesn't read the remaining messages in time, they are discarded when the channel is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (writerThread == null) {
+            awaitQueuedMessagesWritten();
+            return;
+        }
+        try {
+            writerThread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitQueuedMessagesWritten() {
+        writeRequested.run();
+        awaitWritten(CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Waits until the messages queued so far have been written to the channel, or writing them failed.
+     *
+     * @return false if messages are still pending after the timeout
+     */
+    public boolean awaitWritten(final Duration timeout) {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            while (queuedBytes > 0 && failure == null) {
+                final var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(Math.max(1, remaining / 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public interface Framing {
+
+        /**
+         * Each message is followed by a line separator.
+         */
+        Framing LINE_SEPARATED = message -> new ByteBuffer[]{
+                ByteBuffer.wrap(message), ByteBuffer.wrap(LINE_SEPARATOR)
+        };
+
+        /**
+         * Each message is prefixed with its length as 4 byte big-endian unsigned integer.
+         */
+        Framing LENGTH_PREFIXED = message -> new ByteBuffer[]{
+                ByteBuffer.allocate(4).putInt(0, message.length), ByteBuffer.wrap(message)
+        };
+
+        /**
+         * Returns the data that is written to the channel for a serialized JSON message.
+         * It's called concurrently by the writing threads.
+         */
+        ByteBuffer[] frame(byte[] message);
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Drop new messages, until the client has caught up.
+         */
+        DROP,
+        /**
+         * Close the connection.
+         */
+        DISCONNECT,
+    }
+}
@@ -7,6 +7,7 @@ import org.asamk.signal.util.Util;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 public class JsonWriterImpl implements JsonWriter {
 
@@ -20,11 +21,15 @@ public class JsonWriterImpl implements JsonWriter {
 
     public synchronized void write(final Object object) {
         try {
-            try {
-                objectMapper.writeValue(writer, object);
-            } catch (JsonProcessingException e) {
-                // Some issue with json serialization, probably caused by a bug
-                throw new AssertionError(e);
+            if (object instanceof RawJson rawJson) {
+                writer.write(new String(rawJson.bytes(), StandardCharsets.UTF_8));
+            } else {
+                try {
+                    objectMapper.writeValue(writer, object);
+                } catch (JsonProcessingException e) {
+                    // Some issue with json serialization, probably caused by a bug
+                    throw new AssertionError(e);
+                }
             }
             writer.write(System.lineSeparator());
             writer.flush();
@@ -0,0 +1,53 @@
+package org.asamk.signal.output;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An already encoded JSON value, that JSON writers copy to the output without serializing it again.
+ * Writers of other data formats like CBOR transcode it only once, the result is shared with the other writers of the
+ * same format.
+ */
+public final class RawJson {
+
+    private final byte[] bytes;
+    // Only a single other data format is used by a daemon
+    private volatile Transcoded transcoded;
+
+    /**
+     * @param bytes UTF-8 encoded JSON, must not contain line breaks
+     */
+    public RawJson(final byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param objectMapper the object mapper of a data format that transcodes raw JSON values
+     * @return the value encoded in the data format of the object mapper
+     */
+    public byte[] transcode(final ObjectMapper objectMapper) throws JsonProcessingException {
+        final var formatName = objectMapper.getFactory().getFormatName();
+        final var current = transcoded;
+        if (current != null && current.formatName().equals(formatName)) {
+            return current.bytes();
+        }
+        final var encoded = objectMapper.writeValueAsBytes(this);
+        transcoded = new Transcoded(formatName, encoded);
+        return encoded;
+    }
+
+    @JsonValue
+    public RawValue toRawValue() {
+        return new RawValue(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private record Transcoded(String formatName, byte[] bytes) {}
+}
@@ -0,0 +1,9 @@
+package org.asamk.signal.output;
+
+/**
+ * A JsonWriter that can send partial results to the client, before the final result is written.
+ */
+public interface StreamingJsonWriter extends JsonWriter {
+
+    void writePartial(final String method, final Object partialResult);
+}
@@ -0,0 +1,88 @@
+package org.asamk.signal.util;
+
+import org.asamk.signal.json.JsonSendMessageResult;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.SendMessageResult;
+import org.asamk.signal.output.StreamingJsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the per-recipient results of a message send as partial results, while the message is still being sent.
+ * <p>
+ * Results that complete while a previous chunk is being written are collected and written together as the next
+ * chunk, so the number of partial results stays small for large sends without delaying any result.
+ */
+public class SendMessageResultStreamer implements Manager.SendMessageResultListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendMessageResultStreamer.class);
+
+    private static final int MAX_CHUNK_SIZE = 100;
+
+    private final StreamingJsonWriter writer;
+    private final String method;
+    private final List<JsonSendMessageResult> pending = new ArrayList<>();
+    private boolean writing;
+    private boolean failed;
+    private int resultCount;
+
+    public SendMessageResultStreamer(final StreamingJsonWriter writer, final String method) {
+        this.writer = writer;
+        this.method = method;
+    }
+
+    @Override
+    public void handleSendMessageResult(final RecipientIdentifier recipient, final SendMessageResult result) {
+        final var groupId = recipient instanceof RecipientIdentifier.Group g ? g.groupId() : null;
+        synchronized (this) {
+            resultCount++;
+            if (failed) {
+                return;
+            }
+            pending.add(JsonSendMessageResult.from(result, groupId));
+            if (writing) {
+                return;
+            }
+            writing = true;
+        }
+        writePending();
+    }
+
+    /**
+     * @return the number of results handled by this streamer
+     */
+    public synchronized int getResultCount() {
+        return resultCount;
+    }
+
+    private void writePending() {
+        while (true) {
+            final List<JsonSendMessageResult> chunk;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    writing = false;
+                    return;
+                }
+                final var chunkView = pending.subList(0, Math.min(pending.size(), MAX_CHUNK_SIZE));
+                chunk = List.copyOf(chunkView);
+                chunkView.clear();
+            }
+            try {
+                writer.writePartial(method, Map.of("results", chunk));
+            } catch (AssertionError e) {
+                logger.debug("Failed to write partial send results, stopping stream: {}", e.getMessage());
+                synchronized (this) {
+                    failed = true;
+                    pending.clear();
+                    writing = false;
+                }
+                return;
+            }
+        }
+    }
+}
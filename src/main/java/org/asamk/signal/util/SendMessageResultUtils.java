@@ -55,6 +55,22 @@ public class SendMessageResultUtils {
                 writer.write(Map.of("timestamp", sendMessageResults.timestamp(), "results", results));
             }
         }
+        checkSendMessageResults(sendMessageResults);
+    }
+
+    /**
+     * Output the summary of a send, whose per-recipient results have already been written as partial results.
+     */
+    public static void outputStreamedResult(
+            final JsonWriter writer,
+            final SendMessageResults sendMessageResults,
+            final int resultCount
+    ) throws CommandException {
+        writer.write(Map.of("timestamp", sendMessageResults.timestamp(), "resultCount", resultCount));
+        checkSendMessageResults(sendMessageResults);
+    }
+
+    private static void checkSendMessageResults(final SendMessageResults sendMessageResults) throws CommandException {
         if (!sendMessageResults.hasSuccess()) {
             if (sendMessageResults.hasOnlyUntrustedIdentity()) {
                 throw new UntrustedKeyErrorException("Failed to send message due to untrusted identities");
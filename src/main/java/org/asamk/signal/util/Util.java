@@ -2,12 +2,20 @@ package org.asamk.signal.util;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import org.asamk.signal.output.RawJson;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -73,6 +81,18 @@ public class Util {
         return objectMapper;
     }
 
+    /**
+     * Creates an object mapper for CBOR with the same configuration and data model as the JSON object mapper.
+     * Already encoded JSON is transcoded to CBOR.
+     */
+    public static ObjectMapper createCborObjectMapper() {
+        var objectMapper = new ObjectMapper(new CBORFactory());
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.PUBLIC_ONLY);
+        objectMapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        objectMapper.registerModule(new SimpleModule().addSerializer(RawJson.class, new RawJsonTranscoder()));
+        return objectMapper;
+    }
+
     public static Map<String, String> getQueryMap(String query) {
         var params = query.split("&");
         var map = new HashMap<String, String>();
@@ -84,4 +104,25 @@ public class Util {
         }
         return map;
     }
+
+    private static final class RawJsonTranscoder extends StdSerializer<RawJson> {
+
+        private static final JsonFactory jsonFactory = new JsonFactory();
+
+        private RawJsonTranscoder() {
+            super(RawJson.class);
+        }
+
+        @Override
+        public void serialize(
+                final RawJson value,
+                final JsonGenerator gen,
+                final SerializerProvider provider
+        ) throws IOException {
+            try (final var parser = jsonFactory.createParser(value.bytes())) {
+                parser.nextToken();
+                gen.copyCurrentStructure(parser);
+            }
+        }
+    }
 }
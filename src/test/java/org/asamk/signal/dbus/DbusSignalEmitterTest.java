@@ -0,0 +1,131 @@
+package org.asamk.signal.dbus;
+
+import org.asamk.Signal;
+import org.freedesktop.dbus.messages.DBusSignal;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The first signal blocks the bus until the test has queued the other signals, so they are all sent in one batch.
+ */
+class DbusSignalEmitterTest {
+
+    private static final String PATH = "/org/asamk/Signal/_491234";
+    private static final String OTHER_PATH = "/org/asamk/Signal/_495678";
+
+    private final List<DBusSignal> sent = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final DbusSignalEmitter emitter = new DbusSignalEmitter(signal -> {
+        if (sent.isEmpty()) {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        sent.add(signal);
+    }, DbusReceiptSignals.BATCHED);
+
+    @Test
+    void combinesQueuedReceiptsInOrder() throws InterruptedException {
+        blockBus();
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(1L, 2L));
+        emitter.emitReceipt(PATH, "+492", "DELIVERY", List.of(3L));
+        sendQueued();
+
+        final var receipts = receipts();
+        assertEquals(1, receipts.size());
+        assertEquals(List.of("+491", "+491", "+492"), receipts.getFirst().getSenders());
+        assertEquals(List.of(1L, 2L, 3L), receipts.getFirst().getTimestamps());
+    }
+
+    @Test
+    void splitsBatchesByPathAndType() throws InterruptedException {
+        blockBus();
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(1L));
+        emitter.emitReceipt(PATH, "+491", "READ", List.of(2L));
+        emitter.emitReceipt(OTHER_PATH, "+491", "READ", List.of(3L));
+        emitter.emitReceipt(OTHER_PATH, "+492", "READ", List.of(4L));
+        sendQueued();
+
+        final var receipts = receipts();
+        assertEquals(3, receipts.size());
+        assertEquals(PATH, receipts.get(0).getPath());
+        assertEquals("DELIVERY", receipts.get(0).getReceiptType());
+        assertEquals("READ", receipts.get(1).getReceiptType());
+        assertEquals(OTHER_PATH, receipts.get(2).getPath());
+        assertEquals(List.of(3L, 4L), receipts.get(2).getTimestamps());
+    }
+
+    @Test
+    void otherSignalsEndTheBatch() throws InterruptedException {
+        blockBus();
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(1L));
+        emitter.emit(() -> new Signal.ReceiptReceived(PATH, 2L, "+492"));
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(3L));
+        sendQueued();
+
+        assertEquals(4, sent.size());
+        assertEquals(List.of(1L), assertInstanceOf(Signal.ReceiptsReceived.class, sent.get(1)).getTimestamps());
+        assertEquals(2L, assertInstanceOf(Signal.ReceiptReceived.class, sent.get(2)).getTimestamp());
+        assertEquals(List.of(3L), assertInstanceOf(Signal.ReceiptsReceived.class, sent.get(3)).getTimestamps());
+    }
+
+    @Test
+    void limitsTheReceiptsOfOneBatch() throws InterruptedException {
+        blockBus();
+        for (var i = 0; i < 3; i++) {
+            emitter.emitReceipt(PATH, "+491", "READ", LongStream.range(i * 400L, (i + 1) * 400L).boxed().toList());
+        }
+        sendQueued();
+
+        final var receipts = receipts();
+        // A receipt's timestamps aren't split, the third one doesn't fit into the first batch anymore
+        assertEquals(2, receipts.size());
+        assertEquals(800, receipts.get(0).getTimestamps().size());
+        assertEquals(400, receipts.get(1).getTimestamps().size());
+        assertEquals(800L, receipts.get(1).getTimestamps().getFirst());
+    }
+
+    @Test
+    void closeSendsTheQueuedSignalsAndStopsEmitting() throws InterruptedException {
+        blockBus();
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(1L));
+        sendQueued();
+        emitter.emitReceipt(PATH, "+491", "DELIVERY", List.of(2L));
+
+        assertEquals(1, receipts().size());
+        assertEquals(2, sent.size());
+    }
+
+    private void blockBus() throws InterruptedException {
+        emitter.emit(() -> new Signal.ReceiptReceived(PATH, 0L, "blocker"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    }
+
+    private void sendQueued() {
+        release.countDown();
+        emitter.close();
+    }
+
+    private List<Signal.ReceiptsReceived> receipts() {
+        synchronized (sent) {
+            return sent.stream()
+                    .filter(Signal.ReceiptsReceived.class::isInstance)
+                    .map(Signal.ReceiptsReceived.class::cast)
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.asamk.signal.http;
+
+import org.asamk.signal.testutil.ManagerMock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SseEventStreamTest {
+
+    private final ManagerMock.State state = new ManagerMock.State();
+    private HttpServerHandler handler;
+    private int port;
+
+    private static int freePort() throws Exception {
+        try (var ss = new ServerSocket(0)) {
+            ss.setReuseAddress(true);
+            return ss.getLocalPort();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        port = freePort();
+        final var manager = ManagerMock.create("+10000000000", state);
+        handler = new HttpServerHandler(new InetSocketAddress("127.0.0.1", port), manager, Duration.ofMillis(100));
+        handler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    private HttpURLConnection connect(final String lastEventId) throws Exception {
+        final var url = new URI("http", null, "127.0.0.1", port, "/api/v1/events", null, null).toURL();
+        final var conn = (HttpURLConnection) url.openConnection();
+        conn.setReadTimeout(5_000);
+        conn.setConnectTimeout(2_000);
+        if (lastEventId != null) {
+            conn.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        assertEquals(200, conn.getResponseCode());
+        return conn;
+    }
+
+    private static BufferedReader reader(final HttpURLConnection conn) throws IOException {
+        return new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the fields of the next event, skipping keep-alive comments.
+     */
+    private static Map<String, String> readEvent(final BufferedReader reader) throws IOException {
+        final var fields = new HashMap<String, String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (!fields.isEmpty()) {
+                    return fields;
+                }
+                continue;
+            }
+            if (line.startsWith(":")) {
+                continue;
+            }
+            final var separator = line.indexOf(':');
+            fields.put(line.substring(0, separator), line.substring(separator + 1));
+        }
+        throw new IOException("Event stream ended");
+    }
+
+    private void awaitSubscriptions(final int count) throws InterruptedException {
+        final var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (state.addReceiveHandlerCount.get() < count) {
+            assertTrue(System.nanoTime() < deadline, "Stream wasn't subscribed");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void sendsKeepAlives() throws Exception {
+        final var conn = connect(null);
+        try (final var reader = reader(conn)) {
+            assertEquals(":", reader.readLine());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    @Test
+    void resumesAfterLastEventId() throws Exception {
+        final var first = connect(null);
+        final Map<String, String> firstEvent;
+        try (final var reader = reader(first)) {
+            awaitSubscriptions(1);
+            state.receiveHandlers.getFirst().handleMessage(null, new IOException("first"));
+            firstEvent = readEvent(reader);
+        } finally {
+            first.disconnect();
+        }
+        assertEquals("receive", firstEvent.get("event"));
+        assertNotNull(firstEvent.get("id"));
+
+        // Received by the account while the client is disconnected
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("second"));
+
+        final var second = connect(firstEvent.get("id"));
+        try (final var reader = reader(second)) {
+            final var replayedEvent = readEvent(reader);
+            assertEquals("receive", replayedEvent.get("event"));
+            assertTrue(replayedEvent.get("data").contains("second"));
+        } finally {
+            second.disconnect();
+        }
+    }
+
+    @Test
+    void reportsUnknownLastEventId() throws Exception {
+        final var conn = connect("unknown:1");
+        try (final var reader = reader(conn)) {
+            final var event = readEvent(reader);
+            assertEquals("missedEvents", event.get("event"));
+            assertTrue(event.get("data").contains("unknown:1"));
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
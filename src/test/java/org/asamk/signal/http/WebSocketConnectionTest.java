@@ -0,0 +1,212 @@
+package org.asamk.signal.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebSocketConnectionTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Test
+    void readsFragmentedMessagesAndAnswersPing() throws Exception {
+        final var input = new ByteArrayOutputStream();
+        input.write(clientFrame(0x01, false, false, "{\"id\":".getBytes(StandardCharsets.UTF_8)));
+        input.write(clientFrame(0x09, true, false, "p".getBytes(StandardCharsets.UTF_8)));
+        input.write(clientFrame(0x00, true, false, "1}".getBytes(StandardCharsets.UTF_8)));
+        input.write(clientFrame(0x08, true, false, new byte[]{0x03, (byte) 0xe8}));
+
+        final var pipe = Pipe.open();
+        final var connection = new WebSocketConnection(new ByteArrayInputStream(input.toByteArray()),
+                pipe.sink(),
+                false,
+                MAX_SIZE,
+                MAX_SIZE);
+        final var payload = readAll(connection);
+        connection.getWriter().close();
+        pipe.sink().close();
+
+        assertEquals("{\"id\":1}", payload);
+        final var output = Channels.newInputStream(pipe.source()).readAllBytes();
+        // pong with the ping payload, then the close frame
+        assertEquals(0x8A, output[0] & 0xff);
+        assertEquals('p', output[2]);
+        assertEquals(0x88, output[3] & 0xff);
+    }
+
+    @Test
+    void readsAndWritesCompressedMessages() throws Exception {
+        final var message = "{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"params\":{\"message\":\"" + "x".repeat(1000) + "\"}}";
+        final var input = clientFrame(0x01, true, true, deflate(message.getBytes(StandardCharsets.UTF_8)));
+
+        final var pipe = Pipe.open();
+        final var connection = new WebSocketConnection(new ByteArrayInputStream(input),
+                pipe.sink(),
+                true,
+                MAX_SIZE,
+                MAX_SIZE);
+        assertEquals(message, readAll(connection));
+
+        connection.getWriter().write(Map.of("message", "y".repeat(1000)));
+        connection.getWriter().close();
+        pipe.sink().close();
+
+        final var output = Channels.newInputStream(pipe.source()).readAllBytes();
+        assertEquals(0xC1, output[0] & 0xff);
+        // compressed to less than 126 bytes, so the length fits into the second header byte
+        final var length = output[1] & 0x7f;
+        assertTrue(length < 126);
+        assertEquals(2 + length, output.length);
+        final var inflater = new Inflater(true);
+        inflater.setInput(concat(Arrays.copyOfRange(output, 2, output.length), new byte[]{0, 0, (byte) 0xff, (byte) 0xff}));
+        final var inflated = new byte[2000];
+        final var n = inflater.inflate(inflated);
+        assertEquals("{\"message\":\"" + "y".repeat(1000) + "\"}", new String(inflated, 0, n, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void closesConnectionAfterMissedPong() throws Exception {
+        final var pipe = Pipe.open();
+        final var connection = new WebSocketConnection(new ByteArrayInputStream(new byte[0]),
+                pipe.sink(),
+                false,
+                MAX_SIZE,
+                MAX_SIZE);
+        connection.ping();
+        connection.ping();
+
+        final var output = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> Channels.newInputStream(pipe.source()).readAllBytes());
+        connection.getWriter().close();
+
+        // the ping, then the close frame with going away, then the channel has been closed
+        assertEquals(0x89, output[0] & 0xff);
+        assertEquals(0x88, output[2] & 0xff);
+        assertEquals(WebSocketConnection.CLOSE_GOING_AWAY, ((output[4] & 0xff) << 8) | (output[5] & 0xff));
+        assertFalse(pipe.sink().isOpen());
+    }
+
+    @Test
+    void keepsConnectionThatAnswersPings() throws Exception {
+        final var input = clientFrame(0x0A, true, false, new byte[0]);
+
+        final var pipe = Pipe.open();
+        final var connection = new WebSocketConnection(new ByteArrayInputStream(input),
+                pipe.sink(),
+                false,
+                MAX_SIZE,
+                MAX_SIZE);
+        connection.ping();
+        readAll(connection);
+        connection.ping();
+        connection.getWriter().close();
+        assertTrue(pipe.sink().isOpen());
+        pipe.sink().close();
+
+        final var output = Channels.newInputStream(pipe.source()).readAllBytes();
+        assertArrayEquals(new byte[]{(byte) 0x89, 0, (byte) 0x89, 0}, output);
+    }
+
+    @Test
+    void disconnectWritesPendingOutputBeforeClosingTheChannel() throws Exception {
+        final var pipe = Pipe.open();
+        final var connection = new WebSocketConnection(new ByteArrayInputStream(new byte[0]),
+                pipe.sink(),
+                false,
+                MAX_SIZE,
+                MAX_SIZE);
+        connection.getWriter().write(Map.of("id", 1));
+        connection.disconnect(WebSocketConnection.CLOSE_NORMAL, "");
+
+        assertFalse(pipe.sink().isOpen());
+        final var output = Channels.newInputStream(pipe.source()).readAllBytes();
+        connection.getWriter().close();
+        assertEquals(0x81, output[0] & 0xff);
+        assertEquals("{\"id\":1}", new String(output, 2, output[1], StandardCharsets.UTF_8));
+        assertEquals(0x88, output[2 + output[1]] & 0xff);
+    }
+
+    @Test
+    void negotiatesDeflate() {
+        assertTrue(WebSocketHandler.acceptsDeflate("permessage-deflate; client_max_window_bits"));
+        assertTrue(WebSocketHandler.acceptsDeflate("permessage-deflate; server_max_window_bits=10, permessage-deflate"));
+        assertFalse(WebSocketHandler.acceptsDeflate("permessage-deflate; server_max_window_bits=10"));
+        assertFalse(WebSocketHandler.acceptsDeflate("x-webkit-deflate-frame"));
+    }
+
+    @Test
+    void checksOriginOnWildcardAddress() {
+        final var hostValidator = new HostValidator(new InetSocketAddress("0.0.0.0", 8080));
+
+        assertTrue(WebSocketHandler.isOriginAllowed(null, "192.168.1.2:8080", hostValidator));
+        assertTrue(WebSocketHandler.isOriginAllowed("http://192.168.1.2:8080", "192.168.1.2:8080", hostValidator));
+        assertTrue(WebSocketHandler.isOriginAllowed("http://localhost:3000", "192.168.1.2:8080", hostValidator));
+        assertFalse(WebSocketHandler.isOriginAllowed("https://example.com", "192.168.1.2:8080", hostValidator));
+        assertFalse(WebSocketHandler.isOriginAllowed("null", "192.168.1.2:8080", hostValidator));
+    }
+
+    @Test
+    void computesAcceptKey() {
+        assertEquals("s3pPLMBiTxaQ9kK1BSOcbbHhbAY=", WebSocketHandler.getAcceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    private static String readAll(final WebSocketConnection connection) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var buffer = ByteBuffer.allocate(16);
+        while (connection.read(buffer.clear()) >= 0) {
+            output.write(buffer.array(), 0, buffer.position());
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] clientFrame(final int opcode, final boolean fin, final boolean rsv1, final byte[] payload) {
+        final var mask = new byte[]{1, 2, 3, 4};
+        final var frame = new ByteArrayOutputStream();
+        frame.write((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length & 0xff);
+        }
+        frame.writeBytes(mask);
+        for (var i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i % 4]);
+        }
+        return frame.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        final var buffer = new byte[data.length + 64];
+        final var n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        deflater.end();
+        return Arrays.copyOf(buffer, n - 4);
+    }
+
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        final var result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.testutil.ManagerMock;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonReceiveEventBusTest {
+
+    @Test
+    void sharesEventBetweenSubscribers() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var eventBus = JsonReceiveEventBus.get(manager);
+        final var events = new ArrayList<JsonReceiveEvent>();
+        final Consumer<JsonReceiveEvent> first = events::add;
+        final Consumer<JsonReceiveEvent> second = events::add;
+        eventBus.subscribe(first);
+        eventBus.subscribe(second);
+
+        assertEquals(1, state.addReceiveHandlerCount.get());
+
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+
+        assertEquals(2, events.size());
+        assertSame(events.get(0), events.get(1));
+        assertSame(events.get(0).getBytes(), events.get(1).getBytes());
+        assertEquals("+10000000000", events.getFirst().getObject().get("account"));
+    }
+
+    @Test
+    void removesReceiveHandlerWhenLastSubscriberLeaves() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var gracePeriodTasks = new ArrayList<Runnable>();
+        final var eventBus = new JsonReceiveEventBus(manager, gracePeriodTasks::add);
+        final Consumer<JsonReceiveEvent> first = _ -> {};
+        final Consumer<JsonReceiveEvent> second = _ -> {};
+        eventBus.subscribe(first);
+        eventBus.subscribe(second);
+
+        eventBus.unsubscribe(first);
+        assertEquals(0, state.removeReceiveHandlerCount.get());
+        eventBus.unsubscribe(second);
+        assertEquals(1, state.removeReceiveHandlerCount.get());
+        assertEquals(List.of(), state.receiveHandlers);
+
+        gracePeriodTasks.forEach(Runnable::run);
+        assertEquals(1, state.removeReceiveHandlerCount.get());
+    }
+
+    @Test
+    void keepsBufferedEventsDuringGracePeriod() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var gracePeriodTasks = new ArrayList<Runnable>();
+        final var eventBus = new JsonReceiveEventBus(manager, gracePeriodTasks::add);
+        final var received = new ArrayList<JsonReceiveEvent>();
+        final Consumer<JsonReceiveEvent> first = received::add;
+        eventBus.subscribe(first);
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+        eventBus.unsubscribe(first);
+
+        final var replayed = new ArrayList<JsonReceiveEvent>();
+        final var missedEvents = new AtomicBoolean();
+        eventBus.subscribe(replayed::add, null, received.getFirst().getId(), () -> missedEvents.set(true));
+        gracePeriodTasks.forEach(Runnable::run);
+
+        assertFalse(missedEvents.get());
+        assertEquals(received.subList(1, 2), replayed);
+        assertEquals(2, state.addReceiveHandlerCount.get());
+    }
+
+    @Test
+    void doesntDropMessagesWhenGracePeriodExpires() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var gracePeriodTasks = new ArrayList<Runnable>();
+        final var eventBus = new JsonReceiveEventBus(manager, gracePeriodTasks::add);
+        final var received = new ArrayList<JsonReceiveEvent>();
+        final Consumer<JsonReceiveEvent> first = received::add;
+        eventBus.subscribe(first);
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+        eventBus.unsubscribe(first);
+
+        // Without a receive handler the manager doesn't receive, so no message is acknowledged until a resubscribe
+        assertEquals(List.of(), state.receiveHandlers);
+        gracePeriodTasks.forEach(Runnable::run);
+
+        final var resumed = new ArrayList<JsonReceiveEvent>();
+        eventBus.subscribe(resumed::add, null, received.getFirst().getId(), null);
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+
+        assertEquals(1, resumed.size());
+        assertEquals(received.getFirst().getSequence() + 1, resumed.getFirst().getSequence());
+    }
+
+    @Test
+    void replaysEventsAfterLastEventId() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var eventBus = JsonReceiveEventBus.get(manager);
+        final var received = new ArrayList<JsonReceiveEvent>();
+        final Consumer<JsonReceiveEvent> first = received::add;
+        eventBus.subscribe(first);
+        for (var i = 0; i < 3; i++) {
+            state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+        }
+
+        final var replayed = new ArrayList<JsonReceiveEvent>();
+        final var missedEvents = new AtomicBoolean();
+        eventBus.subscribe(replayed::add, null, received.getFirst().getId(), () -> missedEvents.set(true));
+
+        assertFalse(missedEvents.get());
+        assertEquals(received.subList(1, 3), replayed);
+    }
+
+    @Test
+    void reportsUnknownLastEventId() {
+        final var state = new ManagerMock.State();
+        final var manager = ManagerMock.create("+10000000000", state);
+        final var eventBus = JsonReceiveEventBus.get(manager);
+        final var received = new ArrayList<JsonReceiveEvent>();
+        eventBus.subscribe(received::add);
+        state.receiveHandlers.getFirst().handleMessage(null, new IOException("failed"));
+
+        final var replayed = new ArrayList<JsonReceiveEvent>();
+        final var missedEvents = new AtomicBoolean();
+        eventBus.subscribe(replayed::add, null, "0-1", () -> missedEvents.set(true));
+
+        assertTrue(missedEvents.get());
+        assertEquals(received, replayed);
+    }
+}
@@ -0,0 +1,64 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.RecipientAddress;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReceiveFilterTest {
+
+    private static final GroupId GROUP_ID = GroupId.v2(new byte[32]);
+
+    private static MessageEnvelope createTypingEnvelope(final String sender, final GroupId groupId) {
+        return new MessageEnvelope(Optional.of(new RecipientAddress(sender)),
+                1,
+                1000,
+                1000,
+                1000,
+                false,
+                Optional.empty(),
+                Optional.of(new MessageEnvelope.Typing(1000,
+                        MessageEnvelope.Typing.Type.STARTED,
+                        Optional.ofNullable(groupId))),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+    }
+
+    @Test
+    void matchesAllCriteria() throws UserErrorException {
+        final var filter = ReceiveFilter.from(List.of("typing"),
+                List.of(GROUP_ID.toBase64()),
+                List.of("+10000000000"),
+                null);
+
+        assertTrue(filter.matches(createTypingEnvelope("+10000000000", GROUP_ID)));
+        assertFalse(filter.matches(createTypingEnvelope("+10000000000", null)));
+        assertFalse(filter.matches(createTypingEnvelope("+10000000001", GROUP_ID)));
+        assertTrue(filter.matches(null));
+    }
+
+    @Test
+    void filtersByType() throws UserErrorException {
+        final var envelope = createTypingEnvelope("+10000000000", null);
+
+        assertFalse(ReceiveFilter.from(List.of("data", "receipt"), null, null, null).matches(envelope));
+        assertFalse(ReceiveFilter.from(null, null, null, true).matches(envelope));
+        assertTrue(ReceiveFilter.from(null, null, null, null).isEmpty());
+    }
+
+    @Test
+    void rejectsUnknownType() {
+        assertThrows(UserErrorException.class, () -> ReceiveFilter.from(List.of("unknown"), null, null, null));
+    }
+}
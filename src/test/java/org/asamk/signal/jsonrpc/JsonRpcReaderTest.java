@@ -0,0 +1,204 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.asamk.signal.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonRpcReaderTest {
+
+    private static List<JsonRpcResponse> readMessages(final String input, final long maxMessageSize) {
+        final var responses = Collections.synchronizedList(new ArrayList<JsonRpcResponse>());
+        final var channel = Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        final var reader = new JsonRpcReader(new JsonRpcSender(o -> responses.add((JsonRpcResponse) o)),
+                channel,
+                maxMessageSize);
+        reader.readMessages((method, _, _) -> TextNode.valueOf(method), _ -> {});
+        return responses;
+    }
+
+    private static List<JsonRpcResponse> readCborMessages(final byte[] input, final long maxMessageSize) {
+        final var responses = Collections.synchronizedList(new ArrayList<JsonRpcResponse>());
+        final var channel = Channels.newChannel(new ByteArrayInputStream(input));
+        final var reader = new JsonRpcReader(new JsonRpcSender(o -> responses.add((JsonRpcResponse) o)),
+                channel,
+                maxMessageSize,
+                MessageEncoding.CBOR);
+        reader.readMessages((method, _, _) -> TextNode.valueOf(method), _ -> {});
+        return responses;
+    }
+
+    /**
+     * Feeds the input in chunks through one reused buffer, like the event loop.
+     */
+    private static List<JsonRpcResponse> feedMessages(
+            final byte[] input,
+            final int chunkSize,
+            final MessageEncoding encoding
+    ) throws IOException {
+        final var responses = Collections.synchronizedList(new ArrayList<JsonRpcResponse>());
+        final var reader = new JsonRpcReader(new JsonRpcSender(o -> responses.add((JsonRpcResponse) o)),
+                Channels.newChannel(InputStream.nullInputStream()),
+                1024 * 1024,
+                encoding);
+        final var buffer = ByteBuffer.allocateDirect(chunkSize);
+        try (final var feed = reader.createInputFeed((method, _, _) -> TextNode.valueOf(method), _ -> {}, () -> {})) {
+            for (var offset = 0; offset < input.length; offset += chunkSize) {
+                buffer.clear();
+                buffer.put(input, offset, Math.min(chunkSize, input.length - offset));
+                buffer.flip();
+                assertTrue(feed.feed(buffer));
+                assertFalse(buffer.hasRemaining());
+            }
+            feed.endOfInput();
+        }
+        return responses;
+    }
+
+    private static byte[] frame(final Object message) throws Exception {
+        final var bytes = Util.createCborObjectMapper().writeValueAsBytes(message);
+        return ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array();
+    }
+
+    private static List<String> getResults(final List<JsonRpcResponse> responses) {
+        return responses.stream()
+                .filter(r -> r.getResult() != null)
+                .map(r -> r.getResult().asText())
+                .sorted()
+                .toList();
+    }
+
+    @Test
+    void readsMessagesWithoutLineSeparators() {
+        final var responses = readMessages("""
+                {"jsonrpc":"2.0","method":"a","id":1}{"jsonrpc":"2.0","method":"b","id":2}
+                {"jsonrpc":"2.0","method":"c","params":{"list":[1,2,{"x":null}]},"id":3}""", 1024);
+
+        assertEquals(List.of("a", "b", "c"), getResults(responses));
+    }
+
+    @Test
+    void feedsMessagesSplitAcrossReads() throws IOException {
+        // The multi-byte characters are split between the chunks as well
+        final var input = """
+                {"jsonrpc":"2.0","method":"ä€","id":1}
+                {"jsonrpc":"2.0","method":"b","params":{"list":[1,2]},"id":2}""".getBytes(StandardCharsets.UTF_8);
+
+        for (final var chunkSize : List.of(1, 2, 7, input.length)) {
+            assertEquals(List.of("b", "ä€"), getResults(feedMessages(input, chunkSize, MessageEncoding.JSON)));
+        }
+    }
+
+    @Test
+    void feedsLengthPrefixedMessagesSplitAcrossReads() throws Exception {
+        final var first = frame(Map.of("jsonrpc", "2.0", "method", "a", "id", 1));
+        final var second = frame(Map.of("jsonrpc", "2.0", "method", "b", "id", 2));
+        final var input = ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+
+        // Chunks of 3 bytes also split the length headers
+        for (final var chunkSize : List.of(1, 3, first.length + 1)) {
+            assertEquals(List.of("a", "b"), getResults(feedMessages(input, chunkSize, MessageEncoding.CBOR)));
+        }
+    }
+
+    @Test
+    void rejectsMessagesExceedingMaxSize() {
+        final var responses = readMessages("""
+                {"jsonrpc":"2.0","method":"large","params":{"message":"%s"},"id":1}
+                {"jsonrpc":"2.0","method":"small","id":2}""".formatted("x".repeat(200)), 100);
+
+        assertEquals(List.of("small"), getResults(responses));
+        assertTrue(responses.stream()
+                .anyMatch(r -> r.getError() != null
+                        && r.getError().getCode() == JsonRpcResponse.Error.INVALID_REQUEST));
+    }
+
+    @Test
+    void closesConnectionForTokensExceedingMaxSize() {
+        final var responses = readMessages("""
+                {"jsonrpc":"2.0","method":"large","params":{"message":"%s"},"id":1}
+                {"jsonrpc":"2.0","method":"small","id":2}""".formatted("x".repeat(1024 * 1024)), 100);
+
+        assertEquals(List.of(), getResults(responses));
+        assertEquals(1,
+                responses.stream()
+                        .filter(r -> r.getError() != null
+                                && r.getError().getCode() == JsonRpcResponse.Error.INVALID_REQUEST)
+                        .count());
+    }
+
+    @Test
+    void readsLengthPrefixedMessagesLargerThanTheInitialBuffer() throws Exception {
+        final var large = frame(Map.of("jsonrpc",
+                "2.0",
+                "method",
+                "large",
+                "params",
+                Map.of("message", "x".repeat(200_000)),
+                "id",
+                1));
+        final var small = frame(Map.of("jsonrpc", "2.0", "method", "small", "id", 2));
+        final var input = ByteBuffer.allocate(large.length + small.length).put(large).put(small).array();
+
+        assertEquals(List.of("large", "small"), getResults(readCborMessages(input, 1024 * 1024)));
+    }
+
+    @Test
+    void skipsLengthPrefixedMessagesExceedingMaxSize() throws Exception {
+        final var input = ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE).putInt(0).array();
+
+        final var responses = readCborMessages(input, 1024);
+
+        assertTrue(responses.stream()
+                .anyMatch(r -> r.getError() != null
+                        && r.getError().getCode() == JsonRpcResponse.Error.INVALID_REQUEST));
+    }
+
+    @Test
+    void invalidJsonIsSkippedUntilTheNextLine() {
+        final var responses = readMessages("""
+                {"jsonrpc":"2.0","method":"a","id":1}
+                {"jsonrpc":"2.0",,} {"jsonrpc":"2.0","method":"skipped","id":2}
+                {"jsonrpc":"2.0","method":"b","id":3}""", 1024);
+
+        assertEquals(List.of("a", "b"), getResults(responses));
+        assertEquals(1, countParseErrors(responses));
+    }
+
+    @Test
+    void feedsValidRequestAfterInvalidLine() throws IOException {
+        final var input = """
+                {"jsonrpc":"2.0","method":"a","id":1]
+                {"jsonrpc":"2.0","method":"b","id":2}
+                {"jsonrpc":"2.0","method":"c","params":"unterminated
+                {"jsonrpc":"2.0","method":"d","id":4}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        for (final var chunkSize : List.of(1, 5, input.length)) {
+            final var responses = feedMessages(input, chunkSize, MessageEncoding.JSON);
+            assertEquals(List.of("b", "d"), getResults(responses));
+            assertEquals(2, countParseErrors(responses));
+        }
+    }
+
+    private static long countParseErrors(final List<JsonRpcResponse> responses) {
+        return responses.stream()
+                .filter(r -> r.getError() != null && r.getError().getCode() == JsonRpcResponse.Error.PARSE_ERROR)
+                .count();
+    }
+}
@@ -0,0 +1,70 @@
+package org.asamk.signal.jsonrpc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestLimiterTest {
+
+    @Test
+    void rejectsRequestsWhenQueueIsFull() throws Exception {
+        final var limiter = new RequestLimiter(1, 1);
+        limiter.acquire();
+
+        final var waiting = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire();
+                limiter.release();
+            } catch (JsonRpcException e) {
+                throw new AssertionError(e);
+            }
+        });
+        while (waiting.getState() != Thread.State.WAITING) {
+            Thread.onSpinWait();
+        }
+
+        final var e = assertThrows(JsonRpcException.class, limiter::acquire);
+        assertEquals(JsonRpcResponse.Error.SERVER_BUSY, e.getError().getCode());
+
+        limiter.release();
+        waiting.join();
+        limiter.acquire();
+    }
+
+    @Test
+    void readsAreLimitedInTheReadLane() throws Exception {
+        final var lanes = new RequestLimiter.Lanes(new RequestLimiter(1, 0), new RequestLimiter(1, 0));
+        final var reads = lanes.forMethod("listAccounts");
+        assertSame(reads, lanes.forMethod("version"));
+        reads.acquire();
+
+        final var e = assertThrows(JsonRpcException.class, () -> lanes.forMethod("subscribeReceive").acquire());
+        assertEquals(JsonRpcResponse.Error.SERVER_BUSY, e.getError().getCode());
+
+        // The busy read lane doesn't block other requests
+        lanes.forMethod("send").acquire();
+        reads.release();
+        reads.acquire();
+    }
+
+    @Test
+    void connectionsHaveAReadLane() {
+        final var lanes = RequestLimiter.forConnection();
+        assertNotSame(lanes.requests(), lanes.forMethod("version"));
+        assertSame(lanes.reads(), lanes.forMethod("version"));
+        assertSame(lanes.requests(), lanes.forMethod("send"));
+    }
+
+    @Test
+    void readMethodsUseSeparateLane() {
+        assertTrue(RequestLimiter.isReadMethod("listGroups"));
+        assertTrue(RequestLimiter.isReadMethod("version"));
+        assertFalse(RequestLimiter.isReadMethod("send"));
+        assertFalse(RequestLimiter.isReadMethod("sendBulk"));
+    }
+}
@@ -0,0 +1,315 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRouterTest {
+
+    @TempDir
+    Path socketDir;
+
+    private final List<FakeWorker> workers = new ArrayList<>();
+
+    @AfterEach
+    void closeWorkers() {
+        workers.forEach(FakeWorker::close);
+    }
+
+    @Test
+    void routesRequestsToTheWorkerOfTheAccount() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0, "+492", 1), false)) {
+            assertEquals("worker1", router.handleRequest("send", accountParams("+492")).asText());
+            assertEquals("worker0", router.handleRequest("send", accountParams("+491")).asText());
+
+            final var e = assertThrows(JsonRpcException.class,
+                    () -> router.handleRequest("send", accountParams("+493")));
+            assertEquals(JsonRpcResponse.Error.INVALID_PARAMS, e.getError().getCode());
+            assertEquals("send", workers.get(1).nextRequest().method());
+            assertTrue(workers.get(1).requests.isEmpty());
+        }
+    }
+
+    @Test
+    void listsTheAccountsOfAllWorkers() throws Exception {
+        try (final var router = createRouter(3, Map.of(), false)) {
+            final var accounts = router.handleRequest("listAccounts", null);
+
+            assertEquals(3, accounts.size());
+            assertEquals("worker2", accounts.get(2).get("number").asText());
+        }
+    }
+
+    @Test
+    void addsRegisteredAccountsOnceTheyAreVerified() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0), false)) {
+            router.handleRequest("register", accountParams("+493"));
+            final var e = assertThrows(JsonRpcException.class,
+                    () -> router.handleRequest("send", accountParams("+493")));
+            assertEquals(JsonRpcResponse.Error.INVALID_PARAMS, e.getError().getCode());
+
+            // The registration is verified on the worker with the fewest accounts, that started it
+            router.handleRequest("verify", accountParams("+493"));
+            assertEquals("worker1", router.handleRequest("send", accountParams("+493")).asText());
+            assertEquals(List.of("register", "verify", "send"), workers.get(1).takeMethods());
+
+            // The worker with the new account isn't the least loaded one anymore
+            router.handleRequest("register", accountParams("+494"));
+            assertEquals(List.of("register"), workers.get(0).takeMethods());
+        }
+    }
+
+    @Test
+    void routesVerifiedAccountsByTheirAci() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0), false)) {
+            router.handleRequest("register", accountParams("+493"));
+            router.handleRequest("verify", accountParams("+493"));
+
+            assertEquals("worker1", router.handleRequest("send", accountParams(FakeWorker.ACI)).asText());
+            assertEquals(List.of("register", "verify", "send"), workers.get(1).takeMethods());
+        }
+    }
+
+    @Test
+    void failedRegistrationsAreNotAdded() throws Exception {
+        try (final var router = createRouter(2, Map.of(), false)) {
+            final var params = accountParams("+493").put("fail", true);
+            assertThrows(JsonRpcException.class, () -> router.handleRequest("verify", params));
+
+            final var e = assertThrows(JsonRpcException.class,
+                    () -> router.handleRequest("send", accountParams("+493")));
+            assertEquals(JsonRpcResponse.Error.INVALID_PARAMS, e.getError().getCode());
+        }
+    }
+
+    @Test
+    void sharedConnectionStopsTheNotificationsOnStart() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0), true)) {
+            router.handleRequest("send", accountParams("+491"));
+
+            for (final var worker : workers) {
+                final var request = worker.nextRequest();
+                assertEquals("unsubscribeReceive", request.method());
+                assertNull(request.params());
+            }
+        }
+    }
+
+    @Test
+    void forwardsNotificationsWithTheSubscriptionIdOfTheRouter() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0, "+492", 1), false)) {
+            final var client = new Client(router);
+            client.send("{\"jsonrpc\":\"2.0\",\"method\":\"subscribeReceive\",\"id\":1}");
+            final var response = assertInstanceOf(JsonRpcResponse.class, client.nextMessage());
+            final var subscriptionId = response.getResult().asInt();
+
+            workers.get(1).sendNotification("receive", JsonNodeFactory.instance.objectNode()
+                    .put("subscription", FakeWorker.SUBSCRIPTION_ID)
+                    .put("result", "message"));
+
+            final var notification = assertInstanceOf(JsonRpcRequest.class, client.nextMessage());
+            assertEquals("receive", notification.getMethod());
+            final var params = (ObjectNode) notification.getParams();
+            assertEquals(subscriptionId, params.get("subscription").asInt());
+            assertEquals("message", params.get("result").asText());
+            client.close();
+        }
+    }
+
+    @Test
+    void closesTheClientConnectionWhenAWorkerFails() throws Exception {
+        try (final var router = createRouter(2, Map.of("+491", 0, "+492", 1), false)) {
+            final var client = new Client(router);
+            client.send("{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"params\":{\"account\":\"+492\"},\"id\":1}");
+            assertInstanceOf(JsonRpcResponse.class, client.nextMessage());
+
+            workers.get(1).close();
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> client.thread.join());
+            final var e = assertThrows(JsonRpcException.class,
+                    () -> router.handleRequest("send", accountParams("+492")));
+            assertEquals(JsonRpcResponse.Error.INTERNAL_ERROR, e.getError().getCode());
+        }
+    }
+
+    private ShardRouter createRouter(
+            final int workerCount,
+            final Map<String, Integer> accountShards,
+            final boolean receiveOnStart
+    ) throws IOException {
+        for (var i = 0; i < workerCount; i++) {
+            workers.add(new FakeWorker(i, socketDir.resolve("worker-" + i + ".socket")));
+        }
+        return new ShardRouter(workers, accountShards, receiveOnStart);
+    }
+
+    private static ObjectNode accountParams(final String account) {
+        return JsonNodeFactory.instance.objectNode().put("account", account);
+    }
+
+    private record Request(String method, ContainerNode<?> params) {}
+
+    /**
+     * Answers the requests of the router on a socket, like a worker daemon.
+     */
+    private static final class FakeWorker implements ShardRouter.Worker {
+
+        static final int SUBSCRIPTION_ID = 42;
+        static final String ACI = "7a8f2a7e-1c3d-4b5e-9f60-0a1b2c3d4e5f";
+
+        private final int index;
+        private final UnixDomainSocketAddress address;
+        private final ServerSocketChannel serverChannel;
+        private final List<SocketChannel> connections = new CopyOnWriteArrayList<>();
+        private final List<JsonRpcSender> senders = new CopyOnWriteArrayList<>();
+        private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+        FakeWorker(final int index, final Path socketPath) throws IOException {
+            this.index = index;
+            this.address = UnixDomainSocketAddress.of(socketPath);
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            serverChannel.bind(address);
+            Thread.ofVirtual().start(this::acceptConnections);
+        }
+
+        @Override
+        public SocketChannel connect() throws IOException {
+            final var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(address);
+            return channel;
+        }
+
+        private void acceptConnections() {
+            try {
+                while (true) {
+                    final var channel = serverChannel.accept();
+                    connections.add(channel);
+                    Thread.ofVirtual().start(() -> handleConnection(channel));
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void handleConnection(final SocketChannel channel) {
+            final var writer = new AsyncJsonWriter(channel,
+                    1024 * 1024,
+                    AsyncJsonWriter.OverflowPolicy.DISCONNECT);
+            final var sender = new JsonRpcSender(writer);
+            senders.add(sender);
+            new JsonRpcReader(sender, channel, 1024 * 1024).readMessages(this::handleRequest, _ -> {});
+            writer.close();
+        }
+
+        private JsonNode handleRequest(
+                final String method,
+                final ContainerNode<?> params,
+                final ValueNode id
+        ) throws JsonRpcException {
+            requests.add(new Request(method, params));
+            if (params instanceof ObjectNode p && p.has("fail")) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(-1, "failed", null));
+            }
+            return switch (method) {
+                case "listAccounts" -> JsonNodeFactory.instance.arrayNode()
+                        .add(JsonNodeFactory.instance.objectNode().put("number", "worker" + index));
+                case "subscribeReceive" -> IntNode.valueOf(SUBSCRIPTION_ID);
+                case "verify" -> JsonNodeFactory.instance.objectNode().put("uuid", ACI);
+                default -> TextNode.valueOf("worker" + index);
+            };
+        }
+
+        void sendNotification(final String method, final ObjectNode params) {
+            senders.forEach(sender -> sender.sendRequest(JsonRpcRequest.forNotification(method, params, null)));
+        }
+
+        Request nextRequest() throws InterruptedException {
+            final var request = requests.poll(5, TimeUnit.SECONDS);
+            assertNotNull(request, "worker didn't receive a request");
+            return request;
+        }
+
+        List<String> takeMethods() {
+            final var taken = new ArrayList<Request>();
+            requests.drainTo(taken);
+            return taken.stream().map(Request::method).toList();
+        }
+
+        void close() {
+            try {
+                serverChannel.close();
+                for (final var connection : connections) {
+                    connection.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A client connection to the router, its input is written to a pipe.
+     */
+    private static final class Client {
+
+        private final Pipe input = Pipe.open();
+        private final BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+        private final Thread thread;
+
+        Client(final ShardRouter router) throws IOException {
+            this.thread = Thread.ofVirtual()
+                    .start(() -> router.handleConnection(messages::add,
+                            input.source(),
+                            1024 * 1024,
+                            MessageEncoding.JSON));
+        }
+
+        void send(final String message) throws IOException {
+            input.sink().write(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        Object nextMessage() throws InterruptedException {
+            final var message = messages.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message, "client didn't receive a message");
+            return message;
+        }
+
+        void close() throws Exception {
+            input.sink().close();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.asamk.signal.output.AsyncJsonWriter;
+import org.asamk.signal.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SocketEventLoopTest {
+
+    @TempDir
+    Path socketDir;
+
+    private final CountDownLatch feedClosed = new CountDownLatch(1);
+    private final CountDownLatch connectionClosed = new CountDownLatch(1);
+    private SocketEventLoop eventLoop;
+    private ServerSocketChannel serverChannel;
+    private SocketChannel client;
+    private SocketChannel channel;
+
+    @BeforeEach
+    void connect() throws IOException {
+        eventLoop = new SocketEventLoop("test-event-loop");
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socketDir.resolve("test.socket")));
+        client = SocketChannel.open(StandardProtocolFamily.UNIX);
+        client.connect(serverChannel.getLocalAddress());
+        channel = serverChannel.accept();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+        channel.close();
+        serverChannel.close();
+        eventLoop.close();
+    }
+
+    @Test
+    void handlesRequestsOfTheConnection() throws Exception {
+        final var connection = eventLoop.createConnection(channel);
+        final var writer = createWriter(connection, 1024 * 1024);
+        connection.start(createFeed(writer), writer, connectionClosed::countDown);
+
+        final var request = "{\"jsonrpc\":\"2.0\",\"method\":\"echo\",\"id\":1}\n";
+        client.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(readLine().contains("\"result\":\"echo\""));
+        connection.close();
+        assertTrue(feedClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(connectionClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void handlesInputLargerThanTheReadBuffer() throws Exception {
+        final var connection = eventLoop.createConnection(channel);
+        final var writer = createWriter(connection, 1024 * 1024);
+        connection.start(createFeed(writer), writer, connectionClosed::countDown);
+
+        final var data = "x".repeat(200 * 1024);
+        final var requests = "{\"jsonrpc\":\"2.0\",\"method\":\"large\",\"params\":{\"data\":\""
+                + data
+                + "\"},\"id\":1}\n"
+                + "{\"jsonrpc\":\"2.0\",\"method\":\"echo\",\"id\":2}\n";
+        final var input = ByteBuffer.wrap(requests.getBytes(StandardCharsets.UTF_8));
+        while (input.hasRemaining()) {
+            client.write(input);
+        }
+
+        final var first = readLine();
+        final var second = readLine();
+        assertTrue(first.contains("\"result\":\"large\"") || second.contains("\"result\":\"large\""));
+        assertTrue(first.contains("\"result\":\"echo\"") || second.contains("\"result\":\"echo\""));
+
+        client.shutdownOutput();
+        assertTrue(feedClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(connectionClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void writesOutputQueuedBeforeStart() throws Exception {
+        final var connection = eventLoop.createConnection(channel);
+        final var writer = createWriter(connection, 1024 * 1024);
+        writer.write(JsonRpcRequest.forNotification("queued", null, null));
+
+        connection.start(createFeed(writer), writer, connectionClosed::countDown);
+
+        assertTrue(readLine().contains("\"method\":\"queued\""));
+        connection.close();
+    }
+
+    @Test
+    void closesConnectionThatWasDisconnectedBeforeStart() throws Exception {
+        final var connection = eventLoop.createConnection(channel);
+        final var writer = createWriter(connection, 1024 * 1024);
+        connection.disconnect();
+
+        connection.start(createFeed(writer), writer, connectionClosed::countDown);
+
+        assertTrue(feedClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(connectionClosed.await(5, TimeUnit.SECONDS));
+        assertEquals("", readLine());
+    }
+
+    @Test
+    void closesConnectionOfClientThatDoesntReadItsOutput() throws Exception {
+        final var connection = eventLoop.createConnection(channel);
+        final var writer = createWriter(connection, 64 * 1024);
+        connection.start(createFeed(writer), writer, connectionClosed::countDown);
+
+        final var params = JsonNodeFactory.instance.objectNode().put("data", "x".repeat(16 * 1024));
+        assertThrows(AssertionError.class, () -> {
+            // Fills the socket buffers first, then the queue of the writer
+            for (var i = 0; i < 10_000; i++) {
+                writer.write(JsonRpcRequest.forNotification("large", params, null));
+            }
+        });
+
+        assertTrue(feedClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(connectionClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    private AsyncJsonWriter createWriter(final SocketEventLoop.Connection connection, final long maxQueuedBytes) {
+        return new AsyncJsonWriter(channel,
+                maxQueuedBytes,
+                AsyncJsonWriter.OverflowPolicy.DISCONNECT,
+                Util.createJsonObjectMapper(),
+                AsyncJsonWriter.Framing.LINE_SEPARATED,
+                connection::requestWrite);
+    }
+
+    private JsonRpcReader.InputFeed createFeed(final AsyncJsonWriter writer) {
+        final var reader = new JsonRpcReader(new JsonRpcSender(writer), channel, 1024 * 1024);
+        return reader.createInputFeed((method, _, _) -> TextNode.valueOf(method), _ -> {}, feedClosed::countDown);
+    }
+
+    /**
+     * @return the next line written to the client, or the remaining output once the connection has been closed
+     */
+    private String readLine() {
+        return assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            final var line = new ByteArrayOutputStream();
+            final var buffer = ByteBuffer.allocate(1);
+            while (client.read(buffer.clear()) > 0) {
+                if (buffer.get(0) == '\n') {
+                    break;
+                }
+                line.write(buffer.get(0));
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        });
+    }
+}
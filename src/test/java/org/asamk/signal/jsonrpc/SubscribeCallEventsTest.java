@@ -12,9 +12,14 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -68,6 +73,8 @@ class SubscribeCallEventsTest {
 
         final List<Manager> managers;
         final List<Consumer<Manager>> addedHandlers = new ArrayList<>();
+        final List<Consumer<Manager>> removedHandlers = new ArrayList<>();
+        final Map<Manager, Integer> retained = new ConcurrentHashMap<>();
 
         StubMultiAccountManager(List<Manager> managers) {
             this.managers = new ArrayList<>(managers);
@@ -90,6 +97,37 @@ class SubscribeCallEventsTest {
 
         @Override
         public void addOnManagerRemovedHandler(Consumer<Manager> handler) {
+            removedHandlers.add(handler);
+        }
+
+        @Override
+        public void removeOnManagerAddedHandler(Consumer<Manager> handler) {
+            addedHandlers.remove(handler);
+        }
+
+        @Override
+        public void removeOnManagerRemovedHandler(Consumer<Manager> handler) {
+            removedHandlers.remove(handler);
+        }
+
+        @Override
+        public void retain(Manager m) {
+            retained.merge(m, 1, Integer::sum);
+        }
+
+        @Override
+        public void release(Manager m) {
+            retained.merge(m, -1, Integer::sum);
+        }
+
+        void addManager(Manager m) {
+            managers.add(m);
+            List.copyOf(addedHandlers).forEach(handler -> handler.accept(m));
+        }
+
+        void removeManager(Manager m) {
+            managers.remove(m);
+            List.copyOf(removedHandlers).forEach(handler -> handler.accept(m));
         }
 
         @Override
@@ -227,8 +265,50 @@ class SubscribeCallEventsTest {
 
         assertEquals(1, manager1.state().addCallEventListenerCount.get(), "manager1 should have one listener");
         assertEquals(1, manager2.state().addCallEventListenerCount.get(), "manager2 should have one listener");
-        // Also registers an onManagerAdded handler for receive and one for call events
-        assertEquals(2, multi.addedHandlers.size(), "should register onManagerAdded handlers");
+        // The manager handlers are removed again when the connection is closed
+        assertEquals(0, multi.addedHandlers.size(), "should remove onManagerAdded handlers");
+        assertEquals(0, multi.removedHandlers.size(), "should remove onManagerRemoved handlers");
+    }
+
+    @Test
+    void multiAccountCallEventsFollowRemovedAndAddedManagers() {
+        var manager1 = createManager("+15551111111");
+        var manager2 = createManager("+15552222222");
+        var multi = new StubMultiAccountManager(List.of(manager1.manager()));
+
+        var subscribed = new CountDownLatch(1);
+        JsonWriter writer = object -> subscribed.countDown();
+        var step = new AtomicInteger();
+        Supplier<String> lineSupplier = () -> switch (step.getAndIncrement()) {
+            case 0 -> jsonRpcCall(1, "subscribeCallEvents");
+            case 1 -> {
+                awaitUninterruptibly(subscribed);
+                // The account is evicted and activated again while the connection is subscribed
+                multi.addManager(manager2.manager());
+                multi.removeManager(manager2.manager());
+                multi.addManager(manager2.manager());
+                yield null;
+            }
+            default -> null;
+        };
+
+        var handler = new SignalJsonRpcDispatcherHandler(writer, lineSupplier, true);
+        handler.handleConnection(multi);
+
+        assertEquals(2, manager2.state().addCallEventListenerCount.get(), "re-added manager is subscribed once");
+        assertEquals(2, manager2.state().removeCallEventListenerCount.get());
+        assertEquals(0, manager2.state().callEventListeners.size());
+        assertEquals(0, manager1.state().callEventListeners.size());
+        assertEquals(0, multi.retained.get(manager1.manager()), "subscription should release the manager");
+        assertEquals(0, multi.retained.get(manager2.manager()), "subscription should release the manager");
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
     }
 
     @Test
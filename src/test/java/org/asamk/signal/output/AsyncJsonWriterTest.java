@@ -0,0 +1,64 @@
+package org.asamk.signal.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncJsonWriterTest {
+
+    @Test
+    void writesMessagesInOrder() throws IOException {
+        final var pipe = Pipe.open();
+        try (final var writer = new AsyncJsonWriter(pipe.sink(),
+                1024 * 1024,
+                AsyncJsonWriter.OverflowPolicy.DISCONNECT)) {
+            for (var i = 0; i < 100; i++) {
+                writer.write(Map.of("i", i));
+            }
+        }
+        pipe.sink().close();
+
+        final var lines = new String(Channels.newInputStream(pipe.source()).readAllBytes(),
+                StandardCharsets.UTF_8).lines().toList();
+        assertEquals(100, lines.size());
+        assertEquals("{\"i\":0}", lines.getFirst());
+        assertEquals("{\"i\":99}", lines.getLast());
+    }
+
+    @Test
+    void disconnectsSlowClient() throws IOException {
+        final var pipe = Pipe.open();
+        final var largeMessage = Map.of("message", "x".repeat(1024 * 1024));
+        try (final var writer = new AsyncJsonWriter(pipe.sink(), 1024, AsyncJsonWriter.OverflowPolicy.DISCONNECT)) {
+            // The pipe is never read, so the first message stays queued
+            writer.write(largeMessage);
+
+            final var e = assertThrows(AssertionError.class, () -> writer.write(largeMessage));
+            assertInstanceOf(ClosedChannelException.class, e.getCause());
+        }
+        pipe.source().close();
+    }
+
+    @Test
+    void dropsMessagesForSlowClient() throws IOException {
+        final var pipe = Pipe.open();
+        final var largeMessage = Map.of("message", "x".repeat(1024 * 1024));
+        try (final var writer = new AsyncJsonWriter(pipe.sink(), 1024, AsyncJsonWriter.OverflowPolicy.DROP)) {
+            writer.write(largeMessage);
+
+            assertDoesNotThrow(() -> writer.write(largeMessage));
+            pipe.sink().close();
+        }
+        pipe.source().close();
+    }
+}